@@ -0,0 +1,353 @@
+package accumulograph;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.accumulo.core.client.AccumuloException;
+import org.apache.hadoop.io.Text;
+
+import accumulograph.Const.ElementType;
+
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Features;
+import com.tinkerpop.blueprints.Graph;
+import com.tinkerpop.blueprints.GraphQuery;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.VertexQuery;
+
+/**
+ * Loads elements into a graph in bulk, like Blueprints' BatchGraph,
+ * e.g. for incremental loads that get or create vertices by id.
+ *
+ * Changes are written with large writer batches, which are only
+ * flushed by {@link #flush} and {@link #shutdown}.  The rows of the
+ * vertices seen so far, created or found, are kept in a compact set,
+ * so getting a vertex seen before needs no scan.  Elements created
+ * here are known to have no properties, so setting indexed
+ * properties on them needs no scan for their old values either.
+ * When loading into an empty graph, see
+ * {@link #setLoadingFromScratch}, no vertex is looked up at all.
+ *
+ * Supplied ids are kept, so rows seen are all that is remembered,
+ * not a map of ids.  Reads that are not by vertex id flush first,
+ * and are made on the wrapped graph.  The rows changed since the
+ * last flush are remembered too, and reading the properties or
+ * edges of a vertex returned here flushes first if its row is
+ * among them, unless the values are already known.  Elements
+ * cannot be removed.  Not thread safe.
+ */
+public class AccumuloBatchGraph implements Graph {
+
+	protected AccumuloGraph graph;
+	protected AccumuloGraph loader;
+
+	private final CompactIdSet seen = new CompactIdSet();
+	// Rows changed since the last flush.
+	private final Set<Text> changed = new HashSet<Text>();
+	private boolean loadingFromScratch = false;
+
+	/**
+	 * Load into a graph.
+	 * @param graph The graph
+	 * @throws AccumuloException
+	 */
+	public AccumuloBatchGraph(AccumuloGraph graph) throws AccumuloException {
+		this.graph = graph;
+
+		// A graph over the same tables, writing in bulk, and sharing
+		// the index lookup cache, so that the graph sees the changes.
+		AccumuloGraphOptions opts = graph.opts.copy();
+		opts.setAutoflush(false);
+		opts.setTransactional(false);
+		if (graph.getIndexLookupCache() != null) {
+			opts.setIndexLookupCache(graph.getIndexLookupCache());
+		}
+		loader = new AccumuloGraph(opts, true);
+	}
+
+	public boolean isLoadingFromScratch() {
+		return loadingFromScratch;
+	}
+
+	/**
+	 * If true, the graph had no vertices when loading started, so
+	 * vertices not created here do not exist, and are not looked up.
+	 * @param loadingFromScratch
+	 */
+	public void setLoadingFromScratch(boolean loadingFromScratch) {
+		this.loadingFromScratch = loadingFromScratch;
+	}
+
+	/**
+	 * The wrapped graph.
+	 * @return
+	 */
+	public AccumuloGraph getBaseGraph() {
+		return graph;
+	}
+
+	@Override
+	public Features getFeatures() {
+		Features features = loader.getFeatures().copyFeatures();
+		features.isWrapper = true;
+		features.supportsTransactions = false;
+		return features;
+	}
+
+	@Override
+	public Vertex getVertex(Object id) {
+		if (id == null) {
+			throw new IllegalArgumentException("Id cannot be null");
+		}
+
+		Text row = rowOf(id);
+		if (seen.contains(row)) {
+			return new LoadedVertex(id);
+		}
+		else if (loadingFromScratch || loader.getVertex(id) == null) {
+			return null;
+		}
+
+		seen.add(row);
+		return new LoadedVertex(id);
+	}
+
+	/**
+	 * Add a vertex, which must not exist yet.
+	 * @param id Id of the vertex, or null to generate one
+	 * @return
+	 */
+	@Override
+	public Vertex addVertex(Object id) {
+		if (id != null && seen.contains(rowOf(id))) {
+			throw new IllegalArgumentException("Vertex already exists: " + id);
+		}
+		return create(id);
+	}
+
+	/**
+	 * Get a vertex, adding it if it does not exist.
+	 * @param id Id of the vertex
+	 * @return
+	 */
+	public Vertex getOrAddVertex(Object id) {
+		Vertex vertex = getVertex(id);
+		return vertex != null ? vertex : create(id);
+	}
+
+	/**
+	 * Get many vertices, adding those that do not exist.  Vertices
+	 * not seen before are looked up together with one batch scan.
+	 * @param ids Ids of the vertices
+	 * @return The vertices, in the order of their ids
+	 */
+	public List<Vertex> getOrAddVertices(Collection<?> ids) {
+		Set<Text> unseen = new LinkedHashSet<Text>();
+		for (Object id : ids) {
+			if (id == null) {
+				throw new IllegalArgumentException("Id cannot be null");
+			}
+			Text row = rowOf(id);
+			if (!seen.contains(row)) {
+				unseen.add(row);
+			}
+		}
+
+		if (!loadingFromScratch) {
+			Map<Text, AccumuloVertex> found = loader.batchLookup.vertices(unseen);
+			for (Text row : found.keySet()) {
+				seen.add(row);
+			}
+		}
+
+		List<Vertex> vertices = new ArrayList<Vertex>(ids.size());
+		for (Object id : ids) {
+			Text row = rowOf(id);
+			if (seen.contains(row)) {
+				vertices.add(new LoadedVertex(id));
+			}
+			else {
+				vertices.add(create(id));
+			}
+		}
+		return vertices;
+	}
+
+	private AccumuloVertex create(Object id) {
+		AccumuloVertex vertex = new LoadedVertex(id);
+		vertex.preloadNone();
+		vertex = loader.writeVertex(vertex);
+		seen.add(vertex.idRow);
+		changed.add(vertex.idRow);
+		return vertex;
+	}
+
+	private static Text rowOf(Object id) {
+		return AccumuloIdManager.toText(new AccumuloElementId(id), ElementType.VERTEX);
+	}
+
+	@Override
+	public Edge addEdge(Object id, Vertex outVertex, Vertex inVertex, String label) {
+		if (label == null) {
+			throw new IllegalArgumentException("Cannot add edge with null label");
+		}
+
+		AccumuloEdge edge = new AccumuloEdge(loader, id,
+				(AccumuloVertex) outVertex, (AccumuloVertex) inVertex, label);
+		edge.preloadNone();
+		edge = loader.writeEdge(edge);
+		changed.add(((AccumuloVertex) outVertex).idRow);
+		changed.add(((AccumuloVertex) inVertex).idRow);
+		return edge;
+	}
+
+	@Override
+	public Edge getEdge(Object id) {
+		flush();
+		return graph.getEdge(id);
+	}
+
+	@Override
+	public void removeVertex(Vertex vertex) {
+		throw new UnsupportedOperationException("Elements cannot be removed while loading");
+	}
+
+	@Override
+	public void removeEdge(Edge edge) {
+		throw new UnsupportedOperationException("Elements cannot be removed while loading");
+	}
+
+	@Override
+	public Iterable<Vertex> getVertices() {
+		flush();
+		return graph.getVertices();
+	}
+
+	@Override
+	public Iterable<Vertex> getVertices(String key, Object value) {
+		flush();
+		return graph.getVertices(key, value);
+	}
+
+	@Override
+	public Iterable<Edge> getEdges() {
+		flush();
+		return graph.getEdges();
+	}
+
+	@Override
+	public Iterable<Edge> getEdges(String key, Object value) {
+		flush();
+		return graph.getEdges(key, value);
+	}
+
+	@Override
+	public GraphQuery query() {
+		flush();
+		return graph.query();
+	}
+
+	/**
+	 * Write the changes made so far, including index entries.
+	 */
+	public void flush() {
+		loader.commit();
+		changed.clear();
+	}
+
+	/**
+	 * Write the changes and close the writers.
+	 * The wrapped graph is left open.
+	 */
+	@Override
+	public void shutdown() {
+		loader.shutdown();
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName().toLowerCase() + "[" + graph + "]";
+	}
+
+	/**
+	 * A vertex of the loader, whose reads flush first if it
+	 * has changes not yet written, and whose changes are
+	 * remembered until then.
+	 */
+	private class LoadedVertex extends AccumuloVertex {
+
+		public LoadedVertex(Object id) {
+			super(loader, id);
+		}
+
+		private void beforeRead() {
+			if (changed.contains(idRow)) {
+				flush();
+			}
+		}
+
+		@Override
+		public <T> T getProperty(String key) {
+			if (preloaded == null || !(preloadedAll || preloaded.containsKey(key))) {
+				beforeRead();
+			}
+			return super.<T>getProperty(key);
+		}
+
+		@Override
+		public Set<String> getPropertyKeys() {
+			if (!preloadedAll) {
+				beforeRead();
+			}
+			return super.getPropertyKeys();
+		}
+
+		@Override
+		public void setProperty(String key, Object value) {
+			super.setProperty(key, value);
+			changed.add(idRow);
+		}
+
+		@Override
+		public <T> T removeProperty(String key) {
+			T old = super.<T>removeProperty(key);
+			changed.add(idRow);
+			return old;
+		}
+
+		@Override
+		public Iterable<Edge> getEdges(Direction direction, String... labels) {
+			beforeRead();
+			return super.getEdges(direction, labels);
+		}
+
+		@Override
+		public Iterable<Vertex> getVertices(Direction direction, String... labels) {
+			beforeRead();
+			return super.getVertices(direction, labels);
+		}
+
+		@Override
+		public VertexQuery query() {
+			beforeRead();
+			return super.query();
+		}
+
+		@Override
+		public Edge addEdge(String label, Vertex inVertex) {
+			return AccumuloBatchGraph.this.addEdge(null, this, inVertex, label);
+		}
+
+		@Override
+		public void remove() {
+			removeVertex(this);
+		}
+	}
+
+}
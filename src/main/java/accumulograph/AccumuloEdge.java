@@ -1,7 +1,9 @@
 package accumulograph;
 
+import java.util.Iterator;
 import java.util.Map;
 
+import org.apache.accumulo.core.client.Scanner;
 import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.Range;
 import org.apache.accumulo.core.data.Value;
@@ -24,35 +26,32 @@ public class AccumuloEdge extends AccumuloElement implements Edge {
 	protected String label;
 
 	public AccumuloEdge(AccumuloGraph parent, Object id) {
+		this(parent, id, parent.scanner);
+	}
+
+	/**
+	 * Read an edge with a given scanner, rather than the
+	 * shared one, so that this can be done in another thread.
+	 * @param parent The graph
+	 * @param id The edge id
+	 * @param scanner Scanner over the graph table
+	 */
+	protected AccumuloEdge(AccumuloGraph parent, Object id, Scanner scanner) {
 		super(parent, ElementType.EDGE, id);
 
-		Text cf = new Text();
-		Text cq = new Text();
-
-		parent.scanner.setRange(new Range(idRow));
-		parent.scanner.fetchColumnFamily(Const.EDGE_SIGNAL);
-		parent.scanner.fetchColumnFamily(Const.EDGE_OUT_VERTEX);
-		parent.scanner.fetchColumnFamily(Const.EDGE_IN_VERTEX);
-
-		for (Map.Entry<Key, Value> entry : parent.scanner) {
-			entry.getKey().getColumnFamily(cf);
-			entry.getKey().getColumnQualifier(cq);
-
-			if (cf.equals(Const.EDGE_SIGNAL)) {
-				label = cq.toString();
-			}
-			else if (cf.equals(Const.EDGE_OUT_VERTEX)) {
-				out = new AccumuloVertex(parent, AccumuloIdManager.fromText(cq));
-			}
-			else if (cf.equals(Const.EDGE_IN_VERTEX)) {
-				in = new AccumuloVertex(parent, AccumuloIdManager.fromText(cq));
-			}
-			else {
-				throw new RuntimeException("Unexpected CF: "+cf);
-			}
+		Range range = new Range(idRow);
+		scanner.setRange(range);
+		scanner.fetchColumnFamily(Const.EDGE_SIGNAL);
+		scanner.fetchColumnFamily(Const.EDGE_OUT_VERTEX);
+		scanner.fetchColumnFamily(Const.EDGE_IN_VERTEX);
+
+		Iterator<Map.Entry<Key, Value>> i = parent.overlay(scanner.iterator(), range, null,
+				Const.EDGE_SIGNAL, Const.EDGE_OUT_VERTEX, Const.EDGE_IN_VERTEX);
+		while (i.hasNext()) {
+			readEntry(i.next().getKey());
 		}
 
-		parent.scanner.clearColumns();
+		scanner.clearColumns();
 	}
 
 	public AccumuloEdge(AccumuloGraph parent, Object id,
@@ -64,6 +63,31 @@ public class AccumuloEdge extends AccumuloElement implements Edge {
 		this.label = label;
 	}
 
+	/**
+	 * Fill in the label or one of the endpoints from an
+	 * entry of this edge's row.  This lets callers that have
+	 * already scanned the row build the edge without
+	 * another round trip.
+	 * @param key Key of the entry
+	 */
+	protected void readEntry(Key key) {
+		Text cf = key.getColumnFamily();
+		Text cq = key.getColumnQualifier();
+
+		if (cf.equals(Const.EDGE_SIGNAL)) {
+			label = cq.toString();
+		}
+		else if (cf.equals(Const.EDGE_OUT_VERTEX)) {
+			out = new AccumuloVertex(parent, AccumuloIdManager.fromText(cq));
+		}
+		else if (cf.equals(Const.EDGE_IN_VERTEX)) {
+			in = new AccumuloVertex(parent, AccumuloIdManager.fromText(cq));
+		}
+		else {
+			throw new RuntimeException("Unexpected CF: "+cf);
+		}
+	}
+
 	@Override
 	public void setProperty(String key, Object value) {
 		if ("label".equals(key)) {
@@ -73,6 +97,16 @@ public class AccumuloEdge extends AccumuloElement implements Edge {
 		super.setProperty(key, value);
 	}
 
+	@Override
+	protected boolean needsOldValue(String key) {
+		return parent.sortedEdges.isSorted(key) || super.needsOldValue(key);
+	}
+
+	@Override
+	protected void propertyChanged(String key, Object oldValue, Object value) {
+		parent.sortedEdges.update(this, key, oldValue, value);
+	}
+
 	@Override
 	public Vertex getVertex(Direction direction)
 			throws IllegalArgumentException {
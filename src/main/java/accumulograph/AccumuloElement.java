@@ -1,6 +1,8 @@
 package accumulograph;
 
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import org.apache.accumulo.core.data.Key;
@@ -24,6 +26,12 @@ public abstract class AccumuloElement implements Element {
 	protected AccumuloElementId id;
 	protected Text idRow;
 	protected ElementType type;
+	// Property values read along with the element, e.g. from
+	// a covering index entry.  A null value means not set.
+	protected Map<String, Object> preloaded;
+	// Whether preloaded has every property, so that keys
+	// not in it are not set, e.g. for an element just created.
+	protected boolean preloadedAll = false;
 
 	protected AccumuloElement(AccumuloGraph parent, ElementType type, Object id) {
 		this.parent = parent;
@@ -32,11 +40,42 @@ public abstract class AccumuloElement implements Element {
 		this.idRow = AccumuloIdManager.toText(this);
 	}
 
+	/**
+	 * Remember property values read along with the element,
+	 * so that getting them needs no scan.
+	 * @param properties The values, with null for keys not set
+	 */
+	protected void preload(Map<String, Object> properties) {
+		if (preloaded == null) {
+			preloaded = new HashMap<String, Object>();
+		}
+		preloaded.putAll(properties);
+	}
+
+	/**
+	 * Mark the element as just created, with no properties, so
+	 * that getting them needs no scan while it is changed through
+	 * this object only.
+	 */
+	protected void preloadNone() {
+		preloaded = new HashMap<String, Object>();
+		preloadedAll = true;
+	}
+
 	@Override
+	@SuppressWarnings("unchecked")
 	public <T> T getProperty(String key) {
-		parent.scanner.setRange(new Range(idRow));
-		parent.scanner.fetchColumn(Const.PROPERTY_SIGNAL, Utils.stringToText(key));
-		Map.Entry<Key, Value> entry = Utils.firstEntry(parent.scanner);
+		if (preloaded != null && (preloadedAll || preloaded.containsKey(key))) {
+			return (T) preloaded.get(key);
+		}
+
+		Range range = new Range(idRow);
+		Text keyText = Utils.stringToText(key);
+		parent.scanner.setRange(range);
+		parent.scanner.fetchColumn(Const.PROPERTY_SIGNAL, keyText);
+		Iterator<Map.Entry<Key, Value>> i = parent.overlay(parent.scanner.iterator(),
+				range, keyText, Const.PROPERTY_SIGNAL);
+		Map.Entry<Key, Value> entry = i.hasNext() ? i.next() : null;
 		parent.scanner.clearColumns();
 		return entry != null ? Utils.<T>valueToObject(entry.getValue()) : null;
 	}
@@ -45,11 +84,23 @@ public abstract class AccumuloElement implements Element {
 	public Set<String> getPropertyKeys() {
 		Set<String> keys = new HashSet<String>();
 
-		parent.scanner.setRange(new Range(idRow));
+		if (preloadedAll) {
+			for (Map.Entry<String, Object> entry : preloaded.entrySet()) {
+				if (entry.getValue() != null) {
+					keys.add(entry.getKey());
+				}
+			}
+			return keys;
+		}
+
+		Range range = new Range(idRow);
+		parent.scanner.setRange(range);
 		parent.scanner.fetchColumnFamily(Const.PROPERTY_SIGNAL);
 
-		for (Map.Entry<Key, Value> entry : parent.scanner) {
-			keys.add(Utils.textToString(entry.getKey().getColumnQualifier()));
+		Iterator<Map.Entry<Key, Value>> i = parent.overlay(parent.scanner.iterator(),
+				range, null, Const.PROPERTY_SIGNAL);
+		while (i.hasNext()) {
+			keys.add(Utils.textToString(i.next().getKey().getColumnQualifier()));
 		}
 
 		parent.scanner.clearColumns();
@@ -72,8 +123,9 @@ public abstract class AccumuloElement implements Element {
 			throw new IllegalArgumentException("Value cannot be null.");
 		}
 
+		// Only read the old value if something needs it.
+		Object oldValue = needsOldValue(key) ? getProperty(key) : null;
 		if (parent.keyIndex != null) {
-			Object oldValue = getProperty(key);
 			parent.keyIndex.removePropertyFromIndex(this, key, oldValue);
 		}
 
@@ -82,31 +134,62 @@ public abstract class AccumuloElement implements Element {
 				Utils.objectToValue(value));
 		Utils.addMutation(parent.writer, m);
 
+		if (preloaded != null) {
+			preloaded.put(key, value);
+		}
+
 		if (parent.keyIndex != null) {
 			parent.keyIndex.addPropertyToIndex(this, key, value);
 		}
+
+		propertyChanged(key, oldValue, value);
 	}
 
 	@Override
 	public <T> T removeProperty(String key) {
 		T old = null;
 
-		if (parent.keyIndex != null) {
+		if (needsOldValue(key) || parent.opts.getReturnRemovedPropertyValues()) {
 			old = getProperty(key);
-			parent.keyIndex.removePropertyFromIndex(this, key, old);
 		}
 
-		if (old == null && parent.opts.getReturnRemovedPropertyValues()) {
-			old = getProperty(key);
+		if (parent.keyIndex != null) {
+			parent.keyIndex.removePropertyFromIndex(this, key, old);
 		}
 
 		Mutation m = new Mutation(idRow);
 		m.putDelete(Const.PROPERTY_SIGNAL, Utils.stringToText(key));
 		Utils.addMutation(parent.writer, m);
 
+		if (preloaded != null) {
+			preloaded.put(key, null);
+		}
+
+		if (parent.keyIndex != null) {
+			parent.keyIndex.updateCoveringIndexes(this, key, null);
+		}
+
+		propertyChanged(key, old, null);
 		return old;
 	}
 
+	/**
+	 * Whether setting or removing a key needs its old value,
+	 * e.g. to remove its old index entry.
+	 */
+	protected boolean needsOldValue(String key) {
+		return parent.keyIndex != null && parent.keyIndex.needsOldValue(this, key);
+	}
+
+	/**
+	 * Called after a property is set or removed.
+	 * @param key The key
+	 * @param oldValue The old value, if {@link #needsOldValue} is true
+	 * @param value The new value, or null if removed
+	 */
+	protected void propertyChanged(String key, Object oldValue, Object value) {
+	}
+
 	@Override
 	public AccumuloElementId getId() {
 		return id;
@@ -32,7 +32,7 @@ public class AccumuloFeatures extends Features {
 		supportsSerializableObjectProperty = true;
 		supportsStringProperty = true;
 		supportsThreadedTransactions = false;
-		supportsTransactions = false;
+		supportsTransactions = false; // Unless the transactional option is set
 		supportsUniformListProperty = true;
 		supportsVertexIndex = false; // TODO
 		supportsVertexIteration = true;
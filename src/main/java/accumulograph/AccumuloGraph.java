@@ -1,9 +1,21 @@
 package accumulograph;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.accumulo.core.Constants;
 import org.apache.accumulo.core.client.AccumuloException;
@@ -16,6 +28,7 @@ import org.apache.accumulo.core.client.TableExistsException;
 import org.apache.accumulo.core.client.TableNotFoundException;
 import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.PartialKey;
 import org.apache.accumulo.core.data.Range;
 import org.apache.accumulo.core.data.Value;
 import org.apache.commons.configuration.Configuration;
@@ -30,8 +43,8 @@ import com.tinkerpop.blueprints.Features;
 import com.tinkerpop.blueprints.GraphQuery;
 import com.tinkerpop.blueprints.KeyIndexableGraph;
 import com.tinkerpop.blueprints.Parameter;
+import com.tinkerpop.blueprints.TransactionalGraph;
 import com.tinkerpop.blueprints.Vertex;
-import com.tinkerpop.blueprints.util.DefaultGraphQuery;
 import com.tinkerpop.blueprints.util.PropertyFilteredIterable;
 
 /**
@@ -43,16 +56,18 @@ import com.tinkerpop.blueprints.util.PropertyFilteredIterable;
 	 <tr><td>[vertex id]</td><td>MVERTEX</td><td>-</td><td>-</td><td>States this is a vertex</td></tr>
 	 <tr><td>[vertex id]</td><td>EOUT</td><td>[edge id]</td><td>[edge label]</td><td>Vertex's out-edge</td></tr>
 	 <tr><td>[vertex id]</td><td>EIN</td><td>[edge id]</td><td>[edge label]</td><td>Vertex's in-edge</td></tr>
+	 <tr><td>[vertex id]</td><td>SOUT/SIN</td><td>[key]\0[value][edge id]</td><td>[edge label][other vertex id]</td><td>Vertex's edges sorted by a key</td></tr>
 	 <tr><td>[edge id]</td><td>MEDGE</td><td>[edge label]</td><td>-</td><td>States this is an edge</td></tr>
 	 <tr><td>[edge id]</td><td>VOUT</td><td>[vertex id]</td><td>-</td><td>Edge's out-vertex</td></tr>
 	 <tr><td>[edge id]</td><td>VIN</td><td>[vertex id]</td><td>-</td><td>Edge's in-vertex</td></tr>
 	 <tr><td>[v/e id]</td><td>PROP</td><td>[property name]</td><td>[property value]</td><td>Property</td></tr>
+	 <tr><td>PSORT</td><td>[key]</td><td>-</td><td>asc/desc</td><td>Keys edges are sorted by</td></tr>
     </table>
  * 
  * @author Mike Lieberman (http://mikelieberman.org)
  *
  */
-public class AccumuloGraph implements KeyIndexableGraph {
+public class AccumuloGraph implements KeyIndexableGraph, TransactionalGraph {
 
 	protected AccumuloGraphOptions opts;
 	protected Scanner scanner;
@@ -60,6 +75,17 @@ public class AccumuloGraph implements KeyIndexableGraph {
 	protected BatchWriter writer;
 
 	protected AccumuloKeyIndex keyIndex;
+	protected BatchLookup batchLookup;
+	protected SortedEdgeIndex sortedEdges;
+	// Whether changes are written with bulk writers, never flushed.
+	protected boolean bulk;
+
+	private ExecutorService prefetchPool;
+	// Threads of background vertex removals, which shutdown waits for.
+	private ExecutorService removalPool;
+	private boolean shutDown = false;
+	// Each thread's transaction, in transactional mode.
+	private final ThreadLocal<Transaction> transactions = new ThreadLocal<Transaction>();
 
 	/**
 	 * Create a graph backed by Accumulo. This is used
@@ -89,10 +115,28 @@ public class AccumuloGraph implements KeyIndexableGraph {
 	 * @throws AccumuloException
 	 */
 	public AccumuloGraph(AccumuloGraphOptions opts) throws AccumuloException {
+		this(opts, false);
+	}
+
+	/**
+	 * Create a graph backed by Accumulo.
+	 * @param opts Graph options
+	 * @param bulk If true, write changes with bulk writers, which
+	 *   are only flushed by {@link #commit} and {@link #shutdown}.
+	 *   Autoflush and transactional mode must be off.
+	 * @throws AccumuloException
+	 */
+	protected AccumuloGraph(AccumuloGraphOptions opts, boolean bulk) throws AccumuloException {
 		validateOptions(opts);
+		if (bulk && (opts.getAutoflush() || opts.getTransactional())) {
+			throw new IllegalArgumentException("Bulk writing needs autoflush and transactions off");
+		}
 
+		this.opts = opts;
+		this.bulk = bulk;
+		Transaction tx = suspendTransaction();
 		try {
-			this.opts = opts;
+			batchLookup = new BatchLookup(this);
 
 			Utils.createTableIfNotExists(opts.getConnector(), opts.getGraphTable());
 
@@ -102,6 +146,7 @@ public class AccumuloGraph implements KeyIndexableGraph {
 			}
 
 			initScannersAndWriter();
+			sortedEdges = new SortedEdgeIndex(this);
 
 		} catch (TableNotFoundException e) {
 			throw new AccumuloException(e);
@@ -109,6 +154,8 @@ public class AccumuloGraph implements KeyIndexableGraph {
 			throw new AccumuloException(e);
 		} catch (TableExistsException e) {
 			throw new AccumuloException(e);
+		} finally {
+			resumeTransaction(tx);
 		}
 	}
 
@@ -125,17 +172,279 @@ public class AccumuloGraph implements KeyIndexableGraph {
 		batchScanner = opts.getConnector().createBatchScanner(opts.getGraphTable(),
 				Constants.NO_AUTHS, 2);
 
-		writer = opts.getConnector().createBatchWriter(opts.getGraphTable(), 1000000L, 10L, 2);
-		if (opts.getAutoflush()) {
+		if (bulk) {
+			writer = createBatchWriter();
+		}
+		else {
+			writer = opts.getConnector().createBatchWriter(opts.getGraphTable(), 1000000L, 10L, 2);
+		}
+
+		if (opts.getTransactional()) {
+			writer = new TransactionalWriter(this, writer, false, opts.getAutoflush());
+		}
+		else if (opts.getAutoflush()) {
 			writer = new FlushedBatchWriter(writer);
 		}
 	}
 
+	/**
+	 * The calling thread's transaction, which changes are added
+	 * to, or null if they are written directly: when the graph
+	 * is not transactional, or the transaction is suspended.
+	 * @return
+	 */
+	protected Transaction getTransaction() {
+		if (!opts.getTransactional()) {
+			return null;
+		}
+
+		Transaction tx = transactions.get();
+		if (tx == null) {
+			tx = new Transaction();
+			transactions.set(tx);
+		}
+		return tx.isSuspended() ? null : tx;
+	}
+
+	/**
+	 * The calling thread's transaction, if it has changes
+	 * not yet committed.
+	 * @return
+	 */
+	protected Transaction getPendingChanges() {
+		Transaction tx = opts.getTransactional() ? transactions.get() : null;
+		return tx != null && !tx.isEmpty() ? tx : null;
+	}
+
+	/**
+	 * Merge the calling thread's changes not yet committed into
+	 * a scan of the graph table, so that it sees them.
+	 * @param scanned The scan
+	 * @param range Range of the scan
+	 * @param qualifier Column qualifier of the scan, or null for all
+	 * @param families Column families of the scan, or none for all
+	 * @return
+	 */
+	protected Iterator<Map.Entry<Key, Value>> overlay(Iterator<Map.Entry<Key, Value>> scanned,
+			Range range, Text qualifier, Text... families) {
+		Transaction tx = getPendingChanges();
+		return tx != null ? tx.overlay(scanned, range, Arrays.asList(families), qualifier) : scanned;
+	}
+
+	/**
+	 * Commit the calling thread's transaction, and write changes
+	 * directly until {@link #resumeTransaction}.  This is used for
+	 * changes to the schema, such as creating an index.
+	 * @return The suspended transaction, or null if the graph
+	 * is not transactional
+	 */
+	protected Transaction suspendTransaction() {
+		if (!opts.getTransactional()) {
+			return null;
+		}
+
+		commit();
+		Transaction tx = getTransaction();
+		if (tx == null) {
+			tx = transactions.get();
+		}
+		tx.suspend();
+		return tx;
+	}
+
+	protected void resumeTransaction(Transaction tx) {
+		if (tx != null) {
+			tx.resume();
+		}
+	}
+
+	/**
+	 * Write the calling thread's changes, one mutation per row.
+	 * If the graph is not transactional, this flushes the writers.
+	 */
+	@Override
+	public void commit() {
+		if (!opts.getTransactional()) {
+			Utils.flush(writer);
+			if (keyIndex != null) {
+				keyIndex.awaitIndexed();
+			}
+			return;
+		}
+
+		Transaction tx = transactions.get();
+		if (tx == null || tx.isEmpty()) {
+			return;
+		}
+
+		// A failed commit is not retried.
+		transactions.remove();
+		BatchScanner graphScanner = null;
+		BatchScanner indexScanner = null;
+		try {
+			if (tx.rewritesRows(false)) {
+				graphScanner = createBatchScanner(Const.QUERY_THREADS);
+			}
+			if (tx.rewritesRows(true)) {
+				indexScanner = keyIndex.createIndexBatchScanner();
+			}
+			tx.write(((TransactionalWriter) writer).getWriter(), graphScanner,
+					keyIndex != null ? keyIndex.directWriter() : null, indexScanner);
+		} catch (MutationsRejectedException e) {
+			throw new RuntimeException(e);
+		} finally {
+			if (graphScanner != null) {
+				graphScanner.close();
+			}
+			if (indexScanner != null) {
+				indexScanner.close();
+			}
+		}
+	}
+
+	/**
+	 * Discard the calling thread's changes.  If the graph is not
+	 * transactional, changes are written as they are made, so
+	 * there is nothing to discard, and this does nothing.
+	 */
+	@Override
+	public void rollback() {
+		if (!opts.getTransactional()) {
+			return;
+		}
+
+		Transaction tx = transactions.get();
+		if (tx != null && !tx.isSuspended()) {
+			transactions.remove();
+		}
+	}
+
+	@Deprecated
+	public void stopTransaction(Conclusion conclusion) {
+		if (conclusion == Conclusion.SUCCESS) {
+			commit();
+		} else {
+			rollback();
+		}
+	}
+
+	/**
+	 * Create a new scanner over the graph table.  Unlike the
+	 * shared scanner, this can be used from any thread.
+	 * @return
+	 */
+	protected Scanner createScanner() {
+		try {
+			return opts.getConnector().createScanner(opts.getGraphTable(), Constants.NO_AUTHS);
+		} catch (TableNotFoundException e) {
+			throw new RuntimeException(e);
+		} catch (AccumuloException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Create a new batch scanner over the graph table.
+	 * The caller is responsible for closing it.
+	 * @param threads Number of query threads
+	 * @return
+	 */
+	protected BatchScanner createBatchScanner(int threads) {
+		try {
+			return opts.getConnector().createBatchScanner(opts.getGraphTable(),
+					Constants.NO_AUTHS, threads);
+		} catch (TableNotFoundException e) {
+			throw new RuntimeException(e);
+		} catch (AccumuloException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Create a new batch writer for the graph table, sized
+	 * for bulk work.  The caller is responsible for closing it.
+	 * @return
+	 */
+	protected BatchWriter createBatchWriter() {
+		try {
+			return opts.getConnector().createBatchWriter(opts.getGraphTable(),
+					Const.BULK_WRITER_MEMORY, Const.BULK_WRITER_LATENCY, Const.BULK_WRITER_THREADS);
+		} catch (TableNotFoundException e) {
+			throw new RuntimeException(e);
+		} catch (AccumuloException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Whether iterators over a range of element ids read ahead.
+	 * Single element lookups do not, nor threads with changes
+	 * not yet committed, which the reading threads would not see.
+	 * @param minId Minimum id, or null
+	 * @param maxId Maximum id, or null
+	 * @return
+	 */
+	protected boolean prefetching(Object minId, Object maxId) {
+		return opts.getPrefetchDepth() > 0 && (minId == null || !minId.equals(maxId))
+				&& getPendingChanges() == null;
+	}
+
+	/**
+	 * Read an iterator ahead of the caller, in the prefetch pool.
+	 * The iterator must not use the shared scanner.
+	 * @param iterator The iterator
+	 * @return
+	 */
+	protected <T> PrefetchingIterator<T> prefetch(Iterator<T> iterator) {
+		return new PrefetchingIterator<T>(iterator, opts.getPrefetchDepth(), getPrefetchPool());
+	}
+
+	protected synchronized ExecutorService getPrefetchPool() {
+		if (prefetchPool == null) {
+			prefetchPool = Executors.newFixedThreadPool(opts.getPrefetchThreads(), new ThreadFactory() {
+				private int count = 0;
+
+				@Override
+				public synchronized Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "Prefetch-" + count++);
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return prefetchPool;
+	}
+
+	/**
+	 * The pool background vertex removals run in.
+	 * @throws IllegalStateException If the graph is shut down
+	 */
+	protected synchronized ExecutorService getRemovalPool() {
+		if (shutDown) {
+			throw new IllegalStateException("Shut down");
+		}
+		if (removalPool == null) {
+			removalPool = Executors.newCachedThreadPool(new ThreadFactory() {
+				private int count = 0;
+
+				@Override
+				public synchronized Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "VertexRemoval-" + count++);
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return removalPool;
+	}
+
 	public void clear() throws AccumuloException {
+		Transaction tx = suspendTransaction();
 		try {
 			Utils.recreateTable(opts.getConnector(), opts.getGraphTable());
 
 			initScannersAndWriter();
+			sortedEdges.reload();
 
 			if (keyIndex != null) {
 				keyIndex.clear();
@@ -147,18 +456,166 @@ public class AccumuloGraph implements KeyIndexableGraph {
 			throw new AccumuloException(e);
 		} catch (TableExistsException e) {
 			throw new AccumuloException(e);
+		} finally {
+			resumeTransaction(tx);
 		}
 	}
 
 	@Override
 	public Features getFeatures() {
-		return new AccumuloFeatures();
+		Features features = new AccumuloFeatures();
+		features.supportsTransactions = opts.getTransactional();
+		return features;
+	}
+
+	/**
+	 * Split the vertices or edges of the graph into at most n
+	 * non-overlapping partitions of roughly equal size, which
+	 * together cover every element of that type.
+	 * 
+	 * Partition boundaries are taken from the tablet splits of the
+	 * graph table, since Accumulo already splits tablets by size.
+	 * If there are fewer tablets than requested partitions, the rows
+	 * of each tablet are sampled to divide it further.  Sampling reads
+	 * the signal column of up to {@link Const#PARTITION_SCAN_LIMIT}
+	 * rows per tablet; the rows of a larger tablet past those are left
+	 * in its last partition, so split large tables (e.g. with
+	 * tableOperations().addSplits) for balanced partitions without
+	 * reading any rows.
+	 * @param type Vertices or edges
+	 * @param n Number of partitions wanted
+	 * @return
+	 */
+	public List<AccumuloGraphPartition> partitions(ElementType type, int n) {
+		if (n < 1) {
+			throw new IllegalArgumentException("Number of partitions must be positive");
+		}
+
+		Text start = AccumuloIdManager.toIdPrefix(type);
+		Text end = AccumuloIdManager.afterIdPrefix(type);
+
+		// Tablet splits that fall among this type's rows.
+		List<Text> splits = new ArrayList<Text>();
+		try {
+			for (Text split : opts.getConnector().tableOperations().getSplits(opts.getGraphTable())) {
+				if (split.compareTo(start) > 0 && split.compareTo(end) < 0) {
+					splits.add(split);
+				}
+			}
+		} catch (TableNotFoundException e) {
+			throw new RuntimeException(e);
+		} catch (AccumuloException e) {
+			throw new RuntimeException(e);
+		}
+
+		int tablets = splits.size() + 1;
+		List<Text> cuts = new ArrayList<Text>();
+
+		if (tablets >= n) {
+			// Group neighboring tablets together.
+			for (int i = 1; i < n; i++) {
+				cuts.add(splits.get(i * tablets / n - 1));
+			}
+		}
+		else {
+			// Divide each tablet further using a sample of its rows.
+			List<Range> tabletRanges = toRanges(start, splits, end);
+			for (int t = 0; t < tablets; t++) {
+				int share = n / tablets + (t < n % tablets ? 1 : 0);
+				List<Text> sample = sampleRows(type, tabletRanges.get(t));
+
+				for (int i = 1; i < share && !sample.isEmpty(); i++) {
+					addCut(cuts, sample.get(i * sample.size() / share));
+				}
+
+				if (t < splits.size()) {
+					addCut(cuts, splits.get(t));
+				}
+			}
+		}
+
+		List<AccumuloGraphPartition> partitions = new ArrayList<AccumuloGraphPartition>();
+		for (Range range : toRanges(start, cuts, end)) {
+			partitions.add(new AccumuloGraphPartition(this, type, range));
+		}
+		return partitions;
+	}
+
+	private static void addCut(List<Text> cuts, Text cut) {
+		// Skip repeated rows so no range comes out empty.
+		if (cuts.isEmpty() || cut.compareTo(cuts.get(cuts.size() - 1)) > 0) {
+			cuts.add(cut);
+		}
+	}
+
+	/**
+	 * Turn sorted cut rows into ranges.  Like tablets, each range
+	 * ends with (and includes) its cut row.
+	 */
+	private static List<Range> toRanges(Text start, List<Text> cuts, Text end) {
+		List<Range> ranges = new ArrayList<Range>();
+
+		Text prev = start;
+		boolean prevInclusive = true;
+		for (Text cut : cuts) {
+			ranges.add(new Range(prev, prevInclusive, cut, true));
+			prev = cut;
+			prevInclusive = false;
+		}
+		ranges.add(new Range(prev, prevInclusive, end, false));
+
+		return ranges;
+	}
+
+	/**
+	 * Take an evenly spaced sample of element rows in a range, from
+	 * at most {@link Const#PARTITION_SCAN_LIMIT} rows.  Memory is
+	 * bounded by halving the sample whenever it fills up.
+	 */
+	private List<Text> sampleRows(ElementType type, Range range) {
+		Scanner s = createScanner();
+		s.setRange(range);
+		s.fetchColumnFamily(type == ElementType.VERTEX ? Const.VERTEX_SIGNAL : Const.EDGE_SIGNAL);
+
+		List<Text> sample = new ArrayList<Text>();
+		long count = 0;
+		long stride = 1;
+
+		for (Map.Entry<Key, Value> entry : s) {
+			if (count >= Const.PARTITION_SCAN_LIMIT) {
+				// Leave the rest of the range to the last partition.
+				break;
+			}
+			if (count++ % stride != 0) {
+				continue;
+			}
+
+			sample.add(entry.getKey().getRow());
+
+			if (sample.size() >= Const.PARTITION_SAMPLE_SIZE) {
+				List<Text> halved = new ArrayList<Text>();
+				for (int i = 0; i < sample.size(); i += 2) {
+					halved.add(sample.get(i));
+				}
+				sample = halved;
+				stride *= 2;
+			}
+		}
+
+		return sample;
 	}
 
 	@Override
 	public Vertex addVertex(Object id) {
-		AccumuloVertex vertex = new AccumuloVertex(this, id);
+		return writeVertex(new AccumuloVertex(this, id));
+	}
 
+	/**
+	 * Write a new vertex and index it.
+	 * @param vertex The vertex
+	 * @return
+	 */
+	protected AccumuloVertex writeVertex(AccumuloVertex vertex) {
 		// Add vertex.
 		Mutation m = new Mutation(AccumuloIdManager.toText(vertex));
 		m.put(Const.VERTEX_SIGNAL, Const.EMPTY_TEXT, Const.EMPTY_VALUE);
@@ -190,14 +647,53 @@ public class AccumuloGraph implements KeyIndexableGraph {
 			keyIndex.addOrRemoveFromIndex(v, false);
 		}
 
-		// Remove all edges that this vertex participates.
-		for (Edge edge : vertex.getEdges(Direction.BOTH)) {
-			removeEdge(edge);
+		// Remove all edges that this vertex participates,
+		// then the vertex.
+		VertexRemoval removal = new VertexRemoval(this, v);
+		removal.run();
+		removal.await();
+	}
+
+	/**
+	 * Remove a vertex like {@link #removeVertex}, but remove its
+	 * edges in a background thread.  The vertex's index entries are
+	 * removed before this returns.  Until the removal finishes, the
+	 * vertex and some of its edges may still be found.
+	 * {@link #shutdown} waits for removals to finish.
+	 * @param vertex The vertex
+	 * @return The removal, to follow its progress or wait for it
+	 * @throws IllegalStateException If the graph is shut down
+	 */
+	public VertexRemoval removeVertexInBackground(Vertex vertex) {
+		AccumuloVertex v = (AccumuloVertex) vertex;
+		ExecutorService pool = getRemovalPool();
+
+		// Remove from index.  This uses the shared scanner,
+		// so is not done in the background.  The background
+		// removal is not part of a transaction, so neither is this.
+		Transaction tx = suspendTransaction();
+		try {
+			if (keyIndex != null) {
+				keyIndex.addOrRemoveFromIndex(v, false);
+			}
+		} finally {
+			resumeTransaction(tx);
 		}
 
-		// Remove everything else related to vertex.
-		Utils.addMutation(writer,
-				Utils.deleteRow(AccumuloIdManager.toText(v)));
+		final VertexRemoval removal = new VertexRemoval(this, v);
+		pool.execute(new Runnable() {
+			@Override
+			public void run() {
+				Transaction tx = suspendTransaction();
+				try {
+					removal.run();
+				} finally {
+					resumeTransaction(tx);
+				}
+			}
+		});
+
+		return removal;
 	}
 
 	@Override
@@ -219,11 +715,10 @@ public class AccumuloGraph implements KeyIndexableGraph {
 		final AccumuloGraph parent = this;
 
 		return new Iterable<Vertex>() {
-			private Iterator<Map.Entry<Key, Value>> iterator;
-			private Text eltId = new Text();
 
 			@Override
 			public Iterator<Vertex> iterator() {
+				boolean prefetch = prefetching(minId, maxId);
 				Key minKey;
 				if (minId == null) {
 					minKey = new Key(AccumuloIdManager.toIdPrefix(ElementType.VERTEX));
@@ -242,12 +737,19 @@ public class AccumuloGraph implements KeyIndexableGraph {
 									Const.VERTEX_SIGNAL_AFTER);
 				}
 
-				scanner.setRange(new Range(minKey, maxKey));
-				scanner.fetchColumnFamily(Const.VERTEX_SIGNAL);
-				iterator = scanner.iterator();
-				scanner.clearColumns();
+				// Reading ahead happens in another thread,
+				// so needs a scanner of its own.
+				Scanner s = prefetch ? createScanner() : scanner;
+				Range range = new Range(minKey, maxKey);
+				s.setRange(range);
+				s.fetchColumnFamily(Const.VERTEX_SIGNAL);
+				final Iterator<Map.Entry<Key, Value>> iterator = overlay(s.iterator(),
+						range, null, Const.VERTEX_SIGNAL);
+				s.clearColumns();
 
-				return new Iterator<Vertex>() {
+				Iterator<Vertex> vertices = new Iterator<Vertex>() {
+
+					private Text eltId = new Text();
 
 					@Override
 					public boolean hasNext() {
@@ -274,6 +776,8 @@ public class AccumuloGraph implements KeyIndexableGraph {
 					}
 
 				};
+
+				return prefetch ? prefetch(vertices) : vertices;
 			}
 		};
 	}
@@ -289,6 +793,181 @@ public class AccumuloGraph implements KeyIndexableGraph {
 		}
 	}
 
+	/**
+	 * Find vertices whose value for a key starts with a prefix.
+	 * The key must be indexed with the string or token mode
+	 * parameter, which makes this one range scan per shard.
+	 * @param key The key
+	 * @param prefix The prefix
+	 * @return
+	 */
+	public Iterable<Vertex> getVerticesByPrefix(String key, String prefix) {
+		if (keyIndex == null) {
+			throw new IllegalArgumentException("No index table specified");
+		}
+		return new SubclassIterable<Vertex>(
+				keyIndex.getElementsByPrefix(key, prefix, AccumuloVertex.class));
+	}
+
+	/**
+	 * Find the vertices within a number of hops of the given start
+	 * vertices.  Each hop expands the whole frontier with batch
+	 * scans instead of visiting vertices one at a time, and visited
+	 * vertices are tracked in a {@link CompactIdSet}.
+	 * 
+	 * Reached vertices are returned once each, in order of distance,
+	 * and are streamed back as each batch of the frontier is
+	 * expanded.  The start vertices themselves are not returned.
+	 * @param startIds Ids of the start vertices
+	 * @param direction Direction of edges to follow
+	 * @param depth Maximum number of hops
+	 * @param labels Only follow edges with these labels, or all if empty
+	 * @return
+	 */
+	public Iterable<Vertex> traverse(final Collection<?> startIds, final Direction direction,
+			final int depth, final String... labels) {
+		final AccumuloGraph parent = this;
+
+		return new Iterable<Vertex>() {
+
+			@Override
+			public Iterator<Vertex> iterator() {
+				final CompactIdSet visited = new CompactIdSet();
+				final List<Text> starts = new ArrayList<Text>();
+
+				for (Object id : startIds) {
+					Text row = AccumuloIdManager.toText(new AccumuloElementId(id), ElementType.VERTEX);
+					if (visited.add(row) && depth > 0) {
+						starts.add(row);
+					}
+				}
+
+				return new Iterator<Vertex>() {
+
+					private List<Text> frontier = starts;
+					private int frontierPos = 0;
+					private List<Text> next = new ArrayList<Text>();
+					private int hop = 1;
+					private LinkedList<Text> reached = new LinkedList<Text>();
+
+					private void loadMore() {
+						while (reached.isEmpty()) {
+							if (frontierPos >= frontier.size()) {
+								if (hop >= depth || next.isEmpty()) {
+									return;
+								}
+
+								frontier = next;
+								frontierPos = 0;
+								next = new ArrayList<Text>();
+								hop++;
+							}
+
+							int end = Math.min(frontierPos + Const.BATCH_LOOKUP_SIZE, frontier.size());
+							Map<Text, List<Text>> neighbors = batchLookup.neighbors(
+									frontier.subList(frontierPos, end), direction, labels);
+							frontierPos = end;
+
+							for (List<Text> rows : neighbors.values()) {
+								for (Text row : rows) {
+									if (visited.add(row)) {
+										reached.add(row);
+										if (hop < depth) {
+											next.add(row);
+										}
+									}
+								}
+							}
+						}
+					}
+
+					@Override
+					public boolean hasNext() {
+						loadMore();
+						return !reached.isEmpty();
+					}
+
+					@Override
+					public Vertex next() {
+						loadMore();
+
+						if (reached.isEmpty()) {
+							throw new NoSuchElementException();
+						}
+
+						return new AccumuloVertex(parent, AccumuloIdManager.fromText(reached.remove()));
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+
+				};
+			}
+		};
+	}
+
+	/**
+	 * Read the adjacent edges of many vertices at once.  This is
+	 * done with batch scans over the vertex rows and then the edge
+	 * rows, rather than scanning each vertex separately.
+	 * @param vertices The vertices
+	 * @param direction Which edges to read
+	 * @param labels Only read edges with these labels, or all if empty
+	 * @return Adjacent edges of each vertex, in the order the
+	 *   vertices were given
+	 */
+	public Map<Vertex, List<Edge>> getAdjacency(Collection<? extends Vertex> vertices,
+			Direction direction, String... labels) {
+		Map<Vertex, List<Edge>> result = new LinkedHashMap<Vertex, List<Edge>>();
+		List<Vertex> batch = new ArrayList<Vertex>();
+
+		for (Vertex vertex : vertices) {
+			result.put(vertex, new ArrayList<Edge>());
+			batch.add(vertex);
+
+			if (batch.size() >= Const.BATCH_LOOKUP_SIZE) {
+				readAdjacency(batch, direction, labels, result);
+				batch.clear();
+			}
+		}
+
+		readAdjacency(batch, direction, labels, result);
+		return result;
+	}
+
+	private void readAdjacency(List<Vertex> vertices, Direction direction, String[] labels,
+			Map<Vertex, List<Edge>> result) {
+		Map<Text, Vertex> rows = new HashMap<Text, Vertex>();
+		for (Vertex vertex : vertices) {
+			rows.put(((AccumuloVertex) vertex).idRow, vertex);
+		}
+
+		Map<Text, List<BatchLookup.Adjacency>> adjacency =
+				batchLookup.adjacency(rows.keySet(), direction, labels);
+
+		Set<Text> edgeRows = new HashSet<Text>();
+		for (List<BatchLookup.Adjacency> list : adjacency.values()) {
+			for (BatchLookup.Adjacency a : list) {
+				edgeRows.add(a.getEdgeRow());
+			}
+		}
+
+		Map<Text, AccumuloEdge> edges = batchLookup.edges(edgeRows);
+
+		for (Map.Entry<Text, List<BatchLookup.Adjacency>> entry : adjacency.entrySet()) {
+			List<Edge> list = result.get(rows.get(entry.getKey()));
+
+			for (BatchLookup.Adjacency a : entry.getValue()) {
+				AccumuloEdge edge = edges.get(a.getEdgeRow());
+				if (edge != null) {
+					list.add(edge);
+				}
+			}
+		}
+	}
+
 	@Override
 	public Edge addEdge(Object id, Vertex outVertex, Vertex inVertex,
 			String label) {
@@ -298,7 +977,18 @@ public class AccumuloGraph implements KeyIndexableGraph {
 		AccumuloVertex out = (AccumuloVertex) outVertex;
 		AccumuloVertex in = (AccumuloVertex) inVertex;
 
-		AccumuloEdge edge = new AccumuloEdge(this, id, out, in, label);
+		return writeEdge(new AccumuloEdge(this, id, out, in, label));
+	}
+
+	/**
+	 * Write a new edge, add it to its vertices, and index it.
+	 * @param edge The edge
+	 * @return
+	 */
+	protected AccumuloEdge writeEdge(AccumuloEdge edge) {
+		AccumuloVertex out = (AccumuloVertex) edge.getVertex(Direction.OUT);
+		AccumuloVertex in = (AccumuloVertex) edge.getVertex(Direction.IN);
+		String label = edge.getLabel();
 
 		// Add the edge and its information.
 		Mutation m = new Mutation(AccumuloIdManager.toText(edge));
@@ -345,6 +1035,8 @@ public class AccumuloGraph implements KeyIndexableGraph {
 			keyIndex.addOrRemoveFromIndex(e, false);
 		}
 
+		sortedEdges.removeEdge(e);
+
 		// Remove edge info from out/in vertices.
 		// These may be null due to self loops, so need to check.
 		AccumuloVertex out = (AccumuloVertex) e.getVertex(Direction.OUT);
@@ -384,6 +1076,10 @@ public class AccumuloGraph implements KeyIndexableGraph {
 
 			@Override
 			public Iterator<Edge> iterator() {
+				if (prefetching(minId, maxId)) {
+					return prefetch(readEdges(minId, maxId));
+				}
+
 				Key minKey;
 				if (minId == null) {
 					minKey = new Key(AccumuloIdManager.toIdPrefix(ElementType.EDGE));
@@ -402,9 +1098,10 @@ public class AccumuloGraph implements KeyIndexableGraph {
 									Const.EDGE_SIGNAL_AFTER);
 				}
 
-				scanner.setRange(new Range(minKey, maxKey));
+				Range range = new Range(minKey, maxKey);
+				scanner.setRange(range);
 				scanner.fetchColumnFamily(Const.EDGE_SIGNAL);
-				iterator = scanner.iterator();
+				iterator = overlay(scanner.iterator(), range, null, Const.EDGE_SIGNAL);
 				scanner.clearColumns();
 
 				return new Iterator<Edge>() {
@@ -439,6 +1136,75 @@ public class AccumuloGraph implements KeyIndexableGraph {
 		};
 	}
 
+	/**
+	 * Read the edges with ids in a range from their rows,
+	 * with a scanner of its own, so that this can be read
+	 * ahead in another thread.  The label and endpoints are
+	 * read in the same scan, rather than once per edge.
+	 * @param minId Minimum id, or null
+	 * @param maxId Maximum id, or null
+	 * @return
+	 */
+	private Iterator<Edge> readEdges(Object minId, Object maxId) {
+		Key minKey = minId == null ? new Key(AccumuloIdManager.toIdPrefix(ElementType.EDGE))
+				: new Key(AccumuloIdManager.toText(new AccumuloElementId(minId), ElementType.EDGE));
+		Key maxKey = maxId == null ? new Key(AccumuloIdManager.afterIdPrefix(ElementType.EDGE))
+				: new Key(AccumuloIdManager.toText(new AccumuloElementId(maxId), ElementType.EDGE))
+						.followingKey(PartialKey.ROW);
+
+		Scanner s = createScanner();
+		s.setRange(new Range(minKey, true, maxKey, false));
+		s.fetchColumnFamily(Const.EDGE_SIGNAL);
+		s.fetchColumnFamily(Const.EDGE_OUT_VERTEX);
+		s.fetchColumnFamily(Const.EDGE_IN_VERTEX);
+
+		final Iterator<Map.Entry<Key, Value>> iterator = s.iterator();
+		final AccumuloGraph parent = this;
+
+		return new Iterator<Edge>() {
+
+			// First entry of the next edge's row.
+			private Key pending;
+
+			@Override
+			public boolean hasNext() {
+				return pending != null || iterator.hasNext();
+			}
+
+			@Override
+			public Edge next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+
+				Key key = pending != null ? pending : iterator.next().getKey();
+				pending = null;
+
+				Text row = key.getRow();
+				AccumuloEdge edge = new AccumuloEdge(parent, AccumuloIdManager.fromText(row),
+						null, null, null);
+				edge.readEntry(key);
+
+				while (iterator.hasNext()) {
+					key = iterator.next().getKey();
+					if (!key.getRow().equals(row)) {
+						pending = key;
+						break;
+					}
+					edge.readEntry(key);
+				}
+
+				return edge;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+
+		};
+	}
+
 	@Override
 	public Iterable<Edge> getEdges(String key, Object value) {
 		if (keyIndex != null && keyIndex.getIndexedKeys(AccumuloEdge.class).contains(key)) {
@@ -450,15 +1216,107 @@ public class AccumuloGraph implements KeyIndexableGraph {
 		}
 	}
 
+	/**
+	 * Find the edges with a label.  If edge labels are indexed,
+	 * with createKeyIndex("label", Edge.class), this is one range
+	 * scan of the index.  Otherwise, the label of every edge is
+	 * scanned.  Either way, the edges are then read in parallel
+	 * batches.
+	 * @param label The label
+	 * @return
+	 */
+	public Iterable<Edge> getEdgesByLabel(final String label) {
+		if (label == null) {
+			throw new IllegalArgumentException("Label cannot be null");
+		}
+
+		if (keyIndex != null && keyIndex.getIndexedKeys(AccumuloEdge.class).contains(Const.LABEL_KEY)) {
+			return new SubclassIterable<Edge>(
+					keyIndex.getElements(Const.LABEL_KEY, label, AccumuloEdge.class));
+		}
+
+		Iterable<Text> rows = new Iterable<Text>() {
+
+			@Override
+			public Iterator<Text> iterator() {
+				Scanner s = createScanner();
+				s.setRange(new Range(AccumuloIdManager.toIdPrefix(ElementType.EDGE), true,
+						AccumuloIdManager.afterIdPrefix(ElementType.EDGE), false));
+				s.fetchColumnFamily(Const.EDGE_SIGNAL);
+
+				final Iterator<Map.Entry<Key, Value>> i = s.iterator();
+				final Text labelText = Utils.stringToText(label);
+
+				return new Iterator<Text>() {
+
+					private Text next;
+
+					@Override
+					public boolean hasNext() {
+						while (next == null && i.hasNext()) {
+							Key key = i.next().getKey();
+							if (key.getColumnQualifier().equals(labelText)) {
+								next = key.getRow();
+							}
+						}
+						return next != null;
+					}
+
+					@Override
+					public Text next() {
+						if (!hasNext()) {
+							throw new NoSuchElementException();
+						}
+
+						Text row = next;
+						next = null;
+						return row;
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+
+		return new SubclassIterable<Edge>(batchLookup.loadEdges(rows));
+	}
+
 	// TODO: Make this more efficient
 	@Override
 	public GraphQuery query() {
-		return new DefaultGraphQuery(this);
+		return new AccumuloGraphQuery(this);
 	}
 
 	@Override
 	public void shutdown() {
+		// Let background removals finish, since they write
+		// with the writers closed below.
+		ExecutorService removals;
+		synchronized (this) {
+			shutDown = true;
+			removals = removalPool;
+		}
+		if (removals != null) {
+			removals.shutdown();
+			try {
+				removals.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		commit();
+
 		try {
+			synchronized (this) {
+				if (prefetchPool != null) {
+					prefetchPool.shutdown();
+				}
+			}
+
 			writer.flush();
 			writer.close();
 
@@ -483,8 +1341,13 @@ public class AccumuloGraph implements KeyIndexableGraph {
 	public <T extends Element> void dropKeyIndex(String key,
 			Class<T> elementClass) {
 		if (keyIndex != null) {
-			keyIndex.dropKeyIndex(key,
-					elementClass.equals(Vertex.class) ? AccumuloVertex.class : AccumuloEdge.class);
+			Transaction tx = suspendTransaction();
+			try {
+				keyIndex.dropKeyIndex(key,
+						elementClass.equals(Vertex.class) ? AccumuloVertex.class : AccumuloEdge.class);
+			} finally {
+				resumeTransaction(tx);
+			}
 		}
 	}
 
@@ -492,9 +1355,156 @@ public class AccumuloGraph implements KeyIndexableGraph {
 	public <T extends Element> void createKeyIndex(String key,
 			Class<T> elementClass, @SuppressWarnings("rawtypes") Parameter... indexParameters) {
 		if (keyIndex != null) {
-			keyIndex.createKeyIndex(key,
+			Transaction tx = suspendTransaction();
+			try {
+				keyIndex.createKeyIndex(key,
+						elementClass.equals(Vertex.class) ? AccumuloVertex.class : AccumuloEdge.class,
+						indexParameters);
+			} finally {
+				resumeTransaction(tx);
+			}
+		}
+	}
+
+	/**
+	 * Find edges whose value for a key starts with a prefix.
+	 * @see #getVerticesByPrefix
+	 * @param key The key
+	 * @param prefix The prefix
+	 * @return
+	 */
+	public Iterable<Edge> getEdgesByPrefix(String key, String prefix) {
+		if (keyIndex == null) {
+			throw new IllegalArgumentException("No index table specified");
+		}
+		return new SubclassIterable<Edge>(
+				keyIndex.getElementsByPrefix(key, prefix, AccumuloEdge.class));
+	}
+
+	/**
+	 * Sort the edges of each vertex by a key, so that vertex
+	 * queries with bounds on the key, or sorted by it with
+	 * {@link AccumuloVertexQuery#sortedBy}, read just the matching
+	 * edges in order.  Edges that already have the key are
+	 * indexed before this returns.
+	 * @param key The edge key
+	 * @param descending Whether edges with larger values come first
+	 */
+	public void createSortedEdgeIndex(String key, boolean descending) {
+		Transaction tx = suspendTransaction();
+		try {
+			sortedEdges.create(key, descending);
+		} finally {
+			resumeTransaction(tx);
+		}
+	}
+
+	/**
+	 * Stop sorting edges by a key.
+	 * @param key The edge key
+	 */
+	public void dropSortedEdgeIndex(String key) {
+		Transaction tx = suspendTransaction();
+		try {
+			sortedEdges.drop(key);
+		} finally {
+			resumeTransaction(tx);
+		}
+	}
+
+	/**
+	 * Keys that edges are sorted by.
+	 * @return
+	 */
+	public Set<String> getSortedEdgeKeys() {
+		return sortedEdges.getKeys();
+	}
+
+	/**
+	 * Estimate how many elements have a value for an indexed
+	 * key, from the statistics kept by the key index.
+	 * @param key The key
+	 * @param value The value, or null for any value
+	 * @param elementClass Vertices or edges
+	 * @return The estimate, or -1 if the key is not indexed
+	 */
+	public <T extends Element> long estimateCount(String key, Object value, Class<T> elementClass) {
+		if (keyIndex != null) {
+			return keyIndex.estimateCount(key, value,
 					elementClass.equals(Vertex.class) ? AccumuloVertex.class : AccumuloEdge.class);
 		}
+		else {
+			return -1;
+		}
+	}
+
+	/**
+	 * Wait until all key index writes made so far are written, so
+	 * that lookups see them.  Only needed with asynchronous indexing
+	 * (see {@link AccumuloGraphOptions#setAsyncIndexing}).
+	 */
+	public void awaitIndexed() {
+		if (keyIndex != null) {
+			keyIndex.awaitIndexed();
+		}
+	}
+
+	/**
+	 * Like {@link #awaitIndexed()}, waiting for at most a timeout.
+	 * @return True if the writes were written in time
+	 */
+	public boolean awaitIndexed(long timeout, TimeUnit unit) throws InterruptedException {
+		return keyIndex == null || keyIndex.awaitIndexed(timeout, unit);
+	}
+
+	/**
+	 * Number of key index writes queued but not yet written,
+	 * with asynchronous indexing.
+	 */
+	public long getIndexLag() {
+		return keyIndex != null ? keyIndex.getLag() : 0;
+	}
+
+	/**
+	 * How long the oldest key index write not yet written has
+	 * been queued, with asynchronous indexing.
+	 * @return Milliseconds
+	 */
+	public long getIndexLagMillis() {
+		return keyIndex != null ? keyIndex.getLagMillis() : 0;
+	}
+
+	/**
+	 * Remove the stale entries of a key index, left behind by
+	 * lazy index cleanup (see
+	 * {@link AccumuloGraphOptions#setLazyIndexCleanup}).  This
+	 * scans all of the key's entries, and is safe to run from
+	 * a background thread, e.g. periodically.
+	 * @param key The key, or name of a composite index
+	 * @param elementClass Vertices or edges
+	 * @return Number of entries removed
+	 */
+	public <T extends Element> long removeStaleIndexEntries(String key, Class<T> elementClass) {
+		if (keyIndex != null) {
+			Transaction tx = suspendTransaction();
+			try {
+				return keyIndex.removeStaleEntries(key,
+						elementClass.equals(Vertex.class) ? AccumuloVertex.class : AccumuloEdge.class);
+			} finally {
+				resumeTransaction(tx);
+			}
+		}
+		else {
+			return 0;
+		}
+	}
+
+	/**
+	 * The cache of key index lookups, e.g. to read its hit rate.
+	 * @return The cache, or null if lookups are not cached
+	 */
+	public IndexLookupCache getIndexLookupCache() {
+		return keyIndex != null ? keyIndex.getCache() : null;
 	}
 
 	@Override
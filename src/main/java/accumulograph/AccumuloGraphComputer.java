@@ -0,0 +1,503 @@
+package accumulograph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.accumulo.core.client.BatchWriter;
+import org.apache.accumulo.core.client.Scanner;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.Value;
+import org.apache.hadoop.io.Text;
+
+import accumulograph.Const.ElementType;
+
+/**
+ * Runs {@link VertexProgram}s in bulk synchronous parallel (Pregel)
+ * style over the graph table.
+ *
+ * The vertices are split into tablet-aligned partitions using
+ * {@link AccumuloGraph#partitions(ElementType, int)}, and each
+ * superstep processes the partitions in parallel on a thread pool.
+ * Topology, values and messages are kept on the heap for the
+ * duration of the computation.  When it finishes, the values are
+ * written back as vertex properties through batched mutations,
+ * updating the key index if the property is indexed.
+ */
+public class AccumuloGraphComputer {
+
+	private static final String[] NO_NEIGHBORS = new String[0];
+
+	protected AccumuloGraph parent;
+	protected int threads;
+
+	public AccumuloGraphComputer(AccumuloGraph parent, int threads) {
+		if (parent == null) {
+			throw new IllegalArgumentException("Graph cannot be null");
+		} else if (threads < 1) {
+			throw new IllegalArgumentException("Number of threads must be positive");
+		}
+
+		this.parent = parent;
+		this.threads = threads;
+	}
+
+	/**
+	 * Run a program to completion and write its results back
+	 * to the graph.
+	 * @param program The program
+	 * @return The number of supersteps executed
+	 */
+	public <V, M> int run(final VertexProgram<V, M> program) {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+		try {
+			// Read the endpoints of all edges.
+			final ConcurrentHashMap<String, List<String>> outs = new ConcurrentHashMap<String, List<String>>();
+			final ConcurrentHashMap<String, List<String>> ins = new ConcurrentHashMap<String, List<String>>();
+
+			List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+			for (final AccumuloGraphPartition partition : parent.partitions(ElementType.EDGE, threads)) {
+				tasks.add(new Callable<Boolean>() {
+					@Override
+					public Boolean call() {
+						loadEdges(partition, outs, ins);
+						return true;
+					}
+				});
+			}
+			Utils.runAll(pool, tasks);
+
+			// Read the vertices and their stored values.
+			final List<Worker<V, M>> workers = new ArrayList<Worker<V, M>>();
+			for (AccumuloGraphPartition partition : parent.partitions(ElementType.VERTEX, threads)) {
+				workers.add(new Worker<V, M>(program, partition));
+			}
+
+			tasks.clear();
+			for (final Worker<V, M> worker : workers) {
+				tasks.add(new Callable<Boolean>() {
+					@Override
+					public Boolean call() {
+						worker.load(outs, ins);
+						return true;
+					}
+				});
+			}
+			Utils.runAll(pool, tasks);
+			outs.clear();
+			ins.clear();
+
+			long numVertices = 0;
+			for (Worker<V, M> worker : workers) {
+				numVertices += worker.ids.length;
+			}
+
+			// Run supersteps until everything halts.
+			ConcurrentHashMap<String, MessageBox<M>> inbox = new ConcurrentHashMap<String, MessageBox<M>>();
+			int superstep = 0;
+
+			while (superstep < program.getMaxSupersteps()) {
+				final ConcurrentHashMap<String, MessageBox<M>> current = inbox;
+				final ConcurrentHashMap<String, MessageBox<M>> next = new ConcurrentHashMap<String, MessageBox<M>>();
+				final int step = superstep;
+				final long total = numVertices;
+
+				tasks.clear();
+				for (final Worker<V, M> worker : workers) {
+					tasks.add(new Callable<Boolean>() {
+						@Override
+						public Boolean call() {
+							worker.compute(step, total, current, next);
+							return true;
+						}
+					});
+				}
+				Utils.runAll(pool, tasks);
+
+				int ran = 0;
+				boolean active = false;
+				for (Worker<V, M> worker : workers) {
+					ran += worker.ran;
+					active |= worker.active;
+				}
+
+				// Only messages to missing vertices were left.
+				if (ran == 0) {
+					break;
+				}
+
+				superstep++;
+				inbox = next;
+
+				if (!active && inbox.isEmpty()) {
+					break;
+				}
+			}
+
+			// Write the results back.
+			tasks.clear();
+			for (final Worker<V, M> worker : workers) {
+				tasks.add(new Callable<Boolean>() {
+					@Override
+					public Boolean call() {
+						worker.store();
+						return true;
+					}
+				});
+			}
+			Utils.runAll(pool, tasks);
+
+			return superstep;
+
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private void loadEdges(AccumuloGraphPartition partition,
+			ConcurrentHashMap<String, List<String>> outs, ConcurrentHashMap<String, List<String>> ins) {
+		Scanner s = parent.createScanner();
+		s.setRange(partition.getRange());
+		s.fetchColumnFamily(Const.EDGE_OUT_VERTEX);
+		s.fetchColumnFamily(Const.EDGE_IN_VERTEX);
+
+		Text row = new Text();
+		Text prevRow = new Text();
+		Text cf = new Text();
+		Text cq = new Text();
+		String out = null;
+		String in = null;
+
+		for (Map.Entry<Key, Value> entry : s) {
+			entry.getKey().getRow(row);
+
+			if (!row.equals(prevRow)) {
+				addEdge(out, in, outs, ins);
+				out = null;
+				in = null;
+				prevRow.set(row);
+			}
+
+			entry.getKey().getColumnFamily(cf);
+			entry.getKey().getColumnQualifier(cq);
+			String vertexId = AccumuloIdManager.fromText(cq).toString();
+
+			if (cf.equals(Const.EDGE_OUT_VERTEX)) {
+				out = vertexId;
+			}
+			else {
+				in = vertexId;
+			}
+		}
+
+		addEdge(out, in, outs, ins);
+	}
+
+	private static void addEdge(String out, String in,
+			ConcurrentHashMap<String, List<String>> outs, ConcurrentHashMap<String, List<String>> ins) {
+		if (out != null && in != null) {
+			neighbors(outs, out).add(in);
+			neighbors(ins, in).add(out);
+		}
+	}
+
+	private static List<String> neighbors(ConcurrentHashMap<String, List<String>> map, String id) {
+		List<String> list = map.get(id);
+		if (list == null) {
+			List<String> created = Collections.synchronizedList(new ArrayList<String>(2));
+			list = map.putIfAbsent(id, created);
+			if (list == null) {
+				list = created;
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * Messages waiting for one vertex.
+	 */
+	private static class MessageBox<M> {
+
+		private List<M> messages = new ArrayList<M>(1);
+
+		public synchronized void add(M message, VertexProgram<?, M> program) {
+			if (messages.size() == 1) {
+				M combined = program.combine(messages.get(0), message);
+				if (combined != null) {
+					messages.set(0, combined);
+					return;
+				}
+			}
+			messages.add(message);
+		}
+	}
+
+	/**
+	 * Holds the state of the vertices in one partition.
+	 */
+	private class Worker<V, M> {
+
+		private VertexProgram<V, M> program;
+		private AccumuloGraphPartition partition;
+
+		private String[] ids;
+		private Object[] stored;
+		private Object[] values;
+		private String[][] outNeighbors;
+		private String[][] inNeighbors;
+		private boolean[] halted;
+
+		// Results of the last superstep.
+		private int ran;
+		private boolean active;
+
+		public Worker(VertexProgram<V, M> program, AccumuloGraphPartition partition) {
+			this.program = program;
+			this.partition = partition;
+		}
+
+		public void load(Map<String, List<String>> outs, Map<String, List<String>> ins) {
+			Scanner s = parent.createScanner();
+			s.setRange(partition.getRange());
+			s.fetchColumnFamily(Const.VERTEX_SIGNAL);
+			s.fetchColumn(Const.PROPERTY_SIGNAL, Utils.stringToText(program.getPropertyKey()));
+
+			List<String> idList = new ArrayList<String>();
+			List<Object> storedList = new ArrayList<Object>();
+			Text row = new Text();
+			Text cf = new Text();
+
+			// The vertex signal sorts before the property in each row.
+			for (Map.Entry<Key, Value> entry : s) {
+				entry.getKey().getColumnFamily(cf);
+
+				if (cf.equals(Const.VERTEX_SIGNAL)) {
+					entry.getKey().getRow(row);
+					idList.add(AccumuloIdManager.fromText(row).toString());
+					storedList.add(null);
+				}
+				else if (!idList.isEmpty()) {
+					storedList.set(storedList.size() - 1,
+							Utils.valueToObject(entry.getValue()));
+				}
+			}
+
+			int n = idList.size();
+			ids = idList.toArray(new String[n]);
+			stored = storedList.toArray();
+			values = new Object[n];
+			outNeighbors = new String[n][];
+			inNeighbors = new String[n][];
+			halted = new boolean[n];
+
+			for (int i = 0; i < n; i++) {
+				outNeighbors[i] = toArray(outs.remove(ids[i]));
+				inNeighbors[i] = toArray(ins.remove(ids[i]));
+				values[i] = program.initialValue(ids[i], this.<V>cast(stored[i]));
+			}
+		}
+
+		public void compute(int superstep, long numVertices,
+				Map<String, MessageBox<M>> current, ConcurrentHashMap<String, MessageBox<M>> next) {
+			ComputeContext context = new ComputeContext(superstep, numVertices, next);
+			ran = 0;
+			active = false;
+
+			for (int i = 0; i < ids.length; i++) {
+				MessageBox<M> box = current.get(ids[i]);
+
+				if (halted[i] && box == null) {
+					continue;
+				}
+
+				List<M> messages = box == null ? Collections.<M>emptyList() : box.messages;
+				context.index = i;
+				halted[i] = false;
+				program.compute(context, messages);
+				ran++;
+				active |= !halted[i];
+			}
+		}
+
+		/**
+		 * Write the changed values back.  Stores run on several
+		 * threads, so the other properties that updating the key
+		 * index reads are batch read and preloaded, rather than
+		 * read through the graph's shared scanner.
+		 */
+		public void store() {
+			String key = program.getPropertyKey();
+			Set<String> keys = parent.keyIndex != null
+					? parent.keyIndex.getKeysReadWith(key, AccumuloVertex.class)
+					: Collections.<String>emptySet();
+			BatchWriter writer = parent.createBatchWriter();
+
+			try {
+				List<AccumuloVertex> batch = new ArrayList<AccumuloVertex>();
+				List<Integer> indexes = new ArrayList<Integer>();
+
+				for (int i = 0; i < ids.length; i++) {
+					if (values[i] == null || values[i].equals(stored[i])) {
+						continue;
+					}
+
+					batch.add(new AccumuloVertex(parent, ids[i]));
+					indexes.add(i);
+
+					if (batch.size() == Const.BATCH_LOOKUP_SIZE) {
+						store(batch, indexes, key, keys, writer);
+						batch.clear();
+						indexes.clear();
+					}
+				}
+				store(batch, indexes, key, keys, writer);
+
+			} finally {
+				Utils.close(writer);
+			}
+		}
+
+		private void store(List<AccumuloVertex> batch, List<Integer> indexes, String key,
+				Set<String> keys, BatchWriter writer) {
+			if (batch.isEmpty()) {
+				return;
+			}
+
+			Map<Text, Map<String, Object>> properties;
+			if (keys.isEmpty()) {
+				properties = Collections.emptyMap();
+			}
+			else {
+				Set<Text> rows = new HashSet<Text>();
+				for (AccumuloVertex vertex : batch) {
+					rows.add(vertex.idRow);
+				}
+				properties = parent.batchLookup.properties(rows, keys);
+			}
+
+			Text keyText = Utils.stringToText(key);
+			for (int j = 0; j < batch.size(); j++) {
+				AccumuloVertex vertex = batch.get(j);
+				int i = indexes.get(j);
+
+				Mutation m = new Mutation(vertex.idRow);
+				m.put(Const.PROPERTY_SIGNAL, keyText, Utils.objectToValue(values[i]));
+				Utils.addMutation(writer, m);
+
+				if (parent.keyIndex != null) {
+					Map<String, Object> preloaded = new HashMap<String, Object>();
+					for (String k : keys) {
+						preloaded.put(k, null);
+					}
+					if (properties.containsKey(vertex.idRow)) {
+						preloaded.putAll(properties.get(vertex.idRow));
+					}
+					vertex.preload(preloaded);
+
+					if (stored[i] != null) {
+						parent.keyIndex.removePropertyFromIndex(vertex, key, stored[i]);
+					}
+					parent.keyIndex.addPropertyToIndex(vertex, key, values[i]);
+				}
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private <T> T cast(Object obj) {
+			return (T) obj;
+		}
+
+		private String[] toArray(List<String> list) {
+			return list == null ? NO_NEIGHBORS : list.toArray(new String[list.size()]);
+		}
+
+		/**
+		 * One context per worker, pointed at each vertex in turn.
+		 */
+		private class ComputeContext implements VertexProgram.Context<V, M> {
+
+			private int superstep;
+			private long numVertices;
+			private ConcurrentHashMap<String, MessageBox<M>> next;
+			private int index;
+
+			public ComputeContext(int superstep, long numVertices, ConcurrentHashMap<String, MessageBox<M>> next) {
+				this.superstep = superstep;
+				this.numVertices = numVertices;
+				this.next = next;
+			}
+
+			@Override
+			public String getVertexId() {
+				return ids[index];
+			}
+
+			@Override
+			public int getSuperstep() {
+				return superstep;
+			}
+
+			@Override
+			public long getNumVertices() {
+				return numVertices;
+			}
+
+			@Override
+			public V getValue() {
+				return cast(values[index]);
+			}
+
+			@Override
+			public void setValue(V value) {
+				values[index] = value;
+			}
+
+			@Override
+			public String[] getOutNeighbors() {
+				return Arrays.copyOf(outNeighbors[index], outNeighbors[index].length);
+			}
+
+			@Override
+			public String[] getInNeighbors() {
+				return Arrays.copyOf(inNeighbors[index], inNeighbors[index].length);
+			}
+
+			@Override
+			public void sendMessage(String vertexId, M message) {
+				MessageBox<M> box = next.get(vertexId);
+				if (box == null) {
+					MessageBox<M> created = new MessageBox<M>();
+					box = next.putIfAbsent(vertexId, created);
+					if (box == null) {
+						box = created;
+					}
+				}
+				box.add(message, program);
+			}
+
+			@Override
+			public void sendMessageToOutNeighbors(M message) {
+				for (String neighbor : outNeighbors[index]) {
+					sendMessage(neighbor, message);
+				}
+			}
+
+			@Override
+			public void voteToHalt() {
+				halted[index] = true;
+			}
+		}
+	}
+
+}
@@ -38,6 +38,30 @@ import com.tinkerpop.rexster.config.GraphConfigurationException;
  *       <!-- <mock>false</mock> -->
  *       <!-- Whether to return values for properties that are removed. This can slow things down -->
  *       <!-- <returnRemovedPropertyValues>true</returnRemovedPropertyValues> -->
+ *       <!-- Number of threads used to build key indexes -->
+ *       <!-- <indexBuildThreads>4</indexBuildThreads> -->
+ *       <!-- Number of rows each key index is spread across -->
+ *       <!-- <indexShards>1</indexShards> -->
+ *       <!-- Fraction of elements matching a query above which it scans rather than uses an index -->
+ *       <!-- <indexScanThreshold>0.3</indexScanThreshold> -->
+ *       <!-- Number of key index lookups to cache, or 0 for none -->
+ *       <!-- <indexCacheSize>0</indexCacheSize> -->
+ *       <!-- Milliseconds cached key index lookups are kept -->
+ *       <!-- <indexCacheTtl>60000</indexCacheTtl> -->
+ *       <!-- Whether to leave old index entries on updates, and remove them when found stale -->
+ *       <!-- <lazyIndexCleanup>false</lazyIndexCleanup> -->
+ *       <!-- Whether to queue index writes and write them in separate threads -->
+ *       <!-- <asyncIndexing>false</asyncIndexing> -->
+ *       <!-- Most index writes queued with asynchronous indexing -->
+ *       <!-- <asyncIndexQueueSize>100000</asyncIndexQueueSize> -->
+ *       <!-- Number of threads writing queued index writes -->
+ *       <!-- <asyncIndexThreads>2</asyncIndexThreads> -->
+ *       <!-- Number of elements scans read ahead in separate threads, or 0 for none -->
+ *       <!-- <prefetchDepth>0</prefetchDepth> -->
+ *       <!-- Number of threads reading ahead -->
+ *       <!-- <prefetchThreads>4</prefetchThreads> -->
+ *       <!-- Whether each thread's changes are kept until it commits -->
+ *       <!-- <transactional>false</transactional> -->
  *     </properties>
  *   </graph>
  * }
@@ -88,6 +112,18 @@ public class AccumuloGraphConfiguration implements GraphConfiguration {
 		boolean mock = properties.getBoolean(Const.MOCK, false);
 		boolean returnRemovedPropertyValues =
 				properties.getBoolean(Const.RETURN_REMOVED_PROPERTY_VALUES, true);		
+		int indexBuildThreads = properties.getInt(Const.INDEX_BUILD_THREADS, 4);
+		int indexShards = properties.getInt(Const.INDEX_SHARDS, 1);
+		double indexScanThreshold = properties.getDouble(Const.INDEX_SCAN_THRESHOLD, 0.3);
+		int indexCacheSize = properties.getInt(Const.INDEX_CACHE_SIZE, 0);
+		long indexCacheTtl = properties.getLong(Const.INDEX_CACHE_TTL, 60000L);
+		boolean lazyIndexCleanup = properties.getBoolean(Const.LAZY_INDEX_CLEANUP, false);
+		boolean asyncIndexing = properties.getBoolean(Const.ASYNC_INDEXING, false);
+		int asyncIndexQueueSize = properties.getInt(Const.ASYNC_INDEX_QUEUE_SIZE, 100000);
+		int asyncIndexThreads = properties.getInt(Const.ASYNC_INDEX_THREADS, 2);
+		int prefetchDepth = properties.getInt(Const.PREFETCH_DEPTH, 0);
+		int prefetchThreads = properties.getInt(Const.PREFETCH_THREADS, 4);
+		boolean transactional = properties.getBoolean(Const.TRANSACTIONAL, false);
 
 		AccumuloGraphOptions opts = new AccumuloGraphOptions();
 		opts.setConnectorInfo(instance, zookeepers, username, password);
@@ -96,6 +132,18 @@ public class AccumuloGraphConfiguration implements GraphConfiguration {
 		opts.setAutoflush(autoflush);
 		opts.setMock(mock);
 		opts.setReturnRemovedPropertyValues(returnRemovedPropertyValues);
+		opts.setIndexBuildThreads(indexBuildThreads);
+		opts.setIndexShards(indexShards);
+		opts.setIndexScanThreshold(indexScanThreshold);
+		opts.setIndexCacheSize(indexCacheSize);
+		opts.setIndexCacheTtl(indexCacheTtl);
+		opts.setLazyIndexCleanup(lazyIndexCleanup);
+		opts.setAsyncIndexing(asyncIndexing);
+		opts.setAsyncIndexQueueSize(asyncIndexQueueSize);
+		opts.setAsyncIndexThreads(asyncIndexThreads);
+		opts.setPrefetchDepth(prefetchDepth);
+		opts.setPrefetchThreads(prefetchThreads);
+		opts.setTransactional(transactional);
 
 		return opts;
 	}
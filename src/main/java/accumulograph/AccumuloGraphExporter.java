@@ -0,0 +1,458 @@
+package accumulograph;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.accumulo.core.client.IteratorSetting;
+import org.apache.accumulo.core.client.Scanner;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.user.WholeRowIterator;
+import org.apache.hadoop.io.Text;
+
+import accumulograph.Const.ElementType;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Exports a graph to files, one per partition of its vertices or
+ * edges (see {@link AccumuloGraph#partitions}), written in parallel.
+ * Rows are decoded straight into the output, without building
+ * elements or reading anything per element.
+ *
+ * Formats are:
+ * <ul>
+ * <li>Edge list: a line per edge, of its out-vertex, in-vertex and
+ * label, separated by tabs, in edges-n.txt.</li>
+ * <li>Adjacency list: a line per vertex, of its id and the ids of
+ * its out-neighbors, separated by tabs, in adjacency-n.txt.  The
+ * neighbors are read with batch scans of the edge rows.</li>
+ * <li>GraphSON: extended GraphSON, so that property types are kept,
+ * with the vertices in vertices-n.json and the edges in edges-n.json.
+ * Each file is a GraphSON document, and importing the vertex files
+ * before the edge files restores the graph.</li>
+ * </ul>
+ *
+ * Vertex and edge rows in GraphSON, and edge rows in edge lists, are
+ * read whole with a WholeRowIterator.  Only changes written to the
+ * graph table are exported.  The text formats assume ids have no
+ * tabs or line breaks.
+ */
+public class AccumuloGraphExporter {
+
+	public enum Format {
+		EDGE_LIST, ADJACENCY_LIST, GRAPHSON
+	}
+
+	protected AccumuloGraph graph;
+	protected int threads;
+
+	/**
+	 * Export a graph with {@link Const#EXPORT_THREADS} threads.
+	 * @param graph The graph
+	 */
+	public AccumuloGraphExporter(AccumuloGraph graph) {
+		this(graph, Const.EXPORT_THREADS);
+	}
+
+	/**
+	 * Export a graph.
+	 * @param graph The graph
+	 * @param threads Number of partitions written at once
+	 */
+	public AccumuloGraphExporter(AccumuloGraph graph, int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Export threads must be positive");
+		}
+		this.graph = graph;
+		this.threads = threads;
+	}
+
+	/**
+	 * Export the graph into a directory.
+	 * @param format The format
+	 * @param dir The directory, created if needed
+	 * @return Number of elements exported: edges for edge lists,
+	 *   vertices for adjacency lists, and both for GraphSON
+	 * @throws IOException
+	 */
+	public long export(final Format format, File dir) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Cannot create " + dir);
+		}
+
+		int n = threads * Const.EXPORT_PARTITIONS_PER_THREAD;
+		List<Callable<Long>> tasks = new ArrayList<Callable<Long>>();
+
+		if (format != Format.EDGE_LIST) {
+			int i = 0;
+			for (final AccumuloGraphPartition partition : graph.partitions(ElementType.VERTEX, n)) {
+				final File file = new File(dir, String.format(format == Format.GRAPHSON ?
+						"vertices-%05d.json" : "adjacency-%05d.txt", i++));
+				tasks.add(new Callable<Long>() {
+					@Override
+					public Long call() throws IOException {
+						return format == Format.GRAPHSON ? writeVertices(partition, file)
+								: writeAdjacency(partition, file);
+					}
+				});
+			}
+		}
+
+		if (format != Format.ADJACENCY_LIST) {
+			int i = 0;
+			for (final AccumuloGraphPartition partition : graph.partitions(ElementType.EDGE, n)) {
+				final File file = new File(dir, String.format(format == Format.GRAPHSON ?
+						"edges-%05d.json" : "edges-%05d.txt", i++));
+				tasks.add(new Callable<Long>() {
+					@Override
+					public Long call() throws IOException {
+						return format == Format.GRAPHSON ? writeEdges(partition, file)
+								: writeEdgeList(partition, file);
+					}
+				});
+			}
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			long count = 0;
+			for (Long written : Utils.runAll(pool, tasks)) {
+				count += written;
+			}
+			return count;
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private long writeEdgeList(AccumuloGraphPartition partition, File file) throws IOException {
+		Scanner s = scanRows(partition.getRange(), Const.EDGE_SIGNAL,
+				Const.EDGE_OUT_VERTEX, Const.EDGE_IN_VERTEX);
+		Writer out = open(file);
+		long count = 0;
+
+		try {
+			for (Map.Entry<Key, Value> row : s) {
+				String label = null;
+				String outId = null;
+				String inId = null;
+
+				for (Key key : decode(row).keySet()) {
+					Text cf = key.getColumnFamily();
+					if (cf.equals(Const.EDGE_SIGNAL)) {
+						label = Utils.textToString(key.getColumnQualifier());
+					}
+					else if (cf.equals(Const.EDGE_OUT_VERTEX)) {
+						outId = idOf(key.getColumnQualifier());
+					}
+					else if (cf.equals(Const.EDGE_IN_VERTEX)) {
+						inId = idOf(key.getColumnQualifier());
+					}
+				}
+
+				out.write(outId + "\t" + inId + "\t" + label + "\n");
+				count++;
+			}
+		} finally {
+			out.close();
+		}
+
+		return count;
+	}
+
+	private long writeAdjacency(AccumuloGraphPartition partition, File file) throws IOException {
+		// Not read whole, as a vertex may have very many edges.
+		Scanner s = graph.createScanner();
+		s.setRange(partition.getRange());
+		s.fetchColumnFamily(Const.VERTEX_SIGNAL);
+		s.fetchColumnFamily(Const.VERTEX_OUT_EDGE);
+
+		AdjacencyWriter out = new AdjacencyWriter(open(file));
+		Text row = null;
+		long count = 0;
+
+		try {
+			for (Map.Entry<Key, Value> entry : s) {
+				Key key = entry.getKey();
+				if (row == null || !row.equals(key.getRow())) {
+					row = key.getRow();
+					out.vertex(row);
+					count++;
+				}
+
+				if (key.getColumnFamily().equals(Const.VERTEX_OUT_EDGE)) {
+					out.edge(key.getColumnQualifier());
+				}
+			}
+			out.flush(true);
+		} finally {
+			out.out.close();
+		}
+
+		return count;
+	}
+
+	private long writeVertices(AccumuloGraphPartition partition, File file) throws IOException {
+		Scanner s = scanRows(partition.getRange(), Const.VERTEX_SIGNAL, Const.PROPERTY_SIGNAL);
+		Writer out = open(file);
+		long count = 0;
+
+		try {
+			JsonGenerator json = startGraphSON(out, "vertices");
+
+			for (Map.Entry<Key, Value> row : s) {
+				json.writeStartObject();
+				json.writeStringField("_id", idOf(row.getKey().getRow()));
+				json.writeStringField("_type", "vertex");
+				writeProperties(json, decode(row));
+				json.writeEndObject();
+				count++;
+			}
+
+			endGraphSON(json);
+		} finally {
+			out.close();
+		}
+
+		return count;
+	}
+
+	private long writeEdges(AccumuloGraphPartition partition, File file) throws IOException {
+		Scanner s = scanRows(partition.getRange(), Const.EDGE_SIGNAL,
+				Const.EDGE_OUT_VERTEX, Const.EDGE_IN_VERTEX, Const.PROPERTY_SIGNAL);
+		Writer out = open(file);
+		long count = 0;
+
+		try {
+			JsonGenerator json = startGraphSON(out, "edges");
+
+			for (Map.Entry<Key, Value> row : s) {
+				SortedMap<Key, Value> columns = decode(row);
+
+				json.writeStartObject();
+				json.writeStringField("_id", idOf(row.getKey().getRow()));
+				json.writeStringField("_type", "edge");
+				for (Key key : columns.keySet()) {
+					Text cf = key.getColumnFamily();
+					if (cf.equals(Const.EDGE_SIGNAL)) {
+						json.writeStringField("_label", Utils.textToString(key.getColumnQualifier()));
+					}
+					else if (cf.equals(Const.EDGE_OUT_VERTEX)) {
+						json.writeStringField("_outV", idOf(key.getColumnQualifier()));
+					}
+					else if (cf.equals(Const.EDGE_IN_VERTEX)) {
+						json.writeStringField("_inV", idOf(key.getColumnQualifier()));
+					}
+				}
+				writeProperties(json, columns);
+				json.writeEndObject();
+				count++;
+			}
+
+			endGraphSON(json);
+		} finally {
+			out.close();
+		}
+
+		return count;
+	}
+
+	private static JsonGenerator startGraphSON(Writer out, String elements) throws IOException {
+		JsonGenerator json = new JsonFactory().createGenerator(out);
+		json.writeStartObject();
+		json.writeStringField("mode", "EXTENDED");
+		json.writeArrayFieldStart(elements);
+		return json;
+	}
+
+	private static void endGraphSON(JsonGenerator json) throws IOException {
+		json.writeEndArray();
+		json.writeEndObject();
+		json.close();
+	}
+
+	private static void writeProperties(JsonGenerator json, SortedMap<Key, Value> columns)
+			throws IOException {
+		for (Map.Entry<Key, Value> column : columns.entrySet()) {
+			if (column.getKey().getColumnFamily().equals(Const.PROPERTY_SIGNAL)) {
+				json.writeFieldName(Utils.textToString(column.getKey().getColumnQualifier()));
+				writeTyped(json, Utils.valueToObject(column.getValue()));
+			}
+		}
+	}
+
+	/**
+	 * Write a value in extended GraphSON, with its type.
+	 */
+	private static void writeTyped(JsonGenerator json, Object value) throws IOException {
+		if (value == null) {
+			json.writeNull();
+			return;
+		}
+
+		json.writeStartObject();
+		if (value instanceof List || value.getClass().isArray()) {
+			json.writeStringField("type", "list");
+			json.writeArrayFieldStart("value");
+			if (value instanceof List) {
+				for (Object item : (List<?>) value) {
+					writeTyped(json, item);
+				}
+			}
+			else {
+				for (int i = 0; i < Array.getLength(value); i++) {
+					writeTyped(json, Array.get(value, i));
+				}
+			}
+			json.writeEndArray();
+		}
+		else if (value instanceof Map) {
+			json.writeStringField("type", "map");
+			json.writeObjectFieldStart("value");
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				json.writeFieldName(String.valueOf(entry.getKey()));
+				writeTyped(json, entry.getValue());
+			}
+			json.writeEndObject();
+		}
+		else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+			json.writeStringField("type", value instanceof Integer ? "integer"
+					: value instanceof Short ? "short" : "byte");
+			json.writeNumberField("value", ((Number) value).intValue());
+		}
+		else if (value instanceof Long) {
+			json.writeStringField("type", "long");
+			json.writeNumberField("value", (Long) value);
+		}
+		else if (value instanceof Float) {
+			json.writeStringField("type", "float");
+			json.writeNumberField("value", (Float) value);
+		}
+		else if (value instanceof Double) {
+			json.writeStringField("type", "double");
+			json.writeNumberField("value", (Double) value);
+		}
+		else if (value instanceof Boolean) {
+			json.writeStringField("type", "boolean");
+			json.writeBooleanField("value", (Boolean) value);
+		}
+		else {
+			json.writeStringField("type", "string");
+			json.writeStringField("value", value.toString());
+		}
+		json.writeEndObject();
+	}
+
+	/**
+	 * Scan rows whole, with only some column families.
+	 */
+	private Scanner scanRows(Range range, Text... families) {
+		Scanner s = graph.createScanner();
+		s.setRange(range);
+		for (Text family : families) {
+			s.fetchColumnFamily(family);
+		}
+		s.addScanIterator(new IteratorSetting(Const.EXPORT_ROW_PRIORITY,
+				"exportRows", WholeRowIterator.class));
+		return s;
+	}
+
+	private static SortedMap<Key, Value> decode(Map.Entry<Key, Value> row) throws IOException {
+		return WholeRowIterator.decodeRow(row.getKey(), row.getValue());
+	}
+
+	private static String idOf(Text row) {
+		return AccumuloIdManager.fromText(row).toString();
+	}
+
+	private static Writer open(File file) throws IOException {
+		return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+	}
+
+	/**
+	 * Writes adjacency list lines.  The out-edges of the vertices
+	 * read are buffered, and their in-vertices read with one batch
+	 * scan once there are {@link Const#BATCH_LOOKUP_SIZE} of them.
+	 * The last vertex's line may be written in several parts.
+	 */
+	private class AdjacencyWriter {
+
+		private final Writer out;
+		private final List<Text> vertices = new ArrayList<Text>();
+		private final List<List<Text>> edges = new ArrayList<List<Text>>();
+		private int size = 0;
+		// Whether the first vertex's line was started by the last flush.
+		private boolean continued = false;
+
+		public AdjacencyWriter(Writer out) {
+			this.out = out;
+		}
+
+		public void vertex(Text row) {
+			vertices.add(new Text(row));
+			edges.add(new ArrayList<Text>());
+		}
+
+		public void edge(Text edgeRow) throws IOException {
+			edges.get(edges.size() - 1).add(new Text(edgeRow));
+			if (++size >= Const.BATCH_LOOKUP_SIZE) {
+				flush(false);
+			}
+		}
+
+		/**
+		 * Write the lines buffered.
+		 * @param end If false, the last vertex may have more edges
+		 */
+		public void flush(boolean end) throws IOException {
+			HashSet<Text> edgeRows = new HashSet<Text>();
+			for (List<Text> list : edges) {
+				edgeRows.addAll(list);
+			}
+			Map<Text, Text[]> endpoints = graph.batchLookup.endpoints(edgeRows);
+
+			for (int i = 0; i < vertices.size(); i++) {
+				if (i > 0 || !continued) {
+					out.write(idOf(vertices.get(i)));
+				}
+				for (Text edgeRow : edges.get(i)) {
+					Text[] ends = endpoints.get(edgeRow);
+					if (ends != null && ends[1] != null) {
+						out.write('\t');
+						out.write(idOf(ends[1]));
+					}
+				}
+				if (end || i < vertices.size() - 1) {
+					out.write('\n');
+				}
+			}
+
+			Text last = end || vertices.isEmpty() ? null : vertices.get(vertices.size() - 1);
+			vertices.clear();
+			edges.clear();
+			size = 0;
+			continued = last != null;
+			if (last != null) {
+				vertex(last);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,570 @@
+package accumulograph;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.accumulo.core.client.BatchWriter;
+import org.apache.accumulo.core.client.MutationsRejectedException;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.hadoop.io.Text;
+
+import accumulograph.Const.ElementType;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Imports GraphSON or GraphML into a graph, faster than the
+ * Blueprints readers, which add elements and their properties
+ * one change at a time.
+ *
+ * The input is parsed as a stream, into batches of elements that
+ * are queued for a pool of threads, so memory use is bounded by the
+ * batch size and queue length.  Each thread turns a batch into one
+ * mutation per row, e.g. a vertex with all its properties, or all
+ * the adjacency columns a batch adds to a vertex, and writes them and
+ * the batch's key index entries with its own bulk writers.  Sorted
+ * edge columns are written too.
+ *
+ * Supplied ids are kept, so edges are written by the ids of their
+ * vertices, without looking them up.  Elements are written directly,
+ * not through the graph's writers or transactions, and are assumed
+ * to be new: existing elements with the same ids get the imported
+ * properties added, but their old index entries are not removed,
+ * and every imported element is added to the element counts of
+ * {@link AccumuloKeyIndex#estimateElementCount}, so re-importing
+ * an element counts it again.  Nor are the vertices of edges
+ * checked: an edge whose vertex was neither imported nor already
+ * in the graph still gets its adjacency column written, to a row
+ * that is not a vertex, so that vertex is not found or counted
+ * until it is imported.  Import vertices before their edges.
+ * As with the Blueprints readers, GraphSON edges must have a
+ * label.  Elements parsed before an error are still imported.
+ */
+public class AccumuloGraphImporter {
+
+	// Label of GraphML edges without one, as in Blueprints.
+	private static final String DEFAULT_LABEL = "_default";
+	private static final long POLL_MILLIS = 100L;
+
+	protected AccumuloGraph graph;
+	protected int threads;
+
+	/**
+	 * Import into a graph with {@link Const#IMPORT_THREADS} threads.
+	 * @param graph The graph
+	 */
+	public AccumuloGraphImporter(AccumuloGraph graph) {
+		this(graph, Const.IMPORT_THREADS);
+	}
+
+	/**
+	 * Import into a graph.
+	 * @param graph The graph
+	 * @param threads Number of threads writing elements
+	 */
+	public AccumuloGraphImporter(AccumuloGraph graph, int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Import threads must be positive");
+		}
+		this.graph = graph;
+		this.threads = threads;
+	}
+
+	/**
+	 * Import a graph in GraphSON, in any mode.
+	 * @param in The input, which is not closed
+	 * @return Number of elements imported
+	 * @throws IOException
+	 */
+	public long importGraphSON(InputStream in) throws IOException {
+		Import imp = new Import();
+		try {
+			readGraphSON(in, imp);
+		} finally {
+			imp.end();
+		}
+		return imp.count;
+	}
+
+	/**
+	 * Import a graph in GraphML.
+	 * @param in The input, which is not closed
+	 * @return Number of elements imported
+	 * @throws IOException
+	 */
+	public long importGraphML(InputStream in) throws IOException {
+		Import imp = new Import();
+		try {
+			readGraphML(in, imp);
+		} finally {
+			imp.end();
+		}
+		return imp.count;
+	}
+
+	private void readGraphSON(InputStream in, Import imp) throws IOException {
+		JsonParser parser = new JsonFactory().createParser(in);
+		if (parser.nextToken() != JsonToken.START_OBJECT) {
+			throw new IOException("GraphSON must be an object");
+		}
+
+		boolean extended = false;
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String field = parser.getCurrentName();
+			JsonToken token = parser.nextToken();
+
+			if ("mode".equals(field)) {
+				extended = "EXTENDED".equals(parser.getText());
+			}
+			else if (("vertices".equals(field) || "edges".equals(field))
+					&& token == JsonToken.START_ARRAY) {
+				boolean edges = "edges".equals(field);
+				while (parser.nextToken() == JsonToken.START_OBJECT) {
+					@SuppressWarnings("unchecked")
+					Map<String, Object> fields = (Map<String, Object>) readJson(parser);
+					imp.add(fromGraphSON(fields, edges, extended));
+				}
+			}
+			else {
+				parser.skipChildren();
+			}
+		}
+	}
+
+	/**
+	 * Read the JSON value at the parser's current token.
+	 */
+	private static Object readJson(JsonParser parser) throws IOException {
+		switch (parser.getCurrentToken()) {
+		case START_OBJECT:
+			Map<String, Object> map = new LinkedHashMap<String, Object>();
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String name = parser.getCurrentName();
+				parser.nextToken();
+				map.put(name, readJson(parser));
+			}
+			return map;
+		case START_ARRAY:
+			List<Object> list = new ArrayList<Object>();
+			while (parser.nextToken() != JsonToken.END_ARRAY) {
+				list.add(readJson(parser));
+			}
+			return list;
+		case VALUE_STRING:
+			return parser.getText();
+		case VALUE_NUMBER_INT:
+			if (parser.getNumberType() == JsonParser.NumberType.INT) {
+				return parser.getIntValue();
+			}
+			return parser.getLongValue();
+		case VALUE_NUMBER_FLOAT:
+			return parser.getDoubleValue();
+		case VALUE_TRUE:
+		case VALUE_FALSE:
+			return parser.getBooleanValue();
+		case VALUE_NULL:
+			return null;
+		default:
+			throw new IOException("Unexpected " + parser.getCurrentToken()
+					+ " at " + parser.getCurrentLocation());
+		}
+	}
+
+	private static Parsed fromGraphSON(Map<String, Object> fields, boolean edge, boolean extended) {
+		Parsed element = new Parsed(fields.remove("_id"), edge);
+		fields.remove("_type");
+		if (edge) {
+			element.out = fields.remove("_outV");
+			element.in = fields.remove("_inV");
+			Object label = fields.remove("_label");
+			if (label == null) {
+				throw new IllegalArgumentException("Edge " + element.id + " has no label");
+			}
+			element.label = label.toString();
+		}
+
+		for (Map.Entry<String, Object> field : fields.entrySet()) {
+			Object value = extended ? typed(field.getValue()) : field.getValue();
+			if (value != null) {
+				element.properties.put(field.getKey(), value);
+			}
+		}
+		return element;
+	}
+
+	/**
+	 * A property value of extended GraphSON, which gives its type.
+	 */
+	@SuppressWarnings("unchecked")
+	private static Object typed(Object json) {
+		if (!(json instanceof Map) || !((Map<String, Object>) json).containsKey("type")) {
+			return json;
+		}
+
+		Map<String, Object> map = (Map<String, Object>) json;
+		String type = String.valueOf(map.get("type"));
+		Object value = map.get("value");
+		if (value == null) {
+			return null;
+		}
+
+		if ("list".equals(type)) {
+			List<Object> list = new ArrayList<Object>();
+			for (Object item : (List<Object>) value) {
+				list.add(typed(item));
+			}
+			return list;
+		}
+		else if ("map".equals(type)) {
+			Map<String, Object> result = new HashMap<String, Object>();
+			for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+				result.put(entry.getKey(), typed(entry.getValue()));
+			}
+			return result;
+		}
+		else if (value instanceof Number) {
+			Number n = (Number) value;
+			if ("integer".equals(type)) {
+				return n.intValue();
+			}
+			else if ("long".equals(type)) {
+				return n.longValue();
+			}
+			else if ("float".equals(type)) {
+				return n.floatValue();
+			}
+			else if ("double".equals(type)) {
+				return n.doubleValue();
+			}
+			else if ("short".equals(type)) {
+				return n.shortValue();
+			}
+			else if ("byte".equals(type)) {
+				return n.byteValue();
+			}
+		}
+		return value;
+	}
+
+	private void readGraphML(InputStream in, Import imp) throws IOException {
+		try {
+			XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(in);
+			// Name and type of each key, by id.
+			Map<String, String[]> keys = new HashMap<String, String[]>();
+			Parsed element = null;
+
+			while (reader.hasNext()) {
+				int event = reader.next();
+
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					String name = reader.getLocalName();
+
+					if ("key".equals(name)) {
+						String id = reader.getAttributeValue(null, "id");
+						String keyName = reader.getAttributeValue(null, "attr.name");
+						keys.put(id, new String[]{keyName != null ? keyName : id,
+								reader.getAttributeValue(null, "attr.type")});
+					}
+					else if ("node".equals(name)) {
+						element = new Parsed(reader.getAttributeValue(null, "id"), false);
+					}
+					else if ("edge".equals(name)) {
+						element = new Parsed(reader.getAttributeValue(null, "id"), true);
+						element.out = reader.getAttributeValue(null, "source");
+						element.in = reader.getAttributeValue(null, "target");
+						element.label = reader.getAttributeValue(null, "label");
+						if (element.label == null) {
+							element.label = DEFAULT_LABEL;
+						}
+					}
+					else if ("data".equals(name) && element != null) {
+						String[] key = keys.get(reader.getAttributeValue(null, "key"));
+						String keyName = key != null ? key[0] : reader.getAttributeValue(null, "key");
+						String text = reader.getElementText();
+						element.properties.put(keyName, typed(text, key != null ? key[1] : null));
+					}
+				}
+				else if (event == XMLStreamConstants.END_ELEMENT && element != null) {
+					String name = reader.getLocalName();
+					if ("node".equals(name) || "edge".equals(name)) {
+						imp.add(element);
+						element = null;
+					}
+				}
+			}
+
+			reader.close();
+
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * A property value of GraphML, of a key's type.
+	 */
+	private static Object typed(String text, String type) {
+		if ("int".equals(type)) {
+			return Integer.valueOf(text.trim());
+		}
+		else if ("long".equals(type)) {
+			return Long.valueOf(text.trim());
+		}
+		else if ("float".equals(type)) {
+			return Float.valueOf(text.trim());
+		}
+		else if ("double".equals(type)) {
+			return Double.valueOf(text.trim());
+		}
+		else if ("boolean".equals(type)) {
+			return Boolean.valueOf(text.trim());
+		}
+		return text;
+	}
+
+	/**
+	 * Write a batch of elements, with one mutation per row.
+	 */
+	private void write(List<Parsed> batch, BatchWriter writer, BatchWriter indexWriter)
+			throws MutationsRejectedException {
+		TreeMap<Text, Mutation> rows = new TreeMap<Text, Mutation>();
+		Map<Text, Map<String, Object>> vertices = new HashMap<Text, Map<String, Object>>();
+		Map<Text, Map<String, Object>> edges = new HashMap<Text, Map<String, Object>>();
+
+		for (Parsed element : batch) {
+			if (!element.edge) {
+				Text row = AccumuloIdManager.toText(new AccumuloElementId(element.id), ElementType.VERTEX);
+				Mutation m = row(rows, row);
+				m.put(Const.VERTEX_SIGNAL, Const.EMPTY_TEXT, Const.EMPTY_VALUE);
+				putProperties(m, element.properties);
+				vertices.put(row, element.properties);
+			}
+			else {
+				if (element.out == null || element.in == null) {
+					throw new IllegalArgumentException("Edge " + element.id + " needs both vertices");
+				}
+
+				Text row = AccumuloIdManager.toText(new AccumuloElementId(element.id), ElementType.EDGE);
+				Text outRow = AccumuloIdManager.toText(new AccumuloElementId(element.out), ElementType.VERTEX);
+				Text inRow = AccumuloIdManager.toText(new AccumuloElementId(element.in), ElementType.VERTEX);
+
+				Mutation m = row(rows, row);
+				m.put(Const.EDGE_SIGNAL, Utils.stringToText(element.label), Const.EMPTY_VALUE);
+				m.put(Const.EDGE_OUT_VERTEX, outRow, Const.EMPTY_VALUE);
+				m.put(Const.EDGE_IN_VERTEX, inRow, Const.EMPTY_VALUE);
+				putProperties(m, element.properties);
+
+				Mutation out = row(rows, outRow);
+				out.put(Const.VERTEX_OUT_EDGE, row, Utils.stringToValue(element.label));
+				Mutation in = row(rows, inRow);
+				in.put(Const.VERTEX_IN_EDGE, row, Utils.stringToValue(element.label));
+				graph.sortedEdges.addEdge(out, in, row, element.label, element.properties);
+
+				Map<String, Object> values = new HashMap<String, Object>(element.properties);
+				values.put(Const.LABEL_KEY, element.label);
+				edges.put(row, values);
+			}
+		}
+
+		writer.addMutations(rows.values());
+
+		if (indexWriter != null) {
+			if (!vertices.isEmpty()) {
+				graph.keyIndex.indexNew(ElementType.VERTEX, vertices, indexWriter);
+			}
+			if (!edges.isEmpty()) {
+				graph.keyIndex.indexNew(ElementType.EDGE, edges, indexWriter);
+			}
+		}
+	}
+
+	private static Mutation row(Map<Text, Mutation> rows, Text row) {
+		Mutation m = rows.get(row);
+		if (m == null) {
+			m = new Mutation(row);
+			rows.put(row, m);
+		}
+		return m;
+	}
+
+	private static void putProperties(Mutation m, Map<String, Object> properties) {
+		for (Map.Entry<String, Object> property : properties.entrySet()) {
+			m.put(Const.PROPERTY_SIGNAL, Utils.stringToText(property.getKey()),
+					Utils.objectToValue(property.getValue()));
+		}
+	}
+
+	/**
+	 * An element as parsed, a vertex or an edge.  Edges have
+	 * a label.
+	 */
+	private static class Parsed {
+
+		private final Object id;
+		private final boolean edge;
+		private Object out;
+		private Object in;
+		private String label;
+		private final Map<String, Object> properties = new HashMap<String, Object>();
+
+		public Parsed(Object id, boolean edge) {
+			this.id = id;
+			this.edge = edge;
+		}
+
+	}
+
+	/**
+	 * One import: the queue of parsed batches, and the
+	 * threads writing them.  An empty batch ends a thread.
+	 */
+	private class Import {
+
+		private final BlockingQueue<List<Parsed>> queue =
+				new ArrayBlockingQueue<List<Parsed>>(threads * Const.IMPORT_QUEUED_BATCHES);
+		private final ExecutorService pool = Executors.newFixedThreadPool(threads);
+		private final List<Future<Long>> writers = new ArrayList<Future<Long>>();
+		private volatile boolean failed = false;
+
+		private List<Parsed> batch = new ArrayList<Parsed>();
+		private long count = 0;
+
+		public Import() {
+			for (int i = 0; i < threads; i++) {
+				writers.add(pool.submit(new Callable<Long>() {
+					@Override
+					public Long call() throws Exception {
+						return run();
+					}
+				}));
+			}
+		}
+
+		public void add(Parsed element) {
+			batch.add(element);
+			if (batch.size() >= Const.IMPORT_BATCH_SIZE) {
+				flush();
+			}
+		}
+
+		public void flush() {
+			if (!batch.isEmpty()) {
+				put(batch);
+				batch = new ArrayList<Parsed>();
+			}
+		}
+
+		private void put(List<Parsed> elements) {
+			try {
+				while (!queue.offer(elements, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+					if (failed) {
+						throw new IllegalStateException("Import failed");
+					}
+				}
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		/**
+		 * Queue the last batch, even after an error in the input,
+		 * then wait for the threads to write what was queued, and
+		 * throw the first failure of any of them.
+		 */
+		public void end() {
+			try {
+				if (!batch.isEmpty()) {
+					offer(batch);
+					batch = new ArrayList<Parsed>();
+				}
+				for (int i = 0; i < threads; i++) {
+					offer(new ArrayList<Parsed>());
+				}
+
+				for (Future<Long> writer : writers) {
+					count += writer.get();
+				}
+
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			} finally {
+				pool.shutdown();
+
+				IndexLookupCache cache = graph.getIndexLookupCache();
+				if (cache != null) {
+					cache.invalidate(graph.opts.getIndexTable());
+				}
+			}
+		}
+
+		/**
+		 * Queue elements unless all the threads are done.
+		 */
+		private void offer(List<Parsed> elements) throws InterruptedException {
+			while (!queue.offer(elements, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+				if (allDone()) {
+					return;
+				}
+			}
+		}
+
+		private boolean allDone() {
+			for (Future<Long> writer : writers) {
+				if (!writer.isDone()) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private long run() throws Exception {
+			BatchWriter writer = graph.createBatchWriter();
+			BatchWriter indexWriter = graph.keyIndex != null ? graph.keyIndex.createBulkWriter() : null;
+			long written = 0;
+
+			try {
+				while (true) {
+					List<Parsed> elements = queue.take();
+					if (elements.isEmpty()) {
+						return written;
+					}
+					write(elements, writer, indexWriter);
+					written += elements.size();
+				}
+			} catch (Exception e) {
+				failed = true;
+				throw e;
+			} finally {
+				Utils.close(writer);
+				if (indexWriter != null) {
+					Utils.close(indexWriter);
+				}
+			}
+		}
+
+	}
+
+}
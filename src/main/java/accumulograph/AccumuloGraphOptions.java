@@ -11,7 +11,7 @@ import org.apache.accumulo.core.client.mock.MockInstance;
  * Graph options.
  * @author Mike Lieberman (http://mikelieberman.org)
  */
-public class AccumuloGraphOptions {
+public class AccumuloGraphOptions implements Cloneable {
 
 	private String instance;
 	private String zookeepers;
@@ -23,6 +23,20 @@ public class AccumuloGraphOptions {
 	private boolean mock = false;
 	private boolean autoflush = true;
 	private boolean returnRemovedPropertyValues = true;
+	private int indexBuildThreads = 4;
+	private int indexShards = 1;
+	private double indexScanThreshold = 0.3;
+	private IndexBuildListener indexBuildListener;
+	private int indexCacheSize = 0;
+	private long indexCacheTtl = 60000;
+	private IndexLookupCache indexLookupCache;
+	private boolean lazyIndexCleanup = false;
+	private boolean asyncIndexing = false;
+	private int asyncIndexQueueSize = 100000;
+	private int asyncIndexThreads = 2;
+	private int prefetchDepth = 0;
+	private int prefetchThreads = 4;
+	private boolean transactional = false;
 
 	public boolean getAutoflush() {
 		return autoflush;
@@ -151,13 +165,266 @@ public class AccumuloGraphOptions {
 		this.returnRemovedPropertyValues = returnRemovedPropertyValues;
 	}
 
+	public int getIndexBuildThreads() {
+		return indexBuildThreads;
+	}
+
+	/**
+	 * Number of threads used to build a key index
+	 * when it is created.
+	 * @param indexBuildThreads Number of threads
+	 */
+	public void setIndexBuildThreads(int indexBuildThreads) {
+		if (indexBuildThreads < 1) {
+			throw new IllegalArgumentException("Index build threads must be positive");
+		}
+		this.indexBuildThreads = indexBuildThreads;
+	}
+
+	public int getIndexShards() {
+		return indexShards;
+	}
+
+	/**
+	 * Number of rows that each new key index is spread across.
+	 * Entries are assigned to rows by element, so writes and
+	 * lookups of a popular key are spread over several tablets.
+	 * Lookups read all of a key's rows in parallel.  Can be
+	 * overridden per key with the {@link KeyIndexDefinition#SHARDS}
+	 * parameter of createKeyIndex.
+	 * @param indexShards Number of rows per key
+	 */
+	public void setIndexShards(int indexShards) {
+		if (indexShards < 1 || indexShards > Const.MAX_INDEX_SHARDS) {
+			throw new IllegalArgumentException("Index shards must be between 1 and "
+					+ Const.MAX_INDEX_SHARDS);
+		}
+		this.indexShards = indexShards;
+	}
+
+	public double getIndexScanThreshold() {
+		return indexScanThreshold;
+	}
+
+	/**
+	 * When a graph query could use a key index, but the index
+	 * statistics estimate that more than this fraction of all
+	 * elements match, scan the elements instead.
+	 * @param indexScanThreshold Fraction between 0 and 1
+	 */
+	public void setIndexScanThreshold(double indexScanThreshold) {
+		if (indexScanThreshold < 0 || indexScanThreshold > 1) {
+			throw new IllegalArgumentException("Index scan threshold must be between 0 and 1");
+		}
+		this.indexScanThreshold = indexScanThreshold;
+	}
+
+	public IndexBuildListener getIndexBuildListener() {
+		return indexBuildListener;
+	}
+
+	/**
+	 * Receive progress reports while key indexes are built.
+	 * @param indexBuildListener The listener, or null for none
+	 */
+	public void setIndexBuildListener(IndexBuildListener indexBuildListener) {
+		this.indexBuildListener = indexBuildListener;
+	}
+
+	public int getIndexCacheSize() {
+		return indexCacheSize;
+	}
+
+	/**
+	 * Number of key index lookups to cache, or 0 to not cache
+	 * lookups.  Lookups are invalidated by this graph's writes;
+	 * writes by other processes are seen after the time to live.
+	 * @param indexCacheSize Number of lookups
+	 */
+	public void setIndexCacheSize(int indexCacheSize) {
+		if (indexCacheSize < 0) {
+			throw new IllegalArgumentException("Index cache size cannot be negative");
+		}
+		this.indexCacheSize = indexCacheSize;
+	}
+
+	public long getIndexCacheTtl() {
+		return indexCacheTtl;
+	}
+
+	/**
+	 * How long cached key index lookups are kept.
+	 * @param indexCacheTtl Milliseconds
+	 */
+	public void setIndexCacheTtl(long indexCacheTtl) {
+		if (indexCacheTtl < 1) {
+			throw new IllegalArgumentException("Index cache time to live must be positive");
+		}
+		this.indexCacheTtl = indexCacheTtl;
+	}
+
+	public IndexLookupCache getIndexLookupCache() {
+		return indexLookupCache;
+	}
+
+	/**
+	 * Cache key index lookups in an existing cache, so that
+	 * graphs in the same process can share it, and see each
+	 * other's writes.  Overrides the cache size and time to live.
+	 * @param indexLookupCache The cache, or null for none
+	 */
+	public void setIndexLookupCache(IndexLookupCache indexLookupCache) {
+		this.indexLookupCache = indexLookupCache;
+	}
+
+	public boolean getLazyIndexCleanup() {
+		return lazyIndexCleanup;
+	}
+
+	/**
+	 * If true, setting or removing an indexed property does not
+	 * read its old value to remove the old index entry.  Old
+	 * entries are left in place, and are removed when lookups
+	 * find that their element's value has changed, or by
+	 * {@link AccumuloGraph#removeStaleIndexEntries}.  This speeds
+	 * up bulk updates, at the cost of checking each lookup's
+	 * results.  Index statistics drift up: setting a value counts
+	 * an entry even if the element already had that value, and the
+	 * entry is only counted out once.  So queries do not use the
+	 * statistics to choose an index with this option.
+	 * @param lazyIndexCleanup Clean up lazily or not
+	 */
+	public void setLazyIndexCleanup(boolean lazyIndexCleanup) {
+		this.lazyIndexCleanup = lazyIndexCleanup;
+	}
+
+	public boolean getAsyncIndexing() {
+		return asyncIndexing;
+	}
+
+	/**
+	 * If true, key index mutations are queued and written by
+	 * separate threads, so graph writes do not wait for the index
+	 * table.  Lookups may miss recent writes until they are written;
+	 * {@link AccumuloGraph#awaitIndexed} waits for them.  Overrides
+	 * autoflush for the index table.
+	 * @param asyncIndexing Write asynchronously or not
+	 */
+	public void setAsyncIndexing(boolean asyncIndexing) {
+		this.asyncIndexing = asyncIndexing;
+	}
+
+	public int getAsyncIndexQueueSize() {
+		return asyncIndexQueueSize;
+	}
+
+	/**
+	 * Most index mutations queued at once with asynchronous
+	 * indexing.  Writes wait while the queue is full.
+	 * @param asyncIndexQueueSize Number of mutations
+	 */
+	public void setAsyncIndexQueueSize(int asyncIndexQueueSize) {
+		if (asyncIndexQueueSize < 1) {
+			throw new IllegalArgumentException("Async index queue size must be positive");
+		}
+		this.asyncIndexQueueSize = asyncIndexQueueSize;
+	}
+
+	public int getAsyncIndexThreads() {
+		return asyncIndexThreads;
+	}
+
+	/**
+	 * Number of threads writing queued index mutations
+	 * with asynchronous indexing.  Each index row is written
+	 * by one of them, so its changes stay in order.
+	 * @param asyncIndexThreads Number of threads
+	 */
+	public void setAsyncIndexThreads(int asyncIndexThreads) {
+		if (asyncIndexThreads < 1) {
+			throw new IllegalArgumentException("Async index threads must be positive");
+		}
+		this.asyncIndexThreads = asyncIndexThreads;
+	}
+
+	public int getPrefetchDepth() {
+		return prefetchDepth;
+	}
+
+	/**
+	 * Number of elements that vertex and edge range scans, and
+	 * a vertex's edges, are read ahead of the caller, in separate
+	 * threads.  0, the default, reads them as they are used.
+	 * @param prefetchDepth Number of elements
+	 */
+	public void setPrefetchDepth(int prefetchDepth) {
+		if (prefetchDepth < 0) {
+			throw new IllegalArgumentException("Prefetch depth cannot be negative");
+		}
+		this.prefetchDepth = prefetchDepth;
+	}
+
+	public int getPrefetchThreads() {
+		return prefetchThreads;
+	}
+
+	/**
+	 * Number of threads shared by the iterators that read ahead.
+	 * @param prefetchThreads Number of threads
+	 */
+	public void setPrefetchThreads(int prefetchThreads) {
+		if (prefetchThreads < 1) {
+			throw new IllegalArgumentException("Prefetch threads must be positive");
+		}
+		this.prefetchThreads = prefetchThreads;
+	}
+
+	public boolean getTransactional() {
+		return transactional;
+	}
+
+	/**
+	 * If true, each thread's changes are kept until it calls
+	 * {@link AccumuloGraph#commit}, which writes them with one
+	 * mutation per row, or {@link AccumuloGraph#rollback}, which
+	 * discards them.  Overrides autoflush.
+	 * @param transactional Transactional or not
+	 */
+	public void setTransactional(boolean transactional) {
+		this.transactional = transactional;
+	}
+
+	/**
+	 * A copy of these options, sharing the connector,
+	 * e.g. for another graph over the same tables.
+	 * @return
+	 */
+	protected AccumuloGraphOptions copy() {
+		try {
+			return (AccumuloGraphOptions) clone();
+		} catch (CloneNotSupportedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 	@Override
 	public String toString() {
 		return "AccumuloGraphOptions [instance=" + instance + ", zookeepers="
 				+ zookeepers + ", username=" + username + ", graphTable="
 				+ graphTable + ", indexTable=" + indexTable + ", mock=" + mock
 				+ ", autoflush=" + autoflush + ", returnRemovedPropertyValues="
-				+ returnRemovedPropertyValues + "]";
+				+ returnRemovedPropertyValues + ", indexBuildThreads="
+				+ indexBuildThreads + ", indexShards=" + indexShards
+				+ ", indexScanThreshold=" + indexScanThreshold
+				+ ", indexCacheSize=" + indexCacheSize
+				+ ", indexCacheTtl=" + indexCacheTtl
+				+ ", lazyIndexCleanup=" + lazyIndexCleanup
+				+ ", asyncIndexing=" + asyncIndexing
+				+ ", asyncIndexQueueSize=" + asyncIndexQueueSize
+				+ ", asyncIndexThreads=" + asyncIndexThreads
+				+ ", prefetchDepth=" + prefetchDepth
+				+ ", prefetchThreads=" + prefetchThreads
+				+ ", transactional=" + transactional + "]";
 	}
 
 }
@@ -0,0 +1,180 @@
+package accumulograph;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.apache.accumulo.core.client.Scanner;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.hadoop.io.Text;
+
+import accumulograph.Const.ElementType;
+
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Vertex;
+
+/**
+ * A contiguous range of vertex or edge rows in the graph table.
+ * The partitions returned by {@link AccumuloGraph#partitions(ElementType, int)}
+ * cover every element of a type without overlapping.
+ *
+ * Each iteration uses its own scanner, so different partitions
+ * can be walked concurrently from separate threads.  To hand a
+ * partition to another process, send its range and rebuild it
+ * there with the public constructor.
+ */
+public class AccumuloGraphPartition {
+
+	protected AccumuloGraph parent;
+	protected ElementType type;
+	protected Range range;
+
+	public AccumuloGraphPartition(AccumuloGraph parent, ElementType type, Range range) {
+		if (parent == null) {
+			throw new IllegalArgumentException("Graph cannot be null");
+		} else if (type == null) {
+			throw new IllegalArgumentException("Type cannot be null");
+		} else if (range == null) {
+			throw new IllegalArgumentException("Range cannot be null");
+		}
+
+		this.parent = parent;
+		this.type = type;
+		this.range = range;
+	}
+
+	public ElementType getType() {
+		return type;
+	}
+
+	/**
+	 * The range of graph table rows covered by this partition.
+	 * @return
+	 */
+	public Range getRange() {
+		return range;
+	}
+
+	/**
+	 * Iterate over the vertices in this partition.
+	 * @return
+	 */
+	public Iterable<Vertex> getVertices() {
+		if (type != ElementType.VERTEX) {
+			throw new IllegalStateException("Not a vertex partition");
+		}
+
+		return new Iterable<Vertex>() {
+			@Override
+			public Iterator<Vertex> iterator() {
+				Scanner s = parent.createScanner();
+				s.setRange(range);
+				s.fetchColumnFamily(Const.VERTEX_SIGNAL);
+				final Iterator<Map.Entry<Key, Value>> i = s.iterator();
+
+				return new Iterator<Vertex>() {
+
+					private Text row = new Text();
+
+					@Override
+					public boolean hasNext() {
+						return i.hasNext();
+					}
+
+					@Override
+					public Vertex next() {
+						if (!i.hasNext()) {
+							throw new NoSuchElementException();
+						}
+
+						i.next().getKey().getRow(row);
+						return new AccumuloVertex(parent, AccumuloIdManager.fromText(row));
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+	}
+
+	/**
+	 * Iterate over the edges in this partition.  Labels and
+	 * endpoints are read in the same scan, so no further
+	 * lookups are made per edge.
+	 * @return
+	 */
+	public Iterable<Edge> getEdges() {
+		if (type != ElementType.EDGE) {
+			throw new IllegalStateException("Not an edge partition");
+		}
+
+		return new Iterable<Edge>() {
+			@Override
+			public Iterator<Edge> iterator() {
+				Scanner s = parent.createScanner();
+				s.setRange(range);
+				s.fetchColumnFamily(Const.EDGE_SIGNAL);
+				s.fetchColumnFamily(Const.EDGE_OUT_VERTEX);
+				s.fetchColumnFamily(Const.EDGE_IN_VERTEX);
+				final Iterator<Map.Entry<Key, Value>> i = s.iterator();
+
+				return new Iterator<Edge>() {
+
+					private Map.Entry<Key, Value> pending = null;
+					private Text row = new Text();
+
+					@Override
+					public boolean hasNext() {
+						return pending != null || i.hasNext();
+					}
+
+					@Override
+					public Edge next() {
+						if (!hasNext()) {
+							throw new NoSuchElementException();
+						}
+
+						if (pending == null) {
+							pending = i.next();
+						}
+
+						// Entries of a row are adjacent in a scan, so
+						// read until the row changes.
+						pending.getKey().getRow(row);
+						AccumuloEdge edge = new AccumuloEdge(parent,
+								AccumuloIdManager.fromText(row), null, null, null);
+						edge.readEntry(pending.getKey());
+						pending = null;
+
+						while (i.hasNext()) {
+							Map.Entry<Key, Value> entry = i.next();
+							if (!entry.getKey().getRow().equals(row)) {
+								pending = entry;
+								break;
+							}
+							edge.readEntry(entry.getKey());
+						}
+
+						return edge;
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+	}
+
+	@Override
+	public String toString() {
+		return "AccumuloGraphPartition [type=" + type + ", range=" + range + "]";
+	}
+
+}
@@ -0,0 +1,171 @@
+package accumulograph;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.tinkerpop.blueprints.Compare;
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Element;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.util.DefaultGraphQuery;
+
+/**
+ * Graph query implementation.  The query's equality conditions
+ * pick where candidate elements are read from:
+ * <ul>
+ * <li>If they bind all the keys of a composite index, that index.</li>
+ * <li>Otherwise, the key index estimated to match the fewest
+ * elements, unless it is estimated to match more than the scan
+ * threshold fraction of all elements.</li>
+ * <li>Otherwise, a scan of all elements.</li>
+ * </ul>
+ * All of the conditions are then checked on the candidates.
+ */
+public class AccumuloGraphQuery extends DefaultGraphQuery {
+
+	protected AccumuloGraph parent;
+
+	public AccumuloGraphQuery(AccumuloGraph parent) {
+		super(parent);
+		this.parent = parent;
+	}
+
+	@Override
+	public Iterable<Vertex> vertices() {
+		return this.<Vertex>filter(candidates(AccumuloVertex.class, parent.getVertices()));
+	}
+
+	@Override
+	public Iterable<Edge> edges() {
+		return this.<Edge>filter(candidates(AccumuloEdge.class, parent.getEdges()));
+	}
+
+	/**
+	 * Choose where to read candidate elements from.
+	 * @param elementClass Vertices or edges
+	 * @param all All elements, to scan if no index helps
+	 * @return
+	 */
+	protected <T extends AccumuloElement> Iterable<? extends Element> candidates(Class<T> elementClass,
+			Iterable<? extends Element> all) {
+		if (parent.keyIndex == null) {
+			return all;
+		}
+
+		Map<String, Object> bound = new HashMap<String, Object>();
+		for (HasContainer has : hasContainers) {
+			if (has.predicate == Compare.EQUAL && has.value != null
+					&& !bound.containsKey(has.key)) {
+				bound.put(has.key, has.value);
+			}
+		}
+
+		String name = parent.keyIndex.findCompositeIndex(bound.keySet(), elementClass);
+		if (name != null) {
+			List<Object> values = new ArrayList<Object>();
+			for (String key : parent.keyIndex.getCompositeKeys(name, elementClass)) {
+				values.add(bound.get(key));
+			}
+			return parent.keyIndex.getElements(name, values, elementClass);
+		}
+
+		Set<String> indexedKeys = parent.keyIndex.getIndexedKeys(elementClass);
+		String bestKey = null;
+		long bestCount = Long.MAX_VALUE;
+		// With lazy index cleanup the statistics drift, so any
+		// indexed key is used, whatever its count.
+		boolean counted = !parent.opts.getLazyIndexCleanup();
+
+		for (Map.Entry<String, Object> entry : bound.entrySet()) {
+			if (!indexedKeys.contains(entry.getKey())) {
+				continue;
+			}
+			else if (!counted) {
+				bestKey = entry.getKey();
+				break;
+			}
+
+			long count = parent.keyIndex.estimateCount(entry.getKey(), entry.getValue(), elementClass);
+			if (count >= 0 && count < bestCount) {
+				bestKey = entry.getKey();
+				bestCount = count;
+			}
+		}
+
+		if (bestKey == null) {
+			return all;
+		}
+
+		// Reading elements through an index costs more per element
+		// than scanning them, so only use it if it is selective.
+		long elements = parent.keyIndex.estimateElementCount(elementClass);
+		if (counted && elements > 0 && bestCount > elements * parent.opts.getIndexScanThreshold()) {
+			return all;
+		}
+
+		return parent.keyIndex.getElements(bestKey, bound.get(bestKey), elementClass);
+	}
+
+	/**
+	 * Apply all of the query's conditions, and its limit.
+	 */
+	protected <E extends Element> Iterable<E> filter(final Iterable<? extends Element> elements) {
+		return new Iterable<E>() {
+
+			@Override
+			public Iterator<E> iterator() {
+				final Iterator<? extends Element> i = elements.iterator();
+
+				return new Iterator<E>() {
+
+					private E next;
+					private int count = 0;
+
+					@Override
+					@SuppressWarnings("unchecked")
+					public boolean hasNext() {
+						while (next == null && count < limit && i.hasNext()) {
+							Element element = i.next();
+							if (matches(element)) {
+								next = (E) element;
+							}
+						}
+						return next != null;
+					}
+
+					@Override
+					public E next() {
+						if (!hasNext()) {
+							throw new NoSuchElementException();
+						}
+
+						E element = next;
+						next = null;
+						count++;
+						return element;
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+	}
+
+	private boolean matches(Element element) {
+		for (HasContainer has : hasContainers) {
+			if (!has.isLegal(element)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
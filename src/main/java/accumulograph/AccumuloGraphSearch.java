@@ -0,0 +1,316 @@
+package accumulograph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.io.Text;
+
+import accumulograph.Const.ElementType;
+
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Vertex;
+
+/**
+ * Breadth-first search and shortest paths over the graph.
+ *
+ * Searches run level by level.  Each level's frontier is expanded
+ * with batch scans through {@link BatchLookup}, whose query threads
+ * fetch the rows in parallel.  Visited vertices are kept in a
+ * {@link CompactIdSet}, with depths, parents and frontiers in int
+ * arrays.
+ *
+ * A search stops at the maximum depth, and fails with an
+ * {@link IllegalStateException} if it visits more than the
+ * maximum number of vertices.
+ */
+public class AccumuloGraphSearch {
+
+	protected AccumuloGraph parent;
+	protected int maxDepth;
+	protected int maxVisited;
+
+	/**
+	 * Create a search with no limits.
+	 * @param parent The graph
+	 */
+	public AccumuloGraphSearch(AccumuloGraph parent) {
+		this(parent, Integer.MAX_VALUE, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Create a search with limits.
+	 * @param parent The graph
+	 * @param maxDepth Maximum number of hops from the start
+	 * @param maxVisited Maximum number of vertices to visit
+	 */
+	public AccumuloGraphSearch(AccumuloGraph parent, int maxDepth, int maxVisited) {
+		if (parent == null) {
+			throw new IllegalArgumentException("Graph cannot be null");
+		} else if (maxDepth < 0) {
+			throw new IllegalArgumentException("Max depth cannot be negative");
+		} else if (maxVisited < 1) {
+			throw new IllegalArgumentException("Max visited must be positive");
+		}
+
+		this.parent = parent;
+		this.maxDepth = maxDepth;
+		this.maxVisited = maxVisited;
+	}
+
+	/**
+	 * Breadth-first search from a vertex.
+	 * @param startId Id of the start vertex
+	 * @param direction Direction of edges to follow
+	 * @param labels Only follow edges with these labels, or all if empty
+	 * @return The vertices at each distance, starting with the
+	 *   start vertex at distance 0, or no levels if the start
+	 *   vertex does not exist
+	 */
+	public List<List<Vertex>> bfs(Object startId, Direction direction, String... labels) {
+		List<List<Vertex>> levels = new ArrayList<List<Vertex>>();
+		if (!exists(startId)) {
+			return levels;
+		}
+
+		Search search = new Search(startId, direction, labels);
+
+		while (search.frontierSize > 0) {
+			List<Vertex> level = new ArrayList<Vertex>(search.frontierSize);
+			for (int i = 0; i < search.frontierSize; i++) {
+				level.add(search.vertex(search.frontier[i]));
+			}
+			levels.add(level);
+
+			if (search.depth >= maxDepth) {
+				break;
+			}
+			search.expand();
+		}
+
+		return levels;
+	}
+
+	/**
+	 * Find a shortest path between two vertices by searching
+	 * forward from the first one.
+	 * @param fromId Id of the first vertex
+	 * @param toId Id of the last vertex
+	 * @param direction Direction of edges to follow
+	 * @param labels Only follow edges with these labels, or all if empty
+	 * @return The vertices on the path, including both ends, or
+	 *   null if there is no path within the maximum depth, or
+	 *   either vertex does not exist
+	 */
+	public List<Vertex> shortestPath(Object fromId, Object toId, Direction direction, String... labels) {
+		Text target = toRow(toId);
+		if (!exists(fromId) || !exists(toId)) {
+			return null;
+		}
+
+		Search search = new Search(fromId, direction, labels);
+
+		while (true) {
+			int found = search.visited.indexOf(target);
+			if (found >= 0) {
+				return search.path(found);
+			}
+
+			if (search.frontierSize == 0 || search.depth >= maxDepth) {
+				return null;
+			}
+			search.expand();
+		}
+	}
+
+	/**
+	 * Find a shortest path between two vertices by searching
+	 * from both ends at once, always expanding the smaller
+	 * frontier.  This visits far fewer vertices than
+	 * {@link #shortestPath} when paths are long.
+	 * @param fromId Id of the first vertex
+	 * @param toId Id of the last vertex
+	 * @param direction Direction of edges to follow from the first vertex
+	 * @param labels Only follow edges with these labels, or all if empty
+	 * @return The vertices on the path, including both ends, or
+	 *   null if there is no path within the maximum depth, or
+	 *   either vertex does not exist
+	 */
+	public List<Vertex> bidirectionalShortestPath(Object fromId, Object toId,
+			Direction direction, String... labels) {
+		if (!exists(fromId) || !exists(toId)) {
+			return null;
+		}
+
+		Search forward = new Search(fromId, direction, labels);
+		Search backward = new Search(toId, reverse(direction), labels);
+
+		if (forward.root.equals(backward.root)) {
+			return forward.path(0);
+		}
+
+		while (forward.frontierSize > 0 && backward.frontierSize > 0
+				&& forward.depth + backward.depth < maxDepth) {
+			Search expanded = forward.frontierSize <= backward.frontierSize ? forward : backward;
+			Search other = expanded == forward ? backward : forward;
+			expanded.expand();
+
+			// Of the vertices both sides have reached, take the one
+			// on the shortest combined path.
+			int best = -1;
+			int bestLength = Integer.MAX_VALUE;
+			for (int i = 0; i < expanded.frontierSize; i++) {
+				int ordinal = expanded.frontier[i];
+				int otherOrdinal = other.visited.indexOf(expanded.visited.get(ordinal));
+				if (otherOrdinal >= 0) {
+					int length = expanded.depths[ordinal] + other.depths[otherOrdinal];
+					if (length < bestLength) {
+						best = ordinal;
+						bestLength = length;
+					}
+				}
+			}
+
+			if (best >= 0) {
+				Text meeting = expanded.visited.get(best);
+				List<Vertex> path = forward.path(forward.visited.indexOf(meeting));
+				List<Vertex> rest = backward.path(backward.visited.indexOf(meeting));
+				Collections.reverse(rest);
+				path.addAll(rest.subList(1, rest.size()));
+				return path;
+			}
+		}
+
+		return null;
+	}
+
+	private static Direction reverse(Direction direction) {
+		if (direction == Direction.OUT) {
+			return Direction.IN;
+		}
+		else if (direction == Direction.IN) {
+			return Direction.OUT;
+		}
+		else {
+			return Direction.BOTH;
+		}
+	}
+
+	private boolean exists(Object id) {
+		return parent.getVertex(id) != null;
+	}
+
+	private static Text toRow(Object id) {
+		if (id == null) {
+			throw new IllegalArgumentException("Id cannot be null");
+		}
+		return AccumuloIdManager.toText(new AccumuloElementId(id), ElementType.VERTEX);
+	}
+
+	/**
+	 * State of a search from one vertex.
+	 */
+	private class Search {
+
+		private Direction direction;
+		private String[] labels;
+
+		private Text root;
+		private CompactIdSet visited = new CompactIdSet();
+		private int[] depths = new int[1024];
+		private int[] parents = new int[1024];
+
+		// Ordinals of the vertices found in the last level.
+		private int[] frontier = new int[16];
+		private int frontierSize = 0;
+		private int depth = 0;
+
+		public Search(Object startId, Direction direction, String[] labels) {
+			this.direction = direction;
+			this.labels = labels;
+			this.root = toRow(startId);
+			frontier[frontierSize++] = visit(root, -1);
+		}
+
+		/**
+		 * Find the next level of the search.
+		 */
+		public void expand() {
+			int[] next = new int[Math.max(16, frontierSize)];
+			int nextSize = 0;
+
+			for (int start = 0; start < frontierSize; start += Const.BATCH_LOOKUP_SIZE) {
+				int end = Math.min(start + Const.BATCH_LOOKUP_SIZE, frontierSize);
+
+				List<Text> rows = new ArrayList<Text>(end - start);
+				for (int i = start; i < end; i++) {
+					rows.add(visited.get(frontier[i]));
+				}
+
+				Map<Text, List<Text>> neighbors = parent.batchLookup.neighbors(rows, direction, labels);
+
+				for (Map.Entry<Text, List<Text>> entry : neighbors.entrySet()) {
+					int from = visited.indexOf(entry.getKey());
+
+					for (Text row : entry.getValue()) {
+						int ordinal = visit(row, from);
+						if (ordinal >= 0) {
+							if (nextSize == next.length) {
+								next = Arrays.copyOf(next, next.length * 2);
+							}
+							next[nextSize++] = ordinal;
+						}
+					}
+				}
+			}
+
+			frontier = next;
+			frontierSize = nextSize;
+			depth++;
+		}
+
+		/**
+		 * Mark a vertex as visited.
+		 * @return Its ordinal, or -1 if it was already visited
+		 */
+		private int visit(Text row, int from) {
+			int before = visited.size();
+			int ordinal = visited.addOrGet(row);
+			if (visited.size() == before) {
+				return -1;
+			}
+
+			if (visited.size() > maxVisited) {
+				throw new IllegalStateException("Search visited more than " + maxVisited + " vertices");
+			}
+
+			if (ordinal >= parents.length) {
+				parents = Arrays.copyOf(parents, parents.length * 2);
+				depths = Arrays.copyOf(depths, depths.length * 2);
+			}
+
+			parents[ordinal] = from;
+			depths[ordinal] = from < 0 ? 0 : depths[from] + 1;
+			return ordinal;
+		}
+
+		public Vertex vertex(int ordinal) {
+			return new AccumuloVertex(parent, AccumuloIdManager.fromText(visited.get(ordinal)));
+		}
+
+		/**
+		 * The path from the start of the search to a visited vertex.
+		 */
+		public List<Vertex> path(int ordinal) {
+			List<Vertex> path = new ArrayList<Vertex>();
+			for (int i = ordinal; i >= 0; i = parents[i]) {
+				path.add(vertex(i));
+			}
+			Collections.reverse(path);
+			return path;
+		}
+	}
+
+}
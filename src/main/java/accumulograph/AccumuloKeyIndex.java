@@ -1,34 +1,63 @@
 package accumulograph;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.accumulo.core.Constants;
 import org.apache.accumulo.core.client.AccumuloException;
 import org.apache.accumulo.core.client.AccumuloSecurityException;
+import org.apache.accumulo.core.client.BatchScanner;
 import org.apache.accumulo.core.client.BatchWriter;
+import org.apache.accumulo.core.client.IteratorSetting;
 import org.apache.accumulo.core.client.MutationsRejectedException;
 import org.apache.accumulo.core.client.Scanner;
 import org.apache.accumulo.core.client.TableExistsException;
 import org.apache.accumulo.core.client.TableNotFoundException;
+import org.apache.accumulo.core.client.admin.TableOperations;
 import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.PartialKey;
 import org.apache.accumulo.core.data.Range;
 import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.Combiner;
+import org.apache.accumulo.core.iterators.LongCombiner;
+import org.apache.accumulo.core.iterators.user.SummingCombiner;
 import org.apache.hadoop.io.Text;
 
-import com.tinkerpop.blueprints.Element;
+import accumulograph.Const.ElementType;
+import accumulograph.KeyIndexDefinition.Mode;
+
+import com.tinkerpop.blueprints.Parameter;
 
 /**
  * Key index implementation.  The key index is stored in
  * a separate table, specified using options.
  * 
- * TODO Make this faster by prefixing property rows as appropriate
- * (V/E) and then use Utils.deleteRow() to speedily drop indexed keys.
+ * Entries for each indexed key are kept in their own row,
+ * prefixed by element type (V/E), so that dropping a key index
+ * is a single range deletion.  A key can be sharded across
+ * several such rows by element, so that a popular key does
+ * not become one huge row on a single tablet.
  * 
  * @author Mike Lieberman (http://mikelieberman.org)
  */
@@ -39,6 +68,20 @@ public class AccumuloKeyIndex {
 	private BatchWriter indexWriter;
 	private Set<String> indexedVertexKeys;
 	private Set<String> indexedEdgeKeys;
+	// Indexed keys whose build has not finished.
+	private Set<String> buildingVertexKeys;
+	private Set<String> buildingEdgeKeys;
+	// How each indexed key is indexed.
+	private Map<String, KeyIndexDefinition> vertexDefinitions;
+	private Map<String, KeyIndexDefinition> edgeDefinitions;
+	// Cache of lookups, or null if not caching.
+	private IndexLookupCache cache;
+	// Statistics changes made outside transactions, written
+	// when the index writer is flushed or they are read.
+	private final StatsBuffer pendingStats = new StatsBuffer();
+	// Invalidations to run again when the index writer is flushed,
+	// if it holds changes until then, or null for all lookups.
+	private List<Runnable> unflushedInvalidations = new ArrayList<Runnable>();
 
 	public AccumuloKeyIndex(AccumuloGraph parent) throws TableNotFoundException, AccumuloException {
 		this.parent = parent;
@@ -50,19 +93,58 @@ public class AccumuloKeyIndex {
 
 		indexedVertexKeys = new HashSet<String>();
 		indexedEdgeKeys = new HashSet<String>();
+		buildingVertexKeys = new HashSet<String>();
+		buildingEdgeKeys = new HashSet<String>();
+		vertexDefinitions = new HashMap<String, KeyIndexDefinition>();
+		edgeDefinitions = new HashMap<String, KeyIndexDefinition>();
+
+		cache = parent.opts.getIndexLookupCache();
+		if (cache == null && parent.opts.getIndexCacheSize() > 0) {
+			cache = new IndexLookupCache(parent.opts.getIndexCacheSize(),
+					parent.opts.getIndexCacheTtl());
+		}
 
 		initScannerAndWriter();
+		initStatistics();
+		upgradeLayout();
 		reloadIndexedKeys();
+		upgradeStatistics();
 	}
 
 	public void clear() throws AccumuloException, AccumuloSecurityException, TableNotFoundException, TableExistsException {
+		// Stop the old writer's threads.
+		if (asyncWriter() != null) {
+			asyncWriter().close();
+		}
 		Utils.recreateTable(parent.opts.getConnector(),
 				parent.opts.getIndexTable());
+		synchronized (pendingStats) {
+			pendingStats.clear();
+		}
+		synchronized (this) {
+			unflushedInvalidations = new ArrayList<Runnable>();
+		}
+		if (cache != null) {
+			cache.invalidate(parent.opts.getIndexTable());
+		}
 		initScannerAndWriter();
+		initStatistics();
+		upgradeLayout();
+		reloadIndexedKeys();
+		upgradeStatistics();
+	}
+
+	/**
+	 * The cache of lookups, or null if lookups are not cached.
+	 */
+	public IndexLookupCache getCache() {
+		return cache;
 	}
 
 	public void close() throws MutationsRejectedException {
+		writeStatistics();
 		indexWriter.flush();
+		flushed();
 		indexWriter.close();
 	}
 
@@ -70,254 +152,2337 @@ public class AccumuloKeyIndex {
 		indexScanner = parent.opts.getConnector().createScanner(
 				parent.opts.getIndexTable(), Constants.NO_AUTHS);
 
-		indexWriter = parent.opts.getConnector().createBatchWriter(
-				parent.opts.getIndexTable(), 1000000L, 10L, 2);
-		if (parent.opts.getAutoflush()) {
+		if (parent.bulk) {
+			indexWriter = createBulkWriter();
+		}
+		else {
+			indexWriter = parent.opts.getConnector().createBatchWriter(
+					parent.opts.getIndexTable(), 1000000L, 10L, 2);
+		}
+
+		if (parent.opts.getAsyncIndexing()) {
+			indexWriter = new AsyncIndexWriter(indexWriter, parent.opts.getAsyncIndexQueueSize(),
+					parent.opts.getAsyncIndexThreads());
+		}
+		else if (parent.opts.getAutoflush() && !parent.opts.getTransactional()) {
 			indexWriter = new FlushedBatchWriter(indexWriter);
 		}
+
+		if (parent.opts.getTransactional()) {
+			indexWriter = new TransactionalWriter(parent, indexWriter, true,
+					parent.opts.getAutoflush() && !parent.opts.getAsyncIndexing());
+		}
 	}
 
-	public <T extends AccumuloElement> void createKeyIndex(String key, Class<T> elementClass) {
-		Set<String> indexedKeys;
-		Iterable<? extends Element> elements;
-		Text propertyList;
+	/**
+	 * The writer that index changes are written with,
+	 * rather than added to a transaction.
+	 */
+	protected BatchWriter directWriter() {
+		return indexWriter instanceof TransactionalWriter
+				? ((TransactionalWriter) indexWriter).getWriter() : indexWriter;
+	}
 
-		if (elementClass.equals(AccumuloVertex.class)) {
-			indexedKeys = indexedVertexKeys;
-			elements = parent.getVertices();
-			propertyList = Const.VERTEX_PROPERTY_LIST;
-		}
-		else {
-			indexedKeys = indexedEdgeKeys;
-			elements = parent.getEdges();
-			propertyList = Const.EDGE_PROPERTY_LIST;
+	/**
+	 * The asynchronous index writer, or null with synchronous indexing.
+	 */
+	private AsyncIndexWriter asyncWriter() {
+		BatchWriter writer = directWriter();
+		return writer instanceof AsyncIndexWriter ? (AsyncIndexWriter) writer : null;
+	}
+
+	/**
+	 * Wait until all index writes made so far are written.
+	 * With synchronous indexing, this flushes the index writer.
+	 */
+	public void awaitIndexed() {
+		writeStatistics();
+		Utils.flush(indexWriter);
+		flushed();
+	}
+
+	/**
+	 * Run the invalidations of changes the index writer held
+	 * until it was flushed, since lookups made before then may
+	 * have cached the old entries again.
+	 */
+	private void flushed() {
+		List<Runnable> invalidations;
+		synchronized (this) {
+			invalidations = unflushedInvalidations;
+			unflushedInvalidations = new ArrayList<Runnable>();
 		}
 
-		if (indexedKeys.contains(key)) {
+		if (invalidations == null) {
+			cache.invalidate(parent.opts.getIndexTable());
 			return;
 		}
+		for (Runnable invalidation : invalidations) {
+			invalidation.run();
+		}
+	}
 
-		// Add to indexed key list.
-		Mutation m = new Mutation(propertyList);
-		m.put(Utils.stringToText(key), Const.EMPTY_TEXT, Const.EMPTY_VALUE);
-		Utils.addMutation(indexWriter, m, 50L);
-		// Flush explicitly because this is important.
-		Utils.flush(indexWriter);
-		reloadIndexedKeys();
+	/**
+	 * Wait until all index writes made so far are written,
+	 * or for at most a timeout.
+	 * @return True if they were written in time
+	 */
+	public boolean awaitIndexed(long timeout, TimeUnit unit) throws InterruptedException {
+		if (asyncWriter() != null) {
+			writeStatistics();
+			return asyncWriter().awaitWritten(timeout, unit);
+		}
+		awaitIndexed();
+		return true;
+	}
+
+	/**
+	 * Number of index mutations queued but not yet written,
+	 * which is always 0 with synchronous indexing.
+	 */
+	public long getLag() {
+		return asyncWriter() != null ? asyncWriter().getLag() : 0;
+	}
+
+	/**
+	 * How long the oldest index mutation not yet written has
+	 * been queued, in milliseconds.
+	 */
+	public long getLagMillis() {
+		return asyncWriter() != null ? asyncWriter().getLagMillis() : 0;
+	}
 
-		// Find elements and do stuff.
-		for (Element element : elements) {
-			addOrRemoveFromIndex((AccumuloElement) element, true);
+	/**
+	 * Create a bulk writer for the index table.  The caller
+	 * is responsible for closing it.
+	 * @return
+	 */
+	protected BatchWriter createBulkWriter() {
+		try {
+			return parent.opts.getConnector().createBatchWriter(parent.opts.getIndexTable(),
+					Const.BULK_WRITER_MEMORY, Const.BULK_WRITER_LATENCY, Const.BULK_WRITER_THREADS);
+		} catch (TableNotFoundException e) {
+			throw new RuntimeException(e);
+		} catch (AccumuloException e) {
+			throw new RuntimeException(e);
 		}
 	}
 
-	public <T extends AccumuloElement> void dropKeyIndex(String key, Class<T> elementClass) {
-		Set<String> indexedKeys;
-		Text propertyList;
+	/**
+	 * Put the combiner that sums index statistics on the
+	 * index table, if it is not there yet.
+	 */
+	private void initStatistics() throws AccumuloException {
+		String table = parent.opts.getIndexTable();
+		TableOperations ops = parent.opts.getConnector().tableOperations();
+
+		try {
+			if (!ops.listIterators(table).containsKey(Const.INDEX_STATS_COMBINER)) {
+				IteratorSetting setting = new IteratorSetting(Const.INDEX_STATS_PRIORITY,
+						Const.INDEX_STATS_COMBINER, SummingCombiner.class);
+				LongCombiner.setEncodingType(setting, LongCombiner.Type.STRING);
+				Combiner.setColumns(setting, Arrays.asList(
+						new IteratorSetting.Column(Const.INDEX_STATS_TOTAL),
+						new IteratorSetting.Column(Const.INDEX_STATS_VALUE)));
+				ops.attachIterator(table, setting);
+			}
+		} catch (AccumuloSecurityException e) {
+			throw new AccumuloException(e);
+		} catch (TableNotFoundException e) {
+			throw new AccumuloException(e);
+		}
+	}
 
-		if (elementClass.equals(AccumuloVertex.class)) {
-			indexedKeys = indexedVertexKeys;
-			propertyList = Const.VERTEX_PROPERTY_LIST;
+	/**
+	 * Older versions kept the vertex and edge entries of a key
+	 * together in a row named after the key, so lookups for one
+	 * type read (and returned) the other type's entries too.
+	 * Move any such entries into the per-type rows, telling vertices
+	 * and edges apart by the prefix of their ids.  This runs once
+	 * per index table, and is recorded by a layout marker.
+	 */
+	private void upgradeLayout() {
+		indexScanner.setRange(new Range(Const.INDEX_LAYOUT));
+		indexScanner.clearColumns();
+		indexScanner.fetchColumnFamily(Const.INDEX_LAYOUT_VERSION);
+		if (indexScanner.iterator().hasNext()) {
+			indexScanner.clearColumns();
+			return;
 		}
-		else {
-			indexedKeys = indexedEdgeKeys;
-			propertyList = Const.EDGE_PROPERTY_LIST;
+		indexScanner.clearColumns();
+
+		Set<Text> metadataRows = new HashSet<Text>();
+		metadataRows.add(Const.VERTEX_PROPERTY_LIST);
+		metadataRows.add(Const.EDGE_PROPERTY_LIST);
+		metadataRows.add(Const.VERTEX_INDEX_BUILDS);
+		metadataRows.add(Const.EDGE_INDEX_BUILDS);
+		metadataRows.add(Const.INDEX_LAYOUT);
+		metadataRows.add(Const.ELEMENT_COUNTS);
+
+		Set<Text> legacyRows = new HashSet<Text>();
+		Text row = new Text();
+		Text cf = new Text();
+		Text cq = new Text();
+
+		indexScanner.setRange(new Range());
+		for (Map.Entry<Key, Value> entry : indexScanner) {
+			entry.getKey().getRow(row);
+
+			// Current rows always contain the separator.
+			if (metadataRows.contains(row) || row.find("\0") >= 0) {
+				continue;
+			}
+
+			entry.getKey().getColumnFamily(cf);
+			entry.getKey().getColumnQualifier(cq);
+			ElementType type = cq.toString().startsWith(Const.VERTEX_ID_PREFIX) ?
+					ElementType.VERTEX : ElementType.EDGE;
+
+			Mutation m = new Mutation(indexRow(type, Utils.textToString(row)));
+			m.put(cf, cq, Const.EMPTY_VALUE);
+			Utils.addMutation(indexWriter, m);
+
+			legacyRows.add(new Text(row));
 		}
 
-		if (!indexedKeys.contains(key)) {
+		for (Text legacyRow : legacyRows) {
+			Utils.addMutation(indexWriter, Utils.deleteRow(legacyRow));
+		}
+
+		Mutation m = new Mutation(Const.INDEX_LAYOUT);
+		m.put(Const.INDEX_LAYOUT_VERSION, Const.EMPTY_TEXT, Const.EMPTY_VALUE);
+		Utils.addMutation(indexWriter, m);
+		Utils.flush(indexWriter);
+	}
+
+	/**
+	 * Keys indexed by versions without statistics have no
+	 * statistics rows, so would be estimated to match nothing.
+	 * Count their statistics from their entries.  This runs once
+	 * per index table, and is recorded by a layout marker.
+	 */
+	private void upgradeStatistics() {
+		indexScanner.setRange(new Range(Const.INDEX_LAYOUT));
+		indexScanner.clearColumns();
+		indexScanner.fetchColumnFamily(Const.INDEX_LAYOUT_STATISTICS);
+		if (indexScanner.iterator().hasNext()) {
+			indexScanner.clearColumns();
 			return;
 		}
+		indexScanner.clearColumns();
 
-		// Remove elements with this key in the index.
-		for (AccumuloElement element : getElements(key, null, elementClass)) {
-			// TODO This doesn't remove stuff from the index table.
-			addOrRemoveFromIndex(element, false);
+		// Builds count their keys when they finish.
+		for (ElementType type : ElementType.values()) {
+			for (String key : finishedKeys(type)) {
+				recountStatistics(type, key);
+			}
 		}
 
-		// Remove index from list.
-		Mutation m = new Mutation(propertyList);
-		m.putDelete(Utils.stringToText(key), Const.EMPTY_TEXT);
-		Utils.addMutation(indexWriter, m, 50L);
-		// Flush explicitly because this is important.
+		Mutation m = new Mutation(Const.INDEX_LAYOUT);
+		m.put(Const.INDEX_LAYOUT_STATISTICS, Const.EMPTY_TEXT, Const.EMPTY_VALUE);
+		Utils.addMutation(directWriter(), m);
+		Utils.flush(directWriter());
+	}
+
+	/**
+	 * Index a key for all existing elements of a type.  If an earlier
+	 * build of this key was interrupted, it is resumed, skipping
+	 * the partitions that were already finished.
+	 * @param key The key
+	 * @param elementClass Vertices or edges
+	 */
+	@SuppressWarnings("rawtypes")
+	public <T extends AccumuloElement> void createKeyIndex(String key, Class<T> elementClass,
+			Parameter... params) {
+		ElementType type = typeOf(elementClass);
+		Set<String> indexedKeys = type == ElementType.VERTEX ? indexedVertexKeys : indexedEdgeKeys;
+		Set<String> buildingKeys = type == ElementType.VERTEX ? buildingVertexKeys : buildingEdgeKeys;
+
+		if (indexedKeys.contains(key) && !buildingKeys.contains(key)) {
+			return;
+		}
+
+		if (!indexedKeys.contains(key)) {
+			// Mark the build as unfinished, then add to the indexed key
+			// list so new writes are indexed while the build runs.
+			// A resumed build keeps the original definition.
+			Mutation m = new Mutation(buildsRow(type));
+			m.put(Utils.stringToText(key), Const.EMPTY_TEXT, Const.EMPTY_VALUE);
+			Utils.addMutation(indexWriter, m);
+
+			m = new Mutation(propertyListRow(type));
+			m.put(Utils.stringToText(key), Const.EMPTY_TEXT,
+					Utils.objectToValue(KeyIndexDefinition.fromParameters(parent.opts, params)));
+			Utils.addMutation(indexWriter, m, 50L);
+			// Flush explicitly because this is important.
+			Utils.flush(indexWriter);
+			reloadIndexedKeys();
+		}
+
+		buildIndex(key, type);
+		recountStatistics(type, key);
+
+		// Done, so remove the checkpoints and the unfinished mark.
+		indexScanner.setRange(new Range(buildsRow(type)));
+		indexScanner.clearColumns();
+		indexScanner.fetchColumnFamily(Utils.stringToText(key));
+		Utils.deleteAllEntries(indexScanner, indexWriter);
+		indexScanner.clearColumns();
 		Utils.flush(indexWriter);
 		reloadIndexedKeys();
+		invalidate(type, key);
 	}
 
-	@SuppressWarnings("unchecked")
-	public <T extends AccumuloElement> Iterable<T> getElements(String key, Object value,
-			Class<T> elementClass) {
-		indexScanner.setRange(new Range(Utils.stringToText(key)));
+	/**
+	 * Scan the property column for a key in parallel across
+	 * partitions of the graph table, writing index entries through
+	 * a bulk writer.  The partitions are stored with the unfinished
+	 * mark when the build starts, and a resumed build uses the same
+	 * ones, so that its checkpoints match.  A checkpoint is recorded
+	 * as each partition finishes, and progress is reported to the
+	 * listener, if any.
+	 * The statistics are not counted here, since a partition may
+	 * be written again when a build is resumed.
+	 */
+	private void buildIndex(final String key, final ElementType type) {
+		final Text keyText = Utils.stringToText(key);
+		final KeyIndexDefinition def = definition(type, key);
+		final Text buildsRow = buildsRow(type);
+		final IndexBuildListener listener = parent.opts.getIndexBuildListener();
+
+		int threads = parent.opts.getIndexBuildThreads();
+
+		// Partitions of an earlier, interrupted build, and
+		// those it finished.
+		List<Range> ranges = null;
+		Set<Text> finished = new HashSet<Text>();
+		indexScanner.setRange(new Range(buildsRow));
 		indexScanner.clearColumns();
-
-		// If specified, restrict to a specific value.
-		if (value != null) {
-			indexScanner.fetchColumnFamily(Utils.objectToText(value));
+		indexScanner.fetchColumnFamily(keyText);
+		for (Map.Entry<Key, Value> entry : indexScanner) {
+			if (entry.getKey().getColumnQualifierData().length() == 0) {
+				// Older versions stored no partitions.
+				if (entry.getValue().getSize() > 0) {
+					ranges = rangesOf(entry.getValue());
+				}
+			}
+			else {
+				finished.add(entry.getKey().getColumnQualifier());
+			}
 		}
+		indexScanner.clearColumns();
 
-		final Iterator<Map.Entry<Key, Value>> i = indexScanner.iterator();
-		final Class<T> eltClass = elementClass;
+		if (ranges == null) {
+			ranges = new ArrayList<Range>();
+			for (AccumuloGraphPartition partition : parent.partitions(type,
+					threads * Const.INDEX_BUILD_PARTITIONS_PER_THREAD)) {
+				ranges.add(partition.getRange());
+			}
 
-		return new Iterable<T>() {
+			Mutation m = new Mutation(buildsRow);
+			m.put(keyText, Const.EMPTY_TEXT, rangesToValue(ranges));
+			Utils.addMutation(indexWriter, m);
+			Utils.flush(indexWriter);
+		}
+		final int total = ranges.size();
 
-			@Override
-			public Iterator<T> iterator() {
-				return new Iterator<T>() {
+		final AtomicInteger done = new AtomicInteger();
+		final AtomicLong written = new AtomicLong();
+		final BatchWriter writer = createBulkWriter();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
 
-					private Text eltIdCq = new Text();
+		try {
+			List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
 
-					@Override
-					public boolean hasNext() {
-						return i.hasNext();
-					}
+			for (final Range range : ranges) {
+				final Text checkpoint = rangeToText(range);
+				if (finished.contains(checkpoint)) {
+					done.incrementAndGet();
+					continue;
+				}
 
+				tasks.add(new Callable<Boolean>() {
 					@Override
-					public T next() {
-						if (!i.hasNext()) {
-							throw new NoSuchElementException();
+					public Boolean call() throws MutationsRejectedException {
+						Scanner s = parent.createScanner();
+						s.setRange(range);
+
+						if (def.isComposite() || def.isCovering()) {
+							for (String part : def.isComposite() ?
+									def.getCompositeKeys() : Collections.singletonList(key)) {
+								fetchKey(s, type, part);
+							}
+							for (String covered : def.getCoveredKeys()) {
+								fetchKey(s, type, covered);
+							}
+							written.addAndGet(buildGroupedEntries(s, type, key, def, writer));
+						}
+						else {
+							// Labels are in the edge signal column.
+							boolean label = isLabel(type, key);
+							if (label) {
+								s.fetchColumnFamily(Const.EDGE_SIGNAL);
+							}
+							else {
+								s.fetchColumn(Const.PROPERTY_SIGNAL, keyText);
+							}
+
+							for (Map.Entry<Key, Value> entry : s) {
+								Object value = label ?
+										Utils.textToString(entry.getKey().getColumnQualifier()) :
+										Utils.valueToObject(entry.getValue());
+								Mutation m = indexEntry(type, key, value, entry.getKey().getRow(), true,
+										Const.EMPTY_VALUE);
+								// Strings with no words have no entries.
+								if (m.size() > 0) {
+									writer.addMutation(m);
+								}
+								written.incrementAndGet();
+							}
 						}
 
-						Map.Entry<Key, Value> entry = i.next();
-						entry.getKey().getColumnQualifier(eltIdCq);
+						// Entries must be stored before the checkpoint is.
+						writer.flush();
+						Mutation m = new Mutation(buildsRow);
+						m.put(keyText, checkpoint, Const.EMPTY_VALUE);
+						writer.addMutation(m);
 
-						if (eltClass.equals(AccumuloVertex.class)) {
-							return (T) new AccumuloVertex(parent, AccumuloIdManager.fromText(eltIdCq));
-						}
-						else {
-							return (T) new AccumuloEdge(parent, AccumuloIdManager.fromText(eltIdCq));
+						int partitionsDone = done.incrementAndGet();
+						if (listener != null) {
+							listener.progress(key, type, partitionsDone, total, written.get());
 						}
+						return true;
 					}
+				});
+			}
 
-					@Override
-					public void remove() {
-						i.remove();
-					}
-				};
-			};
-		};
-	}
+			Utils.runAll(pool, tasks);
 
-	public <T extends AccumuloElement> Set<String> getIndexedKeys(Class<T> elementClass) {
-		return Collections.unmodifiableSet(
-				elementClass.equals(AccumuloVertex.class) ? indexedVertexKeys : indexedEdgeKeys);
+		} finally {
+			pool.shutdown();
+			Utils.close(writer);
+		}
 	}
 
-	public <T extends AccumuloElement> void addPropertyToIndex(T element, String key, Object value) {
-		Set<String> indexedKeys;
-
-		if (element instanceof AccumuloVertex) {
-			indexedKeys = indexedVertexKeys;
+	/**
+	 * Read a key's values in a scan of element rows.
+	 */
+	private static void fetchKey(Scanner s, ElementType type, String key) {
+		// Labels are in the edge signal column.
+		if (isLabel(type, key)) {
+			s.fetchColumnFamily(Const.EDGE_SIGNAL);
 		}
 		else {
-			indexedKeys = indexedEdgeKeys;
+			s.fetchColumn(Const.PROPERTY_SIGNAL, Utils.stringToText(key));
 		}
+	}
 
-		// Don't add things that are not indexed.
-		if (!indexedKeys.contains(key)) {
-			return;
+	/**
+	 * Write index entries for the elements in a scan of their
+	 * properties, for composite indexes and indexes that cover
+	 * other keys.  An element's properties are contiguous in the
+	 * scan, and it is indexed only if all the indexed keys are set.
+	 * @return Number of entries written
+	 */
+	private long buildGroupedEntries(Scanner s, ElementType type, String key,
+			KeyIndexDefinition def, BatchWriter writer) throws MutationsRejectedException {
+		long written = 0;
+		Text row = null;
+		Map<String, Object> values = new HashMap<String, Object>();
+
+		for (Map.Entry<Key, Value> entry : s) {
+			if (row == null || !row.equals(entry.getKey().getRow())) {
+				written += addGroupedEntry(writer, null, type, key, def, row, values);
+				row = entry.getKey().getRow();
+				values.clear();
+			}
+
+			if (entry.getKey().getColumnFamily().equals(Const.EDGE_SIGNAL)) {
+				values.put(Const.LABEL_KEY, Utils.textToString(entry.getKey().getColumnQualifier()));
+			}
+			else {
+				values.put(Utils.textToString(entry.getKey().getColumnQualifier()),
+						Utils.valueToObject(entry.getValue()));
+			}
 		}
 
-		Mutation m = new Mutation(Utils.stringToText(key));
-		m.put(Utils.objectToText(value), AccumuloIdManager.toText(element), Const.EMPTY_VALUE);
-		Utils.addMutation(indexWriter, m);
+		written += addGroupedEntry(writer, null, type, key, def, row, values);
+		return written;
 	}
 
-	public <T extends AccumuloElement> void removePropertyFromIndex(T element, String key, Object value) {
-		Set<String> indexedKeys;
+	/**
+	 * Write the index entry of an element from its values.
+	 * @param stats Statistics to count the entry in, or null
+	 * @return 1 if the element has an entry, else 0
+	 */
+	private int addGroupedEntry(BatchWriter writer, StatsBuffer stats, ElementType type, String key,
+			KeyIndexDefinition def, Text row, Map<String, Object> values) throws MutationsRejectedException {
+		if (row == null) {
+			return 0;
+		}
 
-		if (element instanceof AccumuloVertex) {
-			indexedKeys = indexedVertexKeys;
+		Object value;
+		if (def.isComposite()) {
+			List<Object> list = new ArrayList<Object>();
+			for (String part : def.getCompositeKeys()) {
+				if (values.get(part) == null) {
+					return 0;
+				}
+				list.add(values.get(part));
+			}
+			value = list;
 		}
 		else {
-			indexedKeys = indexedEdgeKeys;
+			value = values.get(key);
+			if (value == null) {
+				return 0;
+			}
 		}
 
-		// Don't remove things that are not indexed.
-		if (!indexedKeys.contains(key)) {
-			return;
+		Mutation m = indexEntry(type, key, value, row, true, coveredValue(def, values));
+		// Strings with no words have no entries.
+		if (m.size() > 0) {
+			writer.addMutation(m);
 		}
-
-		Mutation m = new Mutation(Utils.stringToText(key));
-		m.putDelete(Utils.objectToText(value), AccumuloIdManager.toText(element));
-		Utils.addMutation(indexWriter, m);
+		if (stats != null) {
+			stats.count(type, key, value, row, 1, writer);
+		}
+		return 1;
 	}
 
-	public <T extends AccumuloElement> void reindexKey(T element, String key, Object value) {
-		Set<String> indexedKeys;
+	/**
+	 * Set a key's statistics to the counts of its index entries.
+	 * Entries written while the key is being built are not counted
+	 * as they are written, so the counts are taken from the entries
+	 * once the build has written them all.  The differences from the
+	 * stored counts are written, so recounting again is harmless.
+	 * Changes made during the recount may be missed.
+	 */
+	private void recountStatistics(ElementType type, String key) {
+		KeyIndexDefinition def = definition(type, key);
+		BatchWriter writer = directWriter();
+		// Changes counted since the build finished are read too.
+		writeStatistics();
+		Utils.flush(writer);
+
+		for (int shard = 0; shard < def.getShards(); shard++) {
+			Text statsRow = statsRow(type, key, shard, def.getShards());
+			Map<Text, Long> counts = new HashMap<Text, Long>();
+
+			// Start from the negated stored counts.  The empty
+			// value holds the total.
+			indexScanner.setRange(new Range(statsRow));
+			indexScanner.clearColumns();
+			for (Map.Entry<Key, Value> entry : indexScanner) {
+				Text column = entry.getKey().getColumnFamily().equals(Const.INDEX_STATS_TOTAL)
+						? Const.EMPTY_TEXT : entry.getKey().getColumnQualifier();
+				counts.put(column, -countOf(entry.getValue()));
+			}
 
-		if (element instanceof AccumuloVertex) {
-			indexedKeys = indexedVertexKeys;
-		}
-		else {
-			indexedKeys = indexedEdgeKeys;
+			// In token mode an element has an entry per word, but
+			// the total counts elements.
+			Set<Text> elements = def.getMode() == Mode.TOKEN ? new HashSet<Text>() : null;
+			long total = 0;
+
+			indexScanner.setRange(new Range(indexRow(type, key, shard, def.getShards())));
+			for (Map.Entry<Key, Value> entry : indexScanner) {
+				Text column = entry.getKey().getColumnFamily();
+				Long count = counts.get(column);
+				counts.put(column, count == null ? 1 : count + 1);
+
+				if (elements != null) {
+					elements.add(entry.getKey().getColumnQualifier());
+				}
+				else {
+					total++;
+				}
+			}
+
+			Long count = counts.get(Const.EMPTY_TEXT);
+			counts.put(Const.EMPTY_TEXT, (count == null ? 0 : count)
+					+ (elements != null ? elements.size() : total));
+
+			Mutation m = new Mutation(statsRow);
+			for (Map.Entry<Text, Long> column : counts.entrySet()) {
+				if (column.getValue() == 0) {
+					continue;
+				}
+
+				if (column.getKey().getLength() == 0) {
+					m.put(Const.INDEX_STATS_TOTAL, Const.EMPTY_TEXT, countValue(column.getValue()));
+				}
+				else {
+					m.put(Const.INDEX_STATS_VALUE, column.getKey(), countValue(column.getValue()));
+				}
+
+				if (m.size() >= Const.INDEX_STATS_BUFFER_SIZE) {
+					Utils.addMutation(writer, m);
+					m = new Mutation(statsRow);
+				}
+			}
+			if (m.size() > 0) {
+				Utils.addMutation(writer, m);
+			}
 		}
 
-		Mutation m = new Mutation(Utils.stringToText(key));
+		indexScanner.clearColumns();
+		Utils.flush(writer);
+	}
+
+	private static Value rangesToValue(List<Range> ranges) {
+		try {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(baos);
+			out.writeInt(ranges.size());
+			for (Range range : ranges) {
+				range.write(out);
+			}
+			out.close();
+			return new Value(baos.toByteArray());
 
-		if (indexedKeys.contains(key)) {
-			m.put(Utils.objectToText(value), AccumuloIdManager.toText(element), Const.EMPTY_VALUE);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
 		}
-		else {
-			m.putDelete(Utils.objectToText(value), AccumuloIdManager.toText(element));
+	}
+
+	private static List<Range> rangesOf(Value value) {
+		try {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(value.get()));
+			int size = in.readInt();
+			List<Range> ranges = new ArrayList<Range>(size);
+			for (int i = 0; i < size; i++) {
+				Range range = new Range();
+				range.readFields(in);
+				ranges.add(range);
+			}
+			return ranges;
+
+		} catch (IOException e) {
+			throw new RuntimeException(e);
 		}
+	}
 
-		Utils.addMutation(indexWriter, m);
+	private static Text rangeToText(Range range) {
+		try {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(baos);
+			range.write(out);
+			out.close();
+			return new Text(baos.toByteArray());
+
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
 	}
 
-	public <T extends AccumuloElement> void addOrRemoveFromIndex(T element, boolean add) {
-		Set<String> indexedKeys;
+	public <T extends AccumuloElement> void dropKeyIndex(String key, Class<T> elementClass) {
+		ElementType type = typeOf(elementClass);
+		Set<String> indexedKeys = type == ElementType.VERTEX ? indexedVertexKeys : indexedEdgeKeys;
+		Text propertyList = propertyListRow(type);
 
-		if (element instanceof AccumuloVertex) {
-			indexedKeys = indexedVertexKeys;
+		if (!indexedKeys.contains(key)) {
+			return;
 		}
-		else {
-			indexedKeys = indexedEdgeKeys;
+
+		// Remove any unfinished build.
+		indexScanner.setRange(new Range(buildsRow(type)));
+		indexScanner.clearColumns();
+		indexScanner.fetchColumnFamily(Utils.stringToText(key));
+		Utils.deleteAllEntries(indexScanner, indexWriter);
+		indexScanner.clearColumns();
+
+		// Remove index from list.
+		Mutation m = new Mutation(propertyList);
+		m.putDelete(Utils.stringToText(key), Const.EMPTY_TEXT);
+		Utils.addMutation(indexWriter, m, 50L);
+		// Flush explicitly because this is important.
+		writeStatistics();
+		Utils.flush(indexWriter);
+		reloadIndexedKeys();
+
+		// Now that nothing new is indexed, delete the key's rows.
+		try {
+			parent.opts.getConnector().tableOperations().deleteRows(parent.opts.getIndexTable(),
+					keyRowsStart(type, key), keyRowsEnd(type, key));
+		} catch (AccumuloException e) {
+			throw new RuntimeException(e);
+		} catch (AccumuloSecurityException e) {
+			throw new RuntimeException(e);
+		} catch (TableNotFoundException e) {
+			throw new RuntimeException(e);
 		}
+		invalidate(type, key);
+	}
 
-		Text eltIdCq = AccumuloIdManager.toText(element);
+	/**
+	 * Find elements by an indexed key.  A key with one shard is
+	 * read with a single range scan; the shards of a sharded key
+	 * are read in parallel with a batch scanner, so results are
+	 * in no particular order.  For a key indexed in token mode,
+	 * this finds elements whose value contains all the words of
+	 * the given value.  Lookups of a value are cached, if
+	 * enabled; see {@link IndexLookupCache}.
+	 * @param key The key, or name of a composite index
+	 * @param value The value, or null for any value.  For a
+	 *   composite index, a list of the values of its keys.
+	 * @param elementClass Vertices or edges
+	 * @return
+	 */
+	public <T extends AccumuloElement> Iterable<T> getElements(String key, Object value,
+			Class<T> elementClass) {
+		return toElements(getEntries(key, value, elementClass), elementClass);
+	}
 
-		for (String key : indexedKeys) {
-			Object value = element.getProperty(key);
+	/**
+	 * Like {@link #getElements}, but only find the rows of the elements.
+	 */
+	public <T extends AccumuloElement> Iterable<Text> getElementRows(String key, Object value,
+			Class<T> elementClass) {
+		return rowsOf(getEntries(key, value, elementClass));
+	}
 
-			if (value != null) {
-				Mutation m = new Mutation(Utils.stringToText(key));
+	/**
+	 * Find the rows of the elements with each of several values for
+	 * an indexed key, with one batch scan.  Unlike other lookups,
+	 * this does not use the shared index scanner, so it can be
+	 * called from any thread.  Lookups are not cached.
+	 * @param key The key, or name of a composite index
+	 * @param values The values
+	 * @param elementClass Vertices or edges
+	 * @return Rows of the elements with each value, in the
+	 *   order of the values
+	 */
+	public <T extends AccumuloElement> List<List<Text>> getElementRows(String key, List<?> values,
+			Class<T> elementClass) {
+		ElementType type = typeOf(elementClass);
+		KeyIndexDefinition def = definition(type, key);
+
+		List<Range> ranges = new ArrayList<Range>(def.getShards());
+		for (int shard = 0; shard < def.getShards(); shard++) {
+			ranges.add(new Range(indexRow(type, key, shard, def.getShards())));
+		}
+
+		List<List<Text>> columns = new ArrayList<List<Text>>(values.size());
+		Set<Text> allColumns = new HashSet<Text>();
+		for (Object value : values) {
+			List<Text> valueColumns = def.columns(value);
+			columns.add(valueColumns);
+			allColumns.addAll(valueColumns);
+		}
+
+		// Entries by column.
+		Map<Text, List<Map.Entry<Key, Value>>> read = new HashMap<Text, List<Map.Entry<Key, Value>>>();
 
-				if (add) {
-					m.put(Utils.objectToText(value), eltIdCq, Const.EMPTY_VALUE);
+		if (!allColumns.isEmpty()) {
+			BatchScanner bs = createIndexBatchScanner();
+			try {
+				bs.setRanges(ranges);
+				for (Text column : allColumns) {
+					bs.fetchColumnFamily(column);
 				}
-				else {
-					// TODO This is executing, but not actually deleting
-					//   from the index table.
-					m.putDelete(Utils.objectToText(value), eltIdCq);
+
+				for (Iterator<Map.Entry<Key, Value>> i = overlay(bs.iterator(), ranges, allColumns);
+						i.hasNext(); ) {
+					Map.Entry<Key, Value> entry = i.next();
+					Text column = entry.getKey().getColumnFamily();
+					List<Map.Entry<Key, Value>> list = read.get(column);
+					if (list == null) {
+						list = new ArrayList<Map.Entry<Key, Value>>();
+						read.put(column, list);
+					}
+					list.add(entry);
 				}
 
-				Utils.addMutation(indexWriter, m);
+			} finally {
+				bs.close();
 			}
 		}
-	}
 
-	private void reloadIndexedKeys() {
-		Text cf = new Text();
+		List<List<Text>> result = new ArrayList<List<Text>>(values.size());
+		for (List<Text> valueColumns : columns) {
+			List<Map.Entry<Key, Value>> entries = new ArrayList<Map.Entry<Key, Value>>();
+			for (Text column : valueColumns) {
+				if (read.containsKey(column)) {
+					entries.addAll(read.get(column));
+				}
+			}
 
+			List<Text> rows = new ArrayList<Text>();
+			for (Text row : rowsOf(currentEntries(type, key,
+					valueColumns.size() > 1 ? withAll(entries, valueColumns.size()) : entries))) {
+				rows.add(row);
+			}
+			result.add(rows);
+		}
 
-		indexedVertexKeys.clear();
+		return result;
+	}
 
-		indexScanner.setRange(new Range(Const.VERTEX_PROPERTY_LIST));
-		indexScanner.clearColumns();
+	private <T extends AccumuloElement> Iterable<Map.Entry<Key, Value>> getEntries(String key,
+			Object value, Class<T> elementClass) {
+		ElementType type = typeOf(elementClass);
+		KeyIndexDefinition def = definition(type, key);
 
-		for (Map.Entry<Key, Value> entry : indexScanner) {
-			entry.getKey().getColumnFamily(cf);
-			indexedVertexKeys.add(Utils.textToString(cf));
+		List<Range> ranges = new ArrayList<Range>(def.getShards());
+		for (int shard = 0; shard < def.getShards(); shard++) {
+			ranges.add(new Range(indexRow(type, key, shard, def.getShards())));
 		}
 
+		// If specified, restrict to a specific value.
+		List<Text> columns = value == null ? Collections.<Text>emptyList() : def.columns(value);
+		if (value != null && columns.isEmpty()) {
+			return Collections.emptyList();
+		}
 
-		indexedEdgeKeys.clear();
+		// Lookups of a thread with changes not yet committed see
+		// them, so are neither taken from the cache nor cached.
+		boolean cacheable = cache != null && value != null && parent.getPendingChanges() == null;
 
-		indexScanner.setRange(new Range(Const.EDGE_PROPERTY_LIST));
-		indexScanner.clearColumns();
+		long generation = 0;
+		if (cacheable) {
+			List<Map.Entry<Key, Value>> cached = cache.get(parent.opts.getIndexTable(), type, key, columns);
+			if (cached != null) {
+				return cached;
+			}
+			generation = cache.generation(parent.opts.getIndexTable(), type, key);
+		}
+
+		Iterable<Map.Entry<Key, Value>> entries = readEntries(ranges, columns);
+		entries = columns.size() > 1 ? withAll(entries, columns.size()) : entries;
+		entries = currentEntries(type, key, entries);
+		if (!cacheable) {
+			return entries;
+		}
+
+		// Read the entries to cache them, unless there are too many.
+		List<Map.Entry<Key, Value>> read = new ArrayList<Map.Entry<Key, Value>>();
+		for (Map.Entry<Key, Value> entry : entries) {
+			read.add(entry);
+		}
+		if (read.size() <= Const.INDEX_CACHE_MAX_ENTRIES) {
+			cache.put(parent.opts.getIndexTable(), type, key, columns, generation,
+					Collections.unmodifiableList(read));
+		}
+		return read;
+	}
+
+	/**
+	 * Invalidate cached lookups of a value of a key.
+	 */
+	private void invalidate(final ElementType type, final String key, Object value) {
+		if (cache == null) {
+			return;
+		}
+
+		final String table = parent.opts.getIndexTable();
+		final List<Text> columns = definition(type, key).columns(value);
+		invalidateWhenWritten(new Runnable() {
+			@Override
+			public void run() {
+				cache.invalidate(table, type, key, columns);
+			}
+		});
+	}
+
+	/**
+	 * Invalidate all cached lookups of a key.
+	 */
+	private void invalidate(final ElementType type, final String key) {
+		if (cache == null) {
+			return;
+		}
+
+		final String table = parent.opts.getIndexTable();
+		invalidateWhenWritten(new Runnable() {
+			@Override
+			public void run() {
+				cache.invalidate(table, type, key);
+			}
+		});
+	}
+
+	/**
+	 * Invalidate cached lookups now, and again once the change
+	 * is written, as lookups may read the old entries until then:
+	 * when the transaction commits, with asynchronous indexing,
+	 * when the writer threads write it, or without autoflush,
+	 * when the index writer is flushed.
+	 */
+	private void invalidateWhenWritten(Runnable invalidation) {
+		invalidation.run();
+
+		Transaction tx = parent.getTransaction();
+		if (tx != null) {
+			tx.whenCommitted(invalidation);
+		}
+		else if (asyncWriter() != null) {
+			asyncWriter().whenWritten(invalidation);
+		}
+		else if (!parent.opts.getAutoflush()) {
+			synchronized (this) {
+				if (unflushedInvalidations != null) {
+					unflushedInvalidations.add(invalidation);
+					if (unflushedInvalidations.size() > Const.UNFLUSHED_INVALIDATIONS) {
+						unflushedInvalidations = null;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Find elements whose value for a key starts with a prefix.
+	 * The key must be indexed in string or token mode; in token
+	 * mode, this finds values containing a word with the prefix.
+	 * Each shard of the key is read with one range scan.
+	 * @param key The key
+	 * @param prefix The prefix
+	 * @param elementClass Vertices or edges
+	 * @return
+	 */
+	public <T extends AccumuloElement> Iterable<T> getElementsByPrefix(String key, String prefix,
+			Class<T> elementClass) {
+		ElementType type = typeOf(elementClass);
+		KeyIndexDefinition def = definition(type, key);
+
+		if (!finishedKeys(type).contains(key) || !def.isSortable()) {
+			throw new IllegalArgumentException("Key is not indexed in string or token mode: " + key);
+		}
+
+		Text start = def.encodePrefix(prefix);
+		Text end = Utils.followingPrefix(start);
+
+		List<Range> ranges = new ArrayList<Range>(def.getShards());
+		for (int shard = 0; shard < def.getShards(); shard++) {
+			Text row = indexRow(type, key, shard, def.getShards());
+			ranges.add(new Range(new Key(row, start), true,
+					end != null ? new Key(row, end) : new Key(row).followingKey(PartialKey.ROW), false));
+		}
+
+		Iterable<Map.Entry<Key, Value>> entries =
+				currentEntries(type, key, readEntries(ranges, Collections.<Text>emptyList()));
+		// An element can have several words with the prefix.
+		return toElements(def.getMode() == Mode.TOKEN ? distinct(entries) : entries, elementClass);
+	}
+
+	/**
+	 * With lazy index cleanup, check index entries against their
+	 * elements as they are read, in batches, and remove those
+	 * that are stale.  Otherwise, return the entries as they are.
+	 * Edge labels never change, so their entries are not checked.
+	 */
+	private Iterable<Map.Entry<Key, Value>> currentEntries(final ElementType type, final String key,
+			final Iterable<Map.Entry<Key, Value>> entries) {
+		if (!parent.opts.getLazyIndexCleanup() || isLabel(type, key)) {
+			return entries;
+		}
+
+		return new Iterable<Map.Entry<Key, Value>>() {
+
+			@Override
+			public Iterator<Map.Entry<Key, Value>> iterator() {
+				final Iterator<Map.Entry<Key, Value>> i = entries.iterator();
+
+				return new Iterator<Map.Entry<Key, Value>>() {
+
+					private Iterator<Map.Entry<Key, Value>> batch =
+							Collections.<Map.Entry<Key, Value>>emptyList().iterator();
+
+					@Override
+					public boolean hasNext() {
+						while (!batch.hasNext() && i.hasNext()) {
+							List<Map.Entry<Key, Value>> read = new ArrayList<Map.Entry<Key, Value>>();
+							while (i.hasNext() && read.size() < Const.BATCH_LOOKUP_SIZE) {
+								read.add(i.next());
+							}
+							List<Map.Entry<Key, Value>> current = new ArrayList<Map.Entry<Key, Value>>();
+							removeStale(type, key, read, current);
+							batch = current.iterator();
+						}
+						return batch.hasNext();
+					}
+
+					@Override
+					public Map.Entry<Key, Value> next() {
+						if (!hasNext()) {
+							throw new NoSuchElementException();
+						}
+						return batch.next();
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+	}
+
+	/**
+	 * Check index entries against the current values of their
+	 * elements, read with one batch scan, and delete the stale
+	 * ones.  Entries and values are written separately, so an entry
+	 * can be stored before its value; an entry is only stale if the
+	 * element's value was written after it.  If the element has no
+	 * value, the entry is only stale once it is older than
+	 * {@link Const#STALE_INDEX_ENTRY_MILLIS}.  Other entries that do
+	 * not match are left out, but kept.  Deletes are at the entries'
+	 * timestamps, so that an entry written again since it was read
+	 * is kept.
+	 * @param current Filled with the entries that are current
+	 * @return Number of entries deleted
+	 */
+	private int removeStale(ElementType type, String key, List<Map.Entry<Key, Value>> entries,
+			List<Map.Entry<Key, Value>> current) {
+		KeyIndexDefinition def = definition(type, key);
+		List<String> keys = def.isComposite() ? def.getCompositeKeys() : Collections.singletonList(key);
+
+		Set<Text> rows = new HashSet<Text>();
+		for (Map.Entry<Key, Value> entry : entries) {
+			rows.add(entry.getKey().getColumnQualifier());
+		}
+		Map<Text, Long> timestamps = new HashMap<Text, Long>();
+		Map<Text, Map<String, Object>> properties = parent.batchLookup.properties(rows, keys, timestamps);
+
+		long expired = System.currentTimeMillis() - Const.STALE_INDEX_ENTRY_MILLIS;
+		int removed = 0;
+		StatsBuffer stats = new StatsBuffer();
+		Transaction tx = parent.getPendingChanges();
+
+		for (Map.Entry<Key, Value> entry : entries) {
+			Key k = entry.getKey();
+			Object value;
+			boolean changed = tx != null && tx.changes(k.getColumnQualifier());
+			if (changed) {
+				// The batch lookup does not see the transaction's
+				// changes, so read the element through it.
+				value = currentValue(def, key, valuesOf(type, k.getColumnQualifier(), keys));
+			}
+			else {
+				value = currentValue(def, key, properties.get(k.getColumnQualifier()));
+			}
+
+			if (value != null && def.columns(value).contains(k.getColumnFamily())) {
+				current.add(entry);
+			}
+			else if (changed) {
+				// Not stale for other threads.
+				continue;
+			}
+			else if (value != null ? timestamps.get(k.getColumnQualifier()) > k.getTimestamp()
+					: k.getTimestamp() < expired) {
+				removed++;
+				Mutation m = new Mutation(k.getRow());
+				m.putDelete(k.getColumnFamily(), k.getColumnQualifier(), k.getTimestamp());
+				Utils.addMutation(directWriter(), m);
+				stats.countStale(type, key, k.getColumnQualifier(), k.getColumnFamily());
+			}
+		}
+
+		// The entries are stale whether or not a transaction
+		// commits, so they are removed outside of it.
+		if (removed > 0) {
+			stats.write(directWriter());
+		}
+		return removed;
+	}
+
+	/**
+	 * Merge the calling thread's index changes not yet committed
+	 * into a read of index entries, so that it sees them.
+	 */
+	private Iterator<Map.Entry<Key, Value>> overlay(Iterator<Map.Entry<Key, Value>> scanned,
+			List<Range> ranges, Collection<Text> columns) {
+		Transaction tx = parent.getPendingChanges();
+		return tx != null ? tx.overlayIndex(scanned, ranges, columns) : scanned;
+	}
+
+	/**
+	 * Read some properties of an element through the shared scanner.
+	 */
+	private Map<String, Object> valuesOf(ElementType type, Text eltRow, List<String> keys) {
+		AccumuloElementId id = AccumuloIdManager.fromText(eltRow);
+		AccumuloElement element = type == ElementType.VERTEX
+				? new AccumuloVertex(parent, id) : new AccumuloEdge(parent, id);
+
+		Map<String, Object> values = new HashMap<String, Object>();
+		for (String k : keys) {
+			values.put(k, propertyOf(element, k));
+		}
+		return values;
+	}
+
+	/**
+	 * The value an element is now indexed under, from some
+	 * of its properties, or null if it has no entry.
+	 * @param properties The element's values of the keys the
+	 *   index needs, or null if it has none
+	 */
+	private static Object currentValue(KeyIndexDefinition def, String key, Map<String, Object> properties) {
+		if (properties == null) {
+			return null;
+		}
+		else if (!def.isComposite()) {
+			return properties.get(key);
+		}
+
+		List<Object> values = new ArrayList<Object>();
+		for (String k : def.getCompositeKeys()) {
+			Object value = properties.get(k);
+			if (value == null) {
+				return null;
+			}
+			values.add(value);
+		}
+		return values;
+	}
+
+	/**
+	 * Remove the stale entries of a key index, which lazy index
+	 * cleanup leaves behind until lookups find them.  This scans
+	 * all of the key's entries, so it suits being run in the
+	 * background, and can be run concurrently with other work.
+	 * @param key The key, or name of a composite index
+	 * @param elementClass Vertices or edges
+	 * @return Number of entries removed
+	 */
+	public <T extends AccumuloElement> long removeStaleEntries(String key, Class<T> elementClass) {
+		ElementType type = typeOf(elementClass);
+		if (!finishedKeys(type).contains(key) || isLabel(type, key)) {
+			return 0;
+		}
+
+		KeyIndexDefinition def = definition(type, key);
+		List<Range> ranges = new ArrayList<Range>(def.getShards());
+		for (int shard = 0; shard < def.getShards(); shard++) {
+			ranges.add(new Range(indexRow(type, key, shard, def.getShards())));
+		}
+
+		// Its own scanner, since the index scanner is not thread-safe.
+		BatchScanner bs = createIndexBatchScanner();
+		long removed = 0;
+
+		try {
+			bs.setRanges(ranges);
+			List<Map.Entry<Key, Value>> batch = new ArrayList<Map.Entry<Key, Value>>();
+
+			for (Iterator<Map.Entry<Key, Value>> i = bs.iterator(); i.hasNext(); ) {
+				batch.add(i.next());
+				if (batch.size() == Const.BATCH_LOOKUP_SIZE || !i.hasNext()) {
+					removed += removeStale(type, key, batch, new ArrayList<Map.Entry<Key, Value>>());
+					batch.clear();
+				}
+			}
+
+		} finally {
+			bs.close();
+		}
+
+		if (removed > 0) {
+			Utils.flush(directWriter());
+		}
+		return removed;
+	}
+
+	/**
+	 * Read index entries.  A single range is read with the index
+	 * scanner, and several with a batch scanner.  The calling
+	 * thread's changes not yet committed are merged in.
+	 * @param ranges Ranges of entries
+	 * @param columns Only read these column families, or all if empty
+	 * @return
+	 */
+	private Iterable<Map.Entry<Key, Value>> readEntries(List<Range> ranges, Collection<Text> columns) {
+		final Iterator<Map.Entry<Key, Value>> i;
+		final BatchScanner bs;
+
+		if (ranges.size() == 1) {
+			indexScanner.setRange(ranges.get(0));
+			indexScanner.clearColumns();
+			for (Text column : columns) {
+				indexScanner.fetchColumnFamily(column);
+			}
+
+			i = overlay(indexScanner.iterator(), ranges, columns);
+			bs = null;
+		}
+		else {
+			bs = createIndexBatchScanner();
+			bs.setRanges(ranges);
+			for (Text column : columns) {
+				bs.fetchColumnFamily(column);
+			}
+
+			i = overlay(bs.iterator(), ranges, columns);
+		}
+
+		return new Iterable<Map.Entry<Key, Value>>() {
+
+			@Override
+			public Iterator<Map.Entry<Key, Value>> iterator() {
+				return new Iterator<Map.Entry<Key, Value>>() {
+
+					private boolean done = false;
+
+					@Override
+					public boolean hasNext() {
+						if (done) {
+							return false;
+						}
+
+						// Release the batch scanner's threads once read.
+						if (!i.hasNext()) {
+							done = true;
+							if (bs != null) {
+								bs.close();
+							}
+						}
+						return !done;
+					}
+
+					@Override
+					public Map.Entry<Key, Value> next() {
+						if (!hasNext()) {
+							throw new NoSuchElementException();
+						}
+
+						return i.next();
+					}
+
+					@Override
+					public void remove() {
+						i.remove();
+					}
+				};
+			};
+		};
+	}
+
+	/**
+	 * The element rows of index entries.
+	 */
+	private static Iterable<Text> rowsOf(final Iterable<Map.Entry<Key, Value>> entries) {
+		return new Iterable<Text>() {
+
+			@Override
+			public Iterator<Text> iterator() {
+				final Iterator<Map.Entry<Key, Value>> i = entries.iterator();
+
+				return new Iterator<Text>() {
+
+					@Override
+					public boolean hasNext() {
+						return i.hasNext();
+					}
+
+					@Override
+					public Text next() {
+						return i.next().getKey().getColumnQualifier();
+					}
+
+					@Override
+					public void remove() {
+						i.remove();
+					}
+				};
+			}
+		};
+	}
+
+	/**
+	 * Turn index entries into elements, preloaded with the
+	 * properties the entries cover.  Edges are read in batches
+	 * with {@link BatchLookup}, so that each edge does not need a
+	 * scan of its own for its label and vertices.
+	 */
+	@SuppressWarnings("unchecked")
+	private <T extends AccumuloElement> Iterable<T> toElements(final Iterable<Map.Entry<Key, Value>> entries,
+			Class<T> elementClass) {
+		if (elementClass.equals(AccumuloVertex.class)) {
+			return new Iterable<T>() {
+
+				@Override
+				public Iterator<T> iterator() {
+					final Iterator<Map.Entry<Key, Value>> i = entries.iterator();
+
+					return new Iterator<T>() {
+
+						@Override
+						public boolean hasNext() {
+							return i.hasNext();
+						}
+
+						@Override
+						public T next() {
+							Map.Entry<Key, Value> entry = i.next();
+							AccumuloVertex vertex = new AccumuloVertex(parent,
+									AccumuloIdManager.fromText(entry.getKey().getColumnQualifier()));
+							preload(vertex, entry.getValue());
+							return (T) vertex;
+						}
+
+						@Override
+						public void remove() {
+							i.remove();
+						}
+					};
+				}
+			};
+		}
+
+		return new Iterable<T>() {
+
+			@Override
+			public Iterator<T> iterator() {
+				// Covered properties of rows handed to the batch
+				// lookup whose edges have not come back yet.
+				final Map<Text, Value> pending = new HashMap<Text, Value>();
+				final Iterator<Map.Entry<Key, Value>> i = entries.iterator();
+
+				final Iterator<AccumuloEdge> edges = parent.batchLookup.loadEdges(new Iterable<Text>() {
+
+					@Override
+					public Iterator<Text> iterator() {
+						return new Iterator<Text>() {
+
+							@Override
+							public boolean hasNext() {
+								return i.hasNext();
+							}
+
+							@Override
+							public Text next() {
+								Map.Entry<Key, Value> entry = i.next();
+								Text row = entry.getKey().getColumnQualifier();
+								if (entry.getValue().getSize() > 0) {
+									pending.put(row, entry.getValue());
+								}
+								return row;
+							}
+
+							@Override
+							public void remove() {
+								throw new UnsupportedOperationException();
+							}
+						};
+					}
+				}).iterator();
+
+				return new Iterator<T>() {
+
+					@Override
+					public boolean hasNext() {
+						return edges.hasNext();
+					}
+
+					@Override
+					public T next() {
+						AccumuloEdge edge = edges.next();
+						Value covered = pending.remove(edge.idRow);
+						if (covered != null) {
+							preload(edge, covered);
+						}
+						return (T) edge;
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+	}
+
+	private static void preload(AccumuloElement element, Value covered) {
+		if (covered.getSize() > 0) {
+			element.preload(Utils.<Map<String, Object>>valueToObject(covered));
+		}
+	}
+
+	/**
+	 * The entries whose rows occur a number of times, meaning
+	 * they have entries for all the columns read.
+	 */
+	private static Iterable<Map.Entry<Key, Value>> withAll(Iterable<Map.Entry<Key, Value>> entries,
+			int times) {
+		Map<Text, Integer> counts = new HashMap<Text, Integer>();
+		List<Map.Entry<Key, Value>> result = new ArrayList<Map.Entry<Key, Value>>();
+
+		for (Map.Entry<Key, Value> entry : entries) {
+			Text row = entry.getKey().getColumnQualifier();
+			Integer count = counts.get(row);
+			count = count == null ? 1 : count + 1;
+			counts.put(row, count);
+
+			if (count == times) {
+				result.add(entry);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * The entries without repeated rows.
+	 */
+	private static Iterable<Map.Entry<Key, Value>> distinct(final Iterable<Map.Entry<Key, Value>> entries) {
+		return new Iterable<Map.Entry<Key, Value>>() {
+
+			@Override
+			public Iterator<Map.Entry<Key, Value>> iterator() {
+				final Iterator<Map.Entry<Key, Value>> i = entries.iterator();
+				final Set<Text> seen = new HashSet<Text>();
+
+				return new Iterator<Map.Entry<Key, Value>>() {
+
+					private Map.Entry<Key, Value> next;
+
+					@Override
+					public boolean hasNext() {
+						while (next == null && i.hasNext()) {
+							Map.Entry<Key, Value> entry = i.next();
+							if (seen.add(entry.getKey().getColumnQualifier())) {
+								next = entry;
+							}
+						}
+						return next != null;
+					}
+
+					@Override
+					public Map.Entry<Key, Value> next() {
+						if (!hasNext()) {
+							throw new NoSuchElementException();
+						}
+
+						Map.Entry<Key, Value> entry = next;
+						next = null;
+						return entry;
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+	}
+
+	/**
+	 * Keys whose index can be used for lookups.  This leaves out
+	 * keys whose build was interrupted and has not been resumed,
+	 * and composite indexes, which are not single keys.
+	 * @param elementClass Vertices or edges
+	 * @return
+	 */
+	public <T extends AccumuloElement> Set<String> getIndexedKeys(Class<T> elementClass) {
+		ElementType type = typeOf(elementClass);
+		Set<String> keys = finishedKeys(type);
+
+		for (Iterator<String> i = keys.iterator(); i.hasNext(); ) {
+			if (definition(type, i.next()).isComposite()) {
+				i.remove();
+			}
+		}
+
+		return Collections.unmodifiableSet(keys);
+	}
+
+	/**
+	 * The property keys that the index entries of a type of element
+	 * depend on: indexed keys, and the keys of composite indexes.
+	 * Covered keys and the edge label are not included.
+	 * @param elementClass Vertices or edges
+	 * @return
+	 */
+	public <T extends AccumuloElement> Set<String> getIndexedPropertyKeys(Class<T> elementClass) {
+		ElementType type = typeOf(elementClass);
+		Set<String> indexedKeys = type == ElementType.VERTEX ? indexedVertexKeys : indexedEdgeKeys;
+		Set<String> keys = new HashSet<String>();
+
+		for (String name : indexedKeys) {
+			KeyIndexDefinition def = definition(type, name);
+			if (def.isComposite()) {
+				keys.addAll(def.getCompositeKeys());
+			}
+			else if (!isLabel(type, name)) {
+				keys.add(name);
+			}
+		}
+
+		return keys;
+	}
+
+	/**
+	 * The property keys that updating an element's index entries
+	 * for a key may read from the element: the keys of the indexes
+	 * that include or cover it, and the keys those indexes cover.
+	 * The edge label is not included.
+	 * @param key The key
+	 * @param elementClass Vertices or edges
+	 * @return
+	 */
+	public <T extends AccumuloElement> Set<String> getKeysReadWith(String key, Class<T> elementClass) {
+		ElementType type = typeOf(elementClass);
+		Map<String, KeyIndexDefinition> definitions =
+				type == ElementType.VERTEX ? vertexDefinitions : edgeDefinitions;
+		Set<String> keys = new HashSet<String>();
+
+		for (Map.Entry<String, KeyIndexDefinition> entry : definitions.entrySet()) {
+			String name = entry.getKey();
+			KeyIndexDefinition def = entry.getValue();
+			if (!(def.isComposite() ? def.getCompositeKeys().contains(key) : name.equals(key))
+					&& !def.getCoveredKeys().contains(key)) {
+				continue;
+			}
+
+			if (def.isComposite()) {
+				keys.addAll(def.getCompositeKeys());
+			}
+			else if (!isLabel(type, name)) {
+				keys.add(name);
+			}
+			keys.addAll(def.getCoveredKeys());
+		}
+
+		keys.remove(key);
+		return keys;
+	}
+
+	/**
+	 * Find a composite index that can answer a lookup by the
+	 * given keys, meaning all of its keys are among them.  If
+	 * several can, the one with the most keys is used.
+	 * @param keys Keys with known values
+	 * @param elementClass Vertices or edges
+	 * @return Name of the index, or null if there is none
+	 */
+	public <T extends AccumuloElement> String findCompositeIndex(Set<String> keys, Class<T> elementClass) {
+		ElementType type = typeOf(elementClass);
+		String best = null;
+		int bestSize = 0;
+
+		for (String name : finishedKeys(type)) {
+			KeyIndexDefinition def = definition(type, name);
+			if (def.isComposite() && keys.containsAll(def.getCompositeKeys())
+					&& def.getCompositeKeys().size() > bestSize) {
+				best = name;
+				bestSize = def.getCompositeKeys().size();
+			}
+		}
+
+		return best;
+	}
+
+	/**
+	 * The keys of a composite index, in the order their
+	 * values are given to {@link #getElements}.
+	 * @param name Name of the index
+	 * @param elementClass Vertices or edges
+	 * @return The keys, or null if this is not a composite index
+	 */
+	public <T extends AccumuloElement> List<String> getCompositeKeys(String name, Class<T> elementClass) {
+		return definition(typeOf(elementClass), name).getCompositeKeys();
+	}
+
+	private boolean isBuilding(ElementType type, String key) {
+		return (type == ElementType.VERTEX ? buildingVertexKeys : buildingEdgeKeys).contains(key);
+	}
+
+	private Set<String> finishedKeys(ElementType type) {
+		Set<String> keys;
+		if (type == ElementType.VERTEX) {
+			keys = new HashSet<String>(indexedVertexKeys);
+			keys.removeAll(buildingVertexKeys);
+		}
+		else {
+			keys = new HashSet<String>(indexedEdgeKeys);
+			keys.removeAll(buildingEdgeKeys);
+		}
+		return keys;
+	}
+
+	public <T extends AccumuloElement> void addPropertyToIndex(T element, String key, Object value) {
+		Set<String> indexedKeys;
+
+		if (element instanceof AccumuloVertex) {
+			indexedKeys = indexedVertexKeys;
+		}
+		else {
+			indexedKeys = indexedEdgeKeys;
+		}
+
+		// Don't add things that are not indexed.
+		if (indexedKeys.contains(key) && !definition(element.getType(), key).isComposite()) {
+			Map<String, Object> known = new HashMap<String, Object>();
+			known.put(key, value);
+			writeEntry(element, key, value, true, known);
+		}
+
+		updateCompositeIndexes(element, key, value, true);
+		updateCoveringIndexes(element, key, value);
+	}
+
+	/**
+	 * Whether setting or removing a key needs its old value,
+	 * to remove the old entries of indexes of the key.  Indexes
+	 * that only cover the key do not.  With lazy index cleanup,
+	 * old entries are left in place, so no key does.
+	 * @param element The element
+	 * @param key The key
+	 * @return
+	 */
+	public <T extends AccumuloElement> boolean needsOldValue(T element, String key) {
+		if (parent.opts.getLazyIndexCleanup()) {
+			return false;
+		}
+		return !indexesOf(element.getType(), key).isEmpty();
+	}
+
+	/**
+	 * Names of the indexes whose entries depend on a key's value:
+	 * the key's own index, and the composite indexes including it.
+	 */
+	private Set<String> indexesOf(ElementType type, String key) {
+		Set<String> indexedKeys = type == ElementType.VERTEX ? indexedVertexKeys : indexedEdgeKeys;
+		Set<String> names = new HashSet<String>();
+
+		for (String name : indexedKeys) {
+			KeyIndexDefinition def = definition(type, name);
+			if (def.isComposite() ? def.getCompositeKeys().contains(key) : name.equals(key)) {
+				names.add(name);
+			}
+		}
+		return names;
+	}
+
+	/**
+	 * Remove an element's index entries for the old value of a key.
+	 * @param value The old value, or null if it was not set.  With
+	 *   lazy index cleanup, null if it was not read, in which case
+	 *   the entries are left to be found stale.
+	 */
+	public <T extends AccumuloElement> void removePropertyFromIndex(T element, String key, Object value) {
+		Set<String> indexedKeys;
+
+		if (element instanceof AccumuloVertex) {
+			indexedKeys = indexedVertexKeys;
+		}
+		else {
+			indexedKeys = indexedEdgeKeys;
+		}
+
+		// Don't remove things that are not indexed, or were not set.
+		if (value == null) {
+			// Lookups of the unknown old value are out of date.
+			if (parent.opts.getLazyIndexCleanup()) {
+				for (String name : indexesOf(element.getType(), key)) {
+					invalidate(element.getType(), name);
+				}
+			}
+			return;
+		}
+
+		if (indexedKeys.contains(key) && !definition(element.getType(), key).isComposite()) {
+			writeEntry(element, key, value, false, null);
+		}
+
+		updateCompositeIndexes(element, key, value, false);
+	}
+
+	/**
+	 * Add or remove the entries of composite indexes that include
+	 * a key, for one value of that key.  The values of the other
+	 * keys are read from the element; if any is not set, the
+	 * element has no entry.
+	 */
+	private <T extends AccumuloElement> void updateCompositeIndexes(T element, String key,
+			Object value, boolean add) {
+		Map<String, KeyIndexDefinition> definitions =
+				element.getType() == ElementType.VERTEX ? vertexDefinitions : edgeDefinitions;
+		Map<String, Object> known = null;
+
+		for (Map.Entry<String, KeyIndexDefinition> entry : definitions.entrySet()) {
+			KeyIndexDefinition def = entry.getValue();
+			if (!def.isComposite() || !def.getCompositeKeys().contains(key)) {
+				continue;
+			}
+
+			if (known == null) {
+				known = new HashMap<String, Object>();
+				known.put(key, value);
+			}
+
+			List<Object> values = compositeValues(element, def, known);
+			if (values != null) {
+				writeEntry(element, entry.getKey(), values, add, known);
+			}
+		}
+	}
+
+	/**
+	 * Rewrite an element's entries in indexes that cover a key,
+	 * after the key's value changes, so that they hold the new
+	 * value.  Indexes of the key itself are rewritten as their
+	 * entries are added.
+	 * @param element The element
+	 * @param key The key
+	 * @param value The new value, or null if it was removed
+	 */
+	public <T extends AccumuloElement> void updateCoveringIndexes(T element, String key, Object value) {
+		Map<String, KeyIndexDefinition> definitions =
+				element.getType() == ElementType.VERTEX ? vertexDefinitions : edgeDefinitions;
+		Map<String, Object> known = null;
+
+		for (Map.Entry<String, KeyIndexDefinition> entry : definitions.entrySet()) {
+			String name = entry.getKey();
+			KeyIndexDefinition def = entry.getValue();
+			if (!def.getCoveredKeys().contains(key) || name.equals(key)
+					|| (def.isComposite() && def.getCompositeKeys().contains(key))) {
+				continue;
+			}
+
+			if (known == null) {
+				known = new HashMap<String, Object>();
+				known.put(key, value);
+			}
+
+			Object indexed = indexedValue(element, name, def, known);
+			if (indexed != null) {
+				// Overwrite the entry; the statistics do not change.
+				Mutation m = indexEntry(element.getType(), name, indexed, AccumuloIdManager.toText(element),
+						true, coveredValue(element, def, known));
+				if (m.size() > 0) {
+					Utils.addMutation(indexWriter, m);
+				}
+				invalidate(element.getType(), name, indexed);
+			}
+		}
+	}
+
+	/**
+	 * The values of a composite index's keys for an element.
+	 * @param known Values already known, which are added to
+	 *   as others are read from the element
+	 * @return The values, or null if any key is not set
+	 */
+	private static List<Object> compositeValues(AccumuloElement element, KeyIndexDefinition def,
+			Map<String, Object> known) {
+		List<Object> values = new ArrayList<Object>();
+
+		for (String key : def.getCompositeKeys()) {
+			Object value;
+			if (known.containsKey(key)) {
+				value = known.get(key);
+			}
+			else {
+				value = propertyOf(element, key);
+				known.put(key, value);
+			}
+
+			if (value == null) {
+				return null;
+			}
+			values.add(value);
+		}
+
+		return values;
+	}
+
+	public <T extends AccumuloElement> void reindexKey(T element, String key, Object value) {
+		Set<String> indexedKeys;
+
+		if (element instanceof AccumuloVertex) {
+			indexedKeys = indexedVertexKeys;
+		}
+		else {
+			indexedKeys = indexedEdgeKeys;
+		}
+
+		Utils.addMutation(indexWriter, indexEntry(element.getType(), key, value,
+				AccumuloIdManager.toText(element), indexedKeys.contains(key),
+				coveredValue(element, definition(element.getType(), key), new HashMap<String, Object>())));
+		invalidate(element.getType(), key, value);
+	}
+
+	public <T extends AccumuloElement> void addOrRemoveFromIndex(T element, boolean add) {
+		Set<String> indexedKeys;
+
+		if (element instanceof AccumuloVertex) {
+			indexedKeys = indexedVertexKeys;
+		}
+		else {
+			indexedKeys = indexedEdgeKeys;
+		}
+
+		Map<String, Object> known = new HashMap<String, Object>();
+
+		for (String key : indexedKeys) {
+			Object value = indexedValue(element, key, definition(element.getType(), key), known);
+			if (value != null) {
+				writeEntry(element, key, value, add, known);
+			}
+		}
+
+		// Count the element itself, unless queries do not plan by
+		// counts, as with lazy index cleanup.
+		if (!parent.opts.getLazyIndexCleanup()) {
+			if (parent.getTransaction() != null) {
+				StatsBuffer stats = new StatsBuffer();
+				stats.countElement(element.getType(), add ? 1 : -1);
+				stats.write(indexWriter);
+			}
+			else {
+				synchronized (pendingStats) {
+					pendingStats.countElement(element.getType(), add ? 1 : -1);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Index new elements from their property values, without
+	 * reading them, e.g. when loading in bulk.  Threads may call
+	 * this at the same time with their own writers.  Cached
+	 * lookups are not invalidated.  Every element is counted,
+	 * since whether it already exists is not read.
+	 * @param type Vertices or edges
+	 * @param elements Property values of each element, by row.
+	 *   Edge labels are under the label key.
+	 * @param writer Writer for the index table
+	 */
+	protected void indexNew(ElementType type, Map<Text, Map<String, Object>> elements,
+			BatchWriter writer) throws MutationsRejectedException {
+		Set<String> indexedKeys = new HashSet<String>(
+				type == ElementType.VERTEX ? indexedVertexKeys : indexedEdgeKeys);
+		StatsBuffer stats = new StatsBuffer();
+
+		for (String key : indexedKeys) {
+			KeyIndexDefinition def = definition(type, key);
+			for (Map.Entry<Text, Map<String, Object>> element : elements.entrySet()) {
+				addGroupedEntry(writer, stats, type, key, def, element.getKey(), element.getValue());
+			}
+		}
+		stats.write(writer);
+
+		// Count the elements.
+		Mutation m = new Mutation(Const.ELEMENT_COUNTS);
+		m.put(Const.INDEX_STATS_TOTAL, AccumuloIdManager.toIdPrefix(type), countValue(elements.size()));
+		writer.addMutation(m);
+	}
+
+	/**
+	 * The value an element is indexed under, or null if it has
+	 * no entry.  For a composite index, this is the list of values.
+	 * @param known Values already known, which are added to
+	 *   as others are read from the element
+	 */
+	private static Object indexedValue(AccumuloElement element, String key, KeyIndexDefinition def,
+			Map<String, Object> known) {
+		if (def.isComposite()) {
+			return compositeValues(element, def, known);
+		}
+
+		if (!known.containsKey(key)) {
+			known.put(key, propertyOf(element, key));
+		}
+		return known.get(key);
+	}
+
+	/**
+	 * The value of an index entry for an element: the values of
+	 * the keys the index covers, or nothing if it covers none.
+	 * @param known Values already known, which are added to
+	 *   as others are read from the element
+	 */
+	private static Value coveredValue(AccumuloElement element, KeyIndexDefinition def,
+			Map<String, Object> known) {
+		for (String key : def.getCoveredKeys()) {
+			if (!known.containsKey(key)) {
+				known.put(key, propertyOf(element, key));
+			}
+		}
+		return coveredValue(def, known);
+	}
+
+	/**
+	 * The value of an index entry, from the values of its element's
+	 * keys.  Keys without a value are stored as null, so that they
+	 * are known not to be set.
+	 */
+	private static Value coveredValue(KeyIndexDefinition def, Map<String, Object> values) {
+		if (!def.isCovering()) {
+			return Const.EMPTY_VALUE;
+		}
+
+		HashMap<String, Object> covered = new HashMap<String, Object>();
+		for (String key : def.getCoveredKeys()) {
+			covered.put(key, values.get(key));
+		}
+		return Utils.objectToValue(covered);
+	}
+
+	/**
+	 * The value of an indexed key for an element.  Indexing
+	 * the label key of edges indexes their labels.
+	 */
+	private static Object propertyOf(AccumuloElement element, String key) {
+		if (isLabel(element.getType(), key)) {
+			return ((AccumuloEdge) element).getLabel();
+		}
+		return element.getProperty(key);
+	}
+
+	private static boolean isLabel(ElementType type, String key) {
+		return type == ElementType.EDGE && Const.LABEL_KEY.equals(key);
+	}
+
+	/**
+	 * Add or remove an index entry, and update the statistics.
+	 * @param known Values of the element already known, used for
+	 *   the keys the index covers.  Not needed for removals.
+	 */
+	private void writeEntry(AccumuloElement element, String key, Object value, boolean add,
+			Map<String, Object> known) {
+		ElementType type = element.getType();
+		Text eltRow = AccumuloIdManager.toText(element);
+		Mutation m = indexEntry(type, key, value, eltRow, add,
+				add ? coveredValue(element, definition(type, key), known) : Const.EMPTY_VALUE);
+		if (m.size() > 0) {
+			Utils.addMutation(indexWriter, m);
+		}
+		invalidate(type, key, value);
+
+		// Counted with the transaction, or else in memory until
+		// the writer is flushed, rather than written per entry.
+		if (parent.getTransaction() != null) {
+			StatsBuffer stats = new StatsBuffer();
+			stats.count(type, key, value, eltRow, add ? 1 : -1, null);
+			stats.write(indexWriter);
+		}
+		else {
+			synchronized (pendingStats) {
+				pendingStats.count(type, key, value, eltRow, add ? 1 : -1, directWriter());
+			}
+		}
+	}
+
+	/**
+	 * Write the statistics changes made outside transactions
+	 * that are still in memory, without flushing.
+	 * @return Whether there were any
+	 */
+	private boolean writeStatistics() {
+		synchronized (pendingStats) {
+			if (pendingStats.isEmpty()) {
+				return false;
+			}
+			pendingStats.write(directWriter());
+			return true;
+		}
+	}
+
+	/**
+	 * Estimate how many elements are indexed under a key, from the
+	 * index statistics.  Statistics are counted from the entries
+	 * when the key's build finishes, then as entries are added and
+	 * removed, so changes made while the build finishes may be
+	 * missed.  Keys indexed by versions without statistics are
+	 * counted once, when the graph is first opened by this one.
+	 * With lazy index cleanup, setting a value counts an
+	 * entry even if the element already had it, so the statistics
+	 * overcount, and do not recover.
+	 * @param key The key, or name of a composite index
+	 * @param value The value, or null for any value
+	 * @param elementClass Vertices or edges
+	 * @return The estimate, or -1 if the key is not indexed
+	 */
+	public <T extends AccumuloElement> long estimateCount(String key, Object value, Class<T> elementClass) {
+		ElementType type = typeOf(elementClass);
+		if (!finishedKeys(type).contains(key)) {
+			return -1;
+		}
+		if (writeStatistics()) {
+			Utils.flush(directWriter());
+		}
+
+		KeyIndexDefinition def = definition(type, key);
+		BatchScanner bs = createIndexBatchScanner();
+
+		try {
+			List<Range> ranges = new ArrayList<Range>(def.getShards());
+			for (int shard = 0; shard < def.getShards(); shard++) {
+				ranges.add(new Range(statsRow(type, key, shard, def.getShards())));
+			}
+			bs.setRanges(ranges);
+
+			List<Text> columns = value == null ? null : def.columns(value);
+			if (value == null) {
+				bs.fetchColumn(Const.INDEX_STATS_TOTAL, Const.EMPTY_TEXT);
+			}
+			else if (columns.isEmpty()) {
+				return 0;
+			}
+			else {
+				for (Text column : columns) {
+					bs.fetchColumn(Const.INDEX_STATS_VALUE, column);
+				}
+			}
+
+			// With several words, estimate by the rarest one.
+			Map<Text, Long> counts = new HashMap<Text, Long>();
+			for (Map.Entry<Key, Value> entry : bs) {
+				Text column = entry.getKey().getColumnQualifier();
+				Long count = counts.get(column);
+				counts.put(column, (count == null ? 0 : count) + countOf(entry.getValue()));
+			}
+
+			if (counts.size() < (columns == null ? 1 : columns.size())) {
+				return 0;
+			}
+			return Math.max(Collections.min(counts.values()), 0);
+
+		} finally {
+			bs.close();
+		}
+	}
+
+	/**
+	 * Estimate how many elements of a type there are.  Elements are
+	 * counted as they are added and removed while the index table
+	 * exists, so elements added before it was created are missed,
+	 * as are elements changed with lazy index cleanup.
+	 * @param elementClass Vertices or edges
+	 * @return
+	 */
+	public <T extends AccumuloElement> long estimateElementCount(Class<T> elementClass) {
+		if (writeStatistics()) {
+			Utils.flush(directWriter());
+		}
+
+		indexScanner.setRange(new Range(Const.ELEMENT_COUNTS));
+		indexScanner.clearColumns();
+		indexScanner.fetchColumn(Const.INDEX_STATS_TOTAL,
+				AccumuloIdManager.toIdPrefix(typeOf(elementClass)));
+
+		Map.Entry<Key, Value> entry = Utils.firstEntry(indexScanner);
+		indexScanner.clearColumns();
+		return entry != null ? Math.max(countOf(entry.getValue()), 0) : 0;
+	}
+
+	private static Value countValue(long count) {
+		return Utils.stringToValue(Long.toString(count));
+	}
+
+	private static long countOf(Value value) {
+		return Long.parseLong(Utils.valueToString(value));
+	}
+
+	/**
+	 * Changes to index statistics, summed so that each statistics
+	 * row is written once rather than once per entry.
+	 */
+	private class StatsBuffer {
+
+		// Changes by statistics row, then by encoded value.  The
+		// empty value holds the change to the total.
+		private Map<Text, Map<Text, Long>> counts = new HashMap<Text, Map<Text, Long>>();
+		// Changes to the element counts, by id prefix.
+		private Map<Text, Long> elements = new HashMap<Text, Long>();
+		private int size = 0;
+
+		public boolean isEmpty() {
+			return counts.isEmpty() && elements.isEmpty();
+		}
+
+		/**
+		 * Count an element being added or removed.
+		 */
+		public void countElement(ElementType type, long delta) {
+			Text prefix = AccumuloIdManager.toIdPrefix(type);
+			Long count = elements.get(prefix);
+			elements.put(prefix, count == null ? delta : count + delta);
+		}
+
+		/**
+		 * Count an entry being added or removed.  Entries of keys
+		 * being built are not counted; the build counts them.
+		 * @param writer If not null, write the changes once
+		 *   there are many of them
+		 */
+		public void count(ElementType type, String key, Object value, Text eltRow,
+				long delta, BatchWriter writer) {
+			if (isBuilding(type, key)) {
+				return;
+			}
+
+			KeyIndexDefinition def = definition(type, key);
+			Text row = statsRow(type, key, def.shardOf(eltRow), def.getShards());
+
+			Map<Text, Long> rowCounts = counts.get(row);
+			if (rowCounts == null) {
+				rowCounts = new HashMap<Text, Long>();
+				counts.put(row, rowCounts);
+			}
+
+			add(rowCounts, Const.EMPTY_TEXT, delta);
+			for (Text column : def.columns(value)) {
+				add(rowCounts, column, delta);
+			}
+
+			if (writer != null && size >= Const.INDEX_STATS_BUFFER_SIZE) {
+				write(writer);
+			}
+		}
+
+		/**
+		 * Count a stale entry being removed.  In token mode an
+		 * element's value has an entry per word, so the total is
+		 * left alone rather than decremented once per word.
+		 */
+		public void countStale(ElementType type, String key, Text eltRow, Text column) {
+			if (isBuilding(type, key)) {
+				return;
+			}
+
+			KeyIndexDefinition def = definition(type, key);
+			Text row = statsRow(type, key, def.shardOf(eltRow), def.getShards());
+
+			Map<Text, Long> rowCounts = counts.get(row);
+			if (rowCounts == null) {
+				rowCounts = new HashMap<Text, Long>();
+				counts.put(row, rowCounts);
+			}
+
+			if (def.getMode() != Mode.TOKEN) {
+				add(rowCounts, Const.EMPTY_TEXT, -1);
+			}
+			add(rowCounts, column, -1);
+		}
+
+		private void add(Map<Text, Long> rowCounts, Text column, long delta) {
+			Long count = rowCounts.get(column);
+			if (count == null) {
+				size++;
+			}
+			rowCounts.put(column, count == null ? delta : count + delta);
+		}
+
+		public void write(BatchWriter writer) {
+			for (Map.Entry<Text, Map<Text, Long>> row : counts.entrySet()) {
+				Mutation m = new Mutation(row.getKey());
+
+				for (Map.Entry<Text, Long> column : row.getValue().entrySet()) {
+					if (column.getKey().getLength() == 0) {
+						m.put(Const.INDEX_STATS_TOTAL, Const.EMPTY_TEXT, countValue(column.getValue()));
+					}
+					else {
+						m.put(Const.INDEX_STATS_VALUE, column.getKey(), countValue(column.getValue()));
+					}
+				}
+
+				Utils.addMutation(writer, m);
+			}
+
+			if (!elements.isEmpty()) {
+				Mutation m = new Mutation(Const.ELEMENT_COUNTS);
+				for (Map.Entry<Text, Long> element : elements.entrySet()) {
+					m.put(Const.INDEX_STATS_TOTAL, element.getKey(), countValue(element.getValue()));
+				}
+				Utils.addMutation(writer, m);
+			}
+
+			clear();
+		}
+
+		public void clear() {
+			counts.clear();
+			elements.clear();
+			size = 0;
+		}
+	}
+
+	/**
+	 * Create a mutation that adds or removes the index
+	 * entries for one element's property value.
+	 * @param type Type of the element
+	 * @param key Property key
+	 * @param value Property value
+	 * @param eltRow Row of the element
+	 * @param add Add or remove
+	 * @param entryValue Value of added entries
+	 * @return
+	 */
+	protected Mutation indexEntry(ElementType type, String key, Object value, Text eltRow, boolean add,
+			Value entryValue) {
+		KeyIndexDefinition def = definition(type, key);
+		Mutation m = new Mutation(indexRow(type, key, def.shardOf(eltRow), def.getShards()));
+
+		for (Text column : def.columns(value)) {
+			if (add) {
+				m.put(column, eltRow, entryValue);
+			}
+			else {
+				m.putDelete(column, eltRow);
+			}
+		}
+
+		return m;
+	}
+
+	/**
+	 * The row holding the index entries of a key: the element
+	 * type prefix, the key, and a separator.
+	 * @param type Vertex or edge
+	 * @param key Property key
+	 * @return
+	 */
+	protected static Text indexRow(ElementType type, String key) {
+		Text row = keyRowsStart(type, key);
+		row.append(Const.INDEX_KEY_SEPARATOR, 0, Const.INDEX_KEY_SEPARATOR.length);
+		return row;
+	}
+
+	/**
+	 * The row holding one shard of a key's index entries.  Keys
+	 * with a single shard use the plain index row.
+	 * @param type Vertex or edge
+	 * @param key Property key
+	 * @param shard The shard
+	 * @param shards Number of shards of the key
+	 * @return
+	 */
+	protected static Text indexRow(ElementType type, String key, int shard, int shards) {
+		Text row = indexRow(type, key);
+		if (shards > 1) {
+			Text suffix = Utils.stringToText(String.format("%03x", shard));
+			row.append(suffix.getBytes(), 0, suffix.getLength());
+		}
+		return row;
+	}
+
+	/**
+	 * The row holding the statistics of one shard of a key.
+	 * @param type Vertex or edge
+	 * @param key Property key
+	 * @param shard The shard
+	 * @param shards Number of shards of the key
+	 * @return
+	 */
+	protected static Text statsRow(ElementType type, String key, int shard, int shards) {
+		Text row = indexRow(type, key, shard, shards);
+		row.append(Const.INDEX_STATS_SUFFIX, 0, Const.INDEX_STATS_SUFFIX.length);
+		return row;
+	}
+
+	/**
+	 * Sorts just before all rows of a key.
+	 */
+	private static Text keyRowsStart(ElementType type, String key) {
+		Text row = AccumuloIdManager.toIdPrefix(type);
+		Text keyText = Utils.stringToText(key);
+		row.append(keyText.getBytes(), 0, keyText.getLength());
+		return row;
+	}
+
+	/**
+	 * Sorts just after all rows of a key.
+	 */
+	private static Text keyRowsEnd(ElementType type, String key) {
+		Text row = indexRow(type, key);
+		row.append(Const.INDEX_KEY_END, 0, Const.INDEX_KEY_END.length);
+		return row;
+	}
+
+	private static <T extends AccumuloElement> ElementType typeOf(Class<T> elementClass) {
+		return elementClass.equals(AccumuloVertex.class) ? ElementType.VERTEX : ElementType.EDGE;
+	}
+
+	/**
+	 * How an indexed key is indexed.  Keys without a stored
+	 * definition were indexed by older versions, with the defaults.
+	 */
+	private KeyIndexDefinition definition(ElementType type, String key) {
+		KeyIndexDefinition def = (type == ElementType.VERTEX ? vertexDefinitions : edgeDefinitions).get(key);
+		return def == null ? new KeyIndexDefinition() : def;
+	}
+
+	/**
+	 * Create a batch scanner over the index table.  The
+	 * caller is responsible for closing it.
+	 */
+	protected BatchScanner createIndexBatchScanner() {
+		try {
+			return parent.opts.getConnector().createBatchScanner(parent.opts.getIndexTable(),
+					Constants.NO_AUTHS, Const.QUERY_THREADS);
+		} catch (TableNotFoundException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static Text propertyListRow(ElementType type) {
+		return type == ElementType.VERTEX ? Const.VERTEX_PROPERTY_LIST : Const.EDGE_PROPERTY_LIST;
+	}
+
+	private static Text buildsRow(ElementType type) {
+		return type == ElementType.VERTEX ? Const.VERTEX_INDEX_BUILDS : Const.EDGE_INDEX_BUILDS;
+	}
+
+	private void reloadIndexedKeys() {
+		Text cf = new Text();
+
+
+		indexedVertexKeys.clear();
+		vertexDefinitions.clear();
+
+		indexScanner.setRange(new Range(Const.VERTEX_PROPERTY_LIST));
+		indexScanner.clearColumns();
+
+		for (Map.Entry<Key, Value> entry : indexScanner) {
+			entry.getKey().getColumnFamily(cf);
+			indexedVertexKeys.add(Utils.textToString(cf));
+			loadDefinition(Utils.textToString(cf), entry.getValue(), vertexDefinitions);
+		}
+
+
+		indexedEdgeKeys.clear();
+		edgeDefinitions.clear();
+
+		indexScanner.setRange(new Range(Const.EDGE_PROPERTY_LIST));
+		indexScanner.clearColumns();
 
 		for (Map.Entry<Key, Value> entry : indexScanner) {
 			entry.getKey().getColumnFamily(cf);
 			indexedEdgeKeys.add(Utils.textToString(cf));
+			loadDefinition(Utils.textToString(cf), entry.getValue(), edgeDefinitions);
+		}
+
+
+		// Unfinished builds are marked with an empty qualifier.
+		loadBuildingKeys(ElementType.VERTEX, buildingVertexKeys);
+		loadBuildingKeys(ElementType.EDGE, buildingEdgeKeys);
+	}
+
+	private static void loadDefinition(String key, Value value,
+			Map<String, KeyIndexDefinition> definitions) {
+		// Older versions stored no definition.
+		if (value.getSize() > 0) {
+			definitions.put(key, Utils.<KeyIndexDefinition>valueToObject(value));
+		}
+	}
+
+	private void loadBuildingKeys(ElementType type, Set<String> buildingKeys) {
+		buildingKeys.clear();
+
+		indexScanner.setRange(new Range(buildsRow(type)));
+		indexScanner.clearColumns();
+
+		for (Map.Entry<Key, Value> entry : indexScanner) {
+			if (entry.getKey().getColumnQualifierData().length() == 0) {
+				buildingKeys.add(Utils.textToString(entry.getKey().getColumnFamily()));
+			}
 		}
 	}
 
@@ -1,10 +1,14 @@
 package accumulograph;
 
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
+import org.apache.accumulo.core.client.Scanner;
 import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.Range;
 import org.apache.accumulo.core.data.Value;
@@ -16,7 +20,6 @@ import com.tinkerpop.blueprints.Direction;
 import com.tinkerpop.blueprints.Edge;
 import com.tinkerpop.blueprints.Vertex;
 import com.tinkerpop.blueprints.VertexQuery;
-import com.tinkerpop.blueprints.util.DefaultVertexQuery;
 
 /**
  * Vertex implementation.
@@ -35,24 +38,30 @@ public class AccumuloVertex extends AccumuloElement implements Vertex {
 
 		return new Iterable<Edge>() {
 
-			private Iterator<Map.Entry<Key, Value>> si;
-
 			@Override
 			public Iterator<Edge> iterator() {
-				parent.scanner.setRange(new Range(idRow));
+				// Reading ahead happens in another thread,
+				// so needs scanners of its own.
+				final boolean prefetch = parent.prefetching(null, null);
+				Scanner scanner = prefetch ? parent.createScanner() : parent.scanner;
+				final Scanner edgeScanner = prefetch ? parent.createScanner() : parent.scanner;
+
+				Range range = new Range(idRow);
+				scanner.setRange(range);
 
 				if (takeOut(dir)) {
-					parent.scanner.fetchColumnFamily(Const.VERTEX_OUT_EDGE);
+					scanner.fetchColumnFamily(Const.VERTEX_OUT_EDGE);
 				}
 
 				if (takeIn(dir)) {
-					parent.scanner.fetchColumnFamily(Const.VERTEX_IN_EDGE);
+					scanner.fetchColumnFamily(Const.VERTEX_IN_EDGE);
 				}
 
-				si = parent.scanner.iterator();
-				parent.scanner.clearColumns();
+				final Iterator<Map.Entry<Key, Value>> si = parent.overlay(scanner.iterator(), range, null,
+						families(dir));
+				scanner.clearColumns();
 
-				return new Iterator<Edge>() {
+				Iterator<Edge> edges = new Iterator<Edge>() {
 
 					private Map.Entry<Key, Value> next = null;
 					private AccumuloEdge current;
@@ -101,7 +110,7 @@ public class AccumuloVertex extends AccumuloElement implements Vertex {
 						next.getKey().getColumnQualifier(cq);
 						next = null;
 
-						current = new AccumuloEdge(parent, AccumuloIdManager.fromText(cq));
+						current = new AccumuloEdge(parent, AccumuloIdManager.fromText(cq), edgeScanner);
 						return current;
 					}
 
@@ -111,6 +120,18 @@ public class AccumuloVertex extends AccumuloElement implements Vertex {
 					}
 
 				};
+
+				if (!prefetch) {
+					return edges;
+				}
+
+				return new PrefetchingIterator<Edge>(edges, parent.opts.getPrefetchDepth(),
+						parent.getPrefetchPool()) {
+					@Override
+					protected void remove(Edge edge) {
+						edge.remove();
+					}
+				};
 			}
 
 		};
@@ -127,6 +148,12 @@ public class AccumuloVertex extends AccumuloElement implements Vertex {
 
 			@Override
 			public Iterator<Vertex> iterator() {
+				// The batch scanner does not see changes not yet
+				// committed, so read the edges through them.
+				if (parent.getPendingChanges() != null) {
+					return adjacentVertices(dir, edgeLabels).iterator();
+				}
+
 				// First we get edges attached to this vertex.
 				parent.scanner.setRange(new Range(idRow));
 
@@ -244,6 +271,45 @@ public class AccumuloVertex extends AccumuloElement implements Vertex {
 		};
 	}
 
+	/**
+	 * Vertices adjacent through edges with some labels, read one
+	 * edge at a time, so that changes not yet committed are seen.
+	 */
+	private List<Vertex> adjacentVertices(Direction direction, String... labels) {
+		List<Vertex> vertices = new ArrayList<Vertex>();
+		// Self loops are found in both directions.
+		Set<Object> seen = new HashSet<Object>();
+
+		for (Edge e : getEdges(direction, labels)) {
+			AccumuloEdge edge = (AccumuloEdge) e;
+			if (!seen.add(edge.getId())) {
+				continue;
+			}
+
+			if (takeOut(direction) && edge.out != null && edge.out.idRow.equals(idRow)) {
+				vertices.add(edge.in);
+			}
+			else if (takeIn(direction) && edge.in != null && edge.in.idRow.equals(idRow)) {
+				vertices.add(edge.out);
+			}
+		}
+
+		return vertices;
+	}
+
+	/**
+	 * Adjacency column families for a direction.
+	 */
+	private Text[] families(Direction direction) {
+		if (direction == Direction.OUT) {
+			return new Text[] {Const.VERTEX_OUT_EDGE};
+		}
+		else if (direction == Direction.IN) {
+			return new Text[] {Const.VERTEX_IN_EDGE};
+		}
+		return new Text[] {Const.VERTEX_OUT_EDGE, Const.VERTEX_IN_EDGE};
+	}
+
 	protected boolean takeIn(Direction direction) {
 		return direction == Direction.IN || direction == Direction.BOTH;
 	}
@@ -252,10 +318,9 @@ public class AccumuloVertex extends AccumuloElement implements Vertex {
 		return direction == Direction.OUT || direction == Direction.BOTH;
 	}
 
-	// TODO: Make this more efficient
 	@Override
 	public VertexQuery query() {
-		return new DefaultVertexQuery(this);
+		return new AccumuloVertexQuery(this);
 	}
 
 	@Override
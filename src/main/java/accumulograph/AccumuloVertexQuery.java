@@ -0,0 +1,274 @@
+package accumulograph;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.hadoop.io.WritableComparator;
+
+import com.tinkerpop.blueprints.Compare;
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.util.DefaultVertexQuery;
+
+/**
+ * Vertex query implementation.  If the query is sorted by a key
+ * edges are sorted by (see {@link SortedEdgeIndex}), or has a
+ * condition bounding such a key, it is answered from the vertex's
+ * sorted columns: one scan of the values between the bounds, in
+ * the order of the key, stopping once the limit is reached.
+ * Otherwise, the vertex's edges are all read and filtered.
+ */
+public class AccumuloVertexQuery extends DefaultVertexQuery {
+
+	protected AccumuloVertex source;
+	private String sortKey;
+
+	public AccumuloVertexQuery(AccumuloVertex vertex) {
+		super(vertex);
+		this.source = vertex;
+	}
+
+	/**
+	 * Return edges in the order of a key edges are sorted by.
+	 * Edges without a value for the key are left out.
+	 * @param key The key
+	 * @return
+	 */
+	public AccumuloVertexQuery sortedBy(String key) {
+		if (!source.parent.sortedEdges.isSorted(key)) {
+			throw new IllegalArgumentException("Edges are not sorted by " + key);
+		}
+		sortKey = key;
+		return this;
+	}
+
+	@Override
+	public Iterable<Edge> edges() {
+		final String key = chooseKey();
+		if (key == null) {
+			return super.edges();
+		}
+
+		return new Iterable<Edge>() {
+			@Override
+			public Iterator<Edge> iterator() {
+				final Iterator<SortedEdgeIndex.SortedEdge> i = matches(key);
+
+				return new Iterator<Edge>() {
+					@Override
+					public boolean hasNext() {
+						return i.hasNext();
+					}
+
+					@Override
+					public Edge next() {
+						return i.next().getEdge();
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+	}
+
+	@Override
+	public Iterable<Vertex> vertices() {
+		final String key = chooseKey();
+		if (key == null) {
+			return super.vertices();
+		}
+
+		return new Iterable<Vertex>() {
+			@Override
+			public Iterator<Vertex> iterator() {
+				final Iterator<SortedEdgeIndex.SortedEdge> i = matches(key);
+
+				return new Iterator<Vertex>() {
+					@Override
+					public boolean hasNext() {
+						return i.hasNext();
+					}
+
+					@Override
+					public Vertex next() {
+						return i.next().getOtherVertex();
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+	}
+
+	@Override
+	public long count() {
+		String key = chooseKey();
+		if (key == null) {
+			return super.count();
+		}
+
+		long count = 0;
+		for (Iterator<SortedEdgeIndex.SortedEdge> i = matches(key); i.hasNext(); i.next()) {
+			count++;
+		}
+		return count;
+	}
+
+	@Override
+	public Object vertexIds() {
+		String key = chooseKey();
+		if (key == null) {
+			return super.vertexIds();
+		}
+
+		List<Object> ids = new ArrayList<Object>();
+		for (Iterator<SortedEdgeIndex.SortedEdge> i = matches(key); i.hasNext(); ) {
+			ids.add(i.next().getOtherVertex().getId());
+		}
+		return ids;
+	}
+
+	/**
+	 * The sorted key to answer the query with, or null if
+	 * none can be used.
+	 */
+	private String chooseKey() {
+		if (sortKey != null) {
+			return sortKey;
+		}
+
+		for (HasContainer has : hasContainers) {
+			if (has.value != null && isRange(has.predicate)
+					&& source.parent.sortedEdges.isSorted(has.key)) {
+				return has.key;
+			}
+		}
+		return null;
+	}
+
+	private static boolean isRange(Object predicate) {
+		return predicate == Compare.EQUAL
+				|| predicate == Compare.GREATER_THAN || predicate == Compare.GREATER_THAN_EQUAL
+				|| predicate == Compare.LESS_THAN || predicate == Compare.LESS_THAN_EQUAL;
+	}
+
+	/**
+	 * Read the sorted edges between the tightest bounds of the
+	 * key's conditions, and apply all conditions and the limit.
+	 * Conditions on the key are checked on the sorted values,
+	 * so only conditions on other keys read the edges.
+	 */
+	private Iterator<SortedEdgeIndex.SortedEdge> matches(String key) {
+		Object lower = null;
+		Object upper = null;
+
+		for (HasContainer has : hasContainers) {
+			if (!key.equals(has.key) || has.value == null) {
+				continue;
+			}
+
+			if (has.predicate == Compare.EQUAL || has.predicate == Compare.GREATER_THAN
+					|| has.predicate == Compare.GREATER_THAN_EQUAL) {
+				lower = tighter(lower, has.value, true);
+			}
+			if (has.predicate == Compare.EQUAL || has.predicate == Compare.LESS_THAN
+					|| has.predicate == Compare.LESS_THAN_EQUAL) {
+				upper = tighter(upper, has.value, false);
+			}
+		}
+
+		final String sortedKey = key;
+		final Iterator<SortedEdgeIndex.SortedEdge> i =
+				source.parent.sortedEdges.getEdges(source, direction, key, lower, upper);
+
+		return new Iterator<SortedEdgeIndex.SortedEdge>() {
+
+			private SortedEdgeIndex.SortedEdge next;
+			private int count = 0;
+
+			@Override
+			public boolean hasNext() {
+				while (next == null && count < limit && i.hasNext()) {
+					SortedEdgeIndex.SortedEdge edge = i.next();
+					if (isLegal(edge, sortedKey)) {
+						next = edge;
+					}
+				}
+				return next != null;
+			}
+
+			@Override
+			public SortedEdgeIndex.SortedEdge next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+
+				SortedEdgeIndex.SortedEdge edge = next;
+				next = null;
+				count++;
+				return edge;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	private boolean isLegal(SortedEdgeIndex.SortedEdge edge, String key) {
+		if (labels.length > 0) {
+			boolean found = false;
+			for (String label : labels) {
+				if (label.equals(edge.getLabel())) {
+					found = true;
+					break;
+				}
+			}
+			if (!found) {
+				return false;
+			}
+		}
+
+		Edge loaded = null;
+		for (HasContainer has : hasContainers) {
+			if (key.equals(has.key)) {
+				if (!has.predicate.evaluate(edge.getValue(), has.value)) {
+					return false;
+				}
+			}
+			else {
+				if (loaded == null) {
+					loaded = edge.getEdge();
+				}
+				if (!has.isLegal(loaded)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * The tighter of two bounds, compared by their encoding.
+	 */
+	private static Object tighter(Object current, Object value, boolean lower) {
+		if (current == null) {
+			return value;
+		}
+
+		byte[] a = OrderedEncoding.encode(current);
+		byte[] b = OrderedEncoding.encode(value);
+		int cmp = WritableComparator.compareBytes(a, 0, a.length, b, 0, b.length);
+		return (lower ? cmp >= 0 : cmp <= 0) ? current : value;
+	}
+
+}
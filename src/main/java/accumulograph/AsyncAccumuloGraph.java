@@ -0,0 +1,521 @@
+package accumulograph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.hadoop.io.Text;
+
+import accumulograph.BatchLookup.Adjacency;
+import accumulograph.Const.ElementType;
+
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Element;
+import com.tinkerpop.blueprints.Vertex;
+
+/**
+ * Asynchronous reads of a graph, returning futures instead of
+ * blocking the caller.  Requests are queued, and a dispatcher
+ * thread takes all the requests waiting at once, and reads those
+ * of the same kind together with one batch scan, e.g. one scan for
+ * all the vertices requested by id.  While all reader threads are
+ * busy, requests accumulate, so the busier the graph, the larger
+ * and fewer the scans.
+ *
+ * Elements returned are those of the wrapped graph.  Reading
+ * them further, e.g. their properties, blocks as usual.
+ */
+public class AsyncAccumuloGraph {
+
+	protected AccumuloGraph graph;
+
+	private final BlockingQueue<Request> requests = new LinkedBlockingQueue<Request>();
+	private final ExecutorService readers;
+	// One permit per reader thread, so that requests wait in
+	// the queue, rather than the readers' queue, to be batched.
+	private final Semaphore idleReaders;
+	private final Thread dispatcher;
+	// Set while holding the lock of the request queue, so that
+	// no request is queued once shutdown has begun.
+	private volatile boolean closed = false;
+
+	/**
+	 * Read a graph asynchronously, with
+	 * {@link Const#ASYNC_READ_THREADS} reader threads.
+	 * @param graph The graph
+	 */
+	public AsyncAccumuloGraph(AccumuloGraph graph) {
+		this(graph, Const.ASYNC_READ_THREADS);
+	}
+
+	/**
+	 * Read a graph asynchronously.
+	 * @param graph The graph
+	 * @param threads Number of reader threads
+	 */
+	public AsyncAccumuloGraph(AccumuloGraph graph, int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Reader threads must be positive");
+		}
+
+		this.graph = graph;
+		readers = Executors.newFixedThreadPool(threads);
+		idleReaders = new Semaphore(threads);
+
+		dispatcher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				dispatch();
+			}
+		}, "AsyncAccumuloGraph-dispatcher");
+		dispatcher.setDaemon(true);
+		dispatcher.start();
+	}
+
+	public AccumuloGraph getGraph() {
+		return graph;
+	}
+
+	/**
+	 * Get a vertex by id.
+	 * @return The vertex, or null if it does not exist
+	 */
+	public Future<Vertex> getVertex(Object id) {
+		if (id == null) {
+			throw new IllegalArgumentException("Id cannot be null");
+		}
+
+		Request request = new Request(Kind.VERTEX);
+		request.row = AccumuloIdManager.toText(new AccumuloElementId(id), ElementType.VERTEX);
+		return submit(request);
+	}
+
+	/**
+	 * Get an edge by id, with its label and endpoints.
+	 * @return The edge, or null if it does not exist
+	 */
+	public Future<Edge> getEdge(Object id) {
+		if (id == null) {
+			throw new IllegalArgumentException("Id cannot be null");
+		}
+
+		Request request = new Request(Kind.EDGE);
+		request.row = AccumuloIdManager.toText(new AccumuloElementId(id), ElementType.EDGE);
+		return submit(request);
+	}
+
+	/**
+	 * Get a property of an element.  Values the element was read
+	 * with, e.g. from a covering index, need no request.
+	 * @return The value, or null if not set
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> Future<T> getProperty(Element element, String key) {
+		AccumuloElement e = (AccumuloElement) element;
+		if (e.preloaded != null && (e.preloadedAll || e.preloaded.containsKey(key))) {
+			Result<T> result = new Result<T>();
+			result.set((T) e.preloaded.get(key));
+			return result;
+		}
+
+		Request request = new Request(Kind.PROPERTY);
+		request.row = e.idRow;
+		request.key = key;
+		return submit(request);
+	}
+
+	/**
+	 * Find vertices by the value of an indexed key.  Lookups
+	 * of the same key are read together.
+	 * @throws IllegalArgumentException If the key is not indexed
+	 */
+	public Future<List<Vertex>> getVertices(String key, Object value) {
+		return lookup(ElementType.VERTEX, key, value);
+	}
+
+	/**
+	 * Find edges by the value of an indexed key.  Lookups
+	 * of the same key are read together.
+	 * @throws IllegalArgumentException If the key is not indexed
+	 */
+	public Future<List<Edge>> getEdges(String key, Object value) {
+		return lookup(ElementType.EDGE, key, value);
+	}
+
+	private <T> Future<List<T>> lookup(ElementType type, String key, Object value) {
+		Class<? extends AccumuloElement> elementClass =
+				type == ElementType.VERTEX ? AccumuloVertex.class : AccumuloEdge.class;
+		if (graph.keyIndex == null || !graph.keyIndex.getIndexedKeys(elementClass).contains(key)) {
+			throw new IllegalArgumentException("Key is not indexed: " + key);
+		}
+
+		Request request = new Request(Kind.INDEX);
+		request.type = type;
+		request.key = key;
+		request.value = value;
+		return submit(request);
+	}
+
+	/**
+	 * Get the edges of a vertex, with their labels and endpoints.
+	 * Self loops are returned twice for {@link Direction#BOTH}.
+	 */
+	public Future<List<Edge>> getEdges(Vertex vertex, Direction direction, String... labels) {
+		Request request = new Request(Kind.EDGES);
+		request.row = ((AccumuloVertex) vertex).idRow;
+		request.direction = direction;
+		request.labels = labels;
+		return submit(request);
+	}
+
+	/**
+	 * Get the vertices adjacent to a vertex.
+	 */
+	public Future<List<Vertex>> getVertices(Vertex vertex, Direction direction, String... labels) {
+		Request request = new Request(Kind.NEIGHBORS);
+		request.row = ((AccumuloVertex) vertex).idRow;
+		request.direction = direction;
+		request.labels = labels;
+		return submit(request);
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> Future<T> submit(Request request) {
+		synchronized (requests) {
+			if (closed) {
+				throw new IllegalStateException("Shut down");
+			}
+			requests.add(request);
+		}
+		return (Future<T>) request;
+	}
+
+	/**
+	 * Stop reading.  Requests not yet read fail.  This does
+	 * not shut down the graph.
+	 */
+	public void shutdown() {
+		synchronized (requests) {
+			closed = true;
+		}
+		dispatcher.interrupt();
+		try {
+			dispatcher.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		readers.shutdown();
+
+		List<Request> left = new ArrayList<Request>();
+		requests.drainTo(left);
+		for (Request request : left) {
+			request.fail(new IllegalStateException("Shut down"));
+		}
+	}
+
+	private void dispatch() {
+		while (!closed) {
+			final List<Request> batch = new ArrayList<Request>();
+
+			try {
+				batch.add(requests.take());
+				idleReaders.acquire();
+				requests.drainTo(batch, Const.BATCH_LOOKUP_SIZE - 1);
+
+			} catch (InterruptedException e) {
+				// Interrupted by shutdown.
+				for (Request request : batch) {
+					request.fail(new IllegalStateException("Shut down"));
+				}
+				continue;
+			}
+
+			readers.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						read(batch);
+					} finally {
+						idleReaders.release();
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Read a batch of requests, grouped so that each group
+	 * is read with one batch scan.
+	 */
+	private void read(List<Request> batch) {
+		Map<List<Object>, List<Request>> groups = new LinkedHashMap<List<Object>, List<Request>>();
+		for (Request request : batch) {
+			List<Object> group = request.group();
+			List<Request> list = groups.get(group);
+			if (list == null) {
+				list = new ArrayList<Request>();
+				groups.put(group, list);
+			}
+			list.add(request);
+		}
+
+		for (List<Request> group : groups.values()) {
+			try {
+				read(group.get(0), group);
+			} catch (Throwable t) {
+				for (Request request : group) {
+					request.fail(t);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Read a group of requests of the same kind.
+	 * @param first The first request, which has the group's
+	 *   direction, labels, or key, as they apply
+	 */
+	private void read(Request first, List<Request> group) {
+		Set<Text> rows = new HashSet<Text>();
+		for (Request request : group) {
+			if (request.row != null) {
+				rows.add(request.row);
+			}
+		}
+
+		switch (first.kind) {
+		case VERTEX:
+			Map<Text, AccumuloVertex> vertices = graph.batchLookup.vertices(rows);
+			for (Request request : group) {
+				request.set(vertices.get(request.row));
+			}
+			break;
+
+		case EDGE:
+			Map<Text, AccumuloEdge> edges = graph.batchLookup.edges(rows);
+			for (Request request : group) {
+				request.set(edges.get(request.row));
+			}
+			break;
+
+		case PROPERTY:
+			Set<String> keys = new HashSet<String>();
+			for (Request request : group) {
+				keys.add(request.key);
+			}
+
+			Map<Text, Map<String, Object>> properties = graph.batchLookup.properties(rows, keys);
+			for (Request request : group) {
+				Map<String, Object> rowValues = properties.get(request.row);
+				request.set(rowValues == null ? null : rowValues.get(request.key));
+			}
+			break;
+
+		case INDEX:
+			List<Object> values = new ArrayList<Object>();
+			for (Request request : group) {
+				values.add(request.value);
+			}
+
+			List<List<Text>> found = graph.keyIndex.getElementRows(first.key, values,
+					first.type == ElementType.VERTEX ? AccumuloVertex.class : AccumuloEdge.class);
+			readIndexed(first.type, group, found);
+			break;
+
+		case EDGES:
+			readEdges(rows, first.direction, first.labels, group);
+			break;
+
+		case NEIGHBORS:
+			Map<Text, List<Text>> neighbors = graph.batchLookup.neighbors(rows,
+					first.direction, first.labels);
+			for (Request request : group) {
+				List<Vertex> list = new ArrayList<Vertex>();
+				if (neighbors.containsKey(request.row)) {
+					for (Text row : neighbors.get(request.row)) {
+						list.add(new AccumuloVertex(graph, AccumuloIdManager.fromText(row)));
+					}
+				}
+				request.set(list);
+			}
+			break;
+		}
+	}
+
+	/**
+	 * Answer index lookups from the rows found.  Edges are read
+	 * with one batch scan for all of the lookups.
+	 */
+	private void readIndexed(ElementType type, List<Request> group, List<List<Text>> found) {
+		Map<Text, AccumuloEdge> edges = Collections.emptyMap();
+		if (type == ElementType.EDGE) {
+			Set<Text> edgeRows = new HashSet<Text>();
+			for (List<Text> rows : found) {
+				edgeRows.addAll(rows);
+			}
+			edges = graph.batchLookup.edges(edgeRows);
+		}
+
+		for (int i = 0; i < group.size(); i++) {
+			List<Element> list = new ArrayList<Element>();
+			for (Text row : found.get(i)) {
+				if (type == ElementType.VERTEX) {
+					list.add(new AccumuloVertex(graph, AccumuloIdManager.fromText(row)));
+				}
+				else if (edges.containsKey(row)) {
+					list.add(edges.get(row));
+				}
+			}
+			group.get(i).set(list);
+		}
+	}
+
+	/**
+	 * Answer adjacent edge requests: one batch scan for the
+	 * vertices' edges, and one for the edges' endpoints.
+	 */
+	private void readEdges(Set<Text> rows, Direction direction, String[] labels, List<Request> group) {
+		Map<Text, List<Adjacency>> adjacency = graph.batchLookup.adjacency(rows, direction, labels);
+
+		Set<Text> edgeRows = new HashSet<Text>();
+		for (List<Adjacency> list : adjacency.values()) {
+			for (Adjacency a : list) {
+				edgeRows.add(a.getEdgeRow());
+			}
+		}
+		Map<Text, Text[]> endpoints = graph.batchLookup.endpoints(edgeRows);
+
+		for (Request request : group) {
+			List<Edge> list = new ArrayList<Edge>();
+
+			if (adjacency.containsKey(request.row)) {
+				for (Adjacency a : adjacency.get(request.row)) {
+					Text[] ends = endpoints.get(a.getEdgeRow());
+					if (ends == null) {
+						continue;
+					}
+
+					list.add(new AccumuloEdge(graph, AccumuloIdManager.fromText(a.getEdgeRow()),
+							vertexOf(ends[0]), vertexOf(ends[1]), a.getLabel()));
+				}
+			}
+
+			request.set(list);
+		}
+	}
+
+	private AccumuloVertex vertexOf(Text row) {
+		return row == null ? null : new AccumuloVertex(graph, AccumuloIdManager.fromText(row));
+	}
+
+	private enum Kind {
+		VERTEX, EDGE, PROPERTY, INDEX, EDGES, NEIGHBORS
+	}
+
+	/**
+	 * A queued request, which is also its own result.
+	 */
+	private static class Request extends Result<Object> {
+
+		private final Kind kind;
+		private Text row;
+		private String key;
+		private Object value;
+		private ElementType type;
+		private Direction direction;
+		private String[] labels;
+
+		public Request(Kind kind) {
+			this.kind = kind;
+		}
+
+		/**
+		 * Requests in the same group are read together.
+		 */
+		public List<Object> group() {
+			switch (kind) {
+			case INDEX:
+				return Arrays.<Object>asList(kind, type, key);
+			case EDGES:
+			case NEIGHBORS:
+				return Arrays.<Object>asList(kind, direction, Arrays.asList(labels));
+			default:
+				return Arrays.<Object>asList(kind);
+			}
+		}
+	}
+
+	/**
+	 * A result that is set once.  Requests cannot be cancelled.
+	 */
+	private static class Result<T> implements Future<T> {
+
+		private final CountDownLatch done = new CountDownLatch(1);
+		private T value;
+		private Throwable failure;
+
+		public void set(T value) {
+			this.value = value;
+			done.countDown();
+		}
+
+		public void fail(Throwable failure) {
+			this.failure = failure;
+			done.countDown();
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			return false;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return false;
+		}
+
+		@Override
+		public boolean isDone() {
+			return done.getCount() == 0;
+		}
+
+		@Override
+		public T get() throws InterruptedException, ExecutionException {
+			done.await();
+			return result();
+		}
+
+		@Override
+		public T get(long timeout, TimeUnit unit)
+				throws InterruptedException, ExecutionException, TimeoutException {
+			if (!done.await(timeout, unit)) {
+				throw new TimeoutException();
+			}
+			return result();
+		}
+
+		private T result() throws ExecutionException {
+			if (failure != null) {
+				throw new ExecutionException(failure);
+			}
+			return value;
+		}
+	}
+
+}
@@ -0,0 +1,280 @@
+package accumulograph;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.accumulo.core.client.BatchWriter;
+import org.apache.accumulo.core.client.MutationsRejectedException;
+import org.apache.accumulo.core.data.Mutation;
+
+/**
+ * This class wraps a BatchWriter, queueing mutations on a bounded
+ * queue that writer threads drain, so that adding a mutation does
+ * not wait for the table.  Adding blocks only while the queue is
+ * full.  Each batch taken off the queue is flushed before it counts
+ * as written.  Each writer thread has its own queue, and mutations
+ * are queued by row, so that changes to a row are written in the
+ * order they were added.
+ *
+ * Flushing waits until everything added before it is written, so
+ * it can be used as a barrier, as can {@link #awaitWritten}.  If
+ * the writer rejects mutations, later calls throw the exception.
+ */
+public class AsyncIndexWriter implements BatchWriter {
+
+	protected BatchWriter writer;
+	private final BlockingQueue<Pending>[] queues;
+	private final Thread[] drainers;
+
+	// Mutations not yet written, by sequence number, with the
+	// time they were added.  Guarded by itself.
+	private final TreeMap<Long, Long> unwritten = new TreeMap<Long, Long>();
+	// Tasks to run once the mutations added before them are
+	// written, by the last sequence number they wait for.
+	private final List<Map.Entry<Long, Runnable>> waiting = new ArrayList<Map.Entry<Long, Runnable>>();
+	private long added = 0;
+
+	private volatile MutationsRejectedException failure;
+	private volatile boolean closed = false;
+
+	/**
+	 * Start writing through a writer.
+	 * @param writer The writer, which should not flush on its own
+	 * @param queueSize Most mutations queued at once, shared
+	 *   between the threads' queues
+	 * @param threads Number of writer threads
+	 */
+	@SuppressWarnings("unchecked")
+	public AsyncIndexWriter(BatchWriter writer, int queueSize, int threads) {
+		this.writer = writer;
+
+		queues = new BlockingQueue[threads];
+		drainers = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			final BlockingQueue<Pending> queue =
+					new ArrayBlockingQueue<Pending>(Math.max(queueSize / threads, 1));
+			queues[i] = queue;
+			drainers[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					drain(queue);
+				}
+			}, "AsyncIndexWriter-" + i);
+			drainers[i].setDaemon(true);
+			drainers[i].start();
+		}
+	}
+
+	@Override
+	public void addMutation(Mutation m) throws MutationsRejectedException {
+		checkFailure();
+		if (closed) {
+			throw new IllegalStateException("Writer is closed");
+		}
+
+		Pending pending;
+		synchronized (unwritten) {
+			pending = new Pending(++added, m);
+			unwritten.put(pending.seq, System.currentTimeMillis());
+		}
+
+		try {
+			queues[(Arrays.hashCode(m.getRow()) & Integer.MAX_VALUE) % queues.length].put(pending);
+		} catch (InterruptedException e) {
+			markWritten(Collections.singletonList(pending));
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public void addMutations(Iterable<Mutation> iterable)
+			throws MutationsRejectedException {
+		for (Mutation m : iterable) {
+			addMutation(m);
+		}
+	}
+
+	/**
+	 * Wait until everything added so far is written.
+	 */
+	@Override
+	public void flush() throws MutationsRejectedException {
+		awaitWritten();
+		checkFailure();
+	}
+
+	@Override
+	public void close() throws MutationsRejectedException {
+		if (closed) {
+			return;
+		}
+
+		try {
+			flush();
+		} finally {
+			closed = true;
+			for (Thread drainer : drainers) {
+				drainer.interrupt();
+			}
+			for (Thread drainer : drainers) {
+				try {
+					drainer.join();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			writer.close();
+		}
+	}
+
+	/**
+	 * Wait until everything added so far is written.
+	 */
+	public void awaitWritten() {
+		try {
+			awaitWritten(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Wait until everything added so far is written, or
+	 * for at most a timeout.
+	 * @return True if everything was written in time
+	 */
+	public boolean awaitWritten(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + Math.min(unit.toMillis(timeout),
+				Long.MAX_VALUE - System.currentTimeMillis());
+
+		synchronized (unwritten) {
+			long target = added;
+
+			while (!unwritten.isEmpty() && unwritten.firstKey() <= target) {
+				long wait = deadline - System.currentTimeMillis();
+				if (wait <= 0) {
+					return false;
+				}
+				unwritten.wait(wait);
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Run a task once everything added so far is written.  The task
+	 * runs on a writer thread, or now if there is nothing to wait for.
+	 * @param task The task
+	 */
+	public void whenWritten(Runnable task) {
+		synchronized (unwritten) {
+			if (!unwritten.isEmpty() && unwritten.firstKey() <= added) {
+				waiting.add(new AbstractMap.SimpleEntry<Long, Runnable>(added, task));
+				return;
+			}
+		}
+		task.run();
+	}
+
+	/**
+	 * Number of mutations added but not yet written.
+	 */
+	public long getLag() {
+		synchronized (unwritten) {
+			return unwritten.size();
+		}
+	}
+
+	/**
+	 * How long the oldest mutation not yet written has waited.
+	 * @return Milliseconds, or 0 if everything is written
+	 */
+	public long getLagMillis() {
+		synchronized (unwritten) {
+			return unwritten.isEmpty() ? 0 : System.currentTimeMillis() - unwritten.firstEntry().getValue();
+		}
+	}
+
+	private void drain(BlockingQueue<Pending> queue) {
+		List<Pending> batch = new ArrayList<Pending>();
+
+		while (!closed || !queue.isEmpty()) {
+			try {
+				Pending first = queue.poll(Const.ASYNC_INDEX_POLL_MILLIS, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					continue;
+				}
+				batch.add(first);
+				queue.drainTo(batch, Const.ASYNC_INDEX_BATCH_SIZE - 1);
+
+				if (failure == null) {
+					for (Pending pending : batch) {
+						writer.addMutation(pending.mutation);
+					}
+					writer.flush();
+				}
+
+			} catch (InterruptedException e) {
+				// Interrupted by close, which is checked above.
+			} catch (MutationsRejectedException e) {
+				failure = e;
+			} finally {
+				markWritten(batch);
+				batch.clear();
+			}
+		}
+	}
+
+	private void markWritten(List<Pending> batch) {
+		List<Runnable> ready = new ArrayList<Runnable>();
+
+		synchronized (unwritten) {
+			for (Pending pending : batch) {
+				unwritten.remove(pending.seq);
+			}
+
+			long firstUnwritten = unwritten.isEmpty() ? Long.MAX_VALUE : unwritten.firstKey();
+			for (Iterator<Map.Entry<Long, Runnable>> i = waiting.iterator(); i.hasNext(); ) {
+				Map.Entry<Long, Runnable> entry = i.next();
+				if (entry.getKey() < firstUnwritten) {
+					ready.add(entry.getValue());
+					i.remove();
+				}
+			}
+
+			unwritten.notifyAll();
+		}
+
+		for (Runnable task : ready) {
+			task.run();
+		}
+	}
+
+	private void checkFailure() throws MutationsRejectedException {
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	private static class Pending {
+
+		private final long seq;
+		private final Mutation mutation;
+
+		public Pending(long seq, Mutation mutation) {
+			this.seq = seq;
+			this.mutation = mutation;
+		}
+	}
+
+}
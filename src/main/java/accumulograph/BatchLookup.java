@@ -0,0 +1,426 @@
+package accumulograph;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.apache.accumulo.core.client.BatchScanner;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.hadoop.io.Text;
+
+import com.tinkerpop.blueprints.Direction;
+
+/**
+ * Reads information about many elements at once with a
+ * {@link BatchScanner}, rather than scanning one row at a time.
+ * Each call uses its own batch scanner, so this is safe to use
+ * from several threads.
+ */
+public class BatchLookup {
+
+	protected AccumuloGraph parent;
+
+	public BatchLookup(AccumuloGraph parent) {
+		this.parent = parent;
+	}
+
+	/**
+	 * Read the adjacent edges of many vertices.
+	 * @param vertexRows Rows of the vertices
+	 * @param direction Which edges to read
+	 * @param labels Only read edges with these labels, or all if empty
+	 * @return Adjacent edges by vertex row.  Vertices without matching
+	 *   edges are left out.
+	 */
+	public Map<Text, List<Adjacency>> adjacency(Collection<Text> vertexRows,
+			Direction direction, String... labels) {
+		Map<Text, List<Adjacency>> result = new HashMap<Text, List<Adjacency>>();
+
+		if (vertexRows.isEmpty()) {
+			return result;
+		}
+
+		BatchScanner bs = parent.createBatchScanner(Const.QUERY_THREADS);
+
+		try {
+			bs.setRanges(toRanges(vertexRows));
+
+			if (direction == Direction.OUT || direction == Direction.BOTH) {
+				bs.fetchColumnFamily(Const.VERTEX_OUT_EDGE);
+			}
+
+			if (direction == Direction.IN || direction == Direction.BOTH) {
+				bs.fetchColumnFamily(Const.VERTEX_IN_EDGE);
+			}
+
+			for (Map.Entry<Key, Value> entry : bs) {
+				String label = Utils.valueToString(entry.getValue());
+				if (!hasLabel(label, labels)) {
+					continue;
+				}
+
+				Key key = entry.getKey();
+				Text row = key.getRow();
+
+				List<Adjacency> list = result.get(row);
+				if (list == null) {
+					list = new ArrayList<Adjacency>();
+					result.put(row, list);
+				}
+
+				list.add(new Adjacency(key.getColumnQualifier(),
+						key.getColumnFamily().equals(Const.VERTEX_OUT_EDGE) ? Direction.OUT : Direction.IN,
+						label));
+			}
+
+		} finally {
+			bs.close();
+		}
+
+		return result;
+	}
+
+	/**
+	 * Find which of many vertices exist.
+	 * @param vertexRows Rows of the vertices
+	 * @return Vertices by row.  Vertices that do not exist are left out.
+	 */
+	public Map<Text, AccumuloVertex> vertices(Collection<Text> vertexRows) {
+		Map<Text, AccumuloVertex> result = new HashMap<Text, AccumuloVertex>();
+
+		if (vertexRows.isEmpty()) {
+			return result;
+		}
+
+		BatchScanner bs = parent.createBatchScanner(Const.QUERY_THREADS);
+
+		try {
+			bs.setRanges(toRanges(vertexRows));
+			bs.fetchColumnFamily(Const.VERTEX_SIGNAL);
+
+			for (Map.Entry<Key, Value> entry : bs) {
+				Text row = entry.getKey().getRow();
+				result.put(row, new AccumuloVertex(parent, AccumuloIdManager.fromText(row)));
+			}
+
+		} finally {
+			bs.close();
+		}
+
+		return result;
+	}
+
+	/**
+	 * Read many edges, including their labels and endpoints.
+	 * @param edgeRows Rows of the edges
+	 * @return Edges by row.  Edges that do not exist are left out.
+	 */
+	public Map<Text, AccumuloEdge> edges(Collection<Text> edgeRows) {
+		Map<Text, AccumuloEdge> result = new HashMap<Text, AccumuloEdge>();
+
+		if (edgeRows.isEmpty()) {
+			return result;
+		}
+
+		BatchScanner bs = parent.createBatchScanner(Const.QUERY_THREADS);
+
+		try {
+			bs.setRanges(toRanges(edgeRows));
+			bs.fetchColumnFamily(Const.EDGE_SIGNAL);
+			bs.fetchColumnFamily(Const.EDGE_OUT_VERTEX);
+			bs.fetchColumnFamily(Const.EDGE_IN_VERTEX);
+
+			for (Map.Entry<Key, Value> entry : bs) {
+				Text row = entry.getKey().getRow();
+
+				AccumuloEdge edge = result.get(row);
+				if (edge == null) {
+					edge = new AccumuloEdge(parent, AccumuloIdManager.fromText(row), null, null, null);
+					result.put(row, edge);
+				}
+
+				edge.readEntry(entry.getKey());
+			}
+
+		} finally {
+			bs.close();
+		}
+
+		return result;
+	}
+
+	/**
+	 * Read some properties of many elements.
+	 * @param rows Rows of the elements
+	 * @param keys The property keys
+	 * @return Property values by element row.  Keys that are not
+	 *   set, and elements with none of the keys, are left out.
+	 */
+	public Map<Text, Map<String, Object>> properties(Collection<Text> rows, Collection<String> keys) {
+		return properties(rows, keys, null);
+	}
+
+	/**
+	 * Read some properties of many elements, and when they were
+	 * written.
+	 * @param rows Rows of the elements
+	 * @param keys The property keys
+	 * @param timestamps If not null, filled with the newest
+	 *   timestamp of the properties read of each element
+	 * @return Property values by element row.  Keys that are not
+	 *   set, and elements with none of the keys, are left out.
+	 */
+	public Map<Text, Map<String, Object>> properties(Collection<Text> rows, Collection<String> keys,
+			Map<Text, Long> timestamps) {
+		Map<Text, Map<String, Object>> result = new HashMap<Text, Map<String, Object>>();
+
+		if (rows.isEmpty()) {
+			return result;
+		}
+
+		BatchScanner bs = parent.createBatchScanner(Const.QUERY_THREADS);
+
+		try {
+			bs.setRanges(toRanges(rows));
+			for (String key : keys) {
+				bs.fetchColumn(Const.PROPERTY_SIGNAL, Utils.stringToText(key));
+			}
+
+			for (Map.Entry<Key, Value> entry : bs) {
+				Text row = entry.getKey().getRow();
+
+				Map<String, Object> properties = result.get(row);
+				if (properties == null) {
+					properties = new HashMap<String, Object>();
+					result.put(row, properties);
+				}
+
+				properties.put(Utils.textToString(entry.getKey().getColumnQualifier()),
+						Utils.valueToObject(entry.getValue()));
+
+				if (timestamps != null) {
+					Long timestamp = timestamps.get(row);
+					if (timestamp == null || timestamp < entry.getKey().getTimestamp()) {
+						timestamps.put(row, entry.getKey().getTimestamp());
+					}
+				}
+			}
+
+		} finally {
+			bs.close();
+		}
+
+		return result;
+	}
+
+	/**
+	 * Read edges as they are iterated over, in batches of
+	 * up to {@link Const#BATCH_LOOKUP_SIZE}.  Edges are returned
+	 * in the order of their rows; edges that do not exist are
+	 * left out.  Edges the calling thread's transaction changes
+	 * are read through it.
+	 * @param edgeRows Rows of the edges
+	 * @return
+	 */
+	public Iterable<AccumuloEdge> loadEdges(final Iterable<Text> edgeRows) {
+		return new Iterable<AccumuloEdge>() {
+
+			@Override
+			public Iterator<AccumuloEdge> iterator() {
+				final Iterator<Text> i = edgeRows.iterator();
+
+				return new Iterator<AccumuloEdge>() {
+
+					private Iterator<AccumuloEdge> batch = Collections.<AccumuloEdge>emptyList().iterator();
+
+					@Override
+					public boolean hasNext() {
+						while (!batch.hasNext() && i.hasNext()) {
+							List<Text> rows = new ArrayList<Text>();
+							while (rows.size() < Const.BATCH_LOOKUP_SIZE && i.hasNext()) {
+								rows.add(i.next());
+							}
+
+							Map<Text, AccumuloEdge> found = edges(rows);
+							List<AccumuloEdge> list = new ArrayList<AccumuloEdge>(rows.size());
+							Transaction tx = parent.getPendingChanges();
+							for (Text row : rows) {
+								AccumuloEdge edge = found.get(row);
+								if (tx != null && tx.changes(row)) {
+									// The batch scan does not see the transaction's
+									// changes, so read the edge through it.
+									edge = new AccumuloEdge(parent, AccumuloIdManager.fromText(row));
+									if (edge.label == null) {
+										edge = null;
+									}
+								}
+								if (edge != null) {
+									list.add(edge);
+								}
+							}
+							batch = list.iterator();
+						}
+						return batch.hasNext();
+					}
+
+					@Override
+					public AccumuloEdge next() {
+						if (!hasNext()) {
+							throw new NoSuchElementException();
+						}
+						return batch.next();
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+	}
+
+	/**
+	 * Read the out- and in-vertex rows of many edges.
+	 * @param edgeRows Rows of the edges
+	 * @return Two-element arrays of out and in rows, by edge row
+	 */
+	public Map<Text, Text[]> endpoints(Collection<Text> edgeRows) {
+		Map<Text, Text[]> result = new HashMap<Text, Text[]>();
+
+		if (edgeRows.isEmpty()) {
+			return result;
+		}
+
+		BatchScanner bs = parent.createBatchScanner(Const.QUERY_THREADS);
+
+		try {
+			bs.setRanges(toRanges(edgeRows));
+			bs.fetchColumnFamily(Const.EDGE_OUT_VERTEX);
+			bs.fetchColumnFamily(Const.EDGE_IN_VERTEX);
+
+			for (Map.Entry<Key, Value> entry : bs) {
+				Key key = entry.getKey();
+				Text row = key.getRow();
+
+				Text[] ends = result.get(row);
+				if (ends == null) {
+					ends = new Text[2];
+					result.put(row, ends);
+				}
+
+				ends[key.getColumnFamily().equals(Const.EDGE_OUT_VERTEX) ? 0 : 1] =
+						key.getColumnQualifier();
+			}
+
+		} finally {
+			bs.close();
+		}
+
+		return result;
+	}
+
+	/**
+	 * Find the neighbors of many vertices.  This takes two batch
+	 * scans: one over the vertex rows for their adjacent edges, and
+	 * one over those edge rows for the vertices on the other end.
+	 * @param vertexRows Rows of the vertices
+	 * @param direction Which edges to follow
+	 * @param labels Only follow edges with these labels, or all if empty
+	 * @return Neighbor rows by vertex row
+	 */
+	public Map<Text, List<Text>> neighbors(Collection<Text> vertexRows,
+			Direction direction, String... labels) {
+		Map<Text, List<Adjacency>> adjacency = adjacency(vertexRows, direction, labels);
+
+		Set<Text> edgeRows = new HashSet<Text>();
+		for (List<Adjacency> list : adjacency.values()) {
+			for (Adjacency a : list) {
+				edgeRows.add(a.edgeRow);
+			}
+		}
+
+		Map<Text, Text[]> endpoints = endpoints(edgeRows);
+
+		Map<Text, List<Text>> result = new HashMap<Text, List<Text>>();
+		for (Map.Entry<Text, List<Adjacency>> entry : adjacency.entrySet()) {
+			List<Text> neighbors = new ArrayList<Text>(entry.getValue().size());
+
+			for (Adjacency a : entry.getValue()) {
+				Text[] ends = endpoints.get(a.edgeRow);
+				Text other = ends == null ? null : ends[a.direction == Direction.OUT ? 1 : 0];
+				if (other != null) {
+					neighbors.add(other);
+				}
+			}
+
+			result.put(entry.getKey(), neighbors);
+		}
+
+		return result;
+	}
+
+	private static List<Range> toRanges(Collection<Text> rows) {
+		List<Range> ranges = new ArrayList<Range>(rows.size());
+		for (Text row : rows) {
+			ranges.add(new Range(row));
+		}
+		return ranges;
+	}
+
+	private static boolean hasLabel(String label, String[] labels) {
+		if (labels.length == 0) {
+			return true;
+		}
+
+		for (String l : labels) {
+			if (l.equals(label)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * An edge as seen from one of its vertices.
+	 */
+	public static class Adjacency {
+
+		protected Text edgeRow;
+		protected Direction direction;
+		protected String label;
+
+		public Adjacency(Text edgeRow, Direction direction, String label) {
+			this.edgeRow = edgeRow;
+			this.direction = direction;
+			this.label = label;
+		}
+
+		public Text getEdgeRow() {
+			return edgeRow;
+		}
+
+		/**
+		 * OUT if the vertex is the edge's out-vertex, IN otherwise.
+		 * @return
+		 */
+		public Direction getDirection() {
+			return direction;
+		}
+
+		public String getLabel() {
+			return label;
+		}
+	}
+
+}
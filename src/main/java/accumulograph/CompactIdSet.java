@@ -0,0 +1,190 @@
+package accumulograph;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Text;
+
+/**
+ * A memory-efficient set of element rows (ids).  The bytes of all
+ * members are packed into one array, and lookups go through an
+ * open-addressing table of ints, so no object is kept per member.
+ *
+ * Members are numbered in insertion order, which lets callers keep
+ * per-member state (depths, parents, etc.) in parallel primitive
+ * arrays.  Not thread safe.
+ */
+public class CompactIdSet {
+
+	private byte[] data;
+	private int dataLength;
+
+	// Start of each member in data, by ordinal.  One extra slot
+	// marks the end of the last member.
+	private int[] offsets;
+	private int[] hashes;
+	private int size;
+
+	// Ordinal + 1 of the member in each slot, or 0 if empty.
+	private int[] table;
+
+	public CompactIdSet() {
+		this(1024);
+	}
+
+	public CompactIdSet(int expectedSize) {
+		int capacity = Math.max(16, expectedSize);
+		data = new byte[capacity * 16];
+		offsets = new int[capacity + 1];
+		hashes = new int[capacity];
+		table = new int[tableSizeFor(capacity * 2)];
+	}
+
+	/**
+	 * Add a row to the set.
+	 * @param row The row
+	 * @return True if it was not already a member
+	 */
+	public boolean add(Text row) {
+		int before = size;
+		addOrGet(row);
+		return size > before;
+	}
+
+	/**
+	 * Add a row to the set if needed, and return its ordinal.
+	 * @param row The row
+	 * @return
+	 */
+	public int addOrGet(Text row) {
+		byte[] bytes = row.getBytes();
+		int length = row.getLength();
+		int hash = hash(bytes, length);
+
+		int slot = findSlot(bytes, length, hash);
+		if (table[slot] != 0) {
+			return table[slot] - 1;
+		}
+
+		if (size == hashes.length) {
+			grow();
+			slot = findSlot(bytes, length, hash);
+		}
+
+		if (dataLength + length > data.length) {
+			data = Arrays.copyOf(data, Math.max(data.length * 2, dataLength + length));
+		}
+
+		System.arraycopy(bytes, 0, data, dataLength, length);
+		offsets[size] = dataLength;
+		dataLength += length;
+		offsets[size + 1] = dataLength;
+		hashes[size] = hash;
+		table[slot] = ++size;
+
+		return size - 1;
+	}
+
+	public boolean contains(Text row) {
+		return indexOf(row) >= 0;
+	}
+
+	/**
+	 * The ordinal of a row, or -1 if it is not a member.
+	 * @param row The row
+	 * @return
+	 */
+	public int indexOf(Text row) {
+		byte[] bytes = row.getBytes();
+		int length = row.getLength();
+		return table[findSlot(bytes, length, hash(bytes, length))] - 1;
+	}
+
+	/**
+	 * The row with the given ordinal.
+	 * @param ordinal The ordinal
+	 * @return
+	 */
+	public Text get(int ordinal) {
+		if (ordinal < 0 || ordinal >= size) {
+			throw new IndexOutOfBoundsException("No member " + ordinal);
+		}
+
+		Text row = new Text();
+		row.set(data, offsets[ordinal], offsets[ordinal + 1] - offsets[ordinal]);
+		return row;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	private int findSlot(byte[] bytes, int length, int hash) {
+		int mask = table.length - 1;
+		int slot = hash & mask;
+
+		while (table[slot] != 0) {
+			int ordinal = table[slot] - 1;
+			if (hashes[ordinal] == hash && equalsMember(ordinal, bytes, length)) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		return slot;
+	}
+
+	private boolean equalsMember(int ordinal, byte[] bytes, int length) {
+		int start = offsets[ordinal];
+		if (offsets[ordinal + 1] - start != length) {
+			return false;
+		}
+
+		for (int i = 0; i < length; i++) {
+			if (data[start + i] != bytes[i]) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private void grow() {
+		int capacity = hashes.length * 2;
+		offsets = Arrays.copyOf(offsets, capacity + 1);
+		hashes = Arrays.copyOf(hashes, capacity);
+
+		table = new int[tableSizeFor(capacity * 2)];
+		int mask = table.length - 1;
+		for (int ordinal = 0; ordinal < size; ordinal++) {
+			int slot = hashes[ordinal] & mask;
+			while (table[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = ordinal + 1;
+		}
+	}
+
+	private static int tableSizeFor(int n) {
+		int size = 1;
+		while (size < n) {
+			size <<= 1;
+		}
+		return size;
+	}
+
+	private static int hash(byte[] bytes, int length) {
+		int h = 1;
+		for (int i = 0; i < length; i++) {
+			h = 31 * h + bytes[i];
+		}
+
+		// Spread the bits, since the table is indexed by the low ones.
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+}
@@ -29,6 +29,18 @@ public final class Const {
 			"returnRemovedPropertyValues";
 	public static final String USE_PROPERTY_CACHE =
 			"usePropertyCache";
+	public static final String INDEX_BUILD_THREADS = "indexBuildThreads";
+	public static final String INDEX_SHARDS = "indexShards";
+	public static final String INDEX_SCAN_THRESHOLD = "indexScanThreshold";
+	public static final String INDEX_CACHE_SIZE = "indexCacheSize";
+	public static final String INDEX_CACHE_TTL = "indexCacheTtl";
+	public static final String LAZY_INDEX_CLEANUP = "lazyIndexCleanup";
+	public static final String ASYNC_INDEXING = "asyncIndexing";
+	public static final String ASYNC_INDEX_QUEUE_SIZE = "asyncIndexQueueSize";
+	public static final String ASYNC_INDEX_THREADS = "asyncIndexThreads";
+	public static final String PREFETCH_DEPTH = "prefetchDepth";
+	public static final String PREFETCH_THREADS = "prefetchThreads";
+	public static final String TRANSACTIONAL = "transactional";
 
 
 	// Type of element.
@@ -43,6 +55,15 @@ public final class Const {
 	public static final Text VERTEX_SIGNAL_AFTER = new Text("MVERTEY");
 	public static final Text VERTEX_OUT_EDGE = new Text("EOUT");
 	public static final Text VERTEX_IN_EDGE = new Text("EIN");
+	// Edges sorted by a key.  The cq is [key]\0[value][edge id], with
+	// the value in OrderedEncoding, and the value holds the edge's
+	// label and other vertex.
+	public static final Text VERTEX_SORTED_OUT_EDGE = new Text("SOUT");
+	public static final Text VERTEX_SORTED_IN_EDGE = new Text("SIN");
+	// Row listing the keys edges are sorted by (cf = key, value = order).
+	public static final Text SORTED_EDGE_KEYS = new Text("PSORT");
+	public static final String SORT_ASCENDING = "asc";
+	public static final String SORT_DESCENDING = "desc";
 
 	// Edge-related items.
 	public static final String EDGE_ID_PREFIX = "E";
@@ -53,6 +74,8 @@ public final class Const {
 	public static final Text EDGE_SIGNAL_AFTER = new Text("MEDGF");
 	public static final Text EDGE_OUT_VERTEX = new Text("VOUT");
 	public static final Text EDGE_IN_VERTEX = new Text("VIN");
+	// Key that indexes edge labels, when given to createKeyIndex.
+	public static final String LABEL_KEY = "label";
 
 
 	// Property-related.
@@ -60,6 +83,84 @@ public final class Const {
 	// Index table stuff.
 	public static final Text VERTEX_PROPERTY_LIST = new Text("PVLIST"); // Property lists
 	public static final Text EDGE_PROPERTY_LIST = new Text("PELIST"); // Property lists
+	// Index rows are [V/E][key][separator], followed by the
+	// shard number in hex if the key has more than one shard.
+	public static final byte[] INDEX_KEY_SEPARATOR = new byte[]{0x00};
+	// Sorts after everything that can follow the separator.
+	public static final byte[] INDEX_KEY_END = new byte[]{(byte) 0xff};
+	// Marks the index table as using the per-type row layout.
+	public static final Text INDEX_LAYOUT = new Text("PLAYOUT");
+	public static final Text INDEX_LAYOUT_VERSION = new Text("2");
+	// Marks the index table as having statistics for every key.
+	public static final Text INDEX_LAYOUT_STATISTICS = new Text("stats");
+	public static final Text VERTEX_INDEX_BUILDS = new Text("PVBUILD"); // Unfinished builds
+	public static final Text EDGE_INDEX_BUILDS = new Text("PEBUILD"); // Unfinished builds
+	public static final int MAX_INDEX_SHARDS = 4096;
+	// Index statistics are counts summed by a combiner.  Each shard
+	// row has a statistics row with the suffix, holding the total
+	// count of entries, and the count of each value (cq = value).
+	// The column families start with a zero byte, which no index
+	// value does, so the combiner touches nothing else.
+	public static final String INDEX_STATS_COMBINER = "indexStats";
+	public static final int INDEX_STATS_PRIORITY = 15;
+	public static final byte[] INDEX_STATS_SUFFIX = new byte[]{'~'};
+	public static final Text INDEX_STATS_TOTAL = new Text(new byte[]{0x00, 'T'});
+	public static final Text INDEX_STATS_VALUE = new Text(new byte[]{0x00, 'V'});
+	// Counts of elements, by type prefix (cq), in the total column.
+	public static final Text ELEMENT_COUNTS = new Text("PCOUNT");
+	// Most statistics changes held in memory while building an index.
+	public static final int INDEX_STATS_BUFFER_SIZE = 10000;
+	// Partitions of elements indexed per build thread.
+	public static final int INDEX_BUILD_PARTITIONS_PER_THREAD = 4;
+	// Age after which an entry whose element no longer has a value
+	// for the key is stale, rather than written before the value.
+	public static final long STALE_INDEX_ENTRY_MILLIS = 60000L;
+	// Most cache invalidations kept to run again when the index
+	// writer is flushed; beyond this, all lookups are invalidated.
+	public static final int UNFLUSHED_INVALIDATIONS = 10000;
+	// Most entries of a key index lookup that are cached.
+	public static final int INDEX_CACHE_MAX_ENTRIES = 10000;
+	// Most queued index mutations written in one batch.
+	public static final int ASYNC_INDEX_BATCH_SIZE = 10000;
+	// How often idle index writer threads check for closing.
+	public static final long ASYNC_INDEX_POLL_MILLIS = 100L;
+	// Reader threads of an asynchronous graph.
+	public static final int ASYNC_READ_THREADS = 4;
+
+
+	// Partitioning.
+	// Most rows kept when sampling a tablet to split it further.
+	public static final int PARTITION_SAMPLE_SIZE = 10000;
+	// Most rows of a tablet read to sample it.
+	public static final int PARTITION_SCAN_LIMIT = 1000000;
+
+
+	// Writers used for bulk work (computation results, loading, etc.).
+	public static final long BULK_WRITER_MEMORY = 50000000L;
+	public static final long BULK_WRITER_LATENCY = 10000L;
+	public static final int BULK_WRITER_THREADS = 4;
+
+
+	// Batched lookups.
+	public static final int QUERY_THREADS = 8;
+	// Most rows looked up in a single batch scan.
+	public static final int BATCH_LOOKUP_SIZE = 10000;
+
+
+	// Importing.
+	public static final int IMPORT_THREADS = 4;
+	// Elements parsed into one batch of mutations.
+	public static final int IMPORT_BATCH_SIZE = 1000;
+	// Batches parsed ahead of the import threads, per thread.
+	public static final int IMPORT_QUEUED_BATCHES = 2;
+
+
+	// Exporting.
+	public static final int EXPORT_THREADS = 4;
+	public static final int EXPORT_PARTITIONS_PER_THREAD = 4;
+	// Priority of the scan iterator reading whole rows, after the
+	// table's versioning iterator (20) drops old versions.
+	public static final int EXPORT_ROW_PRIORITY = 100;
 
 
 	// Misc.
@@ -0,0 +1,24 @@
+package accumulograph;
+
+import accumulograph.Const.ElementType;
+
+/**
+ * Receives progress reports while a key index is built.
+ * Set one with {@link AccumuloGraphOptions#setIndexBuildListener}.
+ * Calls may come from several threads at once.
+ */
+public interface IndexBuildListener {
+
+	/**
+	 * Called each time a partition of the elements has been indexed.
+	 * @param key The key being indexed
+	 * @param type Whether vertices or edges are being indexed
+	 * @param partitionsDone Partitions finished so far, including ones
+	 *   finished before the build was resumed
+	 * @param partitionsTotal Total number of partitions
+	 * @param entriesWritten Index entries written by this build so far
+	 */
+	void progress(String key, ElementType type, int partitionsDone,
+			int partitionsTotal, long entriesWritten);
+
+}
@@ -0,0 +1,331 @@
+package accumulograph;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
+import org.apache.hadoop.io.Text;
+
+import accumulograph.Const.ElementType;
+
+/**
+ * A bounded cache of key index lookups, i.e. the index entries
+ * found for a key and value.  The least recently used lookups are
+ * evicted once the cache is full, and lookups expire after a time
+ * to live.
+ *
+ * Graphs invalidate the lookups of the values whose entries they
+ * change, so a graph always sees its own writes.  A cache can be
+ * shared by several graphs, with
+ * {@link AccumuloGraphOptions#setIndexLookupCache}; lookups are
+ * kept per index table, and a write through any of the graphs
+ * invalidates them for all.  Writes by other processes are seen
+ * once the lookups expire.
+ */
+public class IndexLookupCache {
+
+	private final int maxLookups;
+	private final long ttl;
+
+	private final LinkedHashMap<Lookup, Cached> lookups;
+	// Cached lookups of each index key.
+	private final Map<String, Set<Lookup>> byIndexKey = new HashMap<String, Set<Lookup>>();
+	// Changed on invalidation, so that lookups read while an
+	// index key was being changed are not cached.
+	private final Map<String, Long> generations = new HashMap<String, Long>();
+
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+	private long expirations = 0;
+	private long invalidations = 0;
+
+	/**
+	 * Create a cache.
+	 * @param maxLookups Most lookups kept
+	 * @param ttl Milliseconds a lookup is kept
+	 */
+	public IndexLookupCache(int maxLookups, long ttl) {
+		if (maxLookups < 1) {
+			throw new IllegalArgumentException("Cache size must be positive");
+		}
+		else if (ttl < 1) {
+			throw new IllegalArgumentException("Time to live must be positive");
+		}
+
+		this.maxLookups = maxLookups;
+		this.ttl = ttl;
+
+		lookups = new LinkedHashMap<Lookup, Cached>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Lookup, Cached> eldest) {
+				if (size() > IndexLookupCache.this.maxLookups) {
+					forget(eldest.getKey());
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Get the entries of a lookup.
+	 * @param table The index table
+	 * @param type Vertices or edges
+	 * @param key The key, or name of a composite index
+	 * @param columns Index columns of the value
+	 * @return The entries, or null if not cached
+	 */
+	public synchronized List<Map.Entry<Key, Value>> get(String table, ElementType type, String key,
+			List<Text> columns) {
+		Lookup lookup = new Lookup(indexKey(table, type, key), columns);
+		Cached cached = lookups.get(lookup);
+
+		if (cached != null && cached.expires < System.currentTimeMillis()) {
+			lookups.remove(lookup);
+			forget(lookup);
+			expirations++;
+			cached = null;
+		}
+
+		if (cached == null) {
+			misses++;
+			return null;
+		}
+
+		hits++;
+		return cached.entries;
+	}
+
+	/**
+	 * The current generation of an index key.  Take this before
+	 * reading a lookup, and pass it to {@link #put}.
+	 */
+	public synchronized long generation(String table, ElementType type, String key) {
+		Long generation = generations.get(indexKey(table, type, key));
+		return generation == null ? 0 : generation;
+	}
+
+	/**
+	 * Cache the entries of a lookup, unless the index key
+	 * was changed while they were read.
+	 * @param generation Generation of the index key before reading
+	 */
+	public synchronized void put(String table, ElementType type, String key, List<Text> columns,
+			long generation, List<Map.Entry<Key, Value>> entries) {
+		String indexKey = indexKey(table, type, key);
+		if (generation != generation(table, type, key)) {
+			return;
+		}
+
+		Lookup lookup = new Lookup(indexKey, columns);
+		Set<Lookup> keyLookups = byIndexKey.get(indexKey);
+		if (keyLookups == null) {
+			keyLookups = new HashSet<Lookup>();
+			byIndexKey.put(indexKey, keyLookups);
+		}
+		keyLookups.add(lookup);
+
+		lookups.put(lookup, new Cached(entries, System.currentTimeMillis() + ttl));
+	}
+
+	/**
+	 * Invalidate the lookups that read any of some index columns.
+	 * @param table The index table
+	 * @param type Vertices or edges
+	 * @param key The key, or name of a composite index
+	 * @param columns Index columns of the changed value
+	 */
+	public synchronized void invalidate(String table, ElementType type, String key,
+			Collection<Text> columns) {
+		String indexKey = indexKey(table, type, key);
+		bump(indexKey);
+
+		Set<Lookup> keyLookups = byIndexKey.get(indexKey);
+		if (keyLookups == null) {
+			return;
+		}
+
+		for (Iterator<Lookup> i = keyLookups.iterator(); i.hasNext(); ) {
+			Lookup lookup = i.next();
+			if (!java.util.Collections.disjoint(lookup.columns, columns)) {
+				i.remove();
+				lookups.remove(lookup);
+				invalidations++;
+			}
+		}
+
+		if (keyLookups.isEmpty()) {
+			byIndexKey.remove(indexKey);
+		}
+	}
+
+	/**
+	 * Invalidate all lookups of a key.
+	 * @param table The index table
+	 * @param type Vertices or edges
+	 * @param key The key, or name of a composite index
+	 */
+	public synchronized void invalidate(String table, ElementType type, String key) {
+		invalidateIndexKeys(indexKey(table, type, key));
+	}
+
+	/**
+	 * Invalidate all lookups of an index table.
+	 * @param table The index table
+	 */
+	public synchronized void invalidate(String table) {
+		List<String> indexKeys = new ArrayList<String>();
+		String prefix = table + "\0";
+
+		for (String indexKey : generations.keySet()) {
+			if (indexKey.startsWith(prefix)) {
+				indexKeys.add(indexKey);
+			}
+		}
+
+		invalidateIndexKeys(indexKeys.toArray(new String[indexKeys.size()]));
+	}
+
+	private void invalidateIndexKeys(String... indexKeys) {
+		for (String indexKey : indexKeys) {
+			bump(indexKey);
+
+			Set<Lookup> keyLookups = byIndexKey.remove(indexKey);
+			if (keyLookups != null) {
+				for (Lookup lookup : keyLookups) {
+					lookups.remove(lookup);
+					invalidations++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Remove all lookups.  This does not count as invalidation.
+	 */
+	public synchronized void clear() {
+		for (String indexKey : new ArrayList<String>(generations.keySet())) {
+			bump(indexKey);
+		}
+		lookups.clear();
+		byIndexKey.clear();
+	}
+
+	private void bump(String indexKey) {
+		Long generation = generations.get(indexKey);
+		generations.put(indexKey, generation == null ? 1 : generation + 1);
+	}
+
+	private void forget(Lookup lookup) {
+		Set<Lookup> keyLookups = byIndexKey.get(lookup.indexKey);
+		if (keyLookups != null) {
+			keyLookups.remove(lookup);
+			if (keyLookups.isEmpty()) {
+				byIndexKey.remove(lookup.indexKey);
+			}
+		}
+	}
+
+	private static String indexKey(String table, ElementType type, String key) {
+		return table + "\0" + type + "\0" + key;
+	}
+
+	public synchronized int size() {
+		return lookups.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Fraction of lookups found in the cache.
+	 * @return The rate, or 0 if there have been no lookups
+	 */
+	public synchronized double getHitRate() {
+		long total = hits + misses;
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	/**
+	 * Number of lookups removed to make room for others.
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * Number of lookups found to have outlived the time to live.
+	 */
+	public synchronized long getExpirations() {
+		return expirations;
+	}
+
+	/**
+	 * Number of lookups removed because their entries changed.
+	 */
+	public synchronized long getInvalidations() {
+		return invalidations;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "IndexLookupCache [size=" + lookups.size() + ", maxLookups=" + maxLookups
+				+ ", ttl=" + ttl + ", hits=" + hits + ", misses=" + misses
+				+ ", evictions=" + evictions + ", expirations=" + expirations
+				+ ", invalidations=" + invalidations + "]";
+	}
+
+	private static class Lookup {
+
+		private final String indexKey;
+		private final List<Text> columns;
+
+		public Lookup(String indexKey, List<Text> columns) {
+			this.indexKey = indexKey;
+			this.columns = columns;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * indexKey.hashCode() + columns.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Lookup)) {
+				return false;
+			}
+			Lookup other = (Lookup) obj;
+			return indexKey.equals(other.indexKey) && columns.equals(other.columns);
+		}
+	}
+
+	private static class Cached {
+
+		private final List<Map.Entry<Key, Value>> entries;
+		private final long expires;
+
+		public Cached(List<Map.Entry<Key, Value>> entries, long expires) {
+			this.entries = entries;
+			this.expires = expires;
+		}
+	}
+
+}
@@ -0,0 +1,316 @@
+package accumulograph;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.io.Text;
+
+import com.tinkerpop.blueprints.Parameter;
+
+/**
+ * How a key is indexed.  This is set from the parameters given
+ * to createKeyIndex, and is stored with the key in the index
+ * table's property list, so that it applies for the life
+ * of the index.
+ */
+public class KeyIndexDefinition implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Parameter for the number of rows to spread the
+	 * index entries across.
+	 */
+	public static final String SHARDS = "shards";
+
+	/**
+	 * Parameter making the index a composite of several keys,
+	 * given as an array or collection of keys, or a comma-separated
+	 * string.  The index is then named by the key passed to
+	 * createKeyIndex, and its values are the keys' values, in order.
+	 */
+	public static final String COMPOSITE = "composite";
+
+	/**
+	 * Parameter for keys whose values are stored in each index
+	 * entry, given like the keys of a composite index.  Elements
+	 * found through the index come with these properties loaded.
+	 */
+	public static final String COVERED = "covered";
+
+	/**
+	 * Parameter for how values are indexed, one of the
+	 * names of {@link Mode}, in any case.
+	 */
+	public static final String MODE = "mode";
+
+	/**
+	 * How values are stored in the index.
+	 */
+	public static enum Mode {
+		/** Values are serialized.  Supports exact lookups of any value. */
+		VALUE,
+		/** Values are stored sorted, so strings can be looked up by prefix. */
+		STRING,
+		/**
+		 * Strings are split into lowercase words, each stored sorted.
+		 * Lookups find values containing all the words given, and
+		 * prefix lookups find values containing a word with the prefix.
+		 */
+		TOKEN
+	};
+
+	private int shards = 1;
+	// Keys of a composite index, or null.
+	private List<String> compositeKeys;
+	// Null in definitions stored before modes existed.
+	private Mode mode = Mode.VALUE;
+	// Keys stored in the entries, or null.
+	private List<String> coveredKeys;
+
+	private static final Pattern TOKEN_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+	public KeyIndexDefinition() {
+
+	}
+
+	/**
+	 * Create a definition from createKeyIndex parameters.
+	 * Parameters that are not understood are ignored.
+	 * @param opts Options giving the defaults
+	 * @param params The parameters
+	 * @return
+	 */
+	@SuppressWarnings("rawtypes")
+	public static KeyIndexDefinition fromParameters(AccumuloGraphOptions opts, Parameter... params) {
+		KeyIndexDefinition def = new KeyIndexDefinition();
+		def.setShards(opts.getIndexShards());
+
+		for (Parameter param : params) {
+			if (SHARDS.equals(param.getKey())) {
+				def.setShards(toInt(param.getValue()));
+			}
+			else if (COMPOSITE.equals(param.getKey())) {
+				def.setCompositeKeys(toKeys(param.getValue()));
+			}
+			else if (COVERED.equals(param.getKey())) {
+				def.setCoveredKeys(toKeys(param.getValue()));
+			}
+			else if (MODE.equals(param.getKey())) {
+				try {
+					def.mode = Mode.valueOf(String.valueOf(param.getValue()).trim().toUpperCase(Locale.ENGLISH));
+				} catch (IllegalArgumentException e) {
+					throw new IllegalArgumentException("Unknown index mode: " + param.getValue());
+				}
+			}
+		}
+
+		if (def.isComposite() && def.getMode() != Mode.VALUE) {
+			throw new IllegalArgumentException("Composite indexes cannot have a mode");
+		}
+
+		return def;
+	}
+
+	private static int toInt(Object value) {
+		if (value instanceof Number) {
+			return ((Number) value).intValue();
+		}
+
+		try {
+			return Integer.parseInt(String.valueOf(value));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Not a number: " + value);
+		}
+	}
+
+	private static List<String> toKeys(Object value) {
+		List<String> keys = new ArrayList<String>();
+
+		if (value instanceof Object[]) {
+			for (Object key : (Object[]) value) {
+				keys.add(String.valueOf(key).trim());
+			}
+		}
+		else if (value instanceof Collection) {
+			for (Object key : (Collection<?>) value) {
+				keys.add(String.valueOf(key).trim());
+			}
+		}
+		else {
+			for (String key : String.valueOf(value).split(",")) {
+				keys.add(key.trim());
+			}
+		}
+
+		return keys;
+	}
+
+	public int getShards() {
+		return shards;
+	}
+
+	public void setShards(int shards) {
+		if (shards < 1 || shards > Const.MAX_INDEX_SHARDS) {
+			throw new IllegalArgumentException("Index shards must be between 1 and "
+					+ Const.MAX_INDEX_SHARDS);
+		}
+		this.shards = shards;
+	}
+
+	public boolean isComposite() {
+		return compositeKeys != null;
+	}
+
+	public List<String> getCompositeKeys() {
+		return compositeKeys;
+	}
+
+	public void setCompositeKeys(List<String> compositeKeys) {
+		if (compositeKeys != null) {
+			if (compositeKeys.size() < 2) {
+				throw new IllegalArgumentException("Composite index needs at least two keys");
+			}
+			for (String key : compositeKeys) {
+				if (key == null || key.length() == 0) {
+					throw new IllegalArgumentException("Composite index keys cannot be empty");
+				}
+			}
+			if (new HashSet<String>(compositeKeys).size() < compositeKeys.size()) {
+				throw new IllegalArgumentException("Composite index keys must be distinct");
+			}
+			compositeKeys = Collections.unmodifiableList(new ArrayList<String>(compositeKeys));
+		}
+		this.compositeKeys = compositeKeys;
+	}
+
+	/**
+	 * Keys whose values are stored in the index entries.
+	 * @return The keys, or an empty list
+	 */
+	public List<String> getCoveredKeys() {
+		return coveredKeys == null ? Collections.<String>emptyList() : coveredKeys;
+	}
+
+	public void setCoveredKeys(List<String> coveredKeys) {
+		if (coveredKeys != null) {
+			for (String key : coveredKeys) {
+				if (key == null || key.length() == 0) {
+					throw new IllegalArgumentException("Covered keys cannot be empty");
+				}
+			}
+			coveredKeys = Collections.unmodifiableList(
+					new ArrayList<String>(new LinkedHashSet<String>(coveredKeys)));
+		}
+		this.coveredKeys = coveredKeys;
+	}
+
+	public boolean isCovering() {
+		return !getCoveredKeys().isEmpty();
+	}
+
+	public Mode getMode() {
+		return mode == null ? Mode.VALUE : mode;
+	}
+
+	/**
+	 * Whether strings are stored sorted, so they can
+	 * be looked up by prefix.
+	 */
+	public boolean isSortable() {
+		return getMode() != Mode.VALUE;
+	}
+
+	/**
+	 * The index column families of a value.  There is one, except
+	 * in token mode, which has one per word of a string.  For a
+	 * composite index, the value is the list of the keys' values,
+	 * which are concatenated with {@link OrderedEncoding}.
+	 * @param value The value
+	 * @return
+	 */
+	public List<Text> columns(Object value) {
+		if (isComposite()) {
+			if (!(value instanceof List) || ((List<?>) value).size() != compositeKeys.size()) {
+				throw new IllegalArgumentException("Composite index needs a list of "
+						+ compositeKeys.size() + " values");
+			}
+			return Collections.singletonList(OrderedEncoding.encodeAll((List<?>) value));
+		}
+
+		switch (getMode()) {
+		case STRING:
+			return Collections.singletonList(new Text(OrderedEncoding.encode(value)));
+
+		case TOKEN:
+			if (!(value instanceof String)) {
+				return Collections.singletonList(new Text(OrderedEncoding.encode(value)));
+			}
+
+			List<Text> columns = new ArrayList<Text>();
+			for (String token : tokenize((String) value)) {
+				columns.add(new Text(OrderedEncoding.encode(token)));
+			}
+			return columns;
+
+		default:
+			return Collections.singletonList(Utils.objectToText(value));
+		}
+	}
+
+	/**
+	 * The start of the index column families of strings with a
+	 * prefix, or in token mode, of words with the prefix.
+	 * @param prefix The prefix
+	 * @return
+	 */
+	public Text encodePrefix(String prefix) {
+		if (!isSortable()) {
+			throw new IllegalArgumentException("Index does not store strings sorted");
+		}
+
+		return OrderedEncoding.encodePrefix(getMode() == Mode.TOKEN ?
+				prefix.toLowerCase(Locale.ENGLISH) : prefix);
+	}
+
+	/**
+	 * Split a string into distinct lowercase words.
+	 * @param value The string
+	 * @return
+	 */
+	public static Set<String> tokenize(String value) {
+		Set<String> tokens = new LinkedHashSet<String>();
+		for (String token : TOKEN_SEPARATOR.split(value.toLowerCase(Locale.ENGLISH))) {
+			if (token.length() > 0) {
+				tokens.add(token);
+			}
+		}
+		return tokens;
+	}
+
+	/**
+	 * The shard holding an element's entries.  This only depends
+	 * on the element's row, so it is stable across JVMs.
+	 * @param eltRow Row of the element
+	 * @return
+	 */
+	public int shardOf(Text eltRow) {
+		return (eltRow.hashCode() & Integer.MAX_VALUE) % shards;
+	}
+
+	@Override
+	public String toString() {
+		return "KeyIndexDefinition [shards=" + shards
+				+ ", compositeKeys=" + compositeKeys + ", mode=" + getMode()
+				+ ", coveredKeys=" + coveredKeys + "]";
+	}
+
+}
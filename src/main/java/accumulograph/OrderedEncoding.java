@@ -0,0 +1,275 @@
+package accumulograph;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+
+import org.apache.hadoop.io.Text;
+
+/**
+ * Encodes property values as bytes that sort in the same order
+ * as the values, so that index entries can be range scanned.
+ * Each value starts with a byte giving its type, so values of
+ * different types never collide, and sort grouped by type.
+ * Several values can be concatenated, and the result sorts
+ * by the first value, then the second, and so on.
+ *
+ * Strings, numbers and booleans are order-preserving.  Other
+ * values are stored serialized, which supports equality only.
+ * No encoding is a prefix of another, so inverting the bytes of
+ * an encoding reverses the order, and anything appended after
+ * an encoding does not change the order of the values.
+ */
+public final class OrderedEncoding {
+
+	private OrderedEncoding() {
+
+	}
+
+	private static final byte NULL = 0x01;
+	private static final byte FALSE = 0x02;
+	private static final byte TRUE = 0x03;
+	private static final byte LONG = 0x10;
+	private static final byte INTEGER = 0x11;
+	private static final byte SHORT = 0x12;
+	private static final byte BYTE = 0x13;
+	private static final byte DOUBLE = 0x20;
+	private static final byte FLOAT = 0x21;
+	private static final byte STRING = 0x30;
+	private static final byte OBJECT = 0x40;
+
+	// Variable-length values end with a terminator, and any
+	// zero byte within them is escaped.
+	private static final byte TERMINATOR = 0x00;
+	private static final byte ESCAPED_ZERO = (byte) 0xff;
+
+	/**
+	 * Encode one value.
+	 * @param value The value
+	 * @return
+	 */
+	public static byte[] encode(Object value) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		write(out, value);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Encode several values, in order.
+	 * @param values The values
+	 * @return
+	 */
+	public static Text encodeAll(List<?> values) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (Object value : values) {
+			write(out, value);
+		}
+		return new Text(out.toByteArray());
+	}
+
+	/**
+	 * Encode the start of a string, such that the encodings of
+	 * all strings starting with it begin with the result.
+	 * @param prefix The start of the string
+	 * @return
+	 */
+	public static Text encodePrefix(String prefix) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(STRING);
+		writeEscaped(out, Utils.stringToText(prefix), false);
+		return new Text(out.toByteArray());
+	}
+
+	/**
+	 * Decode the value starting at an offset.
+	 * @param bytes The encoded values
+	 * @param offset Where the value starts
+	 * @return
+	 */
+	public static Object decode(byte[] bytes, int offset) {
+		switch (bytes[offset]) {
+		case NULL:
+			return null;
+		case FALSE:
+			return false;
+		case TRUE:
+			return true;
+		case LONG:
+			return readLong(bytes, offset + 1, 8);
+		case INTEGER:
+			return (int) readLong(bytes, offset + 1, 4);
+		case SHORT:
+			return (short) readLong(bytes, offset + 1, 2);
+		case BYTE:
+			return (byte) readLong(bytes, offset + 1, 1);
+		case DOUBLE:
+			return Double.longBitsToDouble(sortableBits(readLong(bytes, offset + 1, 8), 64));
+		case FLOAT:
+			return Float.intBitsToFloat((int) sortableBits(readLong(bytes, offset + 1, 4), 32));
+		case STRING:
+			return Utils.textToString(readEscaped(bytes, offset + 1));
+		case OBJECT:
+			return Utils.textToObject(readEscaped(bytes, offset + 1));
+		default:
+			throw new IllegalArgumentException("Unknown type: " + bytes[offset]);
+		}
+	}
+
+	/**
+	 * The number of bytes taken by the value starting at an offset.
+	 * @param bytes The encoded values
+	 * @param offset Where the value starts
+	 * @return
+	 */
+	public static int length(byte[] bytes, int offset) {
+		switch (bytes[offset]) {
+		case NULL:
+		case FALSE:
+		case TRUE:
+			return 1;
+		case LONG:
+		case DOUBLE:
+			return 9;
+		case INTEGER:
+		case FLOAT:
+			return 5;
+		case SHORT:
+			return 3;
+		case BYTE:
+			return 2;
+		case STRING:
+		case OBJECT:
+			int i = offset + 1;
+			while (bytes[i] != TERMINATOR || (i + 1 < bytes.length && bytes[i + 1] == ESCAPED_ZERO)) {
+				i += bytes[i] == TERMINATOR ? 2 : 1;
+			}
+			return i + 1 - offset;
+		default:
+			throw new IllegalArgumentException("Unknown type: " + bytes[offset]);
+		}
+	}
+
+	/**
+	 * Invert bytes, so that encodings sort in reverse order.
+	 * @param bytes The bytes
+	 * @param offset Where to start
+	 * @param length How many bytes to invert
+	 * @return A new array of the inverted bytes
+	 */
+	public static byte[] invert(byte[] bytes, int offset, int length) {
+		byte[] inverted = new byte[length];
+		for (int i = 0; i < length; i++) {
+			inverted[i] = (byte) ~bytes[offset + i];
+		}
+		return inverted;
+	}
+
+	private static void write(ByteArrayOutputStream out, Object value) {
+		if (value == null) {
+			out.write(NULL);
+		}
+		else if (value instanceof Boolean) {
+			out.write((Boolean) value ? TRUE : FALSE);
+		}
+		else if (value instanceof Long) {
+			out.write(LONG);
+			writeLong(out, (Long) value, 8);
+		}
+		else if (value instanceof Integer) {
+			out.write(INTEGER);
+			writeLong(out, (Integer) value, 4);
+		}
+		else if (value instanceof Short) {
+			out.write(SHORT);
+			writeLong(out, (Short) value, 2);
+		}
+		else if (value instanceof Byte) {
+			out.write(BYTE);
+			writeLong(out, (Byte) value, 1);
+		}
+		else if (value instanceof Double) {
+			out.write(DOUBLE);
+			writeLong(out, sortableBits(Double.doubleToLongBits((Double) value), 64), 8);
+		}
+		else if (value instanceof Float) {
+			out.write(FLOAT);
+			writeLong(out, sortableBits(Float.floatToIntBits((Float) value), 32), 4);
+		}
+		else if (value instanceof String) {
+			out.write(STRING);
+			writeEscaped(out, Utils.stringToText((String) value), true);
+		}
+		else {
+			out.write(OBJECT);
+			writeEscaped(out, Utils.objectToText(value), true);
+		}
+	}
+
+	/**
+	 * Write the low bytes of a signed number, big-endian, with
+	 * the sign bit flipped so negative numbers sort first.
+	 */
+	private static void writeLong(ByteArrayOutputStream out, long value, int bytes) {
+		value ^= 1L << (bytes * 8 - 1);
+		for (int i = bytes - 1; i >= 0; i--) {
+			out.write((int) (value >>> (i * 8)));
+		}
+	}
+
+	private static long readLong(byte[] bytes, int offset, int length) {
+		long value = 0;
+		for (int i = 0; i < length; i++) {
+			value = (value << 8) | (bytes[offset + i] & 0xff);
+		}
+		value ^= 1L << (length * 8 - 1);
+
+		// Sign-extend numbers shorter than a long.
+		int shift = 64 - length * 8;
+		return (value << shift) >> shift;
+	}
+
+	/**
+	 * Turn IEEE bits into a signed number with the same order as
+	 * the floating point value: negative values have their
+	 * magnitude bits flipped, so larger magnitudes sort lower.
+	 */
+	private static long sortableBits(long bits, int width) {
+		long sign = 1L << (width - 1);
+		if ((bits & sign) != 0) {
+			bits ^= sign - 1;
+		}
+		return bits;
+	}
+
+	private static void writeEscaped(ByteArrayOutputStream out, Text text, boolean terminate) {
+		byte[] bytes = text.getBytes();
+		for (int i = 0; i < text.getLength(); i++) {
+			out.write(bytes[i]);
+			if (bytes[i] == TERMINATOR) {
+				out.write(ESCAPED_ZERO);
+			}
+		}
+
+		if (terminate) {
+			out.write(TERMINATOR);
+		}
+	}
+
+	private static Text readEscaped(byte[] bytes, int offset) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int i = offset; ; i++) {
+			if (bytes[i] == TERMINATOR) {
+				if (i + 1 < bytes.length && bytes[i + 1] == ESCAPED_ZERO) {
+					out.write(TERMINATOR);
+					i++;
+				}
+				else {
+					return new Text(out.toByteArray());
+				}
+			}
+			else {
+				out.write(bytes[i]);
+			}
+		}
+	}
+
+}
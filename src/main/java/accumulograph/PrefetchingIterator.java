@@ -0,0 +1,158 @@
+package accumulograph;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Executor;
+
+/**
+ * This class reads another iterator ahead of its consumer, on a
+ * thread of a shared pool, into a buffer of at most a given depth.
+ * Fetching and decoding the next elements then overlaps with the
+ * consumer's work on the current one.
+ *
+ * The reading task stops once the buffer is full, and is started
+ * again when the consumer has taken half of it, so an iterator
+ * that is abandoned part way holds no thread.  Only one task reads
+ * the source at a time, but it must not share a scanner with other
+ * threads.  If the source throws, the exception is thrown to the
+ * consumer after the elements read before it.
+ */
+public class PrefetchingIterator<T> implements Iterator<T> {
+
+	protected Iterator<T> source;
+	protected Executor pool;
+	protected int depth;
+
+	// Guarded by this.
+	private final LinkedList<T> buffer = new LinkedList<T>();
+	private boolean running = false;
+	private boolean finished = false;
+	private RuntimeException failure;
+
+	private T current;
+
+	private final Runnable reader = new Runnable() {
+		@Override
+		public void run() {
+			read();
+		}
+	};
+
+	/**
+	 * Start reading ahead.
+	 * @param source The iterator to read
+	 * @param depth Most elements buffered
+	 * @param pool Pool that runs the reading tasks
+	 */
+	public PrefetchingIterator(Iterator<T> source, int depth, Executor pool) {
+		if (depth < 1) {
+			throw new IllegalArgumentException("Prefetch depth must be positive");
+		}
+
+		this.source = source;
+		this.depth = depth;
+		this.pool = pool;
+
+		synchronized (this) {
+			start();
+		}
+	}
+
+	@Override
+	public synchronized boolean hasNext() {
+		while (buffer.isEmpty()) {
+			if (finished) {
+				if (failure != null) {
+					throw failure;
+				}
+				return false;
+			}
+			if (!running) {
+				start();
+			}
+
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public synchronized T next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+
+		current = buffer.removeFirst();
+		if (!running && !finished && buffer.size() <= depth / 2) {
+			start();
+		}
+		return current;
+	}
+
+	@Override
+	public void remove() {
+		if (current == null) {
+			throw new IllegalStateException();
+		}
+		remove(current);
+		current = null;
+	}
+
+	/**
+	 * Remove an element returned by this iterator.
+	 * The source cannot do it, as it has read ahead.
+	 * @param element The element
+	 */
+	protected void remove(T element) {
+		throw new UnsupportedOperationException();
+	}
+
+	private void start() {
+		running = true;
+		try {
+			pool.execute(reader);
+		} catch (RuntimeException e) {
+			running = false;
+			throw e;
+		}
+	}
+
+	private void read() {
+		while (true) {
+			T element;
+			try {
+				if (!source.hasNext()) {
+					stop(null);
+					return;
+				}
+				element = source.next();
+			} catch (RuntimeException e) {
+				stop(e);
+				return;
+			}
+
+			synchronized (this) {
+				buffer.addLast(element);
+				notifyAll();
+
+				if (buffer.size() >= depth) {
+					running = false;
+					return;
+				}
+			}
+		}
+	}
+
+	private synchronized void stop(RuntimeException e) {
+		failure = e;
+		finished = true;
+		running = false;
+		notifyAll();
+	}
+
+}
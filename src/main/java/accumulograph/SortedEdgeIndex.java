@@ -0,0 +1,528 @@
+package accumulograph;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.apache.accumulo.core.client.BatchWriter;
+import org.apache.accumulo.core.client.Scanner;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.hadoop.io.Text;
+
+import accumulograph.Const.ElementType;
+
+import com.tinkerpop.blueprints.Direction;
+
+/**
+ * Vertex-centric edge indexes.  For each key edges are sorted by,
+ * the rows of an edge's endpoints get another adjacency column,
+ * whose qualifier starts with the edge's value for the key in
+ * {@link OrderedEncoding}.  The edges of a vertex can then be read
+ * in the order of the key, or for a range of its values, with one
+ * bounded scan of the vertex row.  The column value holds the
+ * edge's label and other vertex, so no edge rows are read.
+ *
+ * The keys are listed in a row of the graph table, so they apply
+ * for the life of the graph.  Edges without a value for a key
+ * have no column for it.
+ */
+public class SortedEdgeIndex {
+
+	private AccumuloGraph parent;
+	// Keys edges are sorted by, and whether each is descending.
+	private volatile Map<String, Boolean> keys;
+
+	public SortedEdgeIndex(AccumuloGraph parent) {
+		this.parent = parent;
+		reload();
+	}
+
+	/**
+	 * Read the sorted keys from the graph table.
+	 */
+	protected void reload() {
+		Map<String, Boolean> loaded = new HashMap<String, Boolean>();
+
+		Scanner s = parent.createScanner();
+		s.setRange(new Range(Const.SORTED_EDGE_KEYS));
+		for (Map.Entry<Key, Value> entry : s) {
+			loaded.put(Utils.textToString(entry.getKey().getColumnFamily()),
+					Const.SORT_DESCENDING.equals(Utils.valueToString(entry.getValue())));
+		}
+
+		keys = loaded;
+	}
+
+	public Set<String> getKeys() {
+		return Collections.unmodifiableSet(keys.keySet());
+	}
+
+	public boolean isSorted(String key) {
+		return keys.containsKey(key);
+	}
+
+	public boolean isDescending(String key) {
+		Boolean descending = keys.get(key);
+		if (descending == null) {
+			throw new IllegalArgumentException("Edges are not sorted by " + key);
+		}
+		return descending;
+	}
+
+	/**
+	 * Sort edges by a key, adding columns for the edges
+	 * that already have a value for it.
+	 * @param key The key
+	 * @param descending Whether larger values come first
+	 */
+	public synchronized void create(String key, boolean descending) {
+		if (key == null || key.length() == 0) {
+			throw new IllegalArgumentException("Key cannot be empty");
+		}
+		else if (Const.LABEL_KEY.equals(key)) {
+			throw new IllegalArgumentException("Edges cannot be sorted by label");
+		}
+
+		Boolean existing = keys.get(key);
+		if (existing != null) {
+			if (existing != descending) {
+				throw new IllegalArgumentException("Edges are already sorted by " + key
+						+ " in the other order");
+			}
+			return;
+		}
+
+		Mutation m = new Mutation(Const.SORTED_EDGE_KEYS);
+		m.put(Utils.stringToText(key), Const.EMPTY_TEXT,
+				Utils.stringToValue(descending ? Const.SORT_DESCENDING : Const.SORT_ASCENDING));
+		Utils.addMutation(parent.writer, m);
+		Utils.flush(parent.writer);
+
+		// Edges changed from now on are kept up to date, so the
+		// build only has to cover edges written before this.
+		Map<String, Boolean> updated = new HashMap<String, Boolean>(keys);
+		updated.put(key, descending);
+		keys = updated;
+
+		build(key, descending);
+	}
+
+	private void build(String key, boolean descending) {
+		Scanner s = parent.createScanner();
+		s.setRange(new Range(AccumuloIdManager.toIdPrefix(ElementType.EDGE), true,
+				AccumuloIdManager.afterIdPrefix(ElementType.EDGE), false));
+		s.fetchColumnFamily(Const.EDGE_SIGNAL);
+		s.fetchColumnFamily(Const.EDGE_OUT_VERTEX);
+		s.fetchColumnFamily(Const.EDGE_IN_VERTEX);
+		s.fetchColumn(Const.PROPERTY_SIGNAL, Utils.stringToText(key));
+
+		BatchWriter writer = parent.createBatchWriter();
+		try {
+			Text row = null;
+			String label = null;
+			Text out = null;
+			Text in = null;
+			Object value = null;
+
+			for (Map.Entry<Key, Value> entry : s) {
+				Key k = entry.getKey();
+
+				if (row == null || !row.equals(k.getRow())) {
+					if (value != null) {
+						write(writer, row, out, in, label, key, descending, value, false);
+					}
+					row = k.getRow();
+					label = null;
+					out = null;
+					in = null;
+					value = null;
+				}
+
+				Text cf = k.getColumnFamily();
+				if (cf.equals(Const.EDGE_SIGNAL)) {
+					label = Utils.textToString(k.getColumnQualifier());
+				}
+				else if (cf.equals(Const.EDGE_OUT_VERTEX)) {
+					out = k.getColumnQualifier();
+				}
+				else if (cf.equals(Const.EDGE_IN_VERTEX)) {
+					in = k.getColumnQualifier();
+				}
+				else {
+					value = Utils.valueToObject(entry.getValue());
+				}
+			}
+
+			if (value != null) {
+				write(writer, row, out, in, label, key, descending, value, false);
+			}
+
+		} finally {
+			Utils.close(writer);
+		}
+	}
+
+	/**
+	 * Stop sorting edges by a key, and remove its columns.
+	 * @param key The key
+	 */
+	public synchronized void drop(String key) {
+		if (!keys.containsKey(key)) {
+			return;
+		}
+
+		Map<String, Boolean> updated = new HashMap<String, Boolean>(keys);
+		updated.remove(key);
+		keys = updated;
+
+		Mutation m = new Mutation(Const.SORTED_EDGE_KEYS);
+		m.putDelete(Utils.stringToText(key), Const.EMPTY_TEXT);
+		Utils.addMutation(parent.writer, m);
+
+		Scanner s = parent.createScanner();
+		s.setRange(new Range(AccumuloIdManager.toIdPrefix(ElementType.VERTEX), true,
+				AccumuloIdManager.afterIdPrefix(ElementType.VERTEX), false));
+		s.fetchColumnFamily(Const.VERTEX_SORTED_OUT_EDGE);
+		s.fetchColumnFamily(Const.VERTEX_SORTED_IN_EDGE);
+
+		Text prefix = prefix(key);
+		BatchWriter writer = parent.createBatchWriter();
+		try {
+			for (Map.Entry<Key, Value> entry : s) {
+				Key k = entry.getKey();
+				Text cq = k.getColumnQualifier();
+
+				if (startsWith(cq, prefix)) {
+					m = new Mutation(k.getRow());
+					m.putDelete(k.getColumnFamily(), cq);
+					Utils.addMutation(writer, m);
+				}
+			}
+		} finally {
+			Utils.close(writer);
+		}
+	}
+
+	/**
+	 * Update an edge's columns after one of its properties changes.
+	 * @param edge The edge
+	 * @param key The key
+	 * @param oldValue The previous value, or null
+	 * @param newValue The new value, or null if removed
+	 */
+	protected void update(AccumuloEdge edge, String key, Object oldValue, Object newValue) {
+		Boolean descending = keys.get(key);
+		if (descending == null || (oldValue != null && oldValue.equals(newValue))) {
+			return;
+		}
+
+		if (oldValue != null) {
+			write(parent.writer, edge, key, descending, oldValue, true);
+		}
+
+		if (newValue != null) {
+			write(parent.writer, edge, key, descending, newValue, false);
+		}
+	}
+
+	/**
+	 * Remove all of an edge's columns.
+	 * @param edge The edge
+	 */
+	protected void removeEdge(AccumuloEdge edge) {
+		removeEdge(edge, parent.writer);
+	}
+
+	/**
+	 * Remove all of an edge's columns, through a given writer.
+	 * @param edge The edge
+	 * @param writer The writer
+	 */
+	protected void removeEdge(AccumuloEdge edge, BatchWriter writer) {
+		for (Map.Entry<String, Boolean> entry : keys.entrySet()) {
+			Object value = edge.getProperty(entry.getKey());
+			if (value != null) {
+				write(writer, edge, entry.getKey(), entry.getValue(), value, true);
+			}
+		}
+	}
+
+	/**
+	 * Add the columns of a new edge to mutations of its
+	 * endpoints' rows, e.g. when loading in bulk.
+	 * @param out Mutation of the out-vertex's row
+	 * @param in Mutation of the in-vertex's row
+	 * @param edgeRow The edge's row
+	 * @param label The edge's label
+	 * @param properties The edge's properties
+	 */
+	protected void addEdge(Mutation out, Mutation in, Text edgeRow, String label,
+			Map<String, Object> properties) {
+		for (Map.Entry<String, Boolean> entry : keys.entrySet()) {
+			Object value = properties.get(entry.getKey());
+			if (value != null) {
+				Text cq = column(prefix(entry.getKey()), entry.getValue(), value);
+				cq.append(edgeRow.getBytes(), 0, edgeRow.getLength());
+				out.put(Const.VERTEX_SORTED_OUT_EDGE, cq, columnValue(label, new Text(in.getRow())));
+				in.put(Const.VERTEX_SORTED_IN_EDGE, cq, columnValue(label, new Text(out.getRow())));
+			}
+		}
+	}
+
+	private void write(BatchWriter writer, AccumuloEdge edge, String key,
+			boolean descending, Object value, boolean delete) {
+		AccumuloVertex out = (AccumuloVertex) edge.getVertex(Direction.OUT);
+		AccumuloVertex in = (AccumuloVertex) edge.getVertex(Direction.IN);
+
+		write(writer, edge.idRow, out != null ? out.idRow : null, in != null ? in.idRow : null,
+				edge.getLabel(), key, descending, value, delete);
+	}
+
+	private void write(BatchWriter writer, Text edgeRow, Text outRow, Text inRow,
+			String label, String key, boolean descending, Object value, boolean delete) {
+		Text cq = column(prefix(key), descending, value);
+		cq.append(edgeRow.getBytes(), 0, edgeRow.getLength());
+
+		if (outRow != null) {
+			Mutation m = new Mutation(outRow);
+			if (delete) {
+				m.putDelete(Const.VERTEX_SORTED_OUT_EDGE, cq);
+			}
+			else {
+				m.put(Const.VERTEX_SORTED_OUT_EDGE, cq, columnValue(label, inRow));
+			}
+			Utils.addMutation(writer, m);
+		}
+
+		if (inRow != null) {
+			Mutation m = new Mutation(inRow);
+			if (delete) {
+				m.putDelete(Const.VERTEX_SORTED_IN_EDGE, cq);
+			}
+			else {
+				m.put(Const.VERTEX_SORTED_IN_EDGE, cq, columnValue(label, outRow));
+			}
+			Utils.addMutation(writer, m);
+		}
+	}
+
+	private static Value columnValue(String label, Text otherRow) {
+		return Utils.textToValue(OrderedEncoding.encodeAll(Arrays.asList(
+				label, otherRow != null ? Utils.textToString(otherRow) : null)));
+	}
+
+	/**
+	 * Read a vertex's edges in the order of a key, for values
+	 * between two bounds.  The bounds are inclusive, and since
+	 * they are compared in their encoding, should have the same
+	 * type as the values.
+	 * @param vertex The vertex
+	 * @param direction Which edges to read
+	 * @param key The key
+	 * @param lower Smallest value, or null for no bound
+	 * @param upper Largest value, or null for no bound
+	 * @return
+	 */
+	public Iterator<SortedEdge> getEdges(AccumuloVertex vertex, Direction direction,
+			String key, Object lower, Object upper) {
+		boolean descending = isDescending(key);
+
+		if (direction == Direction.OUT) {
+			return read(vertex, Direction.OUT, key, descending, lower, upper);
+		}
+		else if (direction == Direction.IN) {
+			return read(vertex, Direction.IN, key, descending, lower, upper);
+		}
+		else {
+			return merge(read(vertex, Direction.OUT, key, descending, lower, upper),
+					read(vertex, Direction.IN, key, descending, lower, upper));
+		}
+	}
+
+	private Iterator<SortedEdge> read(final AccumuloVertex vertex, final Direction direction,
+			String key, final boolean descending, Object lower, Object upper) {
+		Text cf = direction == Direction.OUT ?
+				Const.VERTEX_SORTED_OUT_EDGE : Const.VERTEX_SORTED_IN_EDGE;
+		final Text prefix = prefix(key);
+
+		Object first = descending ? upper : lower;
+		Object last = descending ? lower : upper;
+		Text start = first != null ? column(prefix, descending, first) : prefix;
+		Text end = Utils.followingPrefix(last != null ? column(prefix, descending, last) : prefix);
+
+		Scanner s = parent.createScanner();
+		s.setRange(new Range(new Key(vertex.idRow, cf, start), true,
+				new Key(vertex.idRow, cf, end), false));
+		final Iterator<Map.Entry<Key, Value>> i = s.iterator();
+
+		return new Iterator<SortedEdge>() {
+
+			@Override
+			public boolean hasNext() {
+				return i.hasNext();
+			}
+
+			@Override
+			public SortedEdge next() {
+				Map.Entry<Key, Value> entry = i.next();
+				return new SortedEdge(vertex, direction, entry.getKey().getColumnQualifier(),
+						prefix.getLength(), descending, entry.getValue());
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * Merge the out and in edges of a vertex, keeping the order.
+	 */
+	private static Iterator<SortedEdge> merge(final Iterator<SortedEdge> a,
+			final Iterator<SortedEdge> b) {
+		return new Iterator<SortedEdge>() {
+
+			private SortedEdge nextA;
+			private SortedEdge nextB;
+
+			@Override
+			public boolean hasNext() {
+				if (nextA == null && a.hasNext()) {
+					nextA = a.next();
+				}
+				if (nextB == null && b.hasNext()) {
+					nextB = b.next();
+				}
+				return nextA != null || nextB != null;
+			}
+
+			@Override
+			public SortedEdge next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+
+				SortedEdge next;
+				if (nextB == null || (nextA != null && nextA.column.compareTo(nextB.column) <= 0)) {
+					next = nextA;
+					nextA = null;
+				}
+				else {
+					next = nextB;
+					nextB = null;
+				}
+				return next;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	private static Text prefix(String key) {
+		Text prefix = Utils.stringToText(key);
+		prefix.append(Const.INDEX_KEY_SEPARATOR, 0, Const.INDEX_KEY_SEPARATOR.length);
+		return prefix;
+	}
+
+	private static Text column(Text prefix, boolean descending, Object value) {
+		byte[] encoded = OrderedEncoding.encode(value);
+		if (descending) {
+			encoded = OrderedEncoding.invert(encoded, 0, encoded.length);
+		}
+
+		Text column = new Text(prefix);
+		column.append(encoded, 0, encoded.length);
+		return column;
+	}
+
+	private static boolean startsWith(Text text, Text prefix) {
+		if (text.getLength() < prefix.getLength()) {
+			return false;
+		}
+
+		byte[] a = text.getBytes();
+		byte[] b = prefix.getBytes();
+		for (int i = 0; i < prefix.getLength(); i++) {
+			if (a[i] != b[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * An edge read from a sorted adjacency column.
+	 */
+	public static class SortedEdge {
+
+		private AccumuloVertex vertex;
+		private Direction direction;
+		private Text column;
+		private Object value;
+		private Text edgeRow;
+		private String label;
+		private String otherRow;
+
+		private SortedEdge(AccumuloVertex vertex, Direction direction, Text column,
+				int prefixLength, boolean descending, Value columnValue) {
+			this.vertex = vertex;
+			this.direction = direction;
+			this.column = column;
+
+			byte[] bytes = column.getBytes();
+			int length = column.getLength() - prefixLength;
+			byte[] tail = descending ? OrderedEncoding.invert(bytes, prefixLength, length)
+					: Arrays.copyOfRange(bytes, prefixLength, prefixLength + length);
+
+			int valueLength = OrderedEncoding.length(tail, 0);
+			value = OrderedEncoding.decode(tail, 0);
+			edgeRow = new Text(Arrays.copyOfRange(bytes, prefixLength + valueLength,
+					column.getLength()));
+
+			byte[] v = columnValue.get();
+			label = (String) OrderedEncoding.decode(v, 0);
+			otherRow = (String) OrderedEncoding.decode(v, OrderedEncoding.length(v, 0));
+		}
+
+		/**
+		 * The edge's value for the key.
+		 */
+		public Object getValue() {
+			return value;
+		}
+
+		public String getLabel() {
+			return label;
+		}
+
+		/**
+		 * The edge, with its label and endpoints filled in.
+		 */
+		public AccumuloEdge getEdge() {
+			AccumuloVertex other = getOtherVertex();
+			return direction == Direction.OUT ?
+					new AccumuloEdge(vertex.parent, AccumuloIdManager.fromText(edgeRow), vertex, other, label)
+					: new AccumuloEdge(vertex.parent, AccumuloIdManager.fromText(edgeRow), other, vertex, label);
+		}
+
+		/**
+		 * The vertex at the other end of the edge.
+		 */
+		public AccumuloVertex getOtherVertex() {
+			return otherRow != null ? new AccumuloVertex(vertex.parent,
+					AccumuloIdManager.fromText(new Text(otherRow))) : null;
+		}
+	}
+
+}
@@ -0,0 +1,451 @@
+package accumulograph;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.apache.accumulo.core.client.BatchScanner;
+import org.apache.accumulo.core.client.BatchWriter;
+import org.apache.accumulo.core.client.MutationsRejectedException;
+import org.apache.accumulo.core.data.ColumnUpdate;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.PartialKey;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.user.RowDeletingIterator;
+import org.apache.accumulo.core.security.ColumnVisibility;
+import org.apache.hadoop.io.Text;
+
+/**
+ * The changes of one thread's transaction, buffered until it
+ * commits.  Changes are kept per row, and only the last change
+ * of each column is kept, so that committing writes one mutation
+ * per row.  The exceptions are summed columns, such as index
+ * statistics, whose changes are all kept.
+ *
+ * Reads of the graph and index tables by the same thread see the
+ * changes through {@link #overlay} and {@link #overlayIndex}.
+ */
+public class Transaction {
+
+	private final Rows graphRows = new Rows(new ArrayList<Text>());
+	private final Rows indexRows = new Rows(Arrays.asList(
+			Const.INDEX_STATS_TOTAL, Const.INDEX_STATS_VALUE));
+
+	// Tasks to run once the changes are written.
+	private final List<Runnable> committed = new ArrayList<Runnable>();
+	// Changes are written directly while this is positive.
+	private int suspended = 0;
+
+	/**
+	 * Buffer a change.
+	 * @param index Whether the change is to the index table
+	 * @param m The change
+	 */
+	public void add(boolean index, Mutation m) {
+		(index ? indexRows : graphRows).add(m);
+	}
+
+	/**
+	 * Run a task once the transaction's changes are written,
+	 * if it commits.
+	 * @param task The task
+	 */
+	public void whenCommitted(Runnable task) {
+		committed.add(task);
+	}
+
+	public boolean isEmpty() {
+		return graphRows.rows.isEmpty() && indexRows.rows.isEmpty();
+	}
+
+	/**
+	 * Whether the transaction changes a row of the graph table.
+	 */
+	public boolean changes(Text row) {
+		return graphRows.rows.containsKey(row);
+	}
+
+	protected boolean isSuspended() {
+		return suspended > 0;
+	}
+
+	protected void suspend() {
+		suspended++;
+	}
+
+	protected void resume() {
+		suspended--;
+	}
+
+	/**
+	 * Whether rows of a table are deleted and then written again,
+	 * so that committing reads their columns.
+	 * @param index Whether the rows are of the index table
+	 */
+	public boolean rewritesRows(boolean index) {
+		return !(index ? indexRows : graphRows).rewritten().isEmpty();
+	}
+
+	/**
+	 * Write the changes, one mutation per row, and flush, then
+	 * run the tasks waiting for them.  Rows deleted and then
+	 * written again have their stored columns read, and those
+	 * the transaction does not set are deleted in the row's
+	 * mutation, so that everything is stored at the server's
+	 * time.  Summed columns of such rows are added to, not reset.
+	 * @param graphWriter Writer for the graph table
+	 * @param graphScanner Scanner of the graph table, or null if
+	 *   {@link #rewritesRows} is false for it
+	 * @param indexWriter Writer for the index table, or null
+	 * @param indexScanner Scanner of the index table, or null if
+	 *   {@link #rewritesRows} is false for it
+	 */
+	protected void write(BatchWriter graphWriter, BatchScanner graphScanner,
+			BatchWriter indexWriter, BatchScanner indexScanner) throws MutationsRejectedException {
+		graphWriter.addMutations(graphRows.mutations(graphScanner));
+		graphWriter.flush();
+
+		if (!indexRows.rows.isEmpty()) {
+			indexWriter.addMutations(indexRows.mutations(indexScanner));
+			indexWriter.flush();
+		}
+
+		for (Runnable task : committed) {
+			task.run();
+		}
+	}
+
+	/**
+	 * Merge the changes into a scan of the graph table.  Scanned
+	 * columns the transaction changes, or of rows it deleted, are
+	 * replaced by its values.
+	 * @param scanned The scan, in key order
+	 * @param range Range of the scan
+	 * @param families Column families of the scan, or empty for all
+	 * @param qualifier Column qualifier of the scan, or null for all
+	 * @return
+	 */
+	public Iterator<Map.Entry<Key, Value>> overlay(final Iterator<Map.Entry<Key, Value>> scanned,
+			final Range range, final Collection<Text> families, final Text qualifier) {
+		final SortedMap<Text, RowChanges> rows = graphRows.rows(range);
+		if (rows.isEmpty()) {
+			return scanned;
+		}
+
+		return merge(scanned, rows, graphRows.entries(rows, range, families, qualifier));
+	}
+
+	/**
+	 * Merge the index changes into a read of index entries, like
+	 * {@link #overlay}.  A read of several ranges is in no
+	 * particular order, and the result is not either.
+	 * @param scanned The read
+	 * @param ranges Ranges of the read
+	 * @param families Column families of the read, or empty for all
+	 * @return
+	 */
+	public Iterator<Map.Entry<Key, Value>> overlayIndex(Iterator<Map.Entry<Key, Value>> scanned,
+			List<Range> ranges, Collection<Text> families) {
+		SortedMap<Text, RowChanges> rows = new TreeMap<Text, RowChanges>();
+		List<Map.Entry<Key, Value>> changed = new ArrayList<Map.Entry<Key, Value>>();
+
+		for (Range range : ranges) {
+			SortedMap<Text, RowChanges> in = indexRows.rows(range);
+			rows.putAll(in);
+			for (Iterator<Map.Entry<Key, Value>> i = indexRows.entries(in, range, families, null); i.hasNext(); ) {
+				changed.add(i.next());
+			}
+		}
+
+		if (rows.isEmpty()) {
+			return scanned;
+		}
+		return merge(scanned, rows, changed.iterator());
+	}
+
+	/**
+	 * Merge changed columns into a scan, leaving out the
+	 * scanned columns they replace.
+	 */
+	private static Iterator<Map.Entry<Key, Value>> merge(final Iterator<Map.Entry<Key, Value>> scanned,
+			final SortedMap<Text, RowChanges> rows, final Iterator<Map.Entry<Key, Value>> changed) {
+		return new Iterator<Map.Entry<Key, Value>>() {
+
+			private Map.Entry<Key, Value> nextScanned = advance();
+			private Map.Entry<Key, Value> nextChanged = changed.hasNext() ? changed.next() : null;
+
+			private Map.Entry<Key, Value> advance() {
+				while (scanned.hasNext()) {
+					Map.Entry<Key, Value> entry = scanned.next();
+					RowChanges row = rows.get(entry.getKey().getRow());
+					if (row == null || !row.hides(entry.getKey())) {
+						return entry;
+					}
+				}
+				return null;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return nextScanned != null || nextChanged != null;
+			}
+
+			@Override
+			public Map.Entry<Key, Value> next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+
+				Map.Entry<Key, Value> entry;
+				if (nextChanged == null || (nextScanned != null && nextScanned.getKey()
+						.compareTo(nextChanged.getKey(), PartialKey.ROW_COLFAM_COLQUAL_COLVIS) < 0)) {
+					entry = nextScanned;
+					nextScanned = advance();
+				}
+				else {
+					entry = nextChanged;
+					nextChanged = changed.hasNext() ? changed.next() : null;
+				}
+				return entry;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+
+		};
+	}
+
+	/**
+	 * The changes to the rows of one table.
+	 */
+	private static class Rows {
+
+		private final TreeMap<Text, RowChanges> rows = new TreeMap<Text, RowChanges>();
+		private final Collection<Text> summed;
+
+		public Rows(Collection<Text> summed) {
+			this.summed = summed;
+		}
+
+		public void add(Mutation m) {
+			Text row = new Text(m.getRow());
+			RowChanges changes = rows.get(row);
+			if (changes == null) {
+				changes = new RowChanges(row);
+				rows.put(row, changes);
+			}
+
+			for (ColumnUpdate update : m.getUpdates()) {
+				changes.add(update, summed.contains(new Text(update.getColumnFamily())));
+			}
+		}
+
+		/**
+		 * Changed rows that may have entries in a range.
+		 */
+		public SortedMap<Text, RowChanges> rows(Range range) {
+			SortedMap<Text, RowChanges> in = rows;
+			if (!range.isInfiniteStartKey()) {
+				in = in.tailMap(range.getStartKey().getRow());
+			}
+			if (!range.isInfiniteStopKey()) {
+				Text after = rows.higherKey(range.getEndKey().getRow());
+				if (after != null) {
+					in = in.headMap(after);
+				}
+			}
+			return in;
+		}
+
+		/**
+		 * Columns set by the changes, in key order.
+		 */
+		public Iterator<Map.Entry<Key, Value>> entries(SortedMap<Text, RowChanges> in, Range range,
+				Collection<Text> families, Text qualifier) {
+			List<Map.Entry<Key, Value>> entries = new ArrayList<Map.Entry<Key, Value>>();
+			for (RowChanges row : in.values()) {
+				for (Map.Entry<Key, ColumnUpdate> column : row.columns.entrySet()) {
+					Key key = column.getKey();
+					ColumnUpdate update = column.getValue();
+					if (!update.isDeleted() && range.contains(key)
+							&& (families.isEmpty() || families.contains(key.getColumnFamily()))
+							&& (qualifier == null || qualifier.equals(key.getColumnQualifier()))) {
+						entries.add(new AbstractMap.SimpleImmutableEntry<Key, Value>(key,
+								new Value(update.getValue())));
+					}
+				}
+			}
+			return entries.iterator();
+		}
+
+		/**
+		 * Rows deleted and then written again.
+		 */
+		public List<Range> rewritten() {
+			List<Range> ranges = new ArrayList<Range>();
+			for (RowChanges row : rows.values()) {
+				if (row.deleted && !(row.columns.isEmpty() && row.sums.isEmpty())) {
+					ranges.add(new Range(row.row));
+				}
+			}
+			return ranges;
+		}
+
+		/**
+		 * One mutation per row.
+		 * @param scanner Scanner to read the stored columns of
+		 *   rewritten rows with, or null if there are none
+		 */
+		public List<Mutation> mutations(BatchScanner scanner) {
+			Map<Text, List<Key>> stored = new HashMap<Text, List<Key>>();
+			List<Range> ranges = rewritten();
+			if (!ranges.isEmpty()) {
+				scanner.setRanges(ranges);
+				for (Map.Entry<Key, Value> entry : scanner) {
+					Key key = entry.getKey();
+					List<Key> keys = stored.get(key.getRow());
+					if (keys == null) {
+						keys = new ArrayList<Key>();
+						stored.put(key.getRow(), keys);
+					}
+					keys.add(key);
+				}
+			}
+
+			List<Mutation> mutations = new ArrayList<Mutation>();
+			for (RowChanges row : rows.values()) {
+				Mutation m = row.mutation(stored.get(row.row));
+				if (m.size() > 0) {
+					mutations.add(m);
+				}
+			}
+			return mutations;
+		}
+
+	}
+
+	/**
+	 * The changes to one row.
+	 */
+	private static class RowChanges {
+
+		private final Text row;
+		// Whether the row was deleted, before the columns below.
+		private boolean deleted = false;
+		// Last change of each column.
+		private final TreeMap<Key, ColumnUpdate> columns = new TreeMap<Key, ColumnUpdate>();
+		// Changes of summed columns, all kept.
+		private final List<ColumnUpdate> sums = new ArrayList<ColumnUpdate>();
+
+		public RowChanges(Text row) {
+			this.row = row;
+		}
+
+		public void add(ColumnUpdate update, boolean summed) {
+			if (summed) {
+				sums.add(update);
+			}
+			else if (isRowDeletion(update)) {
+				deleted = true;
+				columns.clear();
+				sums.clear();
+			}
+			else if (deleted && update.isDeleted()) {
+				// Already deleted with the row.
+				columns.remove(key(update));
+			}
+			else {
+				columns.put(key(update), update);
+			}
+		}
+
+		/**
+		 * Whether a scanned entry of the row is replaced.
+		 */
+		public boolean hides(Key key) {
+			return deleted || columns.containsKey(new Key(row, key.getColumnFamily(),
+					key.getColumnQualifier(), key.getColumnVisibility()));
+		}
+
+		/**
+		 * @param stored Columns stored in the row, if it is
+		 *   deleted and then written again
+		 */
+		public Mutation mutation(List<Key> stored) {
+			Mutation m = new Mutation(row);
+			if (deleted && columns.isEmpty() && sums.isEmpty()) {
+				m.put(Const.EMPTY_TEXT, Const.EMPTY_TEXT, RowDeletingIterator.DELETE_ROW_VALUE);
+			}
+			else if (deleted && stored != null) {
+				// Delete the columns not written again, rather than
+				// the row, whose deletion would hide the new ones.
+				Set<Key> deletedColumns = new HashSet<Key>();
+				for (Key key : stored) {
+					Key column = new Key(row, key.getColumnFamily(),
+							key.getColumnQualifier(), key.getColumnVisibility());
+					if (!columns.containsKey(column) && deletedColumns.add(column)) {
+						m.putDelete(key.getColumnFamily(), key.getColumnQualifier(),
+								new ColumnVisibility(key.getColumnVisibility()));
+					}
+				}
+			}
+
+			for (ColumnUpdate update : columns.values()) {
+				write(m, update);
+			}
+			for (ColumnUpdate update : sums) {
+				write(m, update);
+			}
+			return m;
+		}
+
+		private Key key(ColumnUpdate update) {
+			return new Key(row, new Text(update.getColumnFamily()),
+					new Text(update.getColumnQualifier()), new Text(update.getColumnVisibility()));
+		}
+
+		private static boolean isRowDeletion(ColumnUpdate update) {
+			return !update.isDeleted() && update.getColumnFamily().length == 0
+					&& update.getColumnQualifier().length == 0
+					&& Arrays.equals(update.getValue(), RowDeletingIterator.DELETE_ROW_VALUE.get());
+		}
+
+		private static void write(Mutation m, ColumnUpdate update) {
+			Text cf = new Text(update.getColumnFamily());
+			Text cq = new Text(update.getColumnQualifier());
+			ColumnVisibility cv = new ColumnVisibility(update.getColumnVisibility());
+
+			if (update.isDeleted()) {
+				if (update.hasTimestamp()) {
+					m.putDelete(cf, cq, cv, update.getTimestamp());
+				} else {
+					m.putDelete(cf, cq, cv);
+				}
+			}
+			else {
+				Value value = new Value(update.getValue());
+				if (update.hasTimestamp()) {
+					m.put(cf, cq, cv, update.getTimestamp(), value);
+				} else {
+					m.put(cf, cq, cv, value);
+				}
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,75 @@
+package accumulograph;
+
+import org.apache.accumulo.core.client.BatchWriter;
+import org.apache.accumulo.core.client.MutationsRejectedException;
+import org.apache.accumulo.core.data.Mutation;
+
+/**
+ * This class wraps a BatchWriter in a transactional graph.
+ * Mutations are added to the calling thread's transaction,
+ * and only written when it commits, so flushing does nothing.
+ * While the transaction is suspended, they are written directly,
+ * and flushed if autoflush is on.
+ */
+public class TransactionalWriter implements BatchWriter {
+
+	protected AccumuloGraph parent;
+	protected BatchWriter writer;
+	protected boolean index;
+	protected boolean autoflush;
+
+	/**
+	 * @param parent The graph
+	 * @param writer The writer transactions are written with
+	 * @param index Whether the writer is for the index table
+	 * @param autoflush Whether to flush mutations written directly
+	 */
+	public TransactionalWriter(AccumuloGraph parent, BatchWriter writer, boolean index,
+			boolean autoflush) {
+		this.parent = parent;
+		this.writer = writer;
+		this.index = index;
+		this.autoflush = autoflush;
+	}
+
+	@Override
+	public void addMutation(Mutation m) throws MutationsRejectedException {
+		Transaction tx = parent.getTransaction();
+		if (tx != null) {
+			tx.add(index, m);
+		} else {
+			writer.addMutation(m);
+			if (autoflush) {
+				writer.flush();
+			}
+		}
+	}
+
+	@Override
+	public void addMutations(Iterable<Mutation> iterable)
+			throws MutationsRejectedException {
+		for (Mutation m : iterable) {
+			addMutation(m);
+		}
+	}
+
+	@Override
+	public void flush() throws MutationsRejectedException {
+		if (parent.getTransaction() == null) {
+			writer.flush();
+		}
+	}
+
+	@Override
+	public void close() throws MutationsRejectedException {
+		writer.close();
+	}
+
+	/**
+	 * The writer transactions are written with.
+	 */
+	public BatchWriter getWriter() {
+		return writer;
+	}
+
+}
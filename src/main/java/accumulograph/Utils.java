@@ -5,8 +5,15 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.apache.accumulo.core.client.AccumuloException;
 import org.apache.accumulo.core.client.AccumuloSecurityException;
@@ -125,6 +132,14 @@ public final class Utils {
 		}
 	}
 
+	public static void close(BatchWriter writer) {
+		try {
+			writer.close();
+		} catch (MutationsRejectedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 	public static Map.Entry<Key, Value> firstEntry(Scanner scanner) {
 		Iterator<Map.Entry<Key, Value>> i = scanner.iterator();
 		return i.hasNext() ? i.next() : null;
@@ -181,6 +196,46 @@ public final class Utils {
 		return m;
 	}
 
+	/**
+	 * The smallest value that is greater than all values
+	 * starting with a prefix, or null if there is none.
+	 * @param prefix The prefix
+	 * @return
+	 */
+	public static Text followingPrefix(Text prefix) {
+		byte[] bytes = prefix.getBytes();
+		for (int i = prefix.getLength() - 1; i >= 0; i--) {
+			if (bytes[i] != (byte) 0xff) {
+				byte[] following = Arrays.copyOf(bytes, i + 1);
+				following[i]++;
+				return new Text(following);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Run tasks on a thread pool and wait for all of them.
+	 * If a task fails, its exception is rethrown.
+	 * @param pool The pool
+	 * @param tasks The tasks
+	 * @return The results, in the order of the tasks
+	 */
+	public static <T> List<T> runAll(ExecutorService pool, List<? extends Callable<T>> tasks) {
+		try {
+			List<T> results = new ArrayList<T>();
+			for (Future<T> future : pool.invokeAll(tasks)) {
+				results.add(future.get());
+			}
+			return results;
+
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
 	public static void sleep(long millis) {
 		try {
 			Thread.sleep(millis);
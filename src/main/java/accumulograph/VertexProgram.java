@@ -0,0 +1,101 @@
+package accumulograph;
+
+/**
+ * A vertex-centric program run by {@link AccumuloGraphComputer}.
+ * In each superstep, compute() is called for every vertex that has
+ * incoming messages or has not voted to halt.  Messages sent during
+ * a superstep are delivered at the start of the next one.  The
+ * computation ends when every vertex has halted and no messages
+ * are pending, or after the maximum number of supersteps.
+ *
+ * @param <V> Type of the per-vertex value
+ * @param <M> Type of the messages
+ */
+public interface VertexProgram<V, M> {
+
+	/**
+	 * The vertex property the values are read from and written
+	 * back to when the computation finishes.
+	 * @return
+	 */
+	String getPropertyKey();
+
+	/**
+	 * The value a vertex starts with.
+	 * @param vertexId The vertex id
+	 * @param storedValue The property currently stored on the vertex, or null
+	 * @return
+	 */
+	V initialValue(String vertexId, V storedValue);
+
+	/**
+	 * Process one vertex in one superstep.
+	 * @param context Access to the vertex and its neighbors
+	 * @param messages Messages sent to this vertex in the previous superstep
+	 */
+	void compute(Context<V, M> context, Iterable<M> messages);
+
+	/**
+	 * Merge two messages sent to the same vertex into one, to
+	 * save memory.  Return null if messages cannot be combined.
+	 * @param first
+	 * @param second
+	 * @return
+	 */
+	M combine(M first, M second);
+
+	/**
+	 * Upper bound on the number of supersteps.
+	 * @return
+	 */
+	int getMaxSupersteps();
+
+	/**
+	 * The view of a single vertex given to compute().
+	 */
+	public interface Context<V, M> {
+
+		String getVertexId();
+
+		/**
+		 * The current superstep, starting at 0.
+		 * @return
+		 */
+		int getSuperstep();
+
+		/**
+		 * Total number of vertices in the computation.
+		 * @return
+		 */
+		long getNumVertices();
+
+		V getValue();
+
+		void setValue(V value);
+
+		/**
+		 * Ids of the vertices on the other end of this vertex's
+		 * out-edges.  Parallel edges appear more than once.
+		 * @return
+		 */
+		String[] getOutNeighbors();
+
+		/**
+		 * Ids of the vertices on the other end of this vertex's
+		 * in-edges.  Parallel edges appear more than once.
+		 * @return
+		 */
+		String[] getInNeighbors();
+
+		void sendMessage(String vertexId, M message);
+
+		void sendMessageToOutNeighbors(M message);
+
+		/**
+		 * Stop calling compute() for this vertex until it receives
+		 * another message.
+		 */
+		void voteToHalt();
+	}
+
+}
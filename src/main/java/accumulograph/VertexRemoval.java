@@ -0,0 +1,257 @@
+package accumulograph;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.accumulo.core.client.BatchWriter;
+import org.apache.accumulo.core.client.Scanner;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.hadoop.io.Text;
+
+import accumulograph.BatchLookup.Adjacency;
+
+import com.tinkerpop.blueprints.Direction;
+
+/**
+ * Removes a vertex and all of its edges.  The vertex's adjacency
+ * columns are scanned once, and its edges are removed in batches
+ * of up to {@link Const#BATCH_LOOKUP_SIZE}: one batch scan reads
+ * their endpoints, and, if edges are indexed or sorted, another
+ * reads the property values that needs.  The edge rows and the
+ * other endpoints' adjacency columns are deleted through one bulk
+ * writer.
+ *
+ * A removal can run in the background, with
+ * {@link AccumuloGraph#removeVertexInBackground}, in which case
+ * this tracks its progress.  Otherwise, in a transactional graph,
+ * it is part of the calling thread's transaction.
+ */
+public class VertexRemoval {
+
+	protected AccumuloGraph parent;
+	protected AccumuloVertex vertex;
+
+	private final AtomicLong removedEdges = new AtomicLong();
+	private final CountDownLatch finished = new CountDownLatch(1);
+	private volatile RuntimeException failure;
+	// The transaction the removal is part of, if any.
+	private Transaction tx;
+
+	protected VertexRemoval(AccumuloGraph parent, AccumuloVertex vertex) {
+		this.parent = parent;
+		this.vertex = vertex;
+	}
+
+	/**
+	 * Remove the vertex's edges, then the vertex.  The vertex's
+	 * own index entries should already be removed.  Failures
+	 * are kept, and thrown by {@link #await}.
+	 */
+	protected void run() {
+		try {
+			remove();
+		} catch (RuntimeException e) {
+			failure = e;
+		} finally {
+			finished.countDown();
+		}
+	}
+
+	private void remove() {
+		// Flush earlier changes, so that the scan sees them,
+		// and they are not written after the deletes.
+		Utils.flush(parent.writer);
+
+		Set<String> keys = neededKeys();
+		tx = parent.getTransaction();
+		BatchWriter writer = tx != null ? parent.writer : parent.createBatchWriter();
+
+		try {
+			Scanner s = parent.createScanner();
+			Range range = new Range(vertex.idRow);
+			s.setRange(range);
+			s.fetchColumnFamily(Const.VERTEX_OUT_EDGE);
+			s.fetchColumnFamily(Const.VERTEX_IN_EDGE);
+			Iterator<Map.Entry<Key, Value>> i = parent.overlay(s.iterator(), range, null,
+					Const.VERTEX_OUT_EDGE, Const.VERTEX_IN_EDGE);
+
+			List<Adjacency> batch = new ArrayList<Adjacency>();
+			while (i.hasNext()) {
+				Map.Entry<Key, Value> entry = i.next();
+				Key key = entry.getKey();
+				batch.add(new Adjacency(key.getColumnQualifier(),
+						key.getColumnFamily().equals(Const.VERTEX_OUT_EDGE) ? Direction.OUT : Direction.IN,
+						Utils.valueToString(entry.getValue())));
+
+				if (batch.size() == Const.BATCH_LOOKUP_SIZE) {
+					removeEdges(batch, keys, writer);
+					batch.clear();
+				}
+			}
+			removeEdges(batch, keys, writer);
+
+			// Remove everything else related to vertex.
+			Utils.addMutation(writer, Utils.deleteRow(vertex.idRow));
+
+		} finally {
+			if (tx == null) {
+				Utils.close(writer);
+			}
+		}
+	}
+
+	/**
+	 * Property keys of the edges that removing them from the key
+	 * index and sorted edge columns needs.  With lazy index cleanup,
+	 * index entries of removed edges are left to be found stale.
+	 */
+	private Set<String> neededKeys() {
+		Set<String> keys = new HashSet<String>(parent.sortedEdges.getKeys());
+		if (parent.keyIndex != null && !parent.opts.getLazyIndexCleanup()) {
+			keys.addAll(parent.keyIndex.getIndexedPropertyKeys(AccumuloEdge.class));
+		}
+		return keys;
+	}
+
+	private void removeEdges(List<Adjacency> batch, Set<String> keys, BatchWriter writer) {
+		Set<Text> edgeRows = new HashSet<Text>();
+		for (Adjacency a : batch) {
+			edgeRows.add(a.getEdgeRow());
+		}
+
+		Map<Text, Text[]> endpoints = parent.batchLookup.endpoints(edgeRows);
+		Map<Text, Map<String, Object>> properties = keys.isEmpty()
+				? new HashMap<Text, Map<String, Object>>()
+				: parent.batchLookup.properties(edgeRows, keys);
+
+		// Self loops are adjacent twice.
+		Set<Text> removed = new HashSet<Text>();
+
+		for (Adjacency a : batch) {
+			Text edgeRow = a.getEdgeRow();
+			if (removed.contains(edgeRow)) {
+				continue;
+			}
+
+			AccumuloEdge edge;
+			Text[] ends;
+			if (tx != null && tx.changes(edgeRow)) {
+				// The batch lookups do not see the transaction's
+				// changes, so read the edge through it.
+				edge = new AccumuloEdge(parent, AccumuloIdManager.fromText(edgeRow));
+				if (edge.label == null) {
+					continue;
+				}
+				ends = new Text[] {edge.out != null ? edge.out.idRow : null,
+						edge.in != null ? edge.in.idRow : null};
+			}
+			else {
+				ends = endpoints.get(edgeRow);
+				if (ends == null) {
+					continue;
+				}
+				edge = new AccumuloEdge(parent, AccumuloIdManager.fromText(edgeRow),
+						vertexOf(ends[0]), vertexOf(ends[1]), a.getLabel());
+
+				// Values not set are preloaded as null, so nothing is read.
+				Map<String, Object> values = new HashMap<String, Object>();
+				for (String key : keys) {
+					values.put(key, null);
+				}
+				if (properties.containsKey(edgeRow)) {
+					values.putAll(properties.get(edgeRow));
+				}
+				edge.preload(values);
+			}
+			removed.add(edgeRow);
+
+			if (parent.keyIndex != null && !parent.opts.getLazyIndexCleanup()) {
+				parent.keyIndex.addOrRemoveFromIndex(edge, false);
+			}
+			parent.sortedEdges.removeEdge(edge, writer);
+
+			// The vertex's own row is deleted whole.
+			Text other = ends[a.getDirection() == Direction.OUT ? 1 : 0];
+			if (other != null && !other.equals(vertex.idRow)) {
+				Mutation m = new Mutation(other);
+				m.putDelete(a.getDirection() == Direction.OUT ? Const.VERTEX_IN_EDGE : Const.VERTEX_OUT_EDGE,
+						edgeRow);
+				Utils.addMutation(writer, m);
+			}
+
+			// Remove everything else related to edge.
+			Utils.addMutation(writer, Utils.deleteRow(edgeRow));
+		}
+
+		removedEdges.addAndGet(removed.size());
+	}
+
+	private AccumuloVertex vertexOf(Text row) {
+		return row == null ? null : new AccumuloVertex(parent, AccumuloIdManager.fromText(row));
+	}
+
+	public AccumuloVertex getVertex() {
+		return vertex;
+	}
+
+	/**
+	 * Number of the vertex's edges removed so far.
+	 */
+	public long getRemovedEdges() {
+		return removedEdges.get();
+	}
+
+	public boolean isDone() {
+		return finished.getCount() == 0;
+	}
+
+	/**
+	 * Wait for the removal to finish.
+	 * @throws RuntimeException If the removal failed
+	 */
+	public void await() {
+		try {
+			finished.await();
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+		checkFailure();
+	}
+
+	/**
+	 * Wait for the removal to finish, for at most a timeout.
+	 * @return True if it finished in time
+	 * @throws RuntimeException If the removal failed
+	 */
+	public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+		boolean done = finished.await(timeout, unit);
+		if (done) {
+			checkFailure();
+		}
+		return done;
+	}
+
+	private void checkFailure() {
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "VertexRemoval [vertex=" + vertex.getId() + ", removedEdges=" + removedEdges.get()
+				+ ", done=" + isDone() + "]";
+	}
+
+}
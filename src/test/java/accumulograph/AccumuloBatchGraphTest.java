@@ -0,0 +1,115 @@
+package accumulograph;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Element;
+import com.tinkerpop.blueprints.Vertex;
+
+import junit.framework.TestCase;
+
+public class AccumuloBatchGraphTest extends TestCase {
+
+	private AccumuloGraph graph;
+
+	@Override
+	protected void setUp() throws Exception {
+		AccumuloGraphOptions opts = new AccumuloGraphOptions();
+		opts.setMock(true);
+		opts.setGraphTable("batchGraphTest");
+		opts.setIndexTable("batchGraphTest_index");
+		graph = new AccumuloGraph(opts);
+		graph.clear();
+		graph.createKeyIndex("name", Vertex.class);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		graph.shutdown();
+	}
+
+	public void testGetOrAdd() throws Exception {
+		graph.addVertex("old").setProperty("name", "before");
+
+		AccumuloBatchGraph batch = new AccumuloBatchGraph(graph);
+		Vertex a = batch.getOrAddVertex("a");
+		a.setProperty("name", "alice");
+		assertEquals("alice", a.getProperty("name"));
+		assertEquals(ids("name"), a.getPropertyKeys());
+		assertNotNull(batch.getVertex("a"));
+		assertEquals("a", batch.getOrAddVertex("a").getId().toString());
+
+		try {
+			batch.addVertex("a");
+			fail("Vertex exists");
+		} catch (IllegalArgumentException e) {
+		}
+
+		List<Vertex> vertices = batch.getOrAddVertices(Arrays.asList("old", "a", "b", "b"));
+		assertEquals(4, vertices.size());
+		batch.addEdge("ob", vertices.get(0), vertices.get(2), "knows");
+		batch.addEdge("ab", a, vertices.get(3), "knows");
+		batch.shutdown();
+
+		assertEquals(ids("old", "a", "b"), ids(graph.getVertices()));
+		assertEquals(ids("old", "a"), ids(graph.getVertex("b").getVertices(Direction.IN)));
+		assertEquals(ids("a"), ids(graph.getVertices("name", "alice")));
+		assertEquals(ids("old"), ids(graph.getVertices("name", "before")));
+	}
+
+	public void testFromScratch() throws Exception {
+		AccumuloBatchGraph batch = new AccumuloBatchGraph(graph);
+		batch.setLoadingFromScratch(true);
+		assertNull(batch.getVertex("a"));
+
+		Vertex a = batch.getOrAddVertex("a");
+		a.setProperty("name", "alice");
+		a.setProperty("name", "carol");
+		batch.addEdge("aa", a, batch.getVertex("a"), "self");
+
+		// Reads by other than vertex id flush first.
+		assertEquals(ids("a"), ids(batch.getVertices("name", "carol")));
+		assertTrue(ids(batch.getVertices("name", "alice")).isEmpty());
+		assertEquals("self", batch.getEdge("aa").getLabel());
+		batch.shutdown();
+	}
+
+	public void testReadsSeeUnflushedChanges() throws Exception {
+		graph.addVertex("old").setProperty("name", "before");
+
+		AccumuloBatchGraph batch = new AccumuloBatchGraph(graph);
+		Vertex old = batch.getVertex("old");
+		old.setProperty("name", "during");
+		batch.addEdge("oa", old, batch.getOrAddVertex("a"), "knows");
+
+		// Seen vertices are new objects, which flush before reading.
+		assertEquals("during", batch.getVertex("old").getProperty("name"));
+		assertEquals(ids("a"), ids(batch.getVertex("old").getVertices(Direction.OUT)));
+		assertEquals(ids("old"), ids(batch.getOrAddVertices(Arrays.asList("a")).get(0)
+				.getVertices(Direction.IN)));
+
+		// The old value removed from the index is the unflushed one.
+		batch.getOrAddVertices(Arrays.asList("old")).get(0).setProperty("name", "after");
+		batch.shutdown();
+
+		assertEquals(ids("old"), ids(graph.getVertices("name", "after")));
+		assertTrue(ids(graph.getVertices("name", "during")).isEmpty());
+		assertTrue(ids(graph.getVertices("name", "before")).isEmpty());
+	}
+
+	private static Set<String> ids(String... ids) {
+		return new HashSet<String>(Arrays.asList(ids));
+	}
+
+	private static Set<String> ids(Iterable<? extends Element> elements) {
+		Set<String> ids = new HashSet<String>();
+		for (Element e : elements) {
+			ids.add(e.getId().toString());
+		}
+		return ids;
+	}
+
+}
@@ -0,0 +1,92 @@
+package accumulograph;
+
+import com.tinkerpop.blueprints.Vertex;
+
+import junit.framework.TestCase;
+
+public class AccumuloGraphComputerTest extends TestCase {
+
+	private AccumuloGraph graph;
+
+	@Override
+	protected void setUp() throws Exception {
+		AccumuloGraphOptions opts = new AccumuloGraphOptions();
+		opts.setMock(true);
+		opts.setGraphTable("computerTest");
+		graph = new AccumuloGraph(opts);
+		graph.clear();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		graph.shutdown();
+	}
+
+	public void testConnectedComponents() throws Exception {
+		// Two chains: a1-a2-a3 and b1-b2.
+		Vertex a1 = graph.addVertex("a1");
+		Vertex a2 = graph.addVertex("a2");
+		Vertex a3 = graph.addVertex("a3");
+		Vertex b1 = graph.addVertex("b1");
+		Vertex b2 = graph.addVertex("b2");
+		graph.addEdge(null, a2, a1, "link");
+		graph.addEdge(null, a3, a2, "link");
+		graph.addEdge(null, b2, b1, "link");
+
+		int supersteps = new AccumuloGraphComputer(graph, 2).run(new MinLabel());
+		assertTrue(supersteps > 1);
+
+		assertEquals("a1", graph.getVertex("a3").getProperty("component"));
+		assertEquals("a1", graph.getVertex("a2").getProperty("component"));
+		assertEquals("b1", graph.getVertex("b2").getProperty("component"));
+	}
+
+	/**
+	 * Spreads the smallest vertex id across each component.
+	 */
+	private static class MinLabel implements VertexProgram<String, String> {
+
+		@Override
+		public String getPropertyKey() {
+			return "component";
+		}
+
+		@Override
+		public String initialValue(String vertexId, String storedValue) {
+			return vertexId;
+		}
+
+		@Override
+		public void compute(Context<String, String> context, Iterable<String> messages) {
+			String min = context.getValue();
+			for (String message : messages) {
+				if (message.compareTo(min) < 0) {
+					min = message;
+				}
+			}
+
+			if (context.getSuperstep() == 0 || !min.equals(context.getValue())) {
+				context.setValue(min);
+				for (String neighbor : context.getOutNeighbors()) {
+					context.sendMessage(neighbor, min);
+				}
+				for (String neighbor : context.getInNeighbors()) {
+					context.sendMessage(neighbor, min);
+				}
+			}
+
+			context.voteToHalt();
+		}
+
+		@Override
+		public String combine(String first, String second) {
+			return first.compareTo(second) < 0 ? first : second;
+		}
+
+		@Override
+		public int getMaxSupersteps() {
+			return 20;
+		}
+	}
+
+}
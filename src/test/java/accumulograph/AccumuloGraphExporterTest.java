@@ -0,0 +1,131 @@
+package accumulograph;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import accumulograph.AccumuloGraphExporter.Format;
+
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Element;
+import com.tinkerpop.blueprints.Vertex;
+
+import junit.framework.TestCase;
+
+public class AccumuloGraphExporterTest extends TestCase {
+
+	private AccumuloGraph graph;
+	private File dir;
+
+	@Override
+	protected void setUp() throws Exception {
+		AccumuloGraphOptions opts = new AccumuloGraphOptions();
+		opts.setMock(true);
+		opts.setGraphTable("exporterTest");
+		opts.setIndexTable("exporterTest_index");
+		graph = new AccumuloGraph(opts);
+		graph.clear();
+
+		Vertex a = graph.addVertex("a");
+		a.setProperty("name", "alice");
+		a.setProperty("tags", Arrays.asList("x", "y"));
+		Vertex b = graph.addVertex("b");
+		b.setProperty("age", 30L);
+		graph.addVertex("c");
+		graph.addEdge("ab", a, b, "knows").setProperty("weight", 0.5);
+		graph.addEdge("ac", a, graph.getVertex("c"), "knows");
+		graph.addEdge("bb", b, b, "self");
+
+		dir = File.createTempFile("export", "");
+		dir.delete();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		graph.shutdown();
+		for (File file : dir.listFiles()) {
+			file.delete();
+		}
+		dir.delete();
+	}
+
+	public void testEdgeAndAdjacencyLists() throws Exception {
+		AccumuloGraphExporter exporter = new AccumuloGraphExporter(graph, 2);
+
+		assertEquals(3, exporter.export(Format.EDGE_LIST, dir));
+		assertEquals(ids("a\tb\tknows", "a\tc\tknows", "b\tb\tself"), lines("edges-"));
+
+		assertEquals(3, exporter.export(Format.ADJACENCY_LIST, dir));
+		Set<String> adjacency = lines("adjacency-");
+		assertTrue(adjacency.contains("a\tb\tc") || adjacency.contains("a\tc\tb"));
+		assertTrue(adjacency.contains("b\tb"));
+		assertTrue(adjacency.contains("c"));
+	}
+
+	public void testGraphSON() throws Exception {
+		assertEquals(6, new AccumuloGraphExporter(graph).export(Format.GRAPHSON, dir));
+
+		// Import the files into another graph.
+		AccumuloGraphOptions opts = new AccumuloGraphOptions();
+		opts.setConnector(graph.opts.getConnector());
+		opts.setGraphTable("exporterTestCopy");
+		AccumuloGraph copy = new AccumuloGraph(opts);
+		copy.clear();
+
+		AccumuloGraphImporter importer = new AccumuloGraphImporter(copy);
+		for (String prefix : new String[]{"vertices-", "edges-"}) {
+			for (File file : dir.listFiles()) {
+				if (file.getName().startsWith(prefix)) {
+					InputStream in = new FileInputStream(file);
+					try {
+						importer.importGraphSON(in);
+					} finally {
+						in.close();
+					}
+				}
+			}
+		}
+
+		assertEquals("alice", copy.getVertex("a").getProperty("name"));
+		assertEquals(Arrays.asList("x", "y"), copy.getVertex("a").getProperty("tags"));
+		assertEquals(Long.valueOf(30), copy.getVertex("b").getProperty("age"));
+		assertEquals(Double.valueOf(0.5), copy.getEdge("ab").getProperty("weight"));
+		assertEquals(ids("b", "c"), ids(copy.getVertex("a").getVertices(Direction.OUT, "knows")));
+		copy.shutdown();
+	}
+
+	private Set<String> lines(String prefix) throws Exception {
+		Set<String> lines = new HashSet<String>();
+		for (File file : dir.listFiles()) {
+			if (file.getName().startsWith(prefix)) {
+				BufferedReader reader = new BufferedReader(new FileReader(file));
+				try {
+					for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+						lines.add(line);
+					}
+				} finally {
+					reader.close();
+				}
+			}
+		}
+		return lines;
+	}
+
+	private static Set<String> ids(String... ids) {
+		return new HashSet<String>(Arrays.asList(ids));
+	}
+
+	private static Set<String> ids(Iterable<? extends Element> elements) {
+		Set<String> ids = new HashSet<String>();
+		for (Element e : elements) {
+			ids.add(e.getId().toString());
+		}
+		return ids;
+	}
+
+}
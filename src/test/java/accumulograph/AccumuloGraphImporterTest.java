@@ -0,0 +1,123 @@
+package accumulograph;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Element;
+import com.tinkerpop.blueprints.Vertex;
+
+import junit.framework.TestCase;
+
+public class AccumuloGraphImporterTest extends TestCase {
+
+	private AccumuloGraph graph;
+
+	@Override
+	protected void setUp() throws Exception {
+		AccumuloGraphOptions opts = new AccumuloGraphOptions();
+		opts.setMock(true);
+		opts.setGraphTable("importerTest");
+		opts.setIndexTable("importerTest_index");
+		graph = new AccumuloGraph(opts);
+		graph.clear();
+		graph.createKeyIndex("name", Vertex.class);
+		graph.createKeyIndex("label", Edge.class);
+		graph.createSortedEdgeIndex("weight", false);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		graph.shutdown();
+	}
+
+	public void testGraphSON() throws Exception {
+		String json = "{\"mode\":\"EXTENDED\",\"vertices\":["
+				+ "{\"_id\":\"1\",\"_type\":\"vertex\",\"name\":{\"type\":\"string\",\"value\":\"marko\"},"
+				+ "\"age\":{\"type\":\"integer\",\"value\":29}},"
+				+ "{\"_id\":\"2\",\"_type\":\"vertex\",\"name\":{\"type\":\"string\",\"value\":\"vadas\"}},"
+				+ "{\"_id\":\"3\",\"_type\":\"vertex\",\"name\":{\"type\":\"string\",\"value\":\"lop\"}}],"
+				+ "\"edges\":["
+				+ "{\"_id\":\"7\",\"_type\":\"edge\",\"_outV\":\"1\",\"_inV\":\"2\",\"_label\":\"knows\","
+				+ "\"weight\":{\"type\":\"float\",\"value\":0.5}},"
+				+ "{\"_id\":\"9\",\"_type\":\"edge\",\"_outV\":\"1\",\"_inV\":\"3\",\"_label\":\"created\","
+				+ "\"weight\":{\"type\":\"float\",\"value\":0.4}}]}";
+
+		long count = new AccumuloGraphImporter(graph, 3).importGraphSON(stream(json));
+		assertEquals(5, count);
+
+		Vertex marko = graph.getVertex("1");
+		assertEquals(Integer.valueOf(29), marko.getProperty("age"));
+		assertEquals(ids("2", "3"), ids(marko.getVertices(Direction.OUT)));
+		assertEquals(Float.valueOf(0.5f), graph.getEdge("7").getProperty("weight"));
+		assertEquals("knows", graph.getEdge("7").getLabel());
+
+		// Indexed and sorted in the same pass.
+		assertEquals(ids("2"), ids(graph.getVertices("name", "vadas")));
+		assertEquals(ids("9"), ids(graph.getEdges("label", "created")));
+		assertEquals(Arrays.asList("9", "7"), list(((AccumuloVertexQuery) marko.query())
+				.sortedBy("weight").direction(Direction.OUT).edges()));
+	}
+
+	public void testGraphML() throws Exception {
+		String xml = "<?xml version=\"1.0\" ?>"
+				+ "<graphml xmlns=\"http://graphml.graphdrawing.org/xmlns\">"
+				+ "<key id=\"name\" for=\"node\" attr.name=\"name\" attr.type=\"string\"/>"
+				+ "<key id=\"w\" for=\"edge\" attr.name=\"weight\" attr.type=\"double\"/>"
+				+ "<graph id=\"G\" edgedefault=\"directed\">"
+				+ "<node id=\"a\"><data key=\"name\">alice</data></node>"
+				+ "<node id=\"b\"><data key=\"name\">bob</data></node>"
+				+ "<edge id=\"ab\" source=\"a\" target=\"b\" label=\"knows\"><data key=\"w\">1.5</data></edge>"
+				+ "<edge source=\"b\" target=\"b\"/>"
+				+ "</graph></graphml>";
+
+		assertEquals(4, new AccumuloGraphImporter(graph).importGraphML(stream(xml)));
+
+		assertEquals(ids("a"), ids(graph.getVertices("name", "alice")));
+		assertEquals(Double.valueOf(1.5), graph.getEdge("ab").getProperty("weight"));
+		assertEquals(ids("a", "b"), ids(graph.getVertex("b").getVertices(Direction.IN)));
+		assertEquals(1, ids(graph.getEdges("label", "_default")).size());
+	}
+
+	public void testErrors() throws Exception {
+		String json = "{\"vertices\":[{\"_id\":\"1\",\"name\":\"marko\"},{\"_id\":\"2\"}],"
+				+ "\"edges\":[{\"_id\":\"7\",\"_outV\":\"1\",\"_inV\":\"2\"}]}";
+		try {
+			new AccumuloGraphImporter(graph).importGraphSON(stream(json));
+			fail("Edge without a label");
+		} catch (IllegalArgumentException e) {
+		}
+		assertNull(graph.getVertex("7"));
+
+		// Elements parsed before the error are imported.
+		assertEquals(ids("1"), ids(graph.getVertices("name", "marko")));
+		assertNotNull(graph.getVertex("2"));
+	}
+
+	private static InputStream stream(String s) throws Exception {
+		return new ByteArrayInputStream(s.getBytes("UTF-8"));
+	}
+
+	private static List<String> list(Iterable<? extends Element> elements) {
+		List<String> ids = new ArrayList<String>();
+		for (Element e : elements) {
+			ids.add(e.getId().toString());
+		}
+		return ids;
+	}
+
+	private static Set<String> ids(String... ids) {
+		return new HashSet<String>(Arrays.asList(ids));
+	}
+
+	private static Set<String> ids(Iterable<? extends Element> elements) {
+		return new HashSet<String>(list(elements));
+	}
+
+}
@@ -0,0 +1,75 @@
+package accumulograph;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import accumulograph.Const.ElementType;
+
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Vertex;
+
+import junit.framework.TestCase;
+
+public class AccumuloGraphPartitionTest extends TestCase {
+
+	private AccumuloGraph graph;
+
+	@Override
+	protected void setUp() throws Exception {
+		AccumuloGraphOptions opts = new AccumuloGraphOptions();
+		opts.setMock(true);
+		opts.setGraphTable("partitionTest");
+		graph = new AccumuloGraph(opts);
+		graph.clear();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		graph.shutdown();
+	}
+
+	public void testPartitionsCoverGraph() throws Exception {
+		Vertex prev = null;
+		for (int i = 0; i < 100; i++) {
+			Vertex v = graph.addVertex("v" + i);
+			if (prev != null) {
+				graph.addEdge("e" + i, prev, v, "next");
+			}
+			prev = v;
+		}
+
+		List<AccumuloGraphPartition> partitions = graph.partitions(ElementType.VERTEX, 4);
+		assertEquals(4, partitions.size());
+
+		Set<Object> seen = new HashSet<Object>();
+		for (AccumuloGraphPartition partition : partitions) {
+			int count = 0;
+			for (Vertex v : partition.getVertices()) {
+				assertTrue(seen.add(v.getId()));
+				count++;
+			}
+			assertTrue(count > 0);
+		}
+		assertEquals(100, seen.size());
+
+		seen.clear();
+		for (AccumuloGraphPartition partition : graph.partitions(ElementType.EDGE, 3)) {
+			for (Edge e : partition.getEdges()) {
+				assertEquals("next", e.getLabel());
+				assertNotNull(e.getVertex(Direction.OUT));
+				assertTrue(seen.add(e.getId()));
+			}
+		}
+		assertEquals(99, seen.size());
+	}
+
+	public void testSinglePartition() throws Exception {
+		graph.addVertex("a");
+		List<AccumuloGraphPartition> partitions = graph.partitions(ElementType.VERTEX, 1);
+		assertEquals(1, partitions.size());
+		assertTrue(partitions.get(0).getVertices().iterator().hasNext());
+	}
+
+}
@@ -0,0 +1,132 @@
+package accumulograph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Vertex;
+
+import junit.framework.TestCase;
+
+public class AccumuloGraphTraversalTest extends TestCase {
+
+	private AccumuloGraph graph;
+
+	@Override
+	protected void setUp() throws Exception {
+		AccumuloGraphOptions opts = new AccumuloGraphOptions();
+		opts.setMock(true);
+		opts.setGraphTable("traversalTest");
+		graph = new AccumuloGraph(opts);
+		graph.clear();
+
+		// a -> b -> c -> d, a -> e (other label), d -> a
+		Vertex a = graph.addVertex("a");
+		Vertex b = graph.addVertex("b");
+		Vertex c = graph.addVertex("c");
+		Vertex d = graph.addVertex("d");
+		Vertex e = graph.addVertex("e");
+		graph.addEdge(null, a, b, "knows");
+		graph.addEdge(null, b, c, "knows");
+		graph.addEdge(null, c, d, "knows");
+		graph.addEdge(null, a, e, "likes");
+		graph.addEdge(null, d, a, "knows");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		graph.shutdown();
+	}
+
+	public void testTraverse() throws Exception {
+		assertEquals(ids("b", "e"), ids(graph.traverse(Arrays.asList("a"), Direction.OUT, 1)));
+		assertEquals(ids("b", "c", "e"), ids(graph.traverse(Arrays.asList("a"), Direction.OUT, 2)));
+		assertEquals(ids("b", "c"), ids(graph.traverse(Arrays.asList("a"), Direction.OUT, 2, "knows")));
+		assertEquals(ids("b", "c", "d", "e"), ids(graph.traverse(Arrays.asList("a"), Direction.OUT, 10)));
+		assertEquals(ids("d", "b", "e"), ids(graph.traverse(Arrays.asList("a"), Direction.BOTH, 1)));
+		assertEquals(ids("c"), ids(graph.traverse(Arrays.asList("d"), Direction.IN, 1)));
+		assertEquals(ids(), ids(graph.traverse(Arrays.asList("a"), Direction.OUT, 0)));
+	}
+
+	public void testGetAdjacency() throws Exception {
+		Vertex a = graph.getVertex("a");
+		Vertex c = graph.getVertex("c");
+		Vertex e = graph.getVertex("e");
+
+		Map<Vertex, List<Edge>> adjacency = graph.getAdjacency(
+				Arrays.asList(a, c, e), Direction.OUT);
+		assertEquals(Arrays.asList(a, c, e), new ArrayList<Vertex>(adjacency.keySet()));
+		assertEquals(2, adjacency.get(a).size());
+		assertEquals(1, adjacency.get(c).size());
+		assertTrue(adjacency.get(e).isEmpty());
+
+		Edge cd = adjacency.get(c).get(0);
+		assertEquals("knows", cd.getLabel());
+		assertEquals(c, cd.getVertex(Direction.OUT));
+		assertEquals(graph.getVertex("d"), cd.getVertex(Direction.IN));
+
+		adjacency = graph.getAdjacency(Arrays.asList(a), Direction.BOTH, "knows");
+		assertEquals(2, adjacency.get(a).size());
+	}
+
+	public void testSearch() throws Exception {
+		AccumuloGraphSearch search = new AccumuloGraphSearch(graph);
+
+		List<List<Vertex>> levels = search.bfs("a", Direction.OUT);
+		assertEquals(4, levels.size());
+		assertEquals(ids("a"), ids(levels.get(0)));
+		assertEquals(ids("b", "e"), ids(levels.get(1)));
+		assertEquals(ids("d"), ids(levels.get(3)));
+		assertTrue(search.bfs("missing", Direction.OUT).isEmpty());
+
+		assertEquals(Arrays.asList("a", "b", "c", "d"), path(search.shortestPath("a", "d", Direction.OUT)));
+		assertEquals(Arrays.asList("a", "d"), path(search.shortestPath("a", "d", Direction.BOTH)));
+		assertNull(search.shortestPath("e", "a", Direction.OUT));
+
+		assertEquals(Arrays.asList("a", "b", "c", "d"),
+				path(search.bidirectionalShortestPath("a", "d", Direction.OUT)));
+		assertEquals(Arrays.asList("c", "d", "a", "e"),
+				path(search.bidirectionalShortestPath("c", "e", Direction.OUT)));
+		assertNull(search.bidirectionalShortestPath("a", "e", Direction.OUT, "knows"));
+		assertNull(search.shortestPath("missing", "missing", Direction.OUT));
+		assertNull(search.bidirectionalShortestPath("a", "missing", Direction.BOTH));
+
+		AccumuloGraphSearch shallow = new AccumuloGraphSearch(graph, 2, 100);
+		assertNull(shallow.shortestPath("a", "d", Direction.OUT));
+		assertNull(shallow.bidirectionalShortestPath("a", "d", Direction.OUT));
+		assertEquals(3, shallow.bfs("a", Direction.OUT).size());
+
+		try {
+			new AccumuloGraphSearch(graph, 10, 2).bfs("a", Direction.OUT);
+			fail();
+		} catch (IllegalStateException e) {
+			// Expected.
+		}
+	}
+
+	private static List<String> path(List<Vertex> path) {
+		List<String> ids = new ArrayList<String>();
+		for (Vertex v : path) {
+			ids.add(v.getId().toString());
+		}
+		return ids;
+	}
+
+	private static Set<String> ids(String... ids) {
+		return new HashSet<String>(Arrays.asList(ids));
+	}
+
+	private static Set<String> ids(Iterable<Vertex> vertices) {
+		Set<String> ids = new HashSet<String>();
+		for (Vertex v : vertices) {
+			assertTrue(ids.add(v.getId().toString()));
+		}
+		return ids;
+	}
+
+}
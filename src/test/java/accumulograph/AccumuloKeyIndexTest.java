@@ -0,0 +1,531 @@
+package accumulograph;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.accumulo.core.Constants;
+import org.apache.accumulo.core.client.BatchWriter;
+import org.apache.accumulo.core.client.Scanner;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.hadoop.io.Text;
+
+import accumulograph.Const.ElementType;
+
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Parameter;
+import com.tinkerpop.blueprints.Vertex;
+
+import junit.framework.TestCase;
+
+public class AccumuloKeyIndexTest extends TestCase {
+
+	private AccumuloGraphOptions opts;
+	private AccumuloGraph graph;
+
+	@Override
+	protected void setUp() throws Exception {
+		opts = new AccumuloGraphOptions();
+		opts.setMock(true);
+		opts.setGraphTable("keyIndexTest");
+		opts.setIndexTable("keyIndexTest_index");
+		graph = new AccumuloGraph(opts);
+		graph.clear();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		graph.shutdown();
+	}
+
+	public void testBuildIndexOverExistingElements() throws Exception {
+		for (int i = 0; i < 50; i++) {
+			graph.addVertex("v" + i).setProperty("parity", i % 2);
+		}
+
+		final AtomicInteger reports = new AtomicInteger();
+		opts.setIndexBuildListener(new IndexBuildListener() {
+			@Override
+			public void progress(String key, ElementType type, int partitionsDone,
+					int partitionsTotal, long entriesWritten) {
+				assertEquals("parity", key);
+				assertEquals(ElementType.VERTEX, type);
+				assertTrue(partitionsDone <= partitionsTotal);
+				reports.incrementAndGet();
+			}
+		});
+
+		graph.createKeyIndex("parity", Vertex.class);
+		assertTrue(reports.get() > 0);
+		assertTrue(graph.getIndexedKeys(Vertex.class).contains("parity"));
+		assertEquals(25, ids(graph.getVertices("parity", 0)).size());
+		assertEquals(25, ids(graph.getVertices("parity", 1)).size());
+	}
+
+	public void testResumeInterruptedBuild() throws Exception {
+		for (int i = 0; i < 10; i++) {
+			graph.addVertex("v" + i).setProperty("name", "n" + i);
+		}
+
+		// Leave behind the marks of a build that never finished.
+		BatchWriter writer = opts.getConnector().createBatchWriter(opts.getIndexTable(), 1000L, 10L, 1);
+		Mutation m = new Mutation(Const.VERTEX_INDEX_BUILDS);
+		m.put(Utils.stringToText("name"), Const.EMPTY_TEXT, Const.EMPTY_VALUE);
+		writer.addMutation(m);
+		m = new Mutation(Const.VERTEX_PROPERTY_LIST);
+		m.put(Utils.stringToText("name"), Const.EMPTY_TEXT, Const.EMPTY_VALUE);
+		writer.addMutation(m);
+		// And statistics counted by it.
+		m = new Mutation(AccumuloKeyIndex.statsRow(ElementType.VERTEX, "name", 0, 1));
+		m.put(Const.INDEX_STATS_TOTAL, Const.EMPTY_TEXT, Utils.stringToValue("7"));
+		writer.addMutation(m);
+		writer.close();
+
+		graph.shutdown();
+		graph = new AccumuloGraph(opts);
+		assertFalse(graph.getIndexedKeys(Vertex.class).contains("name"));
+
+		graph.createKeyIndex("name", Vertex.class);
+		assertTrue(graph.getIndexedKeys(Vertex.class).contains("name"));
+		assertEquals(ids("v3"), ids(graph.getVertices("name", "n3")));
+
+		// The statistics are recounted from the entries.
+		assertEquals(10, graph.estimateCount("name", null, Vertex.class));
+		assertEquals(1, graph.estimateCount("name", "n3", Vertex.class));
+	}
+
+	public void testDropKeyIndex() throws Exception {
+		Vertex v = graph.addVertex("v");
+		v.setProperty("name", "x");
+		v.setProperty("other", "y");
+		graph.createKeyIndex("name", Vertex.class);
+		graph.createKeyIndex("other", Vertex.class);
+		assertEquals(ids("v"), ids(graph.getVertices("name", "x")));
+
+		graph.dropKeyIndex("name", Vertex.class);
+		assertFalse(graph.getIndexedKeys(Vertex.class).contains("name"));
+
+		Scanner s = opts.getConnector().createScanner(opts.getIndexTable(), Constants.NO_AUTHS);
+		s.setRange(new Range(AccumuloKeyIndex.indexRow(ElementType.VERTEX, "name")));
+		assertFalse(s.iterator().hasNext());
+
+		// Other keys are untouched.
+		assertEquals(ids("v"), ids(graph.getVertices("other", "y")));
+
+		graph.createKeyIndex("name", Vertex.class);
+		assertEquals(ids("v"), ids(graph.getVertices("name", "x")));
+	}
+
+	public void testShardedIndex() throws Exception {
+		for (int i = 0; i < 40; i++) {
+			graph.addVertex("v" + i).setProperty("color", i % 4 == 0 ? "red" : "blue");
+		}
+		graph.createKeyIndex("color", Vertex.class,
+				new Parameter<String, Integer>(KeyIndexDefinition.SHARDS, 8));
+		for (int i = 40; i < 50; i++) {
+			graph.addVertex("v" + i).setProperty("color", "red");
+		}
+
+		assertEquals(20, ids(graph.getVertices("color", "red")).size());
+		assertEquals(30, ids(graph.getVertices("color", "blue")).size());
+
+		// Entries are spread over several rows.
+		Scanner s = opts.getConnector().createScanner(opts.getIndexTable(), Constants.NO_AUTHS);
+		s.setRange(new Range(AccumuloKeyIndex.indexRow(ElementType.VERTEX, "color"),
+				AccumuloKeyIndex.indexRow(ElementType.VERTEX, "color", 7, 8)));
+		Set<Text> rows = new HashSet<Text>();
+		for (Map.Entry<Key, Value> entry : s) {
+			rows.add(entry.getKey().getRow());
+		}
+		assertTrue(rows.size() > 1);
+
+		// The shard count is kept across restarts.
+		graph.shutdown();
+		graph = new AccumuloGraph(opts);
+		graph.getVertex("v0").setProperty("color", "blue");
+		assertEquals(19, ids(graph.getVertices("color", "red")).size());
+		assertEquals(31, ids(graph.getVertices("color", "blue")).size());
+
+		graph.dropKeyIndex("color", Vertex.class);
+		assertFalse(s.iterator().hasNext());
+	}
+
+	public void testCompositeIndex() throws Exception {
+		for (int i = 0; i < 20; i++) {
+			Vertex v = graph.addVertex("v" + i);
+			v.setProperty("tenant", "t" + (i % 2));
+			v.setProperty("status", i % 4 < 2 ? "open" : "closed");
+		}
+		graph.addVertex("partial").setProperty("tenant", "t0");
+
+		graph.createKeyIndex("tenant_status", Vertex.class,
+				new Parameter<String, String>(KeyIndexDefinition.COMPOSITE, "tenant,status"));
+		assertFalse(graph.getIndexedKeys(Vertex.class).contains("tenant_status"));
+
+		assertEquals(ids("v0", "v4", "v8", "v12", "v16"),
+				ids(graph.query().has("tenant", "t0").has("status", "open").vertices()));
+		assertEquals(3, ids(graph.query().has("status", "open").has("tenant", "t0").limit(3).vertices()).size());
+
+		// Kept up to date by property changes.
+		graph.getVertex("v0").setProperty("status", "closed");
+		graph.getVertex("partial").setProperty("status", "open");
+		graph.getVertex("v4").removeProperty("tenant");
+		assertEquals(ids("partial", "v8", "v12", "v16"),
+				ids(graph.query().has("tenant", "t0").has("status", "open").vertices()));
+
+		// Other conditions are still applied.
+		graph.getVertex("v8").setProperty("rank", 1);
+		assertEquals(ids("v8"), ids(graph.query().has("tenant", "t0")
+				.has("status", "open").has("rank", 1).vertices()));
+
+		graph.removeVertex(graph.getVertex("v12"));
+		assertEquals(ids("partial", "v8", "v16"),
+				ids(graph.query().has("tenant", "t0").has("status", "open").vertices()));
+	}
+
+	public void testStatistics() throws Exception {
+		for (int i = 0; i < 30; i++) {
+			graph.addVertex("v" + i).setProperty("color", i < 10 ? "red" : "blue");
+		}
+		graph.createKeyIndex("color", Vertex.class,
+				new Parameter<String, Integer>(KeyIndexDefinition.SHARDS, 4));
+
+		assertEquals(30, graph.estimateCount("color", null, Vertex.class));
+		assertEquals(10, graph.estimateCount("color", "red", Vertex.class));
+		assertEquals(0, graph.estimateCount("color", "green", Vertex.class));
+		assertEquals(-1, graph.estimateCount("size", null, Vertex.class));
+		assertEquals(30, graph.keyIndex.estimateElementCount(AccumuloVertex.class));
+
+		graph.getVertex("v0").setProperty("color", "green");
+		graph.removeVertex(graph.getVertex("v1"));
+		assertEquals(8, graph.estimateCount("color", "red", Vertex.class));
+		assertEquals(1, graph.estimateCount("color", "green", Vertex.class));
+		assertEquals(29, graph.estimateCount("color", null, Vertex.class));
+		assertEquals(29, graph.keyIndex.estimateElementCount(AccumuloVertex.class));
+
+		// Same results whether the query uses the index or scans.
+		graph.createKeyIndex("odd", Vertex.class);
+		for (int i = 2; i < 30; i++) {
+			graph.getVertex("v" + i).setProperty("odd", i % 2 == 1);
+		}
+		opts.setIndexScanThreshold(0);
+		assertEquals(4, ids(graph.query().has("color", "red").has("odd", true).vertices()).size());
+		opts.setIndexScanThreshold(1);
+		assertEquals(4, ids(graph.query().has("color", "red").has("odd", true).vertices()).size());
+	}
+
+	public void testStringIndex() throws Exception {
+		graph.addVertex("a").setProperty("name", "acme");
+		graph.addVertex("b").setProperty("name", "acme corp");
+		graph.addVertex("c").setProperty("name", "acne");
+		graph.addVertex("d").setProperty("name", 17);
+
+		graph.createKeyIndex("name", Vertex.class,
+				new Parameter<String, String>(KeyIndexDefinition.MODE, "string"),
+				new Parameter<String, Integer>(KeyIndexDefinition.SHARDS, 3));
+
+		assertEquals(ids("a", "b"), ids(graph.getVerticesByPrefix("name", "acme")));
+		assertEquals(ids("a", "b", "c"), ids(graph.getVerticesByPrefix("name", "ac")));
+		assertEquals(ids(), ids(graph.getVerticesByPrefix("name", "b")));
+		assertEquals(ids("a"), ids(graph.getVertices("name", "acme")));
+		assertEquals(ids("d"), ids(graph.getVertices("name", 17)));
+
+		graph.getVertex("c").setProperty("name", "acmes");
+		assertEquals(ids("a", "b", "c"), ids(graph.getVerticesByPrefix("name", "acme")));
+
+		try {
+			graph.getVerticesByPrefix("other", "x");
+			fail();
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+	}
+
+	public void testTokenIndex() throws Exception {
+		graph.createKeyIndex("text", Vertex.class,
+				new Parameter<String, String>(KeyIndexDefinition.MODE, "token"));
+		graph.addVertex("a").setProperty("text", "The quick brown fox");
+		graph.addVertex("b").setProperty("text", "Quick, quicker, quickest!");
+		graph.addVertex("c").setProperty("text", "a brown dog");
+
+		assertEquals(ids("a", "b"), ids(graph.getVertices("text", "quick")));
+		assertEquals(ids("a"), ids(graph.getVertices("text", "brown QUICK")));
+		assertEquals(ids(), ids(graph.getVertices("text", "...")));
+		assertEquals(ids("a", "b"), ids(graph.getVerticesByPrefix("text", "Qui")));
+		assertEquals(2, graph.estimateCount("text", "brown", Vertex.class));
+
+		// Exact matches only, when queried.
+		assertEquals(ids("c"), ids(graph.query().has("text", "a brown dog").vertices()));
+
+		graph.getVertex("a").removeProperty("text");
+		assertEquals(ids("b"), ids(graph.getVertices("text", "quick")));
+	}
+
+	public void testLabelIndex() throws Exception {
+		Vertex a = graph.addVertex("a");
+		Vertex b = graph.addVertex("b");
+		graph.addEdge("e1", a, b, "knows");
+		graph.addEdge("e2", b, a, "knows");
+		graph.addEdge("e3", a, a, "likes");
+
+		// Without the index, labels are scanned.
+		assertEquals(ids("e1", "e2"), edgeIds(graph.getEdgesByLabel("knows")));
+
+		graph.createKeyIndex(Const.LABEL_KEY, Edge.class);
+		assertTrue(graph.getIndexedKeys(Edge.class).contains(Const.LABEL_KEY));
+		assertEquals(ids("e1", "e2"), edgeIds(graph.getEdgesByLabel("knows")));
+
+		graph.addEdge("e4", b, b, "likes");
+		graph.removeEdge(graph.getEdge("e1"));
+		assertEquals(ids("e2"), edgeIds(graph.getEdgesByLabel("knows")));
+		assertEquals(ids("e3", "e4"), edgeIds(graph.getEdgesByLabel("likes")));
+		assertEquals(ids("e3", "e4"), edgeIds(graph.query().has("label", "likes").edges()));
+		assertEquals(2, graph.estimateCount(Const.LABEL_KEY, "likes", Edge.class));
+
+		Edge e = graph.getEdgesByLabel("knows").iterator().next();
+		assertEquals(b, e.getVertex(Direction.OUT));
+		assertEquals(a, e.getVertex(Direction.IN));
+	}
+
+	public void testCoveringIndex() throws Exception {
+		Vertex a = graph.addVertex("a");
+		a.setProperty("email", "a@x.org");
+		a.setProperty("name", "Ann");
+		a.setProperty("age", 30);
+
+		// Built over existing elements.
+		graph.createKeyIndex("email", Vertex.class,
+				new Parameter<String, String>(KeyIndexDefinition.COVERED, "name,age,city"));
+
+		AccumuloVertex found = (AccumuloVertex) graph.getVertices("email", "a@x.org").iterator().next();
+		assertEquals("Ann", found.preloaded.get("name"));
+		assertEquals(30, found.preloaded.get("age"));
+		assertTrue(found.preloaded.containsKey("city"));
+		assertNull(found.<Object>getProperty("city"));
+
+		// Changes to covered keys rewrite the entry.
+		graph.getVertex("a").setProperty("name", "Anne");
+		graph.getVertex("a").removeProperty("age");
+		found = (AccumuloVertex) graph.getVertices("email", "a@x.org").iterator().next();
+		assertEquals("Anne", found.getProperty("name"));
+		assertNull(found.preloaded.get("age"));
+
+		// So do changes to the indexed key.
+		graph.getVertex("a").setProperty("email", "ann@x.org");
+		assertFalse(graph.getVertices("email", "a@x.org").iterator().hasNext());
+		found = (AccumuloVertex) graph.getVertices("email", "ann@x.org").iterator().next();
+		assertEquals("Anne", found.preloaded.get("name"));
+
+		// Edges found through a covering index are preloaded too.
+		graph.createKeyIndex(Const.LABEL_KEY, Edge.class,
+				new Parameter<String, String>(KeyIndexDefinition.COVERED, "since"));
+		Edge e = graph.addEdge("e", a, graph.addVertex("b"), "knows");
+		e.setProperty("since", 2001);
+		AccumuloEdge foundEdge = (AccumuloEdge) graph.getEdgesByLabel("knows").iterator().next();
+		assertEquals(2001, foundEdge.preloaded.get("since"));
+		assertEquals("b", foundEdge.getVertex(Direction.IN).getId().toString());
+	}
+
+	public void testLookupCache() throws Exception {
+		IndexLookupCache cache = new IndexLookupCache(100, 60000);
+		opts.setIndexLookupCache(cache);
+		graph.shutdown();
+		graph = new AccumuloGraph(opts);
+		assertSame(cache, graph.getIndexLookupCache());
+
+		graph.createKeyIndex("color", Vertex.class);
+		graph.addVertex("a").setProperty("color", "red");
+		graph.addVertex("b").setProperty("color", "green");
+
+		assertEquals(ids("a"), ids(graph.getVertices("color", "red")));
+		assertEquals(ids("a"), ids(graph.getVertices("color", "red")));
+		assertEquals(ids("b"), ids(graph.getVertices("color", "green")));
+		assertEquals(1, cache.getHits());
+		assertEquals(2, cache.getMisses());
+
+		// Only the changed values are invalidated.
+		graph.getVertex("a").setProperty("color", "blue");
+		assertEquals(ids(), ids(graph.getVertices("color", "red")));
+		assertEquals(ids("b"), ids(graph.getVertices("color", "green")));
+		assertEquals(2, cache.getHits());
+		assertEquals(1, cache.getInvalidations());
+
+		// Graphs sharing the cache see each other's writes.
+		AccumuloGraph other = new AccumuloGraph(opts);
+		assertEquals(ids("b"), ids(other.getVertices("color", "green")));
+		other.addVertex("c").setProperty("color", "green");
+		assertEquals(ids("b", "c"), ids(graph.getVertices("color", "green")));
+		other.shutdown();
+
+		// Without autoflush, lookups cached before the index
+		// writer is flushed are invalidated again then.
+		opts.setAutoflush(false);
+		AccumuloGraph unflushed = new AccumuloGraph(opts);
+		unflushed.addVertex("d").setProperty("color", "white");
+		unflushed.getVertices("color", "white").iterator();
+		unflushed.commit();
+		assertEquals(ids("d"), ids(unflushed.getVertices("color", "white")));
+		unflushed.shutdown();
+		opts.setAutoflush(true);
+
+		// Lookups expire.
+		opts.setIndexLookupCache(null);
+		opts.setIndexCacheSize(10);
+		opts.setIndexCacheTtl(1);
+		graph.shutdown();
+		graph = new AccumuloGraph(opts);
+		assertNotSame(cache, graph.getIndexLookupCache());
+		graph.getVertices("color", "blue").iterator();
+		Thread.sleep(10);
+		assertEquals(ids("a"), ids(graph.getVertices("color", "blue")));
+		assertEquals(1, graph.getIndexLookupCache().getExpirations());
+		assertEquals(0, graph.getIndexLookupCache().getHits());
+	}
+
+	public void testLazyIndexCleanup() throws Exception {
+		opts.setLazyIndexCleanup(true);
+		opts.setReturnRemovedPropertyValues(false);
+		graph.shutdown();
+		graph = new AccumuloGraph(opts);
+
+		graph.createKeyIndex("color", Vertex.class);
+		graph.addVertex("a").setProperty("color", "red");
+		graph.addVertex("b").setProperty("color", "red");
+		Thread.sleep(2);
+		graph.getVertex("a").setProperty("color", "blue");
+		graph.getVertex("b").removeProperty("color");
+
+		// The old entries are left, but lookups skip them, and
+		// remove those whose element has a newer value.  The entry
+		// of b, which has no value, is kept until it is old enough.
+		assertEquals(3, countEntries("color"));
+		assertEquals(ids(), ids(graph.getVertices("color", "red")));
+		assertEquals(ids("a"), ids(graph.getVertices("color", "blue")));
+		assertEquals(2, countEntries("color"));
+
+		Thread.sleep(2);
+		graph.getVertex("a").setProperty("color", "green");
+		graph.addVertex("c").setProperty("color", "green");
+		assertEquals(1, graph.removeStaleIndexEntries("color", Vertex.class));
+		assertEquals(ids("a", "c"), ids(graph.getVertices("color", "green")));
+		assertEquals(3, graph.estimateCount("color", null, Vertex.class));
+
+		// An entry stored before its element's value is not stale.
+		Vertex d = graph.addVertex("d");
+		d.setProperty("color", "blue");
+		Thread.sleep(2);
+		BatchWriter writer = opts.getConnector().createBatchWriter(opts.getIndexTable(), 1000L, 10L, 1);
+		Mutation m = new Mutation(AccumuloKeyIndex.indexRow(ElementType.VERTEX, "color"));
+		m.put(Utils.objectToText("yellow"), AccumuloIdManager.toText((AccumuloVertex) d), Const.EMPTY_VALUE);
+		writer.addMutation(m);
+		writer.close();
+
+		assertEquals(ids(), ids(graph.getVertices("color", "yellow")));
+		assertEquals(0, graph.removeStaleIndexEntries("color", Vertex.class));
+		d.setProperty("color", "yellow");
+		assertEquals(ids("d"), ids(graph.getVertices("color", "yellow")));
+	}
+
+	public void testAsyncIndexing() throws Exception {
+		opts.setAsyncIndexing(true);
+		opts.setAsyncIndexQueueSize(10);
+		graph.shutdown();
+		graph = new AccumuloGraph(opts);
+
+		graph.createKeyIndex("color", Vertex.class);
+		for (int i = 0; i < 100; i++) {
+			graph.addVertex("v" + i).setProperty("color", i % 2 == 0 ? "red" : "blue");
+		}
+		graph.getVertex("v0").setProperty("color", "green");
+		// Removing and adding the same entry stay in order.
+		graph.getVertex("v0").setProperty("color", "red");
+		graph.getVertex("v0").setProperty("color", "green");
+
+		assertTrue(graph.awaitIndexed(10, TimeUnit.SECONDS));
+		assertEquals(0, graph.getIndexLag());
+		assertEquals(0, graph.getIndexLagMillis());
+		assertEquals(49, ids(graph.getVertices("color", "red")).size());
+		assertEquals(ids("v0"), ids(graph.getVertices("color", "green")));
+		assertEquals(100, graph.estimateCount("color", null, Vertex.class));
+	}
+
+	private int countEntries(String key) throws Exception {
+		Scanner s = opts.getConnector().createScanner(opts.getIndexTable(), Constants.NO_AUTHS);
+		s.setRange(new Range(AccumuloKeyIndex.indexRow(ElementType.VERTEX, key)));
+		int count = 0;
+		for (Iterator<?> i = s.iterator(); i.hasNext(); i.next()) {
+			count++;
+		}
+		return count;
+	}
+
+	private static Set<String> edgeIds(Iterable<Edge> edges) {
+		Set<String> ids = new HashSet<String>();
+		for (Edge e : edges) {
+			ids.add(e.getId().toString());
+		}
+		return ids;
+	}
+
+	public void testUpgradeLegacyLayout() throws Exception {
+		Vertex a = graph.addVertex("a");
+		Vertex b = graph.addVertex("b");
+		a.setProperty("name", "x");
+		graph.addEdge("e", a, b, "knows").setProperty("name", "x");
+
+		// Write index entries the way older versions did, with
+		// vertices and edges sharing a row, and no layout marker.
+		graph.shutdown();
+		Utils.recreateTable(opts.getConnector(), opts.getIndexTable());
+
+		BatchWriter writer = opts.getConnector().createBatchWriter(opts.getIndexTable(), 1000L, 10L, 1);
+		Mutation m = new Mutation(Const.VERTEX_PROPERTY_LIST);
+		m.put(Utils.stringToText("name"), Const.EMPTY_TEXT, Const.EMPTY_VALUE);
+		writer.addMutation(m);
+		m = new Mutation(Const.EDGE_PROPERTY_LIST);
+		m.put(Utils.stringToText("name"), Const.EMPTY_TEXT, Const.EMPTY_VALUE);
+		writer.addMutation(m);
+		m = new Mutation(Utils.stringToText("name"));
+		m.put(Utils.objectToText("x"), new Text(Const.VERTEX_ID_PREFIX + "a"), Const.EMPTY_VALUE);
+		m.put(Utils.objectToText("x"), new Text(Const.EDGE_ID_PREFIX + "e"), Const.EMPTY_VALUE);
+		writer.addMutation(m);
+		writer.close();
+
+		graph = new AccumuloGraph(opts);
+		assertEquals(ids("a"), ids(graph.getVertices("name", "x")));
+
+		assertEquals(ids("e"), edgeIds(graph.getEdges("name", "x")));
+
+		// Statistics are counted for keys indexed without them.
+		assertEquals(1, graph.estimateCount("name", "x", Vertex.class));
+		assertEquals(1, graph.estimateCount("name", null, Edge.class));
+
+		Scanner s = opts.getConnector().createScanner(opts.getIndexTable(), Constants.NO_AUTHS);
+		s.setRange(new Range(Utils.stringToText("name")));
+		assertFalse(s.iterator().hasNext());
+	}
+
+	private static Set<String> ids(String... ids) {
+		Set<String> set = new HashSet<String>();
+		for (String id : ids) {
+			set.add(id);
+		}
+		return set;
+	}
+
+	private static Set<String> ids(Iterable<Vertex> vertices) {
+		Set<String> ids = new HashSet<String>();
+		for (Vertex v : vertices) {
+			ids.add(v.getId().toString());
+		}
+		return ids;
+	}
+
+}
@@ -0,0 +1,110 @@
+package accumulograph;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Element;
+import com.tinkerpop.blueprints.Vertex;
+
+import junit.framework.TestCase;
+
+public class AsyncAccumuloGraphTest extends TestCase {
+
+	private AccumuloGraph graph;
+	private AsyncAccumuloGraph async;
+
+	@Override
+	protected void setUp() throws Exception {
+		AccumuloGraphOptions opts = new AccumuloGraphOptions();
+		opts.setMock(true);
+		opts.setGraphTable("asyncGraphTest");
+		opts.setIndexTable("asyncGraphTest_index");
+		graph = new AccumuloGraph(opts);
+		graph.clear();
+
+		graph.createKeyIndex("color", Vertex.class);
+		Vertex hub = graph.addVertex("hub");
+		for (int i = 0; i < 10; i++) {
+			Vertex v = graph.addVertex("v" + i);
+			v.setProperty("color", i % 2 == 0 ? "red" : "blue");
+			v.setProperty("n", i);
+			graph.addEdge("e" + i, hub, v, i < 5 ? "low" : "high");
+		}
+
+		async = new AsyncAccumuloGraph(graph, 2);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		async.shutdown();
+		graph.shutdown();
+	}
+
+	public void testReads() throws Exception {
+		// Many requests at once, read in a few batches.
+		List<Future<Vertex>> vertices = new ArrayList<Future<Vertex>>();
+		List<Future<Integer>> properties = new ArrayList<Future<Integer>>();
+		for (int i = 0; i < 10; i++) {
+			vertices.add(async.getVertex("v" + i));
+			properties.add(async.<Integer>getProperty(graph.getVertex("v" + i), "n"));
+		}
+		Future<Vertex> missing = async.getVertex("nope");
+		Future<Edge> edge = async.getEdge("e3");
+		Future<List<Vertex>> red = async.getVertices("color", "red");
+		Future<List<Vertex>> green = async.getVertices("color", "green");
+		Future<List<Edge>> high = async.getEdges(graph.getVertex("hub"), Direction.OUT, "high");
+		Future<List<Vertex>> in = async.getVertices(graph.getVertex("v7"), Direction.IN);
+
+		for (int i = 0; i < 10; i++) {
+			assertEquals("v" + i, vertices.get(i).get().getId().toString());
+			assertEquals(Integer.valueOf(i), properties.get(i).get());
+		}
+		assertNull(missing.get());
+		assertEquals("low", edge.get().getLabel());
+		assertEquals("v3", edge.get().getVertex(Direction.IN).getId().toString());
+		assertEquals(ids("v0", "v2", "v4", "v6", "v8"), ids(red.get()));
+		assertTrue(green.get().isEmpty());
+		assertEquals(ids("e5", "e6", "e7", "e8", "e9"), ids(high.get()));
+		assertEquals(ids("hub"), ids(in.get()));
+	}
+
+	public void testFailures() throws Exception {
+		try {
+			async.getVertices("n", 1);
+			fail("Key is not indexed");
+		} catch (IllegalArgumentException e) {
+		}
+
+		async.shutdown();
+		try {
+			async.getVertex("v1").get();
+			fail("Shut down");
+		} catch (IllegalStateException e) {
+		} catch (ExecutionException e) {
+			fail("Should not be submitted");
+		}
+	}
+
+	private static Set<String> ids(String... ids) {
+		Set<String> set = new HashSet<String>();
+		for (String id : ids) {
+			set.add(id);
+		}
+		return set;
+	}
+
+	private static Set<String> ids(List<? extends Element> elements) {
+		Set<String> ids = new HashSet<String>();
+		for (Element e : elements) {
+			ids.add(e.getId().toString());
+		}
+		return ids;
+	}
+
+}
@@ -0,0 +1,133 @@
+package accumulograph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Element;
+import com.tinkerpop.blueprints.Vertex;
+
+import junit.framework.TestCase;
+
+public class PrefetchingIteratorTest extends TestCase {
+
+	private AccumuloGraph graph;
+
+	@Override
+	protected void setUp() throws Exception {
+		AccumuloGraphOptions opts = new AccumuloGraphOptions();
+		opts.setMock(true);
+		opts.setGraphTable("prefetchTest");
+		opts.setIndexTable("prefetchTest_index");
+		opts.setPrefetchDepth(3);
+		opts.setPrefetchThreads(2);
+		graph = new AccumuloGraph(opts);
+		graph.clear();
+
+		Vertex hub = graph.addVertex("hub");
+		for (int i = 0; i < 20; i++) {
+			Vertex v = graph.addVertex("v" + i);
+			graph.addEdge("e" + i, hub, v, i % 2 == 0 ? "even" : "odd");
+		}
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		graph.shutdown();
+	}
+
+	public void testRanges() throws Exception {
+		assertEquals(21, ids(graph.getVertices()).size());
+		assertEquals(ids("v10", "v11", "v12"), ids(graph.getVerticesInRange("v10", "v12")));
+		assertEquals(20, ids(graph.getEdges()).size());
+
+		// Edges read from their rows have labels and endpoints.
+		List<Edge> edges = list(graph.getEdgesInRange("e3", "e5"));
+		assertEquals(ids("e3", "e4", "e5"), ids(edges));
+		for (Edge e : edges) {
+			String n = e.getId().toString().substring(1);
+			assertEquals(Integer.parseInt(n) % 2 == 0 ? "even" : "odd", e.getLabel());
+			assertEquals("hub", e.getVertex(Direction.OUT).getId().toString());
+			assertEquals("v" + n, e.getVertex(Direction.IN).getId().toString());
+		}
+
+		assertEquals("v7", graph.getVertex("v7").getId().toString());
+		assertEquals("e7", graph.getEdge("e7").getId().toString());
+	}
+
+	public void testVertexEdges() throws Exception {
+		Vertex hub = graph.getVertex("hub");
+		assertEquals(20, ids(hub.getEdges(Direction.OUT)).size());
+		assertEquals(10, ids(hub.getEdges(Direction.BOTH, "odd")).size());
+		assertTrue(ids(hub.getEdges(Direction.IN)).isEmpty());
+
+		// Abandoned part way, then read again.
+		Iterator<Edge> i = hub.getEdges(Direction.OUT).iterator();
+		i.next();
+		assertEquals(20, ids(hub.getEdges(Direction.OUT)).size());
+
+		Iterator<Edge> r = graph.getVertex("v4").getEdges(Direction.IN).iterator();
+		r.next();
+		r.remove();
+		assertNull(graph.getEdge("e4"));
+		assertEquals(19, ids(hub.getEdges(Direction.OUT)).size());
+	}
+
+	public void testFailure() throws Exception {
+		final Iterator<Integer> numbers = Arrays.asList(1, 2).iterator();
+		Iterator<Integer> failing = new Iterator<Integer>() {
+			@Override
+			public boolean hasNext() {
+				return true;
+			}
+
+			@Override
+			public Integer next() {
+				if (!numbers.hasNext()) {
+					throw new IllegalStateException("Failed");
+				}
+				return numbers.next();
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+
+		Iterator<Integer> i = graph.prefetch(failing);
+		assertEquals(Integer.valueOf(1), i.next());
+		assertEquals(Integer.valueOf(2), i.next());
+		try {
+			i.hasNext();
+			fail("Source failed");
+		} catch (IllegalStateException e) {
+		}
+	}
+
+	private static <T> List<T> list(Iterable<T> iterable) {
+		List<T> list = new ArrayList<T>();
+		for (T t : iterable) {
+			list.add(t);
+		}
+		return list;
+	}
+
+	private static Set<String> ids(String... ids) {
+		return new HashSet<String>(Arrays.asList(ids));
+	}
+
+	private static Set<String> ids(Iterable<? extends Element> elements) {
+		Set<String> ids = new HashSet<String>();
+		for (Element e : elements) {
+			ids.add(e.getId().toString());
+		}
+		return ids;
+	}
+
+}
@@ -0,0 +1,96 @@
+package accumulograph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.tinkerpop.blueprints.Compare;
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Vertex;
+
+import junit.framework.TestCase;
+
+public class SortedEdgeIndexTest extends TestCase {
+
+	private AccumuloGraph graph;
+	private Vertex account;
+
+	@Override
+	protected void setUp() throws Exception {
+		AccumuloGraphOptions opts = new AccumuloGraphOptions();
+		opts.setMock(true);
+		opts.setGraphTable("sortedEdgeTest");
+		graph = new AccumuloGraph(opts);
+		graph.clear();
+
+		account = graph.addVertex("acct");
+		for (int i = 0; i < 10; i++) {
+			Vertex other = graph.addVertex("m" + i);
+			Edge e = graph.addEdge("t" + i, account, other, i % 2 == 0 ? "paid" : "refunded");
+			e.setProperty("ts", 100L + i);
+		}
+		graph.addEdge("n", account, graph.addVertex("x"), "paid");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		graph.shutdown();
+	}
+
+	public void testDescendingWithLimit() throws Exception {
+		graph.createSortedEdgeIndex("ts", true);
+		assertTrue(graph.getSortedEdgeKeys().contains("ts"));
+
+		AccumuloVertexQuery q = (AccumuloVertexQuery) account.query();
+		assertEquals(Arrays.asList("t9", "t8", "t7"),
+				ids(q.sortedBy("ts").direction(Direction.OUT).limit(3).edges()));
+
+		assertEquals(Arrays.asList("t8", "t6"), ids(account.query().direction(Direction.OUT)
+				.labels("paid").interval("ts", 105L, 109L).edges()));
+
+		Edge e = account.query().has("ts", 104L).edges().iterator().next();
+		assertEquals("paid", e.getLabel());
+		assertEquals(graph.getVertex("m4"), e.getVertex(Direction.IN));
+		assertEquals(account, e.getVertex(Direction.OUT));
+	}
+
+	public void testAscendingAndUpdates() throws Exception {
+		graph.createSortedEdgeIndex("ts", false);
+
+		assertEquals(Arrays.asList("t2", "t3"), ids(account.query()
+				.interval("ts", 102L, 104L).edges()));
+		assertEquals(3, account.query().has("ts", Compare.GREATER_THAN, 106L).count());
+
+		// Changes made after the index is created.  Ties are in
+		// order of edge id.
+		graph.getEdge("t3").setProperty("ts", 50L);
+		graph.getEdge("n").setProperty("ts", 101L);
+		graph.getEdge("t2").removeProperty("ts");
+		graph.removeEdge(graph.getEdge("t4"));
+
+		AccumuloVertexQuery q = (AccumuloVertexQuery) account.query();
+		assertEquals(Arrays.asList("t3", "t0", "n", "t1", "t5"),
+				ids(q.sortedBy("ts").limit(5).edges()));
+
+		// The other endpoint sees its in-edge.
+		List<Object> vertices = new ArrayList<Object>();
+		for (Vertex v : graph.getVertex("m3").query().has("ts", 50L).vertices()) {
+			vertices.add(v.getId().toString());
+		}
+		assertEquals(Arrays.asList("acct"), vertices);
+
+		graph.dropSortedEdgeIndex("ts");
+		assertFalse(graph.getSortedEdgeKeys().contains("ts"));
+		assertEquals(1, account.query().has("ts", 50L).count());
+	}
+
+	private static List<String> ids(Iterable<Edge> edges) {
+		List<String> ids = new ArrayList<String>();
+		for (Edge e : edges) {
+			ids.add(e.getId().toString());
+		}
+		return ids;
+	}
+
+}
@@ -0,0 +1,137 @@
+package accumulograph;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Element;
+import com.tinkerpop.blueprints.Vertex;
+
+import junit.framework.TestCase;
+
+public class TransactionTest extends TestCase {
+
+	private AccumuloGraph graph;
+
+	@Override
+	protected void setUp() throws Exception {
+		AccumuloGraphOptions opts = new AccumuloGraphOptions();
+		opts.setMock(true);
+		opts.setGraphTable("transactionTest");
+		opts.setIndexTable("transactionTest_index");
+		opts.setTransactional(true);
+		graph = new AccumuloGraph(opts);
+		graph.clear();
+		graph.createKeyIndex("name", Vertex.class);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		graph.shutdown();
+	}
+
+	public void testCommit() throws Exception {
+		assertTrue(graph.getFeatures().supportsTransactions);
+
+		Vertex a = graph.addVertex("a");
+		a.setProperty("name", "alice");
+		Vertex b = graph.addVertex("b");
+		graph.addEdge("ab", a, b, "knows").setProperty("since", 2010);
+
+		// Visible to this thread only.
+		assertEquals("alice", graph.getVertex("a").getProperty("name"));
+		assertEquals(ids("name"), graph.getVertex("a").getPropertyKeys());
+		assertEquals(ids("ab"), ids(a.getEdges(Direction.OUT)));
+		assertEquals(ids("b"), ids(a.getVertices(Direction.BOTH, "knows")));
+		assertEquals("knows", graph.getEdge("ab").getLabel());
+		assertEquals(Integer.valueOf(2010), graph.getEdge("ab").getProperty("since"));
+		assertEquals(2, ids(graph.getVertices()).size());
+		assertEquals(ids("a"), ids(graph.getVertices("name", "alice")));
+		assertFalse(seenByOtherThread("a"));
+
+		graph.commit();
+		assertTrue(seenByOtherThread("a"));
+		assertEquals(ids("a"), ids(graph.getVertices("name", "alice")));
+		assertEquals(ids("ab"), ids(graph.getVertex("b").getEdges(Direction.IN)));
+	}
+
+	public void testRollback() throws Exception {
+		graph.addVertex("a").setProperty("name", "alice");
+		graph.commit();
+
+		graph.getVertex("a").setProperty("name", "bob");
+		graph.addVertex("b");
+		assertEquals("bob", graph.getVertex("a").getProperty("name"));
+		assertEquals(ids("a"), ids(graph.getVertices("name", "bob")));
+		assertTrue(ids(graph.getVertices("name", "alice")).isEmpty());
+
+		graph.rollback();
+		assertEquals("alice", graph.getVertex("a").getProperty("name"));
+		assertNull(graph.getVertex("b"));
+		assertEquals(ids("a"), ids(graph.getVertices("name", "alice")));
+		assertTrue(ids(graph.getVertices("name", "bob")).isEmpty());
+	}
+
+	public void testCoalescedChanges() throws Exception {
+		Vertex a = graph.addVertex("a");
+		a.setProperty("name", "alice");
+		graph.addEdge("aa", a, a, "self");
+		graph.commit();
+
+		// Changes to the same columns and rows in one transaction.
+		a = graph.getVertex("a");
+		a.removeProperty("name");
+		a.setProperty("name", "carol");
+		graph.removeVertex(a);
+		assertNull(graph.getVertex("a"));
+		a = graph.addVertex("a");
+		a.setProperty("age", 30);
+		assertEquals(ids("age"), a.getPropertyKeys());
+		graph.commit();
+
+		a = graph.getVertex("a");
+		assertNotNull(a);
+		assertEquals(ids("age"), a.getPropertyKeys());
+		assertEquals(Integer.valueOf(30), a.getProperty("age"));
+		assertNull(graph.getEdge("aa"));
+		assertTrue(ids(a.getEdges(Direction.BOTH)).isEmpty());
+		assertTrue(ids(graph.getVertices("name", "alice")).isEmpty());
+		assertTrue(ids(graph.getVertices("name", "carol")).isEmpty());
+
+		// Later writes are not hidden by the rewritten columns.
+		a.setProperty("age", 31);
+		graph.commit();
+		assertEquals(Integer.valueOf(31), graph.getVertex("a").getProperty("age"));
+	}
+
+	private boolean seenByOtherThread(final String id) throws InterruptedException {
+		final boolean[] seen = new boolean[1];
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				seen[0] = graph.getVertex(id) != null;
+			}
+		});
+		thread.start();
+		thread.join();
+		return seen[0];
+	}
+
+	private static Set<String> ids(String... ids) {
+		Set<String> set = new HashSet<String>();
+		for (String id : ids) {
+			set.add(id);
+		}
+		return set;
+	}
+
+	private static Set<String> ids(Iterable<? extends Element> elements) {
+		Set<String> ids = new HashSet<String>();
+		for (Element e : elements) {
+			ids.add(e.getId().toString());
+		}
+		return ids;
+	}
+
+}
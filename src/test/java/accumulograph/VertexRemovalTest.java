@@ -0,0 +1,90 @@
+package accumulograph;
+
+import java.util.concurrent.TimeUnit;
+
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Vertex;
+
+import junit.framework.TestCase;
+
+public class VertexRemovalTest extends TestCase {
+
+	private AccumuloGraph graph;
+
+	@Override
+	protected void setUp() throws Exception {
+		AccumuloGraphOptions opts = new AccumuloGraphOptions();
+		opts.setMock(true);
+		opts.setGraphTable("vertexRemovalTest");
+		opts.setIndexTable("vertexRemovalTest_index");
+		graph = new AccumuloGraph(opts);
+		graph.clear();
+
+		graph.createKeyIndex("weight", Edge.class);
+		graph.createSortedEdgeIndex("weight", false);
+
+		Vertex hub = graph.addVertex("hub");
+		for (int i = 0; i < 20; i++) {
+			Vertex other = graph.addVertex("v" + i);
+			Edge e = i % 2 == 0 ? graph.addEdge("e" + i, hub, other, "to")
+					: graph.addEdge("e" + i, other, hub, "from");
+			e.setProperty("weight", i);
+		}
+		graph.addEdge("loop", hub, hub, "self").setProperty("weight", 100);
+		graph.addEdge("keep", graph.getVertex("v0"), graph.getVertex("v1"), "to").setProperty("weight", 0);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		graph.shutdown();
+	}
+
+	public void testRemoveVertex() throws Exception {
+		graph.removeVertex(graph.getVertex("hub"));
+		assertRemoved();
+	}
+
+	public void testRemoveVertexInBackground() throws Exception {
+		VertexRemoval removal = graph.removeVertexInBackground(graph.getVertex("hub"));
+		assertTrue(removal.await(10, TimeUnit.SECONDS));
+		assertTrue(removal.isDone());
+		assertEquals(21, removal.getRemovedEdges());
+		assertRemoved();
+	}
+
+	public void testShutdownWaitsForRemovals() throws Exception {
+		AccumuloGraphOptions opts = graph.opts;
+		Vertex v0 = graph.getVertex("v0");
+		VertexRemoval removal = graph.removeVertexInBackground(graph.getVertex("hub"));
+		graph.shutdown();
+		assertTrue(removal.isDone());
+
+		try {
+			graph.removeVertexInBackground(v0);
+			fail("Shut down");
+		} catch (IllegalStateException e) {
+		}
+
+		graph = new AccumuloGraph(opts);
+		assertRemoved();
+	}
+
+	private void assertRemoved() {
+		assertNull(graph.getVertex("hub"));
+		assertNull(graph.getEdge("e3"));
+		assertNull(graph.getEdge("loop"));
+
+		// Other endpoints lose their adjacency, including sorted columns.
+		Vertex v0 = graph.getVertex("v0");
+		assertEquals(1, v0.query().count());
+		assertEquals(0, graph.getVertex("v3").query().count());
+		assertEquals(0, graph.getVertex("v3").query().has("weight", 3).count());
+		assertEquals("keep", v0.getEdges(Direction.OUT).iterator().next().getId().toString());
+
+		// So does the key index.
+		assertFalse(graph.getEdges("weight", 3).iterator().hasNext());
+		assertEquals(1, graph.estimateCount("weight", null, Edge.class));
+	}
+
+}